@@ -0,0 +1,26 @@
+package at.zweng.bankomatinfos.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler enabled, so that allocation rates
+ * (gc.alloc.rate.norm = bytes per operation) are reported next to throughput.
+ * Accepts the usual JMH command line options (e.g. a benchmark regex or
+ * <code>-rf json</code>).
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException,
+			CommandLineOptionException {
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class).build()).run();
+	}
+}
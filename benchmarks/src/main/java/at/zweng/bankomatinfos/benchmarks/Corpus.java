@@ -0,0 +1,117 @@
+package at.zweng.bankomatinfos.benchmarks;
+
+import static at.zweng.bankomatinfos.util.Utils.fromHexString;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recorded card responses used as input for the benchmarks (loaded from
+ * corpus.txt, format: <code>name = HEX</code>, PAN and keys are not real).
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public final class Corpus {
+
+	private static final String RESOURCE = "corpus.txt";
+
+	private static Map<String, String> _entries;
+
+	private Corpus() {
+	}
+
+	/**
+	 * @param name
+	 * @return the response with this name (incl. status word)
+	 */
+	public static byte[] get(String name) {
+		String hex = entries().get(name);
+		if (hex == null) {
+			throw new IllegalArgumentException("not in corpus: " + name);
+		}
+		return fromHexString(hex);
+	}
+
+	/**
+	 * @param prefix
+	 * @return all responses whose name starts with prefix (in file order)
+	 */
+	public static byte[][] getAll(String prefix) {
+		List<byte[]> result = new ArrayList<byte[]>();
+		for (Map.Entry<String, String> e : entries().entrySet()) {
+			if (e.getKey().startsWith(prefix)) {
+				result.add(fromHexString(e.getValue()));
+			}
+		}
+		return result.toArray(new byte[result.size()][]);
+	}
+
+	/**
+	 * @return all BER-TLV encoded responses (SELECT, GPO, READ RECORD and GET
+	 *         DATA responses)
+	 */
+	public static byte[][] getTlvResponses() {
+		List<byte[]> result = new ArrayList<byte[]>();
+		for (String prefix : new String[] { "select_", "gpo_", "record_",
+				"get_data_", "cplc" }) {
+			for (byte[] response : getAll(prefix)) {
+				result.add(response);
+			}
+		}
+		return result.toArray(new byte[result.size()][]);
+	}
+
+	/**
+	 * @return the recorded status words (2 bytes each)
+	 */
+	public static byte[][] getStatusWords() {
+		String[] words = entries().get("sw").split(" ");
+		byte[][] result = new byte[words.length][];
+		for (int i = 0; i < words.length; i++) {
+			result[i] = fromHexString(words[i]);
+		}
+		return result;
+	}
+
+	private static synchronized Map<String, String> entries() {
+		if (_entries == null) {
+			try {
+				_entries = load();
+			} catch (IOException e) {
+				throw new IllegalStateException("cannot read " + RESOURCE, e);
+			}
+		}
+		return _entries;
+	}
+
+	private static Map<String, String> load() throws IOException {
+		Map<String, String> entries = new LinkedHashMap<String, String>();
+		InputStream in = Corpus.class.getResourceAsStream(RESOURCE);
+		if (in == null) {
+			throw new IOException(RESOURCE + " not found");
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+				"US-ASCII"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				int idx = line.indexOf('=');
+				entries.put(line.substring(0, idx).trim(),
+						line.substring(idx + 1).trim());
+			}
+		} finally {
+			reader.close();
+		}
+		return entries;
+	}
+}
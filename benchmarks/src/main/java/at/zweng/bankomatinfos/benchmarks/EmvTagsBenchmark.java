@@ -0,0 +1,76 @@
+package at.zweng.bankomatinfos.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import at.zweng.bankomatinfos.exceptions.TlvParsingException;
+import at.zweng.bankomatinfos.iso7816emv.EMVTags;
+import at.zweng.bankomatinfos.iso7816emv.TlvCursor;
+
+/**
+ * Tag registry lookups for all tags occurring in the corpus
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EmvTagsBenchmark {
+
+	private int[] _tags;
+	private byte[][] _tagBytes;
+
+	@Setup
+	public void setup() throws TlvParsingException {
+		List<Integer> tags = new ArrayList<Integer>();
+		for (byte[] response : Corpus.getTlvResponses()) {
+			collect(new TlvCursor(response, 0, response.length - 2), tags);
+		}
+		_tags = new int[tags.size()];
+		_tagBytes = new byte[tags.size()][];
+		for (int i = 0; i < _tags.length; i++) {
+			_tags[i] = tags.get(i);
+			_tagBytes[i] = EMVTags.unpackTag(_tags[i]);
+		}
+	}
+
+	@Benchmark
+	public void findByInt(Blackhole bh) {
+		for (int tag : _tags) {
+			bh.consume(EMVTags.find(tag));
+		}
+	}
+
+	@Benchmark
+	public void findByBytes(Blackhole bh) {
+		for (byte[] tag : _tagBytes) {
+			bh.consume(EMVTags.find(tag));
+		}
+	}
+
+	private static void collect(TlvCursor cursor, List<Integer> tags)
+			throws TlvParsingException {
+		while (cursor.next()) {
+			tags.add(cursor.getTag());
+			if (cursor.isConstructed()) {
+				collect(cursor.children(), tags);
+			}
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package at.zweng.bankomatinfos.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import at.zweng.bankomatinfos.util.Hex;
+import at.zweng.bankomatinfos.util.Utils;
+
+/**
+ * {@link Hex} with reused buffers compared to the String based methods in
+ * {@link Utils}
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class HexBenchmark {
+
+	private byte[][] _responses;
+	private String[] _hexStrings;
+	private char[] _charBuffer;
+	private byte[] _byteBuffer;
+	private StringBuilder _sb;
+
+	@Setup
+	public void setup() {
+		_responses = Corpus.getTlvResponses();
+		_hexStrings = new String[_responses.length];
+		int maxLength = 0;
+		for (int i = 0; i < _responses.length; i++) {
+			_hexStrings[i] = Utils.bytesToHex(_responses[i]);
+			maxLength = Math.max(maxLength, _responses[i].length);
+		}
+		_charBuffer = new char[maxLength * 2];
+		_byteBuffer = new byte[maxLength];
+		_sb = new StringBuilder(maxLength * 4);
+	}
+
+	@Benchmark
+	public void legacyPrettyPrintHex(Blackhole bh) {
+		for (byte[] response : _responses) {
+			bh.consume(Utils.prettyPrintHex(Utils.bytesToHex(response), 4));
+		}
+	}
+
+	@Benchmark
+	public void appendGrouped(Blackhole bh) {
+		for (byte[] response : _responses) {
+			_sb.setLength(0);
+			Hex.append(_sb, response, 0, response.length, 1, 16, 4);
+			bh.consume(_sb.length());
+		}
+	}
+
+	@Benchmark
+	public void legacyBytesToHex(Blackhole bh) {
+		for (byte[] response : _responses) {
+			bh.consume(Utils.bytesToHex(response));
+		}
+	}
+
+	@Benchmark
+	public void encodeIntoCharArray(Blackhole bh) {
+		for (byte[] response : _responses) {
+			bh.consume(Hex.encode(response, 0, response.length, _charBuffer, 0));
+		}
+	}
+
+	@Benchmark
+	public void legacyFromHexString(Blackhole bh) {
+		for (String hex : _hexStrings) {
+			bh.consume(Utils.fromHexString(hex));
+		}
+	}
+
+	@Benchmark
+	public void decodeIntoBuffer(Blackhole bh) {
+		for (String hex : _hexStrings) {
+			bh.consume(Hex.decode(hex, _byteBuffer, 0));
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package at.zweng.bankomatinfos.benchmarks;
+
+import static at.zweng.bankomatinfos.util.Utils.cutoffLast2Bytes;
+
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import at.zweng.bankomatinfos.iso7816emv.CPLC;
+import at.zweng.bankomatinfos.iso7816emv.LogFormat;
+import at.zweng.bankomatinfos.model.TransactionLogTable;
+
+/**
+ * Decoding of CPLC data and transaction log records (for each of the three
+ * log formats known so far)
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ParserBenchmark {
+
+	@Param({ "bankomat", "mastercard", "visa" })
+	public String logFormat;
+
+	private byte[] _cplc;
+	private byte[] _logFormatResponse;
+	private LogFormat _format;
+	private byte[][] _logRecords;
+	private TransactionLogTable _table;
+
+	@Setup
+	public void setup() {
+		_cplc = cutoffLast2Bytes(Corpus.get("cplc"));
+		_logFormatResponse = Corpus.get("get_data_log_format_" + logFormat);
+		_format = LogFormat.fromGetDataResponse(_logFormatResponse);
+		_logRecords = Corpus.getAll("log_" + logFormat + "_");
+		_table = new TransactionLogTable();
+	}
+
+	@Benchmark
+	public CPLC parseCplc() {
+		return CPLC.parse(_cplc);
+	}
+
+	/**
+	 * Reading the IDs and dates of the CPLC data and looking up the names (as
+	 * for recognizing a card, no output)
+	 */
+	@Benchmark
+	public void decodeCplcFields(Blackhole bh) {
+		CPLC cplc = CPLC.parse(_cplc);
+		bh.consume(CPLC.getFabricatorName(cplc.getIcFabricator()));
+		bh.consume(CPLC.getIcTypeName(cplc.getIcType()));
+		bh.consume(CPLC.getOperatingSystemprovider(cplc.getOperatingSystem()));
+		bh.consume(cplc.getIcBatchIdentifier());
+		bh.consume(cplc.getIcSerialNumber());
+		bh.consume(cplc.getDate(CPLC.Field.IC_FABRIC_DATE));
+	}
+
+	/**
+	 * Looking up the log format of the GET DATA response (compiled on the
+	 * first call, then taken from the cache)
+	 */
+	@Benchmark
+	public LogFormat logFormatLookup() {
+		return LogFormat.fromGetDataResponse(_logFormatResponse);
+	}
+
+	@Benchmark
+	public void decodeLogRecords(Blackhole bh) throws ParseException {
+		for (byte[] record : _logRecords) {
+			bh.consume(_format.decode(record));
+		}
+	}
+
+	/**
+	 * Decoding into a reused {@link TransactionLogTable} (no entry objects)
+	 */
+	@Benchmark
+	public void decodeLogRecordsIntoTable(Blackhole bh) throws ParseException {
+		_table.clear();
+		for (byte[] record : _logRecords) {
+			bh.consume(_format.decodeInto(_table, record));
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package at.zweng.bankomatinfos.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import at.zweng.bankomatinfos.iso7816emv.SessionRecorder;
+import at.zweng.bankomatinfos.iso7816emv.SessionRecording;
+import at.zweng.bankomatinfos.iso7816emv.SessionRecording.FrameCursor;
+import at.zweng.bankomatinfos.iso7816emv.SimulatedCardTransport;
+
+/**
+ * Writing and reading APDU session recordings. The recording holds one
+ * exchange (a READ RECORD command) per recorded TLV response of the corpus and
+ * is read from a memory mapped temporary file.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RecordingBenchmark {
+
+	private static final byte[] TAG_ID = { 0x01, 0x02, 0x03, 0x04 };
+	private static final byte[] HISTORICAL_BYTES = { 0x00 };
+	private static final long DURATION_NANOS = 20 * 1000 * 1000;
+
+	private SimulatedCardTransport _card;
+	private byte[][] _commands;
+	private byte[][] _responses;
+	private File _file;
+	private SessionRecording _recording;
+
+	@Setup
+	public void setup() throws IOException {
+		_card = new SimulatedCardTransport(TAG_ID, HISTORICAL_BYTES);
+		_responses = Corpus.getTlvResponses();
+		_commands = new byte[_responses.length][];
+		for (int i = 0; i < _responses.length; i++) {
+			// READ RECORD, SFI 1-4, records 1-...
+			_commands[i] = new byte[] { 0x00, (byte) 0xB2,
+					(byte) (i / 4 + 1), (byte) (((i % 4 + 1) << 3) | 4), 0x00 };
+		}
+		_file = File.createTempFile("recording", SessionRecording.FILE_SUFFIX);
+		_file.deleteOnExit();
+		record().save(_file);
+		_recording = SessionRecording.map(_file);
+	}
+
+	@TearDown
+	public void tearDown() {
+		_file.delete();
+	}
+
+	/**
+	 * Recording all exchanges, as during a read (without saving)
+	 */
+	@Benchmark
+	public int recordFrames() {
+		return record().size();
+	}
+
+	/**
+	 * Walks all frames and looks at the responses in the mapped file (views,
+	 * nothing copied)
+	 */
+	@Benchmark
+	public void walkMappedFrames(Blackhole bh) throws IOException {
+		FrameCursor frame = _recording.frames();
+		while (frame.next()) {
+			bh.consume(frame.getStatusWord());
+			bh.consume(frame.getResponse().get(0));
+		}
+	}
+
+	/**
+	 * Copies all exchanges out of the mapped file (input of the
+	 * {@link at.zweng.bankomatinfos.iso7816emv.TraceAnalyzer})
+	 */
+	@Benchmark
+	public Object toSession() throws IOException {
+		return _recording.toSession("benchmark");
+	}
+
+	/**
+	 * Builds a simulated card from the mapped file
+	 */
+	@Benchmark
+	public Object toTransport() throws IOException {
+		return _recording.toTransport(false);
+	}
+
+	private SessionRecorder record() {
+		SessionRecorder recorder = new SessionRecorder(_card);
+		for (int i = 0; i < _commands.length; i++) {
+			recorder.record(_commands[i], _responses[i], DURATION_NANOS);
+		}
+		return recorder;
+	}
+}
@@ -0,0 +1,132 @@
+package at.zweng.bankomatinfos.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import at.zweng.bankomatinfos.exceptions.TlvParsingException;
+import at.zweng.bankomatinfos.iso7816emv.BerTlvPrinter;
+import at.zweng.bankomatinfos.iso7816emv.EmvUtils;
+import at.zweng.bankomatinfos.iso7816emv.TlvCursor;
+import at.zweng.bankomatinfos.iso7816emv.TlvIndex;
+
+/**
+ * BER-TLV parsing and pretty printing of all recorded TLV responses (one
+ * invocation processes the whole corpus).
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TlvBenchmark {
+
+	private byte[][] _responses;
+	private TlvCursor _cursor;
+	private StringBuilder _sb;
+	private BerTlvPrinter _printer;
+	private TlvIndex _index;
+
+	@Setup
+	public void setup() {
+		_responses = Corpus.getTlvResponses();
+		_cursor = new TlvCursor(_responses[0]);
+		_sb = new StringBuilder(4096);
+		_printer = new BerTlvPrinter(_sb);
+		_index = new TlvIndex();
+	}
+
+	/**
+	 * Walks all top level objects with {@link EmvUtils#getNextTLV(TlvCursor)}
+	 * (creates a BERTLV object per TLV)
+	 */
+	@Benchmark
+	public void getNextTLV(Blackhole bh) throws TlvParsingException {
+		for (byte[] response : _responses) {
+			_cursor.reset(response, 0, response.length - 2);
+			while (_cursor.hasNext()) {
+				bh.consume(EmvUtils.getNextTLV(_cursor));
+			}
+		}
+	}
+
+	/**
+	 * Walks all objects (incl. nested ones) with a {@link TlvCursor} only
+	 */
+	@Benchmark
+	public void tlvCursorWalk(Blackhole bh) throws TlvParsingException {
+		for (byte[] response : _responses) {
+			bh.consume(walk(new TlvCursor(response, 0, response.length - 2)));
+		}
+	}
+
+	@Benchmark
+	public void getTagsFromBerTlvAPDUResponse(Blackhole bh)
+			throws TlvParsingException {
+		for (byte[] response : _responses) {
+			bh.consume(EmvUtils.getTagsFromBerTlvAPDUResponse(response));
+		}
+	}
+
+	@Benchmark
+	public void prettyPrintBerTlvAPDUResponse(Blackhole bh)
+			throws TlvParsingException {
+		for (byte[] response : _responses) {
+			bh.consume(EmvUtils.prettyPrintBerTlvAPDUResponse(response, 0));
+		}
+	}
+
+	/**
+	 * Streams into a reused buffer with {@link BerTlvPrinter} (as done when
+	 * the log is rendered)
+	 */
+	@Benchmark
+	public void berTlvPrinter(Blackhole bh) throws TlvParsingException,
+			IOException {
+		for (byte[] response : _responses) {
+			_sb.setLength(0);
+			_printer.print(response, 0, response.length - 2, 0);
+			bh.consume(_sb.length());
+		}
+	}
+
+	/**
+	 * Indexes all responses and looks up the tags shown in the result view
+	 */
+	@Benchmark
+	public void tlvIndex(Blackhole bh) throws TlvParsingException {
+		_index.clear();
+		for (byte[] response : _responses) {
+			_index.add(response, 0, response.length - 2);
+		}
+		bh.consume(_index.find(0x5A));
+		bh.consume(_index.find(0x5F24));
+		bh.consume(_index.find(0x9F36));
+		bh.consume(_index.find(0x9F4D));
+	}
+
+	private static int walk(TlvCursor cursor) throws TlvParsingException {
+		int sum = 0;
+		while (cursor.next()) {
+			sum += cursor.getTag();
+			if (cursor.isConstructed()) {
+				sum += walk(cursor.children());
+			}
+		}
+		return sum;
+	}
+}
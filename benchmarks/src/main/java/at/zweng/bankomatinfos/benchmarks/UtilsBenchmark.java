@@ -0,0 +1,97 @@
+package at.zweng.bankomatinfos.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import at.zweng.bankomatinfos.iso7816emv.EmvUtils;
+import at.zweng.bankomatinfos.iso7816emv.Iso3166CountryCodes;
+import at.zweng.bankomatinfos.iso7816emv.Iso4217CurrencyCodes;
+import at.zweng.bankomatinfos.iso7816emv.StatusWord;
+import at.zweng.bankomatinfos.util.Utils;
+
+/**
+ * Hex conversion and status word decoding, as done for every logged APDU, and
+ * the currency/country lookups done for every transaction log entry
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class UtilsBenchmark {
+
+	private byte[][] _responses;
+	private String[] _hexStrings;
+	private byte[][] _statusWords;
+	// BCD currency and country codes as on the card (EUR, USD, ATS/Austria,
+	// GBP/United Kingdom, JPY/Japan, not set/unknown)
+	private static final byte[][] CODES = { { 0x09, 0x78 }, { 0x08, 0x40 },
+			{ 0x00, 0x40 }, { 0x08, 0x26 }, { 0x03, (byte) 0x92 },
+			{ 0x09, (byte) 0x99 } };
+
+	@Setup
+	public void setup() {
+		_responses = Corpus.getTlvResponses();
+		_hexStrings = new String[_responses.length];
+		for (int i = 0; i < _responses.length; i++) {
+			_hexStrings[i] = Utils.bytesToHex(_responses[i]);
+		}
+		_statusWords = Corpus.getStatusWords();
+	}
+
+	@Benchmark
+	public void bytesToHex(Blackhole bh) {
+		for (byte[] response : _responses) {
+			bh.consume(Utils.bytesToHex(response));
+		}
+	}
+
+	@Benchmark
+	public void fromHexString(Blackhole bh) {
+		for (String hex : _hexStrings) {
+			bh.consume(Utils.fromHexString(hex));
+		}
+	}
+
+	@Benchmark
+	public void statusToString(Blackhole bh) {
+		for (byte[] sw : _statusWords) {
+			bh.consume(EmvUtils.statusToString(sw));
+		}
+	}
+
+	@Benchmark
+	public void currencyLookup(Blackhole bh) {
+		for (byte[] code : CODES) {
+			bh.consume(Iso4217CurrencyCodes.getCurrencyAsString(code));
+		}
+	}
+
+	@Benchmark
+	public void countryLookup(Blackhole bh) {
+		for (byte[] code : CODES) {
+			bh.consume(Iso3166CountryCodes.getCountryAsString(code));
+		}
+	}
+
+	@Benchmark
+	public void statusWordSeverity(Blackhole bh) {
+		for (byte[] sw : _statusWords) {
+			bh.consume(StatusWord.getSeverity(StatusWord.pack(sw, 0)));
+		}
+	}
+}
@@ -1,8 +1,10 @@
 package at.zweng.bankomatinfos;
 
-import static at.zweng.bankomatinfos.util.Utils.*;
 import android.content.Context;
+import at.zweng.bankomatinfos.iso7816emv.ApduTrace;
+import at.zweng.bankomatinfos.iso7816emv.SessionRecordingStore;
 import at.zweng.bankomatinfos.model.CardInfo;
+import at.zweng.bankomatinfos.util.CardHistoryStore;
 
 /**
  * Very simple dummy-style controller class of this app. At the moment simply
@@ -18,7 +20,9 @@ public class AppController {
 	private static volatile AppController _instance = null;
 
 	private CardInfo _cardInfo;
-	private StringBuilder _log;
+	private final ApduTrace _log;
+	private CardHistoryStore _cardHistory;
+	private SessionRecordingStore _sessionRecordings;
 
 	/**
 	 * Get singleton object
@@ -40,7 +44,7 @@ public class AppController {
 	 */
 	private AppController() {
 		this._cardInfo = null;
-		this._log = new StringBuilder();
+		this._log = new ApduTrace(ApduTrace.DEFAULT_CAPACITY);
 	}
 
 	/**
@@ -68,29 +72,85 @@ public class AppController {
 		this._cardInfo = cardInfo;
 	}
 
+	/**
+	 * @param ctx
+	 * @return history of the completed reads (one instance for the reader and
+	 *         the settings)
+	 */
+	public synchronized CardHistoryStore getCardHistory(Context ctx) {
+		if (_cardHistory == null) {
+			_cardHistory = new CardHistoryStore(ctx.getApplicationContext());
+		}
+		return _cardHistory;
+	}
+
+	/**
+	 * @param ctx
+	 * @return the recorded APDU sessions (one instance for the reader and the
+	 *         settings)
+	 */
+	public synchronized SessionRecordingStore getSessionRecordings(Context ctx) {
+		if (_sessionRecordings == null) {
+			_sessionRecordings = new SessionRecordingStore(
+					ctx.getApplicationContext());
+		}
+		return _sessionRecordings;
+	}
+
 	/**
 	 * Append line to log
 	 * 
 	 * @param msg
 	 */
 	public void log(String msg) {
-		_log.append(getFullTimestampString());
-		_log.append(": ");
-		_log.append(msg);
-		_log.append("\n");
+		_log.message(msg);
 	}
 
 	/**
-	 * @return full log
+	 * Append command APDU sent to the card to log
+	 * 
+	 * @param command
+	 */
+	public void logCommand(byte[] command) {
+		_log.command(command);
+	}
+
+	/**
+	 * Append response APDU received from the card to log
+	 * 
+	 * @param response
+	 */
+	public void logResponse(byte[] response) {
+		_log.response(response);
+	}
+
+	/**
+	 * Append BER-TLV data to log (decoded only when the log is rendered)
+	 * 
+	 * @param data
+	 */
+	public void logBerTlv(byte[] data) {
+		_log.berTlv(data);
+	}
+
+	/**
+	 * @return full log (rendered as text)
 	 */
 	public String getLog() {
 		return _log.toString();
 	}
 
+	/**
+	 * @return the structured log records
+	 */
+	public ApduTrace getTrace() {
+		return _log;
+	}
+
 	/**
 	 * clear log
 	 */
 	public void clearLog() {
-		_log = new StringBuilder();
+		_log.clear();
 	}
 }
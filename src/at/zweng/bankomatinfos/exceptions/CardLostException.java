@@ -0,0 +1,27 @@
+package at.zweng.bankomatinfos.exceptions;
+
+import java.io.IOException;
+
+/**
+ * Thrown by an {@link at.zweng.bankomatinfos.iso7816emv.ApduTransport} when
+ * the card left the field (or was removed from the simulation) during an
+ * exchange
+ * 
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class CardLostException extends IOException {
+
+	private static final long serialVersionUID = -2871565390447385170L;
+
+	public CardLostException() {
+	}
+
+	public CardLostException(String detailMessage) {
+		super(detailMessage);
+	}
+
+	public CardLostException(String detailMessage, Throwable cause) {
+		super(detailMessage, cause);
+	}
+
+}
@@ -0,0 +1,21 @@
+package at.zweng.bankomatinfos.exceptions;
+
+import java.io.IOException;
+
+/**
+ * Thrown on the reading thread when a card read was cancelled by the user
+ * 
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ReadCancelledException extends IOException {
+
+	private static final long serialVersionUID = 4906716236153447019L;
+
+	public ReadCancelledException() {
+	}
+
+	public ReadCancelledException(String detailMessage) {
+		super(detailMessage);
+	}
+
+}
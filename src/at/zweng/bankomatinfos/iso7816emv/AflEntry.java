@@ -0,0 +1,74 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+/**
+ * A single entry of the "Application File Locator" (AFL, tag 94) as returned
+ * by the card in the response to GET PROCESSING OPTIONS. Each entry names one
+ * short EF and the range of records which should be read from it.<br>
+ * <br>
+ * See EMV Book 3, chapter 10.2 "Read Application Data"
+ * 
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class AflEntry {
+
+	private final int _sfi;
+	private final int _firstRecord;
+	private final int _lastRecord;
+	private final int _offlineAuthenticationRecords;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param sfi
+	 *            short EF identifier
+	 * @param firstRecord
+	 *            first record to read
+	 * @param lastRecord
+	 *            last record to read (inclusive)
+	 * @param offlineAuthenticationRecords
+	 *            number of records involved in offline data authentication
+	 */
+	public AflEntry(int sfi, int firstRecord, int lastRecord,
+			int offlineAuthenticationRecords) {
+		super();
+		this._sfi = sfi;
+		this._firstRecord = firstRecord;
+		this._lastRecord = lastRecord;
+		this._offlineAuthenticationRecords = offlineAuthenticationRecords;
+	}
+
+	/**
+	 * @return the short EF identifier
+	 */
+	public int getSfi() {
+		return _sfi;
+	}
+
+	/**
+	 * @return the first record number
+	 */
+	public int getFirstRecord() {
+		return _firstRecord;
+	}
+
+	/**
+	 * @return the last record number (inclusive)
+	 */
+	public int getLastRecord() {
+		return _lastRecord;
+	}
+
+	/**
+	 * @return number of records involved in offline data authentication
+	 */
+	public int getOfflineAuthenticationRecords() {
+		return _offlineAuthenticationRecords;
+	}
+
+	@Override
+	public String toString() {
+		return "AFL entry [SFI " + _sfi + ", records " + _firstRecord + "-"
+				+ _lastRecord + ", offline auth records: "
+				+ _offlineAuthenticationRecords + "]";
+	}
+}
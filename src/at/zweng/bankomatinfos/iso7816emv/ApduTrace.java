@@ -0,0 +1,352 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.statusToString;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import at.zweng.bankomatinfos.exceptions.TlvParsingException;
+import at.zweng.bankomatinfos.util.Hex;
+
+/**
+ * Bounded trace of the communication with the card. Instead of formatting
+ * every APDU into a string while the card is still in the field, this class
+ * only stores structured records (timestamp, direction, raw bytes, status
+ * word) in a ring buffer. They are rendered to text lazily when the log is
+ * viewed or exported (this includes decoding of BER-TLV data). If more
+ * records are added than the capacity allows, the oldest records are
+ * dropped.<br>
+ * <br>
+ * Note: the raw byte arrays are stored by reference and must not be modified
+ * afterwards by the caller.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ApduTrace {
+
+	/**
+	 * Default number of records kept
+	 */
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	/**
+	 * Type (direction) of a trace record
+	 */
+	public enum Direction {
+		/** free text log message */
+		MESSAGE,
+		/** APDU sent to the card */
+		COMMAND,
+		/** response APDU received from the card */
+		RESPONSE,
+		/** BER-TLV data, rendered as decoded tag tree */
+		BER_TLV
+	}
+
+	/**
+	 * A single trace record (created on demand by {@link #getRecords()})
+	 */
+	public static class Record {
+		private final long _nanoTime;
+		private final Direction _direction;
+		private final byte[] _data;
+		private final String _message;
+		private final int _statusWord;
+
+		private Record(long nanoTime, Direction direction, byte[] data,
+				String message, int statusWord) {
+			this._nanoTime = nanoTime;
+			this._direction = direction;
+			this._data = data;
+			this._message = message;
+			this._statusWord = statusWord;
+		}
+
+		/**
+		 * @return value of {@link System#nanoTime()} when record was added
+		 */
+		public long getNanoTime() {
+			return _nanoTime;
+		}
+
+		/**
+		 * @return the direction
+		 */
+		public Direction getDirection() {
+			return _direction;
+		}
+
+		/**
+		 * @return raw APDU bytes or BER-TLV data (<code>null</code> for
+		 *         messages)
+		 */
+		public byte[] getData() {
+			return _data;
+		}
+
+		/**
+		 * @return log message (<code>null</code> for APDUs)
+		 */
+		public String getMessage() {
+			return _message;
+		}
+
+		/**
+		 * @return status word of responses (e.g. 0x9000) or -1
+		 */
+		public int getStatusWord() {
+			return _statusWord;
+		}
+	}
+
+	private final int _capacity;
+	private final long[] _nanoTimes;
+	private final Direction[] _directions;
+	private final Object[] _payloads;
+	private final int[] _statusWords;
+
+	// index where the next record will be written
+	private int _next;
+	// number of valid records in buffer
+	private int _size;
+	// number of records overwritten since last clear
+	private long _dropped;
+
+	// reference points for converting nanoTime to wall clock time
+	private long _baseNanoTime;
+	private long _baseMillis;
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity
+	 *            maximum number of records kept
+	 */
+	public ApduTrace(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be > 0");
+		}
+		_capacity = capacity;
+		_nanoTimes = new long[capacity];
+		_directions = new Direction[capacity];
+		_payloads = new Object[capacity];
+		_statusWords = new int[capacity];
+		clear();
+	}
+
+	/**
+	 * Add a free text log message
+	 *
+	 * @param msg
+	 */
+	public void message(String msg) {
+		add(Direction.MESSAGE, msg, -1);
+	}
+
+	/**
+	 * Add a command APDU sent to the card
+	 *
+	 * @param command
+	 */
+	public void command(byte[] command) {
+		add(Direction.COMMAND, command, -1);
+	}
+
+	/**
+	 * Add a response APDU received from the card
+	 *
+	 * @param response
+	 *            (including status word)
+	 */
+	public void response(byte[] response) {
+		int sw = -1;
+		if (response != null && response.length >= 2) {
+			sw = ((response[response.length - 2] & 0xFF) << 8)
+					| (response[response.length - 1] & 0xFF);
+		}
+		add(Direction.RESPONSE, response, sw);
+	}
+
+	/**
+	 * Add BER-TLV data (e.g. a response without status word) which will be
+	 * shown decoded. Decoding is done when the trace is rendered, not now.
+	 *
+	 * @param data
+	 */
+	public void berTlv(byte[] data) {
+		add(Direction.BER_TLV, data, -1);
+	}
+
+	private synchronized void add(Direction direction, Object payload,
+			int statusWord) {
+		_nanoTimes[_next] = System.nanoTime();
+		_directions[_next] = direction;
+		_payloads[_next] = payload;
+		_statusWords[_next] = statusWord;
+		_next = (_next + 1) % _capacity;
+		if (_size < _capacity) {
+			_size++;
+		} else {
+			_dropped++;
+		}
+	}
+
+	/**
+	 * Removes all records
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < _capacity; i++) {
+			_payloads[i] = null;
+			_directions[i] = null;
+		}
+		_next = 0;
+		_size = 0;
+		_dropped = 0;
+		_baseNanoTime = System.nanoTime();
+		_baseMillis = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return number of records currently stored
+	 */
+	public synchronized int size() {
+		return _size;
+	}
+
+	/**
+	 * @return maximum number of records kept
+	 */
+	public int getCapacity() {
+		return _capacity;
+	}
+
+	/**
+	 * @return number of records which were dropped because the buffer was
+	 *         full
+	 */
+	public synchronized long getDroppedCount() {
+		return _dropped;
+	}
+
+	/**
+	 * @return snapshot of all stored records (oldest first)
+	 */
+	public synchronized List<Record> getRecords() {
+		List<Record> result = new ArrayList<Record>(_size);
+		int start = (_next - _size + _capacity) % _capacity;
+		for (int n = 0; n < _size; n++) {
+			int i = (start + n) % _capacity;
+			Object payload = _payloads[i];
+			if (_directions[i] == Direction.MESSAGE) {
+				result.add(new Record(_nanoTimes[i], _directions[i], null,
+						(String) payload, -1));
+			} else {
+				result.add(new Record(_nanoTimes[i], _directions[i],
+						(byte[]) payload, null, _statusWords[i]));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Converts a nanoTime value of a record into wall clock milliseconds
+	 *
+	 * @param nanoTime
+	 * @return
+	 */
+	public synchronized long toWallClockMillis(long nanoTime) {
+		return _baseMillis + (nanoTime - _baseNanoTime) / 1000000L;
+	}
+
+	/**
+	 * Renders all records as human readable text
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void render(Appendable out) throws IOException {
+		long dropped;
+		List<Record> records;
+		synchronized (this) {
+			dropped = _dropped;
+			records = getRecords();
+		}
+		// SimpleDateFormat is not thread safe, so use a local instance
+		SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS",
+				Locale.US);
+		Date date = new Date();
+		BerTlvPrinter printer = new BerTlvPrinter(out);
+		if (dropped > 0) {
+			out.append("[... " + dropped + " older log entries dropped ...]\n");
+		}
+		for (Record r : records) {
+			date.setTime(toWallClockMillis(r.getNanoTime()));
+			String timestamp = format.format(date);
+			switch (r.getDirection()) {
+			case MESSAGE:
+				appendLine(out, timestamp, r.getMessage());
+				break;
+			case COMMAND:
+				appendPrefix(out, timestamp, "sent: ");
+				Hex.append(out, r.getData(), 0, r.getData().length);
+				out.append('\n');
+				break;
+			case RESPONSE:
+				byte[] data = r.getData();
+				appendPrefix(out, timestamp, "received: ");
+				Hex.append(out, data, 0, data.length);
+				out.append('\n');
+				if (data.length >= 2) {
+					appendPrefix(out, timestamp, "status: ");
+					Hex.append(out, data, data.length - 2, 2, 1, 0, 0);
+					out.append(" - ");
+					out.append(statusToString(data, data.length - 2));
+					out.append('\n');
+				}
+				break;
+			case BER_TLV:
+				appendPrefix(out, timestamp, "");
+				try {
+					printer.print(r.getData(), 0, r.getData().length, 0);
+				} catch (TlvParsingException e) {
+					out.append("\n");
+					out.append("decoding error... maybe this data is not BER-TLV encoded?");
+				}
+				out.append('\n');
+				break;
+			}
+		}
+	}
+
+	private static void appendLine(Appendable out, String timestamp,
+			String msg) throws IOException {
+		appendPrefix(out, timestamp, msg);
+		out.append("\n");
+	}
+
+	private static void appendPrefix(Appendable out, String timestamp,
+			String msg) throws IOException {
+		out.append(timestamp);
+		out.append(": ");
+		out.append(msg);
+	}
+
+	/**
+	 * @return all records rendered as text
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		try {
+			render(sb);
+		} catch (IOException e) {
+			// cannot happen with StringBuilder
+			throw new RuntimeException(e);
+		}
+		return sb.toString();
+	}
+}
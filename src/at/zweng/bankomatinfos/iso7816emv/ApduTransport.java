@@ -0,0 +1,51 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import java.io.IOException;
+
+import at.zweng.bankomatinfos.exceptions.NoSmartCardException;
+
+/**
+ * Abstraction of the channel used for exchanging APDUs with a SmartCard. The
+ * card reader only talks to the card through this interface, so it does not
+ * matter if the other side is a real card in the NFC field or a simulated one.
+ * 
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public interface ApduTransport {
+
+	/**
+	 * Opens the connection to the card
+	 * 
+	 * @throws IOException
+	 * @throws NoSmartCardException
+	 *             if the other side is no ISO 7816 card
+	 */
+	void connect() throws IOException, NoSmartCardException;
+
+	/**
+	 * Sends a command APDU to the card and returns the response APDU
+	 * (including the 2 status bytes)
+	 * 
+	 * @param command
+	 * @return response bytes
+	 * @throws IOException
+	 */
+	byte[] transceive(byte[] command) throws IOException;
+
+	/**
+	 * Closes the connection to the card
+	 * 
+	 * @throws IOException
+	 */
+	void close() throws IOException;
+
+	/**
+	 * @return the historical bytes of the card (from ATS)
+	 */
+	byte[] getHistoricalBytes();
+
+	/**
+	 * @return the (NFC) tag ID of the card
+	 */
+	byte[] getTagId();
+}
@@ -0,0 +1,171 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import java.text.ParseException;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Decoding of BCD encoded dates (YYMMDD, e.g. tag 9A) and times (HHMMSS, e.g.
+ * tag 9F21) by nibble arithmetic: no strings, no {@link Calendar} and no
+ * allocation, so it is cheap enough for every transaction log entry and safe
+ * to use from several threads at once.<br>
+ * <br>
+ * For valid values the results are the same as parsing with
+ * <code>SimpleDateFormat</code> ("yy MM dd  HH mm ss", lenient) as it was done
+ * before:
+ * <ul>
+ * <li>the 2 digit year is put into the 100 years starting 80 years before
+ * today</li>
+ * <li>a day beyond the end of the month (e.g. 31 April) rolls over into the
+ * next month</li>
+ * <li>a time skipped by the change to daylight saving time is counted in
+ * standard time (02:30 becomes 03:30 DST)</li>
+ * <li>the timestamp is local time of the default time zone (as it was when
+ * this class was loaded)</li>
+ * </ul>
+ * The validation is stricter than before: every nibble must be a decimal
+ * digit, month 1-12, day 1-31, hour 0-23, minute and second 0-59, otherwise a
+ * {@link ParseException} is thrown. The lenient <code>SimpleDateFormat</code>
+ * accepted values like month 13, day 00 or minute 75 and rolled them over into
+ * the next (or previous) unit.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public final class BcdDate {
+
+	/** returned for a date of 00 00 00 (no date) */
+	public static final long NO_DATE = Long.MIN_VALUE;
+
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	private static final TimeZone ZONE = TimeZone.getDefault();
+	// yyyymmdd of the day 80 years ago
+	private static final int CENTURY_START = centuryStart();
+
+	private BcdDate() {
+	}
+
+	/**
+	 * Decodes a BCD date and (optionally) time
+	 *
+	 * @param data
+	 * @param dateOffset
+	 *            offset of the 3 date bytes (YYMMDD)
+	 * @param timeOffset
+	 *            offset of the 3 time bytes (HHMMSS), or -1 for a date only
+	 *            (midnight)
+	 * @return local time in milliseconds since 1970, or {@link #NO_DATE} if
+	 *         the date bytes are all 0
+	 * @throws ParseException
+	 *             if date or time are not valid
+	 */
+	public static long toMillis(byte[] data, int dateOffset, int timeOffset)
+			throws ParseException {
+		int packed = toPackedDate(data, dateOffset);
+		if (packed == 0) {
+			return NO_DATE;
+		}
+		int seconds = 0;
+		if (timeOffset >= 0) {
+			seconds = toSecondOfDay(data, timeOffset);
+		}
+		long local = daysSinceEpoch(packed / 10000, packed / 100 % 100,
+				packed % 100) * MILLIS_PER_DAY + seconds * 1000L;
+		int offset = ZONE.getOffset(local - ZONE.getRawOffset());
+		if (ZONE.getOffset(local - offset) != offset) {
+			// local time skipped by a DST change: count in standard time
+			return local - ZONE.getRawOffset();
+		}
+		return local - offset;
+	}
+
+	/**
+	 * Decodes a BCD date (YYMMDD)
+	 *
+	 * @param data
+	 * @param offset
+	 *            offset of the 3 date bytes
+	 * @return date as decimal number yyyymmdd (e.g. 20131231 for 0x131231), or
+	 *         0 if the bytes are all 0
+	 * @throws ParseException
+	 *             if the date is not valid
+	 */
+	public static int toPackedDate(byte[] data, int offset)
+			throws ParseException {
+		if (data[offset] == 0 && data[offset + 1] == 0
+				&& data[offset + 2] == 0) {
+			return 0;
+		}
+		int yy = bcd(data, offset);
+		int month = bcd(data, offset + 1);
+		int day = bcd(data, offset + 2);
+		if (yy < 0 || month < 1 || month > 12 || day < 1 || day > 31) {
+			throw new ParseException("not a valid BCD date", offset);
+		}
+		int startYear = CENTURY_START / 10000;
+		int packed = (startYear - startYear % 100 + yy) * 10000 + month * 100
+				+ day;
+		if (packed < CENTURY_START) {
+			packed += 100 * 10000;
+		}
+		return packed;
+	}
+
+	/**
+	 * Decodes a BCD time (HHMMSS)
+	 *
+	 * @param data
+	 * @param offset
+	 *            offset of the 3 time bytes
+	 * @return seconds since midnight
+	 * @throws ParseException
+	 *             if the time is not valid
+	 */
+	public static int toSecondOfDay(byte[] data, int offset)
+			throws ParseException {
+		int hour = bcd(data, offset);
+		int minute = bcd(data, offset + 1);
+		int second = bcd(data, offset + 2);
+		if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0
+				|| second > 59) {
+			throw new ParseException("not a valid BCD time", offset);
+		}
+		return hour * 3600 + minute * 60 + second;
+	}
+
+	private static int centuryStart() {
+		Calendar now = Calendar.getInstance();
+		return (now.get(Calendar.YEAR) - 80) * 10000
+				+ (now.get(Calendar.MONTH) + 1) * 100
+				+ now.get(Calendar.DAY_OF_MONTH);
+	}
+
+	/**
+	 * @return value of a BCD byte (0-99), or -1 if a nibble is not a decimal
+	 *         digit
+	 */
+	private static int bcd(byte[] data, int offset) {
+		int high = (data[offset] >> 4) & 0x0F;
+		int low = data[offset] & 0x0F;
+		if (high > 9 || low > 9) {
+			return -1;
+		}
+		return high * 10 + low;
+	}
+
+	/**
+	 * Days since 1970-01-01 in the proleptic gregorian calendar (days beyond
+	 * the end of the month just count on into the next month)
+	 */
+	private static long daysSinceEpoch(int year, int month, int day) {
+		// count years from March, so the leap day is the last day of a year
+		int y = month <= 2 ? year - 1 : year;
+		int era = y / 400;
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5
+				+ day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100
+				+ dayOfYear;
+		return era * 146097L + dayOfEra - 719468;
+	}
+}
@@ -0,0 +1,147 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import static at.zweng.bankomatinfos.util.Utils.intToByteArray;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import at.zweng.bankomatinfos.exceptions.TlvParsingException;
+import at.zweng.bankomatinfos.util.Hex;
+
+/**
+ * Renders BER-TLV data as indented, human readable text (the format used in
+ * the log). Output is written straight into an {@link Appendable} while
+ * walking the data, so no intermediate strings are built for nested
+ * templates.<br>
+ * <br>
+ * Example output:
+ *
+ * <pre>
+ * 6F  -  1E bytes: File Control Information (FCI) Template
+ *     84  -  07 bytes: Dedicated File (DF) Name
+ *         A0 00 00 00 04 30 60 (BINARY)
+ *     A5  -  13 bytes: File Control Information (FCI) Proprietary Template
+ *     ...
+ * </pre>
+ *
+ * A printer is not thread safe.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class BerTlvPrinter implements TlvVisitor {
+
+	private final Appendable _out;
+	// indentation per nesting depth
+	private int[] _indents = new int[8];
+	private TlvCursor _dolCursor;
+
+	/**
+	 * Constructor
+	 *
+	 * @param out
+	 *            where the text is written to
+	 */
+	public BerTlvPrinter(Appendable out) {
+		this._out = out;
+	}
+
+	/**
+	 * Renders BER-TLV data
+	 *
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @param indentLength
+	 *            indentation of the top level TLVs
+	 * @throws IOException
+	 *             if writing to the output fails
+	 * @throws TlvParsingException
+	 *             if the data is not valid BER-TLV (output written so far is
+	 *             not reverted)
+	 */
+	public void print(byte[] data, int offset, int length, int indentLength)
+			throws IOException, TlvParsingException {
+		_indents[0] = indentLength;
+		new TlvCursor(data, offset, length).accept(this);
+	}
+
+	@Override
+	public void enterConstructed(TlvCursor cursor, EmvTag tag, int depth)
+			throws IOException {
+		printHeader(cursor, tag, _indents[depth]);
+		if (depth + 1 == _indents.length) {
+			_indents = Arrays.copyOf(_indents, _indents.length * 2);
+		}
+		_indents[depth + 1] = _indents[depth] + extraIndent(cursor);
+	}
+
+	@Override
+	public void exitConstructed(int depth) {
+		// nothing to close
+	}
+
+	@Override
+	public void visitPrimitive(TlvCursor cursor, EmvTag tag, int depth)
+			throws IOException, TlvParsingException {
+		printHeader(cursor, tag, _indents[depth]);
+		int valueIndent = _indents[depth] + extraIndent(cursor);
+		_out.append('\n');
+		if (tag.getTagValueType() == TagValueType.DOL) {
+			printDol(cursor, valueIndent);
+		} else {
+			Hex.appendSpaces(_out, valueIndent);
+			Hex.append(_out, cursor.getData(), cursor.getValueOffset(),
+					cursor.getValueLength(), 1, 16, valueIndent);
+			_out.append(" (");
+			_out.append(EmvUtils.getTagValueInfo(tag, cursor.copyValueBytes()));
+			_out.append(')');
+		}
+	}
+
+	private void printHeader(TlvCursor cursor, EmvTag tag, int indent)
+			throws IOException {
+		byte[] data = cursor.getData();
+		_out.append('\n');
+		Hex.appendSpaces(_out, indent);
+		Hex.append(_out, data, cursor.getTagOffset(), cursor.getTagLength(), 1,
+				0, 0);
+		_out.append("  -  ");
+		Hex.append(_out, data, cursor.getLengthOffset(),
+				cursor.getLengthFieldLength(), 1, 0, 0);
+		_out.append(" bytes: ");
+		_out.append(tag.getName());
+	}
+
+	/**
+	 * Prints the entries of a 'Data Object List' (one line per entry)
+	 */
+	private void printDol(TlvCursor cursor, int indent) throws IOException,
+			TlvParsingException {
+		if (_dolCursor == null) {
+			_dolCursor = cursor.children();
+		} else {
+			cursor.children(_dolCursor);
+		}
+		boolean firstLine = true;
+		while (_dolCursor.nextDolEntry()) {
+			if (firstLine) {
+				firstLine = false;
+			} else {
+				_out.append('\n');
+			}
+			Hex.appendSpaces(_out, indent);
+			Hex.append(_out, _dolCursor.getData(), _dolCursor.getTagOffset(),
+					_dolCursor.getTagLength(), 1, 0, 0);
+			_out.append(" (");
+			byte[] length = intToByteArray(_dolCursor.getValueLength());
+			Hex.append(_out, length, 0, length.length);
+			_out.append(" bytes) -> ");
+			_out.append(_dolCursor.getEmvTag().getName());
+		}
+	}
+
+	private static int extraIndent(TlvCursor cursor) {
+		return (cursor.getLengthFieldLength() * 2)
+				+ (cursor.getTagLength() * 2);
+	}
+}
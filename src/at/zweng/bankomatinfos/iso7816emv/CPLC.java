@@ -15,7 +15,10 @@
  */
 package at.zweng.bankomatinfos.iso7816emv;
 
-import java.io.ByteArrayInputStream;
+import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.calculateCplcDate;
+import static at.zweng.bankomatinfos.util.Utils.bytesToHex;
+import static at.zweng.bankomatinfos.util.Utils.formatDateOnly;
+
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.Arrays;
@@ -23,95 +26,259 @@ import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
-import at.zweng.bankomatinfos.exceptions.TlvParsingException;
-import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.*;
-import static at.zweng.bankomatinfos.util.Utils.*;
+import at.zweng.bankomatinfos.util.Hex;
 
 /**
  * Card Production Life-Cycle Data (CPLC) as defined by the Global Platform Card
  * Specification (GPCS)
  * 
  * Provides information on "who did what" prior to card issuance.
+ * 
+ * CPLC data is a fixed structure of 42 bytes, so this is only a view on the
+ * raw bytes: the fields are read at their fixed offsets when asked for, and
+ * strings (hex values, names, dates) are only created for displaying them.
  *
  * Based on code by nelenkov
  */
 public class CPLC {
 
-	private static final Map<String, Integer> FIELD_NAMES_LENGTHS = new LinkedHashMap<String, Integer>();
-	private Map<String, String> fields = new LinkedHashMap<String, String>();
-
-	private static final String FIELD_NAME_IC_FABRICATOR = "IC Fabricator";
-	private static final String FIELD_NAME_IC_TYPE = "IC Type";
-	private static final String FIELD_NAME_OPERATING_SYSTEM = "Operating System";
-	private static final String FIELD_NAME_OPERATING_SYSTEM_REL_DATE = "Operating System Release Date";
-	private static final String FIELD_NAME_OPERATING_SYSTEM_REL_LEVEL = "Operating System Release Level";
-	private static final String FIELD_NAME_IC_FABRIC_DATE = "IC Fabrication Date";
-	private static final String FIELD_NAME_IC_SERIAL_NUMBER = "IC Serial Number";
-	private static final String FIELD_NAME_IC_BATCH_ID = "IC Batch Identifier";
-	private static final String FIELD_NAME_IC_MODULE_FABRICATOR = "IC ModuleFabricator";
-	private static final String FIELD_NAME_IC_PACKAGING_DATE = "IC ModulePackaging Date";
-	private static final String FIELD_NAME_ICC_MANUFACTURER = "ICC Manufacturer";
-	private static final String FIELD_NAME_IC_EMBEDDING_DATE = "IC Embedding Date";
-	private static final String FIELD_NAME_PREPERSO_ID = "Prepersonalizer Identifier";
-	private static final String FIELD_NAME_PREPERSO_DATE = "Prepersonalization Date";
-	private static final String FIELD_NAME_PREPERSO_EQUIPMENT = "Prepersonalization Equipment";
-	private static final String FIELD_NAME_PERSO_ID = "Personalizer Identifier";
-	private static final String FIELD_NAME_PERSO_DATE = "Personalization Date";
-	private static final String FIELD_NAME_PERSO_EQUIPMENT = "Personalization Equipment";
-
-	static {
-		FIELD_NAMES_LENGTHS.put(FIELD_NAME_IC_FABRICATOR, 2);
-		FIELD_NAMES_LENGTHS.put(FIELD_NAME_IC_TYPE, 2);
-		FIELD_NAMES_LENGTHS.put(FIELD_NAME_OPERATING_SYSTEM, 2);
-		FIELD_NAMES_LENGTHS.put(FIELD_NAME_OPERATING_SYSTEM_REL_DATE, 2);
-		FIELD_NAMES_LENGTHS.put(FIELD_NAME_OPERATING_SYSTEM_REL_LEVEL, 2);
-		FIELD_NAMES_LENGTHS.put(FIELD_NAME_IC_FABRIC_DATE, 2);
-		FIELD_NAMES_LENGTHS.put(FIELD_NAME_IC_SERIAL_NUMBER, 4);
-		FIELD_NAMES_LENGTHS.put(FIELD_NAME_IC_BATCH_ID, 2);
-		FIELD_NAMES_LENGTHS.put(FIELD_NAME_IC_MODULE_FABRICATOR, 2);
-		FIELD_NAMES_LENGTHS.put(FIELD_NAME_IC_PACKAGING_DATE, 2);
-		FIELD_NAMES_LENGTHS.put(FIELD_NAME_ICC_MANUFACTURER, 2);
-		FIELD_NAMES_LENGTHS.put(FIELD_NAME_IC_EMBEDDING_DATE, 2);
-		FIELD_NAMES_LENGTHS.put(FIELD_NAME_PREPERSO_ID, 2);
-		FIELD_NAMES_LENGTHS.put(FIELD_NAME_PREPERSO_DATE, 2);
-		FIELD_NAMES_LENGTHS.put(FIELD_NAME_PREPERSO_EQUIPMENT, 4);
-		FIELD_NAMES_LENGTHS.put(FIELD_NAME_PERSO_ID, 2);
-		FIELD_NAMES_LENGTHS.put(FIELD_NAME_PERSO_DATE, 2);
-		FIELD_NAMES_LENGTHS.put(FIELD_NAME_PERSO_EQUIPMENT, 4);
-	}
-
-	private CPLC() {
-	}
-
-	public static CPLC parse(byte[] raw) throws TlvParsingException {
-		CPLC result = new CPLC();
-
-		byte[] cplc = null;
+	/** length of the CPLC data (without tag and length) */
+	public static final int LENGTH = 42;
+
+	private enum Kind {
+		FABRICATOR, IC_TYPE, OPERATING_SYSTEM, DATE, NUMBER, HEX
+	}
+
+	/**
+	 * The CPLC fields (in the order on the card)
+	 */
+	public enum Field {
+		IC_FABRICATOR("IC Fabricator", 0, 2, Kind.FABRICATOR),
+		IC_TYPE("IC Type", 2, 2, Kind.IC_TYPE),
+		OPERATING_SYSTEM("Operating System", 4, 2, Kind.OPERATING_SYSTEM),
+		OPERATING_SYSTEM_REL_DATE("Operating System Release Date", 6, 2, Kind.DATE),
+		OPERATING_SYSTEM_REL_LEVEL("Operating System Release Level", 8, 2, Kind.NUMBER),
+		IC_FABRIC_DATE("IC Fabrication Date", 10, 2, Kind.DATE),
+		IC_SERIAL_NUMBER("IC Serial Number", 12, 4, Kind.HEX),
+		IC_BATCH_ID("IC Batch Identifier", 16, 2, Kind.NUMBER),
+		IC_MODULE_FABRICATOR("IC ModuleFabricator", 18, 2, Kind.FABRICATOR),
+		IC_PACKAGING_DATE("IC ModulePackaging Date", 20, 2, Kind.DATE),
+		ICC_MANUFACTURER("ICC Manufacturer", 22, 2, Kind.FABRICATOR),
+		IC_EMBEDDING_DATE("IC Embedding Date", 24, 2, Kind.DATE),
+		PREPERSO_ID("Prepersonalizer Identifier", 26, 2, Kind.FABRICATOR),
+		PREPERSO_DATE("Prepersonalization Date", 28, 2, Kind.DATE),
+		PREPERSO_EQUIPMENT("Prepersonalization Equipment", 30, 4, Kind.HEX),
+		PERSO_ID("Personalizer Identifier", 34, 2, Kind.HEX),
+		PERSO_DATE("Personalization Date", 36, 2, Kind.DATE),
+		PERSO_EQUIPMENT("Personalization Equipment", 38, 4, Kind.HEX);
+
+		private final String _name;
+		private final int _offset;
+		private final int _length;
+		private final Kind _kind;
+
+		private Field(String name, int offset, int length, Kind kind) {
+			this._name = name;
+			this._offset = offset;
+			this._length = length;
+			this._kind = kind;
+		}
+
+		/**
+		 * @return name of the field (as displayed)
+		 */
+		public String getName() {
+			return _name;
+		}
+
+		/**
+		 * @return offset of the field in the CPLC data
+		 */
+		public int getOffset() {
+			return _offset;
+		}
+
+		/**
+		 * @return length of the field in bytes (2 or 4)
+		 */
+		public int getLength() {
+			return _length;
+		}
+	}
+
+	private static final Field[] FIELDS = Field.values();
+
+	// name tables, sorted by ID (for binary search)
+	private static final int[] FABRICATOR_IDS = { 0x1143, 0x1180, 0x2391,
+			0x3060, 0x4090, 0x4180, 0x4250, 0x4790 };
+	private static final String[] FABRICATOR_NAMES = {
+			// seen on a Romanian Mastercard
+			"Oberthur Technologies",
+			// seen on an Austrian Mastercard from Kalixa
+			"cpi-pf (CPI Card Group)", "AUSTRIA CARD", "Renesas",
+			"Infineon Technologies AG", "Atmel", "Samsung", "NXP" };
+
+	private static final int[] IC_TYPE_IDS = { 0x5032 };
+	private static final String[] IC_TYPE_NAMES = { "SmartMX" };
+
+	private static final int[] OS_IDS = { 0x0027, 0x0230, 0x1291, 0x1671,
+			0x1981, 0x2391, 0x4051, 0x4070, 0x4091, 0x4791, 0x4A5A, 0x8211,
+			0x8231, 0xD000 };
+	private static final String[] OS_NAMES = { "STM027", "G230", "TOP",
+			"G&D Sm@rtCaf", "TOP", "AUSTRIA CARD OS (ACOS)", "NXP JCOP",
+			"NXP JCOP", "Trusted Logic jTOP", "NXP JCOP", "NXP JCOP", "SCS OS",
+			"OCS", "Gemalto OS" };
+
+	private final byte[] _data;
+	private final int _offset;
+
+	private CPLC(byte[] data, int offset) {
+		this._data = data;
+		this._offset = offset;
+	}
+
+	/**
+	 * @param raw
+	 *            CPLC data, either the 42 bytes or with the CPLC tag (9F7F) and
+	 *            length in front (not copied, so must not be changed
+	 *            afterwards)
+	 * @return view on the CPLC data
+	 * @throws IllegalArgumentException
+	 *             if the data is not valid
+	 */
+	public static CPLC parse(byte[] raw) {
 		// try to interpret as raw data (not TLV)
-		if (raw.length == 42) {
-			cplc = raw;
+		if (raw.length == LENGTH) {
+			return new CPLC(raw, 0);
 		}
 		// or maybe it's prepended with CPLC tag:
-		else if (raw.length == 45) {
-			BERTLV tlv = getNextTLV(new ByteArrayInputStream(raw));
-			if (!tlv.getTag().equals(GPTags.CPLC)) {
+		if (raw.length == LENGTH + 3) {
+			if ((raw[0] & 0xFF) != 0x9F || (raw[1] & 0xFF) != 0x7F
+					|| (raw[2] & 0xFF) != LENGTH) {
 				throw new IllegalArgumentException(
-						"CPLC data not valid. Found tag: " + tlv.getTag());
+						"CPLC data not valid. Found tag: "
+								+ bytesToHex(raw, 0, 2));
 			}
-			cplc = tlv.getValueBytes();
-		} else {
-			throw new IllegalArgumentException("CPLC data not valid.");
+			return new CPLC(raw, 3);
+		}
+		throw new IllegalArgumentException("CPLC data not valid.");
+	}
+
+	/**
+	 * @param field
+	 * @return value of the field (unsigned)
+	 */
+	public long getValue(Field field) {
+		long value = 0;
+		for (int i = 0; i < field._length; i++) {
+			value = (value << 8) | (_data[_offset + field._offset + i] & 0xFF);
 		}
-		int idx = 0;
-
-		for (String fieldName : FIELD_NAMES_LENGTHS.keySet()) {
-			int length = FIELD_NAMES_LENGTHS.get(fieldName);
-			byte[] value = Arrays.copyOfRange(cplc, idx, idx + length);
-			idx += length;
-			String valueStr = bytesToHex(value);
-			result.fields.put(fieldName, valueStr);
+		return value;
+	}
+
+	/**
+	 * @param field
+	 * @return <code>true</code> if all bytes of the field are 0 (not set)
+	 */
+	public boolean isZero(Field field) {
+		for (int i = 0; i < field._length; i++) {
+			if (_data[_offset + field._offset + i] != 0) {
+				return false;
+			}
 		}
-		return result;
+		return true;
+	}
+
+	/**
+	 * @param field
+	 * @return value of the field as hex string (e.g. "4790")
+	 */
+	public String getHex(Field field) {
+		return bytesToHex(_data, _offset + field._offset, field._length);
+	}
+
+	/**
+	 * @param field
+	 *            one of the date fields
+	 * @return the date
+	 * @throws IllegalArgumentException
+	 *             if the value is not a valid date
+	 */
+	public Date getDate(Field field) {
+		if (field._kind != Kind.DATE) {
+			throw new IllegalArgumentException(field + " is not a date");
+		}
+		return calculateCplcDate(getShort(field));
+	}
+
+	/**
+	 * @return IC fabricator ID (e.g. 0x4790 for NXP)
+	 */
+	public int getIcFabricator() {
+		return getShort(Field.IC_FABRICATOR);
+	}
+
+	/**
+	 * @return IC type ID
+	 */
+	public int getIcType() {
+		return getShort(Field.IC_TYPE);
+	}
+
+	/**
+	 * @return operating system ID
+	 */
+	public int getOperatingSystem() {
+		return getShort(Field.OPERATING_SYSTEM);
+	}
+
+	/**
+	 * @return operating system release level
+	 */
+	public int getOperatingSystemReleaseLevel() {
+		return getShort(Field.OPERATING_SYSTEM_REL_LEVEL);
+	}
+
+	/**
+	 * @return IC batch identifier
+	 */
+	public int getIcBatchIdentifier() {
+		return getShort(Field.IC_BATCH_ID);
+	}
+
+	/**
+	 * @return IC serial number (unsigned)
+	 */
+	public long getIcSerialNumber() {
+		return getValue(Field.IC_SERIAL_NUMBER);
+	}
+
+	/**
+	 * @return IC module fabricator ID
+	 */
+	public int getIcModuleFabricator() {
+		return getShort(Field.IC_MODULE_FABRICATOR);
+	}
+
+	/**
+	 * @return ICC manufacturer ID
+	 */
+	public int getIccManufacturer() {
+		return getShort(Field.ICC_MANUFACTURER);
+	}
+
+	/**
+	 * @return prepersonalizer ID
+	 */
+	public int getPrepersonalizer() {
+		return getShort(Field.PREPERSO_ID);
+	}
+
+	/**
+	 * @return personalizer ID
+	 */
+	public int getPersonalizer() {
+		return getShort(Field.PERSO_ID);
 	}
 
 	/**
@@ -122,13 +289,18 @@ public class CPLC {
 	 * identifier (CUID): ICFabricatorID || ICType || ICBatchIdentifier ||
 	 * ICSerialNumber (10 bytes)
 	 * 
-	 * @return
+	 * @return CUID as hex string
 	 */
 	public String createCardUniqueIdentifier() {
-		return fields.get(FIELD_NAME_IC_FABRICATOR)
-				+ fields.get(FIELD_NAME_IC_TYPE)
-				+ fields.get(FIELD_NAME_IC_BATCH_ID)
-				+ fields.get(FIELD_NAME_IC_SERIAL_NUMBER);
+		char[] cuid = new char[20];
+		// fabricator and type are next to each other
+		int pos = Hex.encode(_data, _offset + Field.IC_FABRICATOR._offset, 4,
+				cuid, 0);
+		pos = Hex.encode(_data, _offset + Field.IC_BATCH_ID._offset, 2, cuid,
+				pos);
+		Hex.encode(_data, _offset + Field.IC_SERIAL_NUMBER._offset, 4, cuid,
+				pos);
+		return new String(cuid);
 	}
 
 	@Override
@@ -146,134 +318,142 @@ public class CPLC {
 	 */
 	public void dump(PrintWriter pw, int indent) {
 		pw.println("Card Production Life Cycle Data (CPLC)");
-		for (String key : fields.keySet()) {
-			pw.println(String.format("%s: %s", key, fields.get(key)
-					+ (FIELD_NAME_IC_FABRICATOR.equals(key) ? " ("
-							+ getFabricatorName(fields.get(key)) + ")" : "")));
+		StringBuilder sb = new StringBuilder(64);
+		for (Field field : FIELDS) {
+			sb.setLength(0);
+			sb.append(field._name).append(": ");
+			Hex.append(sb, _data, _offset + field._offset, field._length);
+			if (field == Field.IC_FABRICATOR) {
+				sb.append(" (").append(getFabricatorName(getIcFabricator()))
+						.append(')');
+			}
+			pw.println(sb);
 		}
 		pw.println(" -> Card Unique Identifier: "
 				+ createCardUniqueIdentifier());
 	}
 
-	public static String getFabricatorName(String id) {
-		if ("4180".equals(id)) {
-			return "Atmel";
-		}
-		if ("4250".equals(id)) {
-			return "Samsung";
-		}
-		if ("4790".equals(id)) {
-			return "NXP";
-		}
-		if ("4090".equals(id)) {
-			return "Infineon Technologies AG";
-		}
-		if ("2391".equals(id)) {
-			return "AUSTRIA CARD";
-		}
-		if ("3060".equals(id)) {
-			return "Renesas";
-		}
-		// seen on an Austrian Mastercard from Kalixa
-		if ("1180".equals(id)) {
-			return "cpi-pf (CPI Card Group)";
+	/**
+	 * @param field
+	 * @return value of the field for displaying (name of fabricator or
+	 *         operating system, date, ..)
+	 */
+	public String getHumanReadableValue(Field field) {
+		switch (field._kind) {
+		case FABRICATOR:
+			return getFabricatorName(getShort(field));
+		case IC_TYPE:
+			return getIcTypeName(getShort(field));
+		case OPERATING_SYSTEM:
+			return getOperatingSystemprovider(getShort(field));
+		case DATE:
+			try {
+				return formatDateOnly(getDate(field));
+			} catch (IllegalArgumentException e) {
+				return "0x" + getHex(field);
+			}
+		case NUMBER:
+			return Integer.toString(getShort(field));
+		default:
+			return "0x" + getHex(field);
 		}
-		// seen on a Romanian Mastercard
-		if ("1143".equals(id)) {
-			return "Oberthur Technologies";
+	}
+
+	/**
+	 * @return the fields (name -> hex value), created on each call
+	 */
+	public Map<String, String> getFields() {
+		Map<String, String> fields = new LinkedHashMap<String, String>();
+		for (Field field : FIELDS) {
+			fields.put(field._name, getHex(field));
 		}
-		return "Unknown (0x" + id + ")";
+		return fields;
+	}
+
+	private int getShort(Field field) {
+		int pos = _offset + field._offset;
+		return ((_data[pos] & 0xFF) << 8) | (_data[pos + 1] & 0xFF);
+	}
+
+	/**
+	 * @param id
+	 *            fabricator ID (e.g. 0x4790)
+	 * @return name of the fabricator
+	 */
+	public static String getFabricatorName(int id) {
+		return lookup(FABRICATOR_IDS, FABRICATOR_NAMES, id);
+	}
+
+	/**
+	 * @param id
+	 *            IC type ID
+	 * @return name of the IC type
+	 */
+	public static String getIcTypeName(int id) {
+		return lookup(IC_TYPE_IDS, IC_TYPE_NAMES, id);
+	}
+
+	/**
+	 * @param id
+	 *            operating system ID
+	 * @return name of the operating system (provider)
+	 */
+	public static String getOperatingSystemprovider(int id) {
+		return lookup(OS_IDS, OS_NAMES, id);
+	}
+
+	/**
+	 * @param id
+	 *            fabricator ID as hex string (e.g. "4790")
+	 * @return name of the fabricator
+	 */
+	public static String getFabricatorName(String id) {
+		return lookup(FABRICATOR_IDS, FABRICATOR_NAMES, id);
 	}
 
+	/**
+	 * @param id
+	 *            IC type ID as hex string
+	 * @return name of the IC type
+	 */
 	public static String getIcTypeName(String id) {
-		if ("5032".equals(id)) {
-			return "SmartMX";
-		}
-		return "Unknown (0x" + id + ")";
+		return lookup(IC_TYPE_IDS, IC_TYPE_NAMES, id);
 	}
 
+	/**
+	 * @param id
+	 *            operating system ID as hex string
+	 * @return name of the operating system (provider)
+	 */
 	public static String getOperatingSystemprovider(String id) {
-		if ("2391".equals(id)) {
-			return "AUSTRIA CARD OS (ACOS)";
-		}
-		if ("8211".equals(id)) {
-			return "SCS OS";
-		}
-		if ("1291".equals(id) || "1981".equals(id)) {
-			return "TOP";
-		}
-		if ("230".equals(id) || "0230".equals(id)) {
-			return "G230";
-		}
-		if ("D000".equalsIgnoreCase(id)) {
-			return "Gemalto OS";
-		}
-		if ("4051".equals(id) || "4A5A".equalsIgnoreCase(id)
-				|| "4070".equals(id) || "4791".equals(id)) {
-			return "NXP JCOP";
-		}
-		if ("4091".equals(id)) {
-			return "Trusted Logic jTOP";
-		}
-		if ("8231".equals(id)) {
-			return "OCS";
-		}
-		if ("1671".equals(id)) {
-			return "G&D Sm@rtCaf";
-		}
-		if ("27".equals(id) || "027".equals(id) || "0027".equals(id)) {
-			return "STM027";
-		}
-		return "Unknown (0x" + id + ")";
+		return lookup(OS_IDS, OS_NAMES, id);
 	}
 
-	public static String getHumanReadableValue(final String key,
-			final String val) {
-		if (FIELD_NAME_IC_FABRICATOR.equals(key)) {
-			return getFabricatorName(val);
-		}
-		if (FIELD_NAME_ICC_MANUFACTURER.equals(key)) {
-			return getFabricatorName(val);
-		}
-		if (FIELD_NAME_IC_MODULE_FABRICATOR.equals(key)) {
-			return getFabricatorName(val);
+	private static String lookup(int[] ids, String[] names, int id) {
+		int i = Arrays.binarySearch(ids, id);
+		if (i >= 0) {
+			return names[i];
 		}
-		if (FIELD_NAME_PREPERSO_ID.equals(key)) {
-			return getFabricatorName(val);
-		}
-		if (FIELD_NAME_OPERATING_SYSTEM.equals(key)) {
-			return getOperatingSystemprovider(val);
-		}
-		if (FIELD_NAME_IC_TYPE.equals(key)) {
-			return getIcTypeName(val);
+		char[] hex = new char[4];
+		for (int j = 3; j >= 0; j--) {
+			hex[j] = Character.toUpperCase(Character.forDigit(id & 0xF, 16));
+			id >>>= 4;
 		}
+		return "Unknown (0x" + new String(hex) + ")";
+	}
 
-		if (key.contains("Date")) {
-			Date dateVal;
+	private static String lookup(int[] ids, String[] names, String id) {
+		// IDs may be given without leading zeros or in lower case
+		if (id.length() > 0 && id.length() <= 4) {
 			try {
-				dateVal = calculateCplcDate(fromHexString(val));
-			} catch (Exception e) {
-				return "0x" + val;
+				int i = Arrays.binarySearch(ids, Integer.parseInt(id, 16));
+				if (i >= 0) {
+					return names[i];
+				}
+			} catch (NumberFormatException e) {
+				// fall through
 			}
-			return formatDateOnly(dateVal);
 		}
-		if (FIELD_NAME_IC_BATCH_ID.equals(key)
-				|| FIELD_NAME_OPERATING_SYSTEM_REL_LEVEL.equals(key)) {
-			try {
-				int decimal = Integer.parseInt(val, 16);
-				return Integer.toString(decimal);
-			} catch (NumberFormatException nfe) {
-				return "0x" + val;
-			}
-		}
-		return "0x" + val;
-	}
-
-	/**
-	 * @return the parsed fields
-	 */
-	public Map<String, String> getFields() {
-		return fields;
+		return "Unknown (0x" + id + ")";
 	}
-
 }
@@ -2,23 +2,20 @@ package at.zweng.bankomatinfos.iso7816emv;
 
 import static at.zweng.bankomatinfos.util.Utils.*;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.text.DateFormat;
+import java.io.IOException;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
-import java.util.Locale;
 
-import android.content.Context;
-import android.util.Log;
 import at.zweng.bankomatinfos.exceptions.TlvParsingException;
 import at.zweng.bankomatinfos.model.InfoKeyValuePair;
+import at.zweng.bankomatinfos.util.DebugLog;
+import at.zweng.bankomatinfos.util.TextProvider;
 import at.zweng.bankomatinfos2.R;
 
 /**
@@ -294,6 +291,39 @@ public class EmvUtils {
 	public static final short SW_WRONG_P1P2 = 0x6B00;
 	public static final short SW_UNKNOWN = 0x6F00;
 
+	// tags shown in the result view
+	private static final int TAG_EXPIRATION_DATE = 0x5F24;
+	private static final int TAG_EFFECTIVE_DATE = 0x5F25;
+	private static final int TAG_PAN = 0x5A;
+	private static final int TAG_ATC = 0x9F36;
+	private static final int TAG_CRM_CURRENCY = 0xC9;
+	private static final int TAG_CRM_COUNTRY = 0xC8;
+	private static final int TAG_LOWER_CONSECUTIVE_OFFLINE_LIMIT = 0x9F14;
+	private static final int TAG_UPPER_CONSECUTIVE_OFFLINE_LIMIT = 0x9F23;
+	private static final int TAG_LOWER_CONSECUTIVE_OFFLINE_AMOUNT = 0xCA;
+	private static final int TAG_UPPER_CONSECUTIVE_OFFLINE_AMOUNT = 0xCB;
+
+	/**
+	 * Tag 9F38: Processing Options Data Object List (PDOL)
+	 */
+	private static final int TAG_PDOL = 0x9F38;
+
+	/**
+	 * Maximum length of the PDOL data in GET PROCESSING OPTIONS: Lc of a short
+	 * APDU is at most 255, minus tag '83' and a 2 byte length
+	 */
+	private static final int MAX_GPO_DATA_LENGTH = 252;
+
+	/**
+	 * Tag 94: Application File Locator (AFL)
+	 */
+	private static final int TAG_AFL = 0x94;
+
+	/**
+	 * Tag 9F5C: Cumulative Total Transaction Amount Upper Limit (CTTAUL)
+	 */
+	private static final int TAG_CUMULATIVE_TOTAL_TX_AMOUNT_UPPER_LIMIT = 0x9F5C;
+
 	/**
 	 * Creates a APDU to send
 	 * 
@@ -463,16 +493,11 @@ public class EmvUtils {
 	 * card.
 	 * 
 	 * @param selectionResponse
-	 * @return
+	 *            response of the SELECT command (including status word)
+	 * @return the command, or <code>null</code> if the data requested by the
+	 *         PDOL does not fit into a (short) APDU
 	 */
 	public static byte[] createGetProcessingOptionsApdu(byte[] selectionResponse) {
-		// TODO implement createGetProcessingOptionsApdu!!
-
-		// This method currently returns a static value, which I manually
-		// computed based on the data of my test card. May NOT WORK with other
-		// cards which send different PDOL
-		// IMPLEMENT ME!!
-
 		// In short:
 		// ----------
 		// When selecting an application the card includes in its response the
@@ -491,26 +516,137 @@ public class EmvUtils {
 		// OPTIONS which represent the CTTAUL value.
 		// EMV cards may also request more than 1 tag, for example terminal's
 		// country or currency code.. or a random number.. etc.
-
 		//
-		// Manually building my GET PROCESSING OPTIONS command:
-		//
-
-		// "9f 5c 08" = PDOL as returned on app selection in Tag 9f38
-
-		// Manually constructed command:
+		// Resulting command for my card:
 		// 80A80000 0A 83 08 FFFFFFFFFFFFFFFF 00
 		// In detail:
 		// 80A80000 is GET PROCESSING OPTIONS
-		// 0A is total length of following PDOL (=11 bytes)
+		// 0A is total length of following PDOL (=10 bytes)
 		// 83 is Tag "command template" and "Identifies the data field of a
 		// command message"
 		// 08 is the length of the following data
 		// FFFFFFFFFFFFFFFF is the data (CTTAUL value in my case)
 		// 00 is expected response length (unlimited)
+		//
+		// We don't act as a real terminal, so we simply fill all requested
+		// values with zeros (except the CTTAUL which we set to FF as before).
+		byte[] pdol = findPdol(selectionResponse);
+		ByteArrayOutputStream pdolData = new ByteArrayOutputStream();
+		if (pdol != null) {
+			TlvCursor cursor = new TlvCursor(pdol);
+			try {
+				while (cursor.nextDolEntry()) {
+					if (pdolData.size() + cursor.getValueLength() > MAX_GPO_DATA_LENGTH) {
+						DebugLog.getDefault().w("PDOL requests too much data for GET "
+								+ "PROCESSING OPTIONS: " + bytesToHex(pdol));
+						return null;
+					}
+					byte filler = cursor.getTag() == TAG_CUMULATIVE_TOTAL_TX_AMOUNT_UPPER_LIMIT ? (byte) 0xFF
+							: (byte) 0x00;
+					for (int i = 0; i < cursor.getValueLength(); i++) {
+						pdolData.write(filler);
+					}
+				}
+			} catch (TlvParsingException e) {
+				DebugLog.getDefault().w("could not parse PDOL", e);
+			}
+		}
+		byte[] data = pdolData.toByteArray();
+		// Lc: command template tag + length + data (lengths 128..252 need
+		// the long form '81 xx' for the template length)
+		int lc = 1 + TlvCursor.getEncodedLengthSize(data.length) + data.length;
+		byte[] apdu = new byte[lc + 6];
+		apdu[0] = (byte) 0x80;
+		apdu[1] = (byte) 0xA8;
+		apdu[2] = (byte) 0x00;
+		apdu[3] = (byte) 0x00;
+		apdu[4] = (byte) lc;
+		apdu[5] = (byte) 0x83;
+		int pos = TlvCursor.encodeLength(data.length, apdu, 6);
+		System.arraycopy(data, 0, apdu, pos, data.length);
+		apdu[apdu.length - 1] = (byte) 0x00;
+		return apdu;
+	}
 
-		// return fromHexString("80A800000A8308000000000000000000");
-		return fromHexString("80A800000A8308FFFFFFFFFFFFFFFF00");
+	/**
+	 * Searches the "Processing Options Data Object List" (PDOL, tag 9F38) in
+	 * the SELECT response
+	 * 
+	 * @param selectionResponse
+	 *            (including status word)
+	 * @return PDOL value bytes or <code>null</code> if card sent no PDOL
+	 */
+	private static byte[] findPdol(byte[] selectionResponse) {
+		if (selectionResponse == null || selectionResponse.length <= 2) {
+			return null;
+		}
+		try {
+			return findTagValue(selectionResponse, 0,
+					selectionResponse.length - 2, TAG_PDOL);
+		} catch (TlvParsingException e) {
+			DebugLog.getDefault().w("could not parse SELECT response for finding PDOL", e);
+		}
+		return null;
+	}
+
+	/**
+	 * Extracts the "Application File Locator" (AFL) from the response of the
+	 * GET PROCESSING OPTIONS command. The card may answer in 2 formats:<br>
+	 * <br>
+	 * Format 1: tag 80 containing AIP (2 bytes) followed by the AFL<br>
+	 * Format 2: tag 77 (constructed) containing tags 82 (AIP) and 94 (AFL)
+	 * 
+	 * @param gpoResponse
+	 *            response of GET PROCESSING OPTIONS (without status word)
+	 * @return the raw AFL bytes or <code>null</code> if not found
+	 * @throws TlvParsingException
+	 */
+	public static byte[] getAflFromGpoResponse(byte[] gpoResponse)
+			throws TlvParsingException {
+		if (gpoResponse == null || gpoResponse.length == 0) {
+			return null;
+		}
+		if (gpoResponse[0] == (byte) 0x80) {
+			BERTLV tlv = getNextTLV(new TlvCursor(gpoResponse));
+			byte[] value = tlv.getValueBytes();
+			if (value.length < 2) {
+				return null;
+			}
+			return getByteArrayPart(value, 2, value.length - 1);
+		}
+		return findTagValue(gpoResponse, 0, gpoResponse.length, TAG_AFL);
+	}
+
+	/**
+	 * Parses the "Application File Locator" (AFL). The AFL consists of groups
+	 * of 4 bytes:<br>
+	 * byte 1: SFI (bits 8-4)<br>
+	 * byte 2: first record<br>
+	 * byte 3: last record<br>
+	 * byte 4: number of records involved in offline data authentication
+	 * 
+	 * @param afl
+	 * @return list of entries
+	 * @throws TlvParsingException
+	 *             if AFL length is not a multiple of 4
+	 */
+	public static List<AflEntry> parseApplicationFileLocator(byte[] afl)
+			throws TlvParsingException {
+		if (afl == null || afl.length % 4 != 0) {
+			throw new TlvParsingException(
+					"Invalid AFL, length must be a multiple of 4: "
+							+ bytesToHexNullAllowed(afl));
+		}
+		List<AflEntry> entries = new ArrayList<AflEntry>();
+		for (int i = 0; i < afl.length; i += 4) {
+			int sfi = (afl[i] & 0xFF) >>> 3;
+			int firstRecord = afl[i + 1] & 0xFF;
+			int lastRecord = afl[i + 2] & 0xFF;
+			int offlineAuthRecords = afl[i + 3] & 0xFF;
+			entries.add(new AflEntry(sfi, firstRecord, lastRecord,
+					offlineAuthRecords));
+		}
+		return entries;
 	}
 
 	/**
@@ -590,7 +726,7 @@ public class EmvUtils {
 			throw new IllegalArgumentException(
 					"isStatusSuccess: status word was either null or length was != 2");
 		}
-		return compare2byteArrays(statusWord, SW_SUCCESS);
+		return StatusWord.pack(statusWord, 0) == StatusWord.SW_SUCCESS;
 	}
 
 	/**
@@ -602,80 +738,18 @@ public class EmvUtils {
 			throw new IllegalArgumentException(
 					"checkStatusWord: status word was either null or length was != 2");
 		}
+		return StatusWord.getMessage(StatusWord.pack(statusWord, 0));
+	}
 
-		if (compare2byteArrays(statusWord, SW_SUCCESS)) {
-			return "success :-)";
-		} else if (statusWord[0] == (byte) 0x61) {
-			return "success :-) response can be fetched by GET RESPONSE!";
-		} else if (compare2byteArrays(statusWord, SW_DATA_FAILURE)) {
-			return "returned data may be not correct";
-		} else if (compare2byteArrays(statusWord, SW_FILEEND_REACHED)) {
-			return "file end reached, could not read LE bytes";
-		} else if (compare2byteArrays(statusWord, SW_FILE_LOCKED)) {
-			return "file is locked";
-		} else if (compare2byteArrays(statusWord, SW_FILEINFO_ISO_FAILURE)) {
-			return "file info FCI is not ISO conform";
-		} else if (statusWord[0] == (byte) 0x62) {
-			return "warning: state of memory not changed";
-		} else if (statusWord[0] == (byte) 0x63) {
-			return "warning: state of memory not changed 2";
-		} else if (statusWord[0] == (byte) 0x64) {
-			return "warning: execution error";
-		} else if (compare2byteArrays(statusWord, SW_MEMORY_ERROR)) {
-			return "memory error";
-		} else if (statusWord[0] == (byte) 0x65) {
-			return "warning: execution error";
-		} else if (compare2byteArrays(statusWord, SW_LENGTH_ERROR)) {
-			return "length error, lc or le incorrect";
-		} else if (compare2byteArrays(statusWord,
-				SW_FUNC_CLASS_BYTE_NOT_SUPPORTED)) {
-			return "function in class byte not supported";
-		} else if (compare2byteArrays(statusWord, SW_LOGIC_CHAN_NOT_SUPPORTED)) {
-			return "logical channels not supported";
-		} else if (compare2byteArrays(statusWord, SW_SEC_MSG_NOT_SUPPORTED)) {
-			return "secure messaging not supported";
-		} else if (compare2byteArrays(statusWord, SW_CMD_NOT_ALLOWED)) {
-			return "command not allowed";
-		} else if (compare2byteArrays(statusWord, SW_CMD_INCOMPATIBLE)) {
-			return "command incompatible with file system structure";
-		} else if (compare2byteArrays(statusWord, SW_SEC_STATE_NOT_FULFILLED)) {
-			return "security state not fulfilled";
-		} else if (compare2byteArrays(statusWord, SW_AUTH_METHOD_LOCKED)) {
-			return "authentication method is locked";
-		} else if (compare2byteArrays(statusWord, SW_REFERENCED_DATA_LOCKED)) {
-			return "referenced data is locked";
-		} else if (compare2byteArrays(statusWord, SW_USAGE_COND_NOT_FULFILLED)) {
-			return "usage conditions are not fulfilled";
-		} else if (compare2byteArrays(statusWord, SW_CMD_NOT_ALLOWED_NO_EF_SEL)) {
-			return "command not allowed (no EF selected)";
-		} else if (compare2byteArrays(statusWord, SW_INCORRECT_PARAMS)) {
-			return "incorrect parameters P1/P2";
-		} else if (compare2byteArrays(statusWord, SW_INCORRECT_DATA)) {
-			return "incorrect data for command";
-		} else if (compare2byteArrays(statusWord, SW_FUNC_NOT_SUPPORTED)) {
-			return "function is not supported";
-		} else if (compare2byteArrays(statusWord, SW_FILE_NOT_FOUND)) {
-			return "file not found";
-		} else if (compare2byteArrays(statusWord, SW_RECORD_NOT_FOUND)) {
-			return "record not found";
-		} else if (compare2byteArrays(statusWord, SW_REFERENCED_DATA_NOT_FOUND)) {
-			return "referenced data (data objects) not found";
-		} else if (compare2byteArrays(statusWord, SW_INCORRECT_PARAMETERS_P1_P2)) {
-			return "incorrect parameters p1/p2";
-		} else if (statusWord[0] == (byte) 0x6C) {
-			return "incorrect length, second byte specifies correct length";
-		} else if (compare2byteArrays(statusWord, SW_DATA_FAILURE)) {
-			return "success";
-		} else if (compare2byteArrays(statusWord, SW_CMD_CLASS_NOT_SUPPORTED)) {
-			return "this command class (CLA) is not supported";
-		} else if (compare2byteArrays(statusWord, SW_CMD_ABORTED_UNKNOWN_ERR)) {
-			return "command aborted with unknown errors";
-		} else if (compare2byteArrays(statusWord, SW_INS_NOT_SUPPORTED)) {
-			return "instruction not supported";
-		} else if (compare2byteArrays(statusWord, SW_CMD_NOT_ALLOWED)) {
-			return "command not allowed";
-		}
-		return "----- UNKNOWN RETURN CODE!!! ------";
+	/**
+	 * @param data
+	 *            e.g. a complete response APDU
+	 * @param offset
+	 *            position of the status word within data
+	 * @return string representation of the statusword
+	 */
+	public static String statusToString(byte[] data, int offset) {
+		return StatusWord.getMessage(StatusWord.pack(data, offset));
 	}
 
 	/**
@@ -688,8 +762,9 @@ public class EmvUtils {
 	 * 
 	 * @param date
 	 * @param time
-	 * @return
+	 * @return date or null if all 3 date bytes are 0
 	 * @throws ParseException
+	 * @see BcdDate
 	 */
 	public static Date getTimeStampFromBcdBytes(byte[] date, byte[] time)
 			throws ParseException {
@@ -701,9 +776,10 @@ public class EmvUtils {
 			throw new IllegalArgumentException(
 					"getTimeStampFromBytes: time must be exactly 3 bytes long");
 		}
-		DateFormat df = new SimpleDateFormat("yy MM dd  HH mm ss", Locale.US);
-		return df.parse(prettyPrintString(bytesToHex(date), 2) + "  "
-				+ prettyPrintString(bytesToHex(time), 2));
+		byte[] dateTime = { date[0], date[1], date[2], time[0], time[1],
+				time[2] };
+		long millis = BcdDate.toMillis(dateTime, 0, 3);
+		return millis == BcdDate.NO_DATE ? null : new Date(millis);
 	}
 
 	/**
@@ -716,18 +792,15 @@ public class EmvUtils {
 	 * @param date
 	 * @return date or null if all 3 bytes are 0
 	 * @throws ParseException
+	 * @see BcdDate
 	 */
 	public static Date getDateFromBcdBytes(byte[] date) throws ParseException {
 		if (date == null || date.length != 3) {
 			throw new IllegalArgumentException(
 					"getDateFromBcdBytes: date must be exactly 3 bytes long");
 		}
-		String s = prettyPrintString(bytesToHex(date), 2);
-		if ("00 00 00".equals(s)) {
-			return null;
-		}
-		DateFormat df = new SimpleDateFormat("yy MM dd", Locale.US);
-		return df.parse(s);
+		long millis = BcdDate.toMillis(date, 0, -1);
+		return millis == BcdDate.NO_DATE ? null : new Date(millis);
 	}
 
 	/**
@@ -800,115 +873,21 @@ public class EmvUtils {
 	}
 
 	/**
+	 * Moves the cursor to the next TLV object and returns it as
+	 * {@link BERTLV} object
 	 * 
-	 * source: https://code.google.com/p/javaemvreader/
-	 * 
-	 * @param stream
+	 * @param cursor
 	 * @return
-	 * @throws NfcException
+	 * @throws TlvParsingException
+	 *             if the data is invalid or no more TLV objects are available
 	 */
-	public static BERTLV getNextTLV(ByteArrayInputStream stream)
+	public static BERTLV getNextTLV(TlvCursor cursor)
 			throws TlvParsingException {
-		if (stream.available() < 2) {
-			throw new TlvParsingException(
-					"Error parsing data. Available bytes < 2 . Length="
-							+ stream.available());
-		}
-
-		// ISO/IEC 7816 uses neither '00' nor 'FF' as tag value.
-		// Before, between, or after TLV-coded data objects,
-		// '00' or 'FF' bytes without any meaning may occur
-		// (for example, due to erased or modified TLV-coded data objects).
-
-		stream.mark(0);
-		int peekInt = stream.read();
-		byte peekByte = (byte) peekInt;
-		// peekInt == 0xffffffff indicates EOS
-		while (peekInt != -1
-				&& (peekByte == (byte) 0xFF || peekByte == (byte) 0x00)) {
-			stream.mark(0); // Current position
-			peekInt = stream.read();
-			peekByte = (byte) peekInt;
-		}
-		stream.reset(); // Reset back to the last known position without 0x00 or
-						// 0xFF
-
-		if (stream.available() < 2) {
+		if (!cursor.next()) {
 			throw new TlvParsingException(
-					"Error parsing data. Available bytes < 2 . Length="
-							+ stream.available());
-		}
-
-		byte[] tagIdBytes = readTagIdBytes(stream);
-
-		// We need to get the raw length bytes.
-		// Use quick and dirty workaround
-		stream.mark(0);
-		int posBefore = stream.available();
-		// Now parse the lengthbyte(s)
-		// This method will read all length bytes. We can then find out how many
-		// bytes was read.
-		int length = readTagLength(stream);
-		// Now find the raw length bytes
-		int posAfter = stream.available();
-		stream.reset();
-		byte[] lengthBytes = new byte[posBefore - posAfter];
-		stream.read(lengthBytes, 0, lengthBytes.length);
-
-		int rawLength = byteArrayToInt(lengthBytes);
-
-		byte[] valueBytes = null;
-
-		EmvTag tag = EMVTags.getNotNull(tagIdBytes);
-
-		// Find VALUE bytes
-		if (rawLength == 128) { // 1000 0000
-			// indefinite form
-			stream.mark(0);
-			int prevOctet = 1;
-			int curOctet = 0;
-			int len = 0;
-			while (true) {
-				len++;
-				curOctet = stream.read();
-				if (curOctet < 0) {
-					throw new TlvParsingException(
-							"Error parsing data. TLV "
-									+ "length byte indicated indefinite length, but EOS "
-									+ "was reached before 0x0000 was found"
-									+ stream.available());
-				}
-				if (prevOctet == 0 && curOctet == 0) {
-					break;
-				}
-				prevOctet = curOctet;
-			}
-			len -= 2;
-			valueBytes = new byte[len];
-			stream.reset();
-			stream.read(valueBytes, 0, len);
-			length = len;
-		} else {
-			// definite form
-			valueBytes = new byte[length];
-			stream.read(valueBytes, 0, length);
+					"Error parsing data. No more TLV objects available.");
 		}
-
-		// Remove any trailing 0x00 and 0xFF
-		stream.mark(0);
-		peekInt = stream.read();
-		peekByte = (byte) peekInt;
-		while (peekInt != -1
-				&& (peekByte == (byte) 0xFF || peekByte == (byte) 0x00)) {
-			stream.mark(0);
-			peekInt = stream.read();
-			peekByte = (byte) peekInt;
-		}
-		stream.reset(); // Reset back to the last known position without 0x00 or
-						// 0xFF
-
-		BERTLV tlv = new BERTLV(tag, length, lengthBytes, valueBytes);
-		return tlv;
+		return cursor.toBERTLV();
 	}
 
 	/**
@@ -925,57 +904,11 @@ public class EmvUtils {
 	public static String prettyPrintBerTlvAPDUResponse(byte[] data,
 			int indentLength) throws TlvParsingException {
 		StringBuilder buf = new StringBuilder();
-
-		ByteArrayInputStream stream = new ByteArrayInputStream(data);
-
-		while (stream.available() > 0) {
-			buf.append("\n");
-
-			buf.append(getSpaces(indentLength));
-
-			BERTLV tlv = getNextTLV(stream);
-
-			// Log.debug(tlv.toString());
-
-			byte[] tagBytes = tlv.getTagBytes();
-			byte[] lengthBytes = tlv.getRawEncodedLengthBytes();
-			byte[] valueBytes = tlv.getValueBytes();
-
-			EmvTag tag = tlv.getTag();
-
-			// buf.append(" TAG: ");
-			buf.append(prettyPrintString(bytesToHex(tagBytes), 2));
-			buf.append("  -  ");
-			buf.append(prettyPrintString(bytesToHex(lengthBytes), 2));
-			buf.append(" bytes: ");
-			buf.append(tag.getName());
-
-			// int extraIndent = (lengthBytes.length * 3) + (tagBytes.length *
-			// 3);
-			int extraIndent = (lengthBytes.length * 2) + (tagBytes.length * 2);
-			// int extraIndent = 2;
-
-			if (tag.isConstructed()) {
-				// indentLength += extraIndent;
-				// Recursion
-				buf.append(prettyPrintBerTlvAPDUResponse(valueBytes,
-						indentLength + extraIndent));
-			} else {
-				buf.append("\n");
-				if (tag.getTagValueType() == TagValueType.DOL) {
-					buf.append(getFormattedTagAndLength(valueBytes,
-							indentLength + extraIndent));
-				} else {
-					buf.append(getSpaces(indentLength + extraIndent));
-
-					buf.append(prettyPrintHex(bytesToHex(valueBytes),
-							indentLength + extraIndent));
-
-					buf.append(" (");
-					buf.append(getTagValueInfo(tag, valueBytes));
-					buf.append(")");
-				}
-			}
+		try {
+			new BerTlvPrinter(buf).print(data, 0, data.length, indentLength);
+		} catch (IOException e) {
+			// StringBuilder never throws
+			throw new IllegalStateException(e);
 		}
 		return buf.toString();
 	}
@@ -993,170 +926,187 @@ public class EmvUtils {
 	 */
 	public static List<TagAndValue> getTagsFromBerTlvAPDUResponse(byte[] data)
 			throws TlvParsingException {
+		return getTagsFromBerTlvAPDUResponse(data, 0, data.length);
+	}
+
+	/**
+	 * Tries to parse a part of a byte array as EMV BER-TLV encoded data and
+	 * returns a list of all primitive tags
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return
+	 * @throws TlvParsingException
+	 */
+	public static List<TagAndValue> getTagsFromBerTlvAPDUResponse(
+			byte[] data, int offset, int length) throws TlvParsingException {
 		List<TagAndValue> tagList = new ArrayList<TagAndValue>();
-		ByteArrayInputStream stream = new ByteArrayInputStream(data);
-		while (stream.available() > 0) {
-			BERTLV tlv = getNextTLV(stream);
-			EmvTag tag = tlv.getTag();
-			byte[] valueBytes = tlv.getValueBytes();
+		collectTags(new TlvCursor(data, offset, length), tagList);
+		return tagList;
+	}
 
-			if (tag.isConstructed()) {
+	/**
+	 * Adds all primitive tags found by the cursor (recursing into constructed
+	 * tags) to the list
+	 * 
+	 * @param cursor
+	 * @param tagList
+	 * @throws TlvParsingException
+	 */
+	private static void collectTags(TlvCursor cursor, List<TagAndValue> tagList)
+			throws TlvParsingException {
+		while (cursor.next()) {
+			if (cursor.isConstructed()) {
 				// Recursion:
-				tagList.addAll(getTagsFromBerTlvAPDUResponse(tlv
-						.getValueBytes()));
+				collectTags(cursor.children(), tagList);
 			} else {
-				tagList.add(new TagAndValue(tag, valueBytes));
+				tagList.add(cursor.toTagAndValue());
 			}
 		}
-		return tagList;
 	}
 
 	/**
-	 * Filters interesting tags to be displayed in the result view
+	 * Searches the first occurrence of a primitive tag in BER-TLV encoded data
+	 * (recursing into constructed tags) without decoding the other tags
 	 * 
-	 * @param tagList
-	 * @return
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @param tag
+	 *            tag bytes packed into an int (e.g. 0x9F38)
+	 * @return copy of the value bytes or <code>null</code> if not found
+	 * @throws TlvParsingException
 	 */
-	public static List<InfoKeyValuePair> filterTagsForResult(Context ctx,
-			List<TagAndValue> tagList, boolean cutOffLastAccountnumberDigit) {
-		List<InfoKeyValuePair> resultList = new ArrayList<InfoKeyValuePair>();
-		String tagBytesHexString;
-
-		for (TagAndValue tagAndValue : tagList) {
-			tagBytesHexString = bytesToHex(tagAndValue.getTag().getTagBytes());
-
-			// Expiration date
-			if ("5F24".equalsIgnoreCase(tagBytesHexString)) {
-				try {
-					InfoKeyValuePair expirationDate = new InfoKeyValuePair(ctx
-							.getResources().getString(
-									R.string.lbl_expiration_date),
-							formatDateOnly(getDateFromBcdBytes(tagAndValue
-									.getValue())));
-					resultList.add(expirationDate);
-				} catch (ParseException e) {
-					// dont add in case we cannot parse
-					Log.w(TAG, "cannot parse expiration date!", e);
-				}
-			}
-			// Effective date
-			else if ("5F25".equalsIgnoreCase(tagBytesHexString)) {
-				try {
-					InfoKeyValuePair expirationDate = new InfoKeyValuePair(ctx
-							.getResources().getString(
-									R.string.lbl_effective_date),
-							formatDateOnly(getDateFromBcdBytes(tagAndValue
-									.getValue())));
-					resultList.add(expirationDate);
-				} catch (ParseException e) {
-					// dont add in case we cannot parse
-					Log.w(TAG, "cannot parse effective date!", e);
-				}
-			}
-			// Account Number
-			else if ("5A".equalsIgnoreCase(tagBytesHexString)) {
-				if (tagAndValue.getValue() != null
-						&& tagAndValue.getValue().length > 1) {
-					String primaryAccountNumber = bytesToHex(tagAndValue
-							.getValue());
-					if (cutOffLastAccountnumberDigit) {
-						// last character is always F: cut it off:
-						primaryAccountNumber = primaryAccountNumber.substring(
-								0, primaryAccountNumber.length() - 1);
-					}
-					resultList.add(new InfoKeyValuePair(ctx.getResources()
-							.getString(R.string.lbl_primary_account_number),
-							prettyPrintString(primaryAccountNumber, 4)));
-				}
-			}
+	public static byte[] findTagValue(byte[] data, int offset, int length,
+			int tag) throws TlvParsingException {
+		return findTagValue(new TlvCursor(data, offset, length), tag);
+	}
 
-			// Current ATC (application transaction counter) value
-			else if ("9F36".equalsIgnoreCase(tagBytesHexString)) {
-				if (tagAndValue.getValue() != null
-						&& tagAndValue.getValue().length > 1) {
-					int currentTransactionCounter = byteArrayToInt(tagAndValue
-							.getValue());
-					resultList
-							.add(new InfoKeyValuePair(
-									ctx.getResources()
-											.getString(
-													R.string.lbl_application_transaction_counter),
-									Integer.toString(currentTransactionCounter)));
+	/**
+	 * Recursive helper for {@link #findTagValue(byte[], int, int, int)}
+	 */
+	private static byte[] findTagValue(TlvCursor cursor, int tag)
+			throws TlvParsingException {
+		while (cursor.next()) {
+			if (cursor.isConstructed()) {
+				byte[] value = findTagValue(cursor.children(), tag);
+				if (value != null) {
+					return value;
 				}
+			} else if (cursor.getTag() == tag) {
+				return cursor.copyValueBytes();
 			}
+		}
+		return null;
+	}
 
-			//
-			// display mastercard specific(??) stuff
-			//
-
-			// Card risk management currency ?
-			if ("C9".equalsIgnoreCase(tagBytesHexString)) {
-				InfoKeyValuePair crmCurrency = new InfoKeyValuePair(ctx
-						.getResources().getString(
-								R.string.lbl_card_risk_management_currency),
-						Iso4217CurrencyCodes.getCurrencyAsString(tagAndValue
-								.getValue()));
-				resultList.add(crmCurrency);
-			}
-
-			// country code for card risk management ?
-			if ("C8".equalsIgnoreCase(tagBytesHexString)) {
-				InfoKeyValuePair crmCountry = new InfoKeyValuePair(ctx
-						.getResources().getString(
-								R.string.lbl_card_risk_management_country),
-						Iso3166CountryCodes.getCountryAsString(tagAndValue
-								.getValue()));
-				resultList.add(crmCountry);
-			}
+	/**
+	 * Extracts the interesting tags to be displayed in the result view from
+	 * the index of all tags read from the card (if a tag was found with
+	 * different values, e.g. in several applications, all values are shown)
+	 * 
+	 * @param texts
+	 *            for the labels
+	 * @param tags
+	 * @param cutOffLastAccountnumberDigit
+	 * @return
+	 */
+	public static List<InfoKeyValuePair> filterTagsForResult(TextProvider texts,
+			TlvIndex tags, boolean cutOffLastAccountnumberDigit) {
+		List<InfoKeyValuePair> resultList = new ArrayList<InfoKeyValuePair>();
 
-			// lower consecutive offline limit
-			if ("9F14".equalsIgnoreCase(tagBytesHexString)) {
-				InfoKeyValuePair kvPair = new InfoKeyValuePair(
-						ctx.getResources().getString(
-								R.string.lbl_lower_consecutive_offline_limit),
-						Integer.toString(byteArrayToInt(tagAndValue.getValue())));
-				resultList.add(kvPair);
+		// Expiration date
+		for (int e = tags.find(TAG_EXPIRATION_DATE); e >= 0; e = tags
+				.findNext(e)) {
+			try {
+				resultList.add(new InfoKeyValuePair(texts
+						.getString(R.string.lbl_expiration_date),
+						formatDateOnly(getDateFromBcdBytes(tags.copyValue(e)))));
+			} catch (ParseException ex) {
+				// dont add in case we cannot parse
+				DebugLog.getDefault().w("cannot parse expiration date!", ex);
 			}
-
-			// upper consecutive offline limit
-			if ("9F23".equalsIgnoreCase(tagBytesHexString)) {
-				InfoKeyValuePair kvPair = new InfoKeyValuePair(
-						ctx.getResources().getString(
-								R.string.lbl_upper_consecutive_offline_limit),
-						Integer.toString(byteArrayToInt(tagAndValue.getValue())));
-				resultList.add(kvPair);
+		}
+		// Effective date
+		for (int e = tags.find(TAG_EFFECTIVE_DATE); e >= 0; e = tags
+				.findNext(e)) {
+			try {
+				resultList.add(new InfoKeyValuePair(texts
+						.getString(R.string.lbl_effective_date),
+						formatDateOnly(getDateFromBcdBytes(tags.copyValue(e)))));
+			} catch (ParseException ex) {
+				// dont add in case we cannot parse
+				DebugLog.getDefault().w("cannot parse effective date!", ex);
 			}
-
-			// lower consecutive tx amount
-			if ("CA".equalsIgnoreCase(tagBytesHexString)) {
-				InfoKeyValuePair kvPair = new InfoKeyValuePair(
-						ctx.getResources()
-								.getString(
-										R.string.lbl_lower_consecutive_offline_tx_amount),
-						formatBalance(getAmountFromBcdBytes(tagAndValue
-								.getValue())));
-				resultList.add(kvPair);
+		}
+		// Account Number
+		for (int e = tags.find(TAG_PAN); e >= 0; e = tags.findNext(e)) {
+			if (tags.getValueLength(e) > 1) {
+				String primaryAccountNumber = bytesToHex(tags.getArena(),
+						tags.getValueOffset(e), tags.getValueLength(e));
+				if (cutOffLastAccountnumberDigit) {
+					// last character is always F: cut it off:
+					primaryAccountNumber = primaryAccountNumber.substring(0,
+							primaryAccountNumber.length() - 1);
+				}
+				resultList.add(new InfoKeyValuePair(texts
+						.getString(R.string.lbl_primary_account_number),
+						prettyPrintString(primaryAccountNumber, 4)));
 			}
-
-			// upper consecutive tx amount
-			if ("CB".equalsIgnoreCase(tagBytesHexString)) {
-				InfoKeyValuePair kvPair = new InfoKeyValuePair(
-						ctx.getResources()
-								.getString(
-										R.string.lbl_upper_consecutive_offline_tx_amount),
-						formatBalance(getAmountFromBcdBytes(tagAndValue
-								.getValue())));
-				resultList.add(kvPair);
+		}
+		// Current ATC (application transaction counter) value
+		for (int e = tags.find(TAG_ATC); e >= 0; e = tags.findNext(e)) {
+			if (tags.getValueLength(e) > 1) {
+				resultList.add(new InfoKeyValuePair(texts
+						.getString(R.string.lbl_application_transaction_counter),
+						Integer.toString(byteArrayToInt(tags.copyValue(e)))));
 			}
+		}
 
-			// Log.d(TAG, "  name: " + tagAndValue.getTag().getName());
-			// Log.d(TAG, "   tag: "
-			// + bytesToHex(tagAndValue.getTag().getTagBytes()));
-			// Log.d(TAG,
-			// "   val: "
-			// + getTagValueAsString(tagAndValue.getTag(),
-			// tagAndValue.getValue()));
+		//
+		// display mastercard specific(??) stuff
+		//
 
+		// Card risk management currency ?
+		for (int e = tags.find(TAG_CRM_CURRENCY); e >= 0; e = tags.findNext(e)) {
+			resultList.add(new InfoKeyValuePair(texts.getString(
+					R.string.lbl_card_risk_management_currency),
+					Iso4217CurrencyCodes.getCurrencyAsString(tags.copyValue(e))));
+		}
+		// country code for card risk management ?
+		for (int e = tags.find(TAG_CRM_COUNTRY); e >= 0; e = tags.findNext(e)) {
+			resultList.add(new InfoKeyValuePair(texts.getString(
+					R.string.lbl_card_risk_management_country),
+					Iso3166CountryCodes.getCountryAsString(tags.copyValue(e))));
+		}
+		// lower consecutive offline limit
+		for (int e = tags.find(TAG_LOWER_CONSECUTIVE_OFFLINE_LIMIT); e >= 0; e = tags
+				.findNext(e)) {
+			resultList.add(new InfoKeyValuePair(texts.getString(
+					R.string.lbl_lower_consecutive_offline_limit),
+					Integer.toString(byteArrayToInt(tags.copyValue(e)))));
+		}
+		// upper consecutive offline limit
+		for (int e = tags.find(TAG_UPPER_CONSECUTIVE_OFFLINE_LIMIT); e >= 0; e = tags
+				.findNext(e)) {
+			resultList.add(new InfoKeyValuePair(texts.getString(
+					R.string.lbl_upper_consecutive_offline_limit),
+					Integer.toString(byteArrayToInt(tags.copyValue(e)))));
+		}
+		// lower consecutive tx amount
+		for (int e = tags.find(TAG_LOWER_CONSECUTIVE_OFFLINE_AMOUNT); e >= 0; e = tags
+				.findNext(e)) {
+			resultList.add(new InfoKeyValuePair(texts.getString(
+					R.string.lbl_lower_consecutive_offline_tx_amount),
+					formatBalance(getAmountFromBcdBytes(tags.copyValue(e)))));
+		}
+		// upper consecutive tx amount
+		for (int e = tags.find(TAG_UPPER_CONSECUTIVE_OFFLINE_AMOUNT); e >= 0; e = tags
+				.findNext(e)) {
+			resultList.add(new InfoKeyValuePair(texts.getString(
+					R.string.lbl_upper_consecutive_offline_tx_amount),
+					formatBalance(getAmountFromBcdBytes(tags.copyValue(e)))));
 		}
 		return resultList;
 	}
@@ -1175,14 +1125,29 @@ public class EmvUtils {
 			throw new IllegalArgumentException(
 					"Error! CLCP Date values consist always of exactly 2 bytes");
 		}
+		return calculateCplcDate(((dateBytes[0] & 0xFF) << 8)
+				| (dateBytes[1] & 0xFF));
+	}
+
+	/**
+	 * Takes a date value as used in CPLC Date fields
+	 * 
+	 * @param dateValue
+	 *            the 2 date bytes (e.g. 0x3123 for day 123 of a year ending
+	 *            with 3)
+	 * @throws IllegalArgumentException
+	 * @return
+	 */
+	public static Date calculateCplcDate(int dateValue)
+			throws IllegalArgumentException {
 		// current time
 		Calendar now = Calendar.getInstance();
 
 		int year = now.get(Calendar.YEAR);
 		int startYearOfCurrentDecade = year - (year % 10);
 
-		int days = 100 * (dateBytes[0] & 0xF) + 10 * (0xF & dateBytes[1] >>> 4)
-				+ (dateBytes[1] & 0xF);
+		int days = 100 * ((dateValue >>> 8) & 0xF) + 10
+				* ((dateValue >>> 4) & 0xF) + (dateValue & 0xF);
 
 		if (days > 366) {
 			throw new IllegalArgumentException(
@@ -1192,7 +1157,7 @@ public class EmvUtils {
 		Calendar calculatedDate = Calendar.getInstance();
 		calculatedDate.clear();
 		calculatedDate.set(Calendar.YEAR, startYearOfCurrentDecade
-				+ (0xF & dateBytes[0] >>> 4));
+				+ ((dateValue >>> 12) & 0xF));
 		calculatedDate.set(Calendar.DAY_OF_YEAR, days);
 		while (calculatedDate.after(now)) {
 			calculatedDate.add(Calendar.YEAR, -10);
@@ -1267,109 +1232,6 @@ public class EmvUtils {
 		return true;
 	}
 
-	/**
-	 * read tag id bytes from EMV tag bytestream
-	 * 
-	 * source: https://code.google.com/p/javaemvreader/
-	 * 
-	 * @param stream
-	 * @return
-	 */
-	private static byte[] readTagIdBytes(ByteArrayInputStream stream) {
-		ByteArrayOutputStream tagBAOS = new ByteArrayOutputStream();
-		byte tagFirstOctet = (byte) stream.read();
-		tagBAOS.write(tagFirstOctet);
-
-		// Find TAG bytes
-		byte MASK = (byte) 0x1F;
-		if ((tagFirstOctet & MASK) == MASK) { // EMV book 3, Page 178 or Annex
-												// B1 (EMV4.3)
-			// Tag field is longer than 1 byte
-			do {
-				int nextOctet = stream.read();
-				if (nextOctet < 0) {
-					break;
-				}
-				byte tlvIdNextOctet = (byte) nextOctet;
-
-				tagBAOS.write(tlvIdNextOctet);
-
-				if (!isBitSet(tlvIdNextOctet, 8)) {
-					break;
-				}
-			} while (true);
-		}
-		return tagBAOS.toByteArray();
-	}
-
-	/**
-	 * read length value from EMV tag bytestream
-	 * 
-	 * source: https://code.google.com/p/javaemvreader/
-	 * 
-	 * @param stream
-	 * @return
-	 */
-	private static int readTagLength(ByteArrayInputStream stream) {
-		// Find LENGTH bytes
-		int length;
-		int tmpLength = stream.read();
-
-		if (tmpLength <= 127) { // 0111 1111
-			// short length form
-			length = tmpLength;
-		} else if (tmpLength == 128) { // 1000 0000
-			// length identifies indefinite form, will be set later
-			length = tmpLength;
-		} else {
-			// long length form
-			int numberOfLengthOctets = tmpLength & 127; // turn off 8th bit
-			tmpLength = 0;
-			for (int i = 0; i < numberOfLengthOctets; i++) {
-				int nextLengthOctet = stream.read();
-				tmpLength <<= 8;
-				tmpLength |= nextLengthOctet;
-			}
-			length = tmpLength;
-		}
-		return length;
-	}
-
-	/**
-	 * Returns a string representation of a list of Tag and Lengths (eg DOLs)<br>
-	 * 
-	 * source: https://code.google.com/p/javaemvreader/
-	 * 
-	 * @param data
-	 * @param indentLength
-	 * @return
-	 */
-	private static String getFormattedTagAndLength(byte[] data, int indentLength) {
-		StringBuilder buf = new StringBuilder();
-		String indent = getSpaces(indentLength);
-		ByteArrayInputStream stream = new ByteArrayInputStream(data);
-
-		boolean firstLine = true;
-		while (stream.available() > 0) {
-			if (firstLine) {
-				firstLine = false;
-			} else {
-				buf.append("\n");
-			}
-			buf.append(indent);
-
-			EmvTag tag = EMVTags.getNotNull(readTagIdBytes(stream));
-			int length = readTagLength(stream);
-
-			buf.append(prettyPrintString(bytesToHex(tag.getTagBytes()), 2));
-			buf.append(" (");
-			buf.append(bytesToHex(intToByteArray(length)));
-			buf.append(" bytes) -> ");
-			buf.append(tag.getName());
-		}
-		return buf.toString();
-	}
-
 	/**
 	 * Tag value as string
 	 * 
@@ -1379,7 +1241,7 @@ public class EmvUtils {
 	 * @param value
 	 * @return
 	 */
-	private static String getTagValueInfo(EmvTag tag, byte[] value) {
+	static String getTagValueInfo(EmvTag tag, byte[] value) {
 		StringBuilder buf = new StringBuilder();
 		switch (tag.getTagValueType()) {
 		case TEXT:
@@ -2,90 +2,305 @@ package at.zweng.bankomatinfos.iso7816emv;
 
 import static at.zweng.bankomatinfos.util.Utils.bytesToHex;
 
+/**
+ * Country names by ISO 3166-1 numeric code. All codes are kept in an array
+ * indexed by the numeric code (plus 891 for the former Serbia and
+ * Montenegro), so a lookup is an array access. On the card the numeric code
+ * is BCD encoded in 2 bytes (e.g. 00 40 for Austria).
+ */
 public class Iso3166CountryCodes {
 
+	private static final int CODES = 1000;
+
+	// by numeric code, null if unknown
+	private static final String[] NAMES = new String[CODES];
+
+	static {
+		add(4, "Afghanistan");
+		add(8, "Albania");
+		add(10, "Antarctica");
+		add(12, "Algeria");
+		add(16, "American Samoa");
+		add(20, "Andorra");
+		add(24, "Angola");
+		add(28, "Antigua and Barbuda");
+		add(31, "Azerbaijan");
+		add(32, "Argentina");
+		add(36, "Australia");
+		add(40, "Austria");
+		add(44, "Bahamas");
+		add(48, "Bahrain");
+		add(50, "Bangladesh");
+		add(51, "Armenia");
+		add(52, "Barbados");
+		add(56, "Belgium");
+		add(60, "Bermuda");
+		add(64, "Bhutan");
+		add(68, "Bolivia");
+		add(70, "Bosnia and Herzegovina");
+		add(72, "Botswana");
+		add(74, "Bouvet Island");
+		add(76, "Brazil");
+		add(84, "Belize");
+		add(86, "British Indian Ocean Territory");
+		add(90, "Solomon Islands");
+		add(92, "Virgin Islands (British)");
+		add(96, "Brunei Darussalam");
+		add(100, "Bulgaria");
+		add(104, "Myanmar");
+		add(108, "Burundi");
+		add(112, "Belarus");
+		add(116, "Cambodia");
+		add(120, "Cameroon");
+		add(124, "Canada");
+		add(132, "Cabo Verde");
+		add(136, "Cayman Islands");
+		add(140, "Central African Republic");
+		add(144, "Sri Lanka");
+		add(148, "Chad");
+		add(152, "Chile");
+		add(156, "China");
+		add(158, "Taiwan");
+		add(162, "Christmas Island");
+		add(166, "Cocos (Keeling) Islands");
+		add(170, "Colombia");
+		add(174, "Comoros");
+		add(175, "Mayotte");
+		add(178, "Congo");
+		add(180, "Congo, Democratic Republic of the");
+		add(184, "Cook Islands");
+		add(188, "Costa Rica");
+		add(191, "Hrvatska (Croatia)");
+		add(192, "Cuba");
+		add(196, "Cyprus, Republic of");
+		add(203, "Czech Republic");
+		add(204, "Benin");
+		add(208, "Denmark");
+		add(212, "Dominica");
+		add(214, "Dominican Republic");
+		add(218, "Ecuador");
+		add(222, "El Salvador");
+		add(226, "Equatorial Guinea");
+		add(231, "Ethiopia");
+		add(232, "Eritrea");
+		add(233, "Estonia");
+		add(234, "Faroe Islands");
+		add(238, "Falkland Islands (Malvinas)");
+		add(239, "South Georgia and the South Sandwich Islands");
+		add(242, "Fiji");
+		add(246, "Finland");
+		add(248, "Åland Islands");
+		add(250, "France");
+		add(254, "French Guiana");
+		add(258, "French Polynesia");
+		add(260, "French Southern Territories");
+		add(262, "Djibouti");
+		add(266, "Gabon");
+		add(268, "Georgia");
+		add(270, "Gambia");
+		add(275, "Palestine, State of");
+		add(276, "Germany");
+		add(288, "Ghana");
+		add(292, "Gibraltar");
+		add(296, "Kiribati");
+		add(300, "Greece");
+		add(304, "Greenland");
+		add(308, "Grenada");
+		add(312, "Guadeloupe");
+		add(316, "Guam");
+		add(320, "Guatemala");
+		add(324, "Guinea");
+		add(328, "Guyana");
+		add(332, "Haiti");
+		add(334, "Heard Island and McDonald Islands");
+		add(336, "Holy See (Vatican City)");
+		add(340, "Honduras");
+		add(344, "Hong Kong");
+		add(348, "Hungary");
+		add(352, "Iceland");
+		add(356, "India");
+		add(360, "Indonesia");
+		add(364, "Iran");
+		add(368, "Iraq");
+		add(372, "Ireland");
+		add(376, "Israel");
+		add(380, "Italy");
+		add(384, "Côte d'Ivoire");
+		add(388, "Jamaica");
+		add(392, "Japan");
+		add(398, "Kazakhstan");
+		add(400, "Jordan");
+		add(404, "Kenya");
+		add(408, "Korea, Democratic People's Republic of");
+		add(410, "Korea, Republic of");
+		add(414, "Kuwait");
+		add(417, "Kyrgyzstan");
+		add(418, "Lao People's Democratic Republic");
+		add(422, "Lebanon");
+		add(426, "Lesotho");
+		add(428, "Latvia");
+		add(430, "Liberia");
+		add(434, "Libya");
+		add(438, "Liechtenstein");
+		add(440, "Lithuania");
+		add(442, "Luxembourg");
+		add(446, "Macao");
+		add(450, "Madagascar");
+		add(454, "Malawi");
+		add(458, "Malaysia");
+		add(462, "Maldives");
+		add(466, "Mali");
+		add(470, "Malta");
+		add(474, "Martinique");
+		add(478, "Mauritania");
+		add(480, "Mauritius");
+		add(484, "Mexico");
+		add(492, "Monaco");
+		add(496, "Mongolia");
+		add(498, "Moldova");
+		add(499, "Montenegro");
+		add(500, "Montserrat");
+		add(504, "Morocco");
+		add(508, "Mozambique");
+		add(512, "Oman");
+		add(516, "Namibia");
+		add(520, "Nauru");
+		add(524, "Nepal");
+		add(528, "Netherlands");
+		add(531, "Curaçao");
+		add(533, "Aruba");
+		add(534, "Sint Maarten (Dutch part)");
+		add(535, "Bonaire, Sint Eustatius and Saba");
+		add(540, "New Caledonia");
+		add(548, "Vanuatu");
+		add(554, "New Zealand");
+		add(558, "Nicaragua");
+		add(562, "Niger");
+		add(566, "Nigeria");
+		add(570, "Niue");
+		add(574, "Norfolk Island");
+		add(578, "Norway");
+		add(580, "Northern Mariana Islands");
+		add(581, "United States Minor Outlying Islands");
+		add(583, "Micronesia");
+		add(584, "Marshall Islands");
+		add(585, "Palau");
+		add(586, "Pakistan");
+		add(591, "Panama");
+		add(598, "Papua New Guinea");
+		add(600, "Paraguay");
+		add(604, "Peru");
+		add(608, "Philippines");
+		add(612, "Pitcairn");
+		add(616, "Poland");
+		add(620, "Portugal");
+		add(624, "Guinea-Bissau");
+		add(626, "Timor-Leste");
+		add(630, "Puerto Rico");
+		add(634, "Qatar");
+		add(638, "Réunion");
+		add(642, "Romania");
+		add(643, "Russian Federation");
+		add(646, "Rwanda");
+		add(652, "Saint Barthélemy");
+		add(654, "Saint Helena, Ascension and Tristan da Cunha");
+		add(659, "Saint Kitts and Nevis");
+		add(660, "Anguilla");
+		add(662, "Saint Lucia");
+		add(663, "Saint Martin (French part)");
+		add(666, "Saint Pierre and Miquelon");
+		add(670, "Saint Vincent and the Grenadines");
+		add(674, "San Marino");
+		add(678, "Sao Tome and Principe");
+		add(682, "Saudi Arabia");
+		add(686, "Senegal");
+		add(688, "Serbia");
+		add(690, "Seychelles");
+		add(694, "Sierra Leone");
+		add(702, "Singapore");
+		add(703, "Slovakia");
+		add(704, "Viet Nam");
+		add(705, "Slovenia");
+		add(706, "Somalia");
+		add(710, "South Africa");
+		add(716, "Zimbabwe");
+		add(724, "Spain");
+		add(728, "South Sudan");
+		add(729, "Sudan");
+		add(732, "Western Sahara");
+		add(740, "Suriname");
+		add(744, "Svalbard and Jan Mayen");
+		add(748, "Eswatini");
+		add(752, "Sweden");
+		add(756, "Switzerland");
+		add(760, "Syrian Arab Republic");
+		add(762, "Tajikistan");
+		add(764, "Thailand");
+		add(768, "Togo");
+		add(772, "Tokelau");
+		add(776, "Tonga");
+		add(780, "Trinidad and Tobago");
+		add(784, "United Arab Emirates");
+		add(788, "Tunisia");
+		add(792, "Türkiye");
+		add(795, "Turkmenistan");
+		add(796, "Turks and Caicos Islands");
+		add(798, "Tuvalu");
+		add(800, "Uganda");
+		add(804, "Ukraine");
+		add(807, "North Macedonia");
+		add(818, "Egypt");
+		add(826, "United Kingdom");
+		add(831, "Guernsey");
+		add(832, "Jersey");
+		add(833, "Isle of Man");
+		add(834, "Tanzania");
+		add(840, "USA");
+		add(850, "Virgin Islands (U.S.)");
+		add(854, "Burkina Faso");
+		add(858, "Uruguay");
+		add(860, "Uzbekistan");
+		add(862, "Venezuela");
+		add(876, "Wallis and Futuna");
+		add(882, "Samoa");
+		add(887, "Yemen");
+		add(891, "Serbia and Montenegro");
+		add(894, "Zambia");
+	}
+
+	private static void add(int numericCode, String name) {
+		NAMES[numericCode] = name;
+	}
+
 	/**
-	 * Returns ISO3166 country codes as string (not all countries listed here)
-	 * TODO: add more country codes
+	 * Returns ISO3166 country codes as string
 	 * 
 	 * @param countryCode
 	 * @return
 	 */
 	public static String getCountryAsString(byte[] countryCode) {
-		String byteString = bytesToHex(countryCode);
-		if ("0040".equals(byteString)) {
-			return "Austria";
-		}
-		if ("0070".equals(byteString)) {
-			return "Bosnia and Herzegovina";
-		}
-		if ("0124".equals(byteString)) {
-			return "Canada";
-		}
-		if ("0191".equals(byteString)) {
-			return "Hrvatska (Croatia)";
-		}
-		if ("0196".equals(byteString)) {
-			return "Cyprus, Republic of";
-		}
-		if ("0203".equals(byteString)) {
-			return "Czech Republic";
-		}
-		if ("0208".equals(byteString)) {
-			return "Denmark";
-		}
-		if ("0233".equals(byteString)) {
-			return "Estonia";
-		}
-		if ("0246".equals(byteString)) {
-			return "Finland";
-		}
-		if ("0250".equals(byteString)) {
-			return "France";
-		}
-		if ("0276".equals(byteString)) {
-			return "Germany";
+		if (countryCode.length == 2) {
+			String name = getCountryName(Iso4217CurrencyCodes
+					.toNumericCode(((countryCode[0] & 0xFF) << 8)
+							| (countryCode[1] & 0xFF)));
+			if (name != null) {
+				return name;
+			}
 		}
-		if ("0300".equals(byteString)) {
-			return "Greece";
-		}
-		if ("0348".equals(byteString)) {
-			return "Hungary";
-		}
-		if ("0380".equals(byteString)) {
-			return "Italy";
-		}
-		if ("0528".equals(byteString)) {
-			return "Netherlands";
-		}
-		if ("0578".equals(byteString)) {
-			return "Norway";
-		}
-		if ("0642".equals(byteString)) {
-			return "Romania";
-		}
-		if ("0703".equals(byteString)) {
-			return "Slovakia";
-		}
-		if ("0705".equals(byteString)) {
-			return "Slovenia";
-		}
-		if ("0724".equals(byteString)) {
-			return "Spain";
-		}
-		if ("0752".equals(byteString)) {
-			return "Sweden";
-		}
-		if ("0756".equals(byteString)) {
-			return "Switzerland";
-		}
-		if ("0840".equals(byteString)) {
-			return "USA";
-		}
-		if ("0891".equals(byteString)) {
-			return "Serbia and Montenegro";
+		return "Country Code: " + bytesToHex(countryCode) + " (ISO 3166)";
+	}
+
+	/**
+	 * @param numericCode
+	 *            e.g. 40
+	 * @return name of the country (e.g. "Austria"), or <code>null</code> if
+	 *         unknown
+	 */
+	public static String getCountryName(int numericCode) {
+		if (numericCode < 0 || numericCode >= CODES) {
+			return null;
 		}
-		return "Country Code: " + byteString + " (ISO 3166)";
+		return NAMES[numericCode];
 	}
 
 }
@@ -2,83 +2,321 @@ package at.zweng.bankomatinfos.iso7816emv;
 
 import static at.zweng.bankomatinfos.util.Utils.bytesToHex;
 
+import java.util.Arrays;
+
 /**
  * Currency values<br>
  * <br>
  * currencies defined in ISO4217 numeric<br>
- * https://en.wikipedia.org/wiki/ISO_4217
+ * https://en.wikipedia.org/wiki/ISO_4217<br>
+ * <br>
+ * All current codes (and the national currencies replaced by the euro) are
+ * kept in arrays indexed by the numeric code, so a lookup is an array access.
+ * On the card the numeric code is BCD encoded in 2 bytes (e.g. 09 78 for
+ * EUR).
  */
 public class Iso4217CurrencyCodes {
 
+	/** minor units assumed for unknown currencies */
+	public static final int DEFAULT_MINOR_UNITS = 2;
+
+	private static final int CODES = 1000;
+
+	// by numeric code, null if unknown
+	private static final String[] ALPHA_CODES = new String[CODES];
+	// by numeric code, -1 if unknown
+	private static final byte[] MINOR_UNITS = new byte[CODES];
+
+	static {
+		Arrays.fill(MINOR_UNITS, (byte) -1);
+		// (numeric code, alphabetic code, minor units; 0 if not applicable)
+		add(8, "ALL", 2);
+		add(12, "DZD", 2);
+		add(32, "ARS", 2);
+		add(36, "AUD", 2);
+		add(40, "ATS", 2);
+		add(44, "BSD", 2);
+		add(48, "BHD", 3);
+		add(50, "BDT", 2);
+		add(51, "AMD", 2);
+		add(52, "BBD", 2);
+		add(56, "BEF", 0);
+		add(60, "BMD", 2);
+		add(64, "BTN", 2);
+		add(68, "BOB", 2);
+		add(72, "BWP", 2);
+		add(84, "BZD", 2);
+		add(90, "SBD", 2);
+		add(96, "BND", 2);
+		add(104, "MMK", 2);
+		add(108, "BIF", 0);
+		add(116, "KHR", 2);
+		add(124, "CAD", 2);
+		add(132, "CVE", 2);
+		add(136, "KYD", 2);
+		add(144, "LKR", 2);
+		add(152, "CLP", 0);
+		add(156, "CNY", 2);
+		add(170, "COP", 2);
+		add(174, "KMF", 0);
+		add(188, "CRC", 2);
+		add(191, "HRK", 2);
+		add(192, "CUP", 2);
+		add(196, "CYP", 2);
+		add(203, "CZK", 2);
+		add(208, "DKK", 2);
+		add(214, "DOP", 2);
+		add(222, "SVC", 2);
+		add(230, "ETB", 2);
+		add(232, "ERN", 2);
+		add(233, "EEK", 2);
+		add(238, "FKP", 2);
+		add(242, "FJD", 2);
+		add(246, "FIM", 2);
+		add(250, "FRF", 2);
+		add(262, "DJF", 0);
+		add(270, "GMD", 2);
+		add(280, "DEM", 2);
+		add(292, "GIP", 2);
+		add(300, "GRD", 2);
+		add(320, "GTQ", 2);
+		add(324, "GNF", 0);
+		add(328, "GYD", 2);
+		add(332, "HTG", 2);
+		add(340, "HNL", 2);
+		add(344, "HKD", 2);
+		add(348, "HUF", 2);
+		add(352, "ISK", 0);
+		add(356, "INR", 2);
+		add(360, "IDR", 2);
+		add(364, "IRR", 2);
+		add(368, "IQD", 3);
+		add(372, "IEP", 2);
+		add(376, "ILS", 2);
+		add(380, "ITL", 0);
+		add(388, "JMD", 2);
+		add(392, "JPY", 0);
+		add(398, "KZT", 2);
+		add(400, "JOD", 3);
+		add(404, "KES", 2);
+		add(408, "KPW", 2);
+		add(410, "KRW", 0);
+		add(414, "KWD", 3);
+		add(417, "KGS", 2);
+		add(418, "LAK", 2);
+		add(422, "LBP", 2);
+		add(426, "LSL", 2);
+		add(428, "LVL", 2);
+		add(430, "LRD", 2);
+		add(434, "LYD", 3);
+		add(440, "LTL", 2);
+		add(442, "LUF", 0);
+		add(446, "MOP", 2);
+		add(454, "MWK", 2);
+		add(458, "MYR", 2);
+		add(462, "MVR", 2);
+		add(470, "MTL", 2);
+		add(480, "MUR", 2);
+		add(484, "MXN", 2);
+		add(496, "MNT", 2);
+		add(498, "MDL", 2);
+		add(504, "MAD", 2);
+		add(512, "OMR", 3);
+		add(516, "NAD", 2);
+		add(524, "NPR", 2);
+		add(528, "NLG", 2);
+		add(532, "ANG", 2);
+		add(533, "AWG", 2);
+		add(548, "VUV", 0);
+		add(554, "NZD", 2);
+		add(558, "NIO", 2);
+		add(566, "NGN", 2);
+		add(578, "NOK", 2);
+		add(586, "PKR", 2);
+		add(590, "PAB", 2);
+		add(598, "PGK", 2);
+		add(600, "PYG", 0);
+		add(604, "PEN", 2);
+		add(608, "PHP", 2);
+		add(620, "PTE", 0);
+		add(634, "QAR", 2);
+		add(643, "RUB", 2);
+		add(646, "RWF", 0);
+		add(654, "SHP", 2);
+		add(682, "SAR", 2);
+		add(690, "SCR", 2);
+		add(694, "SLL", 2);
+		add(702, "SGD", 2);
+		add(703, "SKK", 2);
+		add(704, "VND", 0);
+		add(705, "SIT", 2);
+		add(706, "SOS", 2);
+		add(710, "ZAR", 2);
+		add(724, "ESP", 0);
+		add(728, "SSP", 2);
+		add(748, "SZL", 2);
+		add(752, "SEK", 2);
+		add(756, "CHF", 2);
+		add(760, "SYP", 2);
+		add(764, "THB", 2);
+		add(776, "TOP", 2);
+		add(780, "TTD", 2);
+		add(784, "AED", 2);
+		add(788, "TND", 3);
+		add(800, "UGX", 0);
+		add(807, "MKD", 2);
+		add(818, "EGP", 2);
+		add(826, "GBP", 2);
+		add(834, "TZS", 2);
+		add(840, "USD", 2);
+		add(858, "UYU", 2);
+		add(860, "UZS", 2);
+		add(882, "WST", 2);
+		add(886, "YER", 2);
+		add(901, "TWD", 2);
+		add(924, "ZWG", 2);
+		add(925, "SLE", 2);
+		add(926, "VED", 2);
+		add(927, "UYW", 4);
+		add(928, "VES", 2);
+		add(929, "MRU", 2);
+		add(930, "STN", 2);
+		add(931, "CUC", 2);
+		add(932, "ZWL", 2);
+		add(933, "BYN", 2);
+		add(934, "TMT", 2);
+		add(936, "GHS", 2);
+		add(937, "VEF", 2);
+		add(938, "SDG", 2);
+		add(940, "UYI", 0);
+		add(941, "RSD", 2);
+		add(943, "MZN", 2);
+		add(944, "AZN", 2);
+		add(946, "RON", 2);
+		add(947, "CHE", 2);
+		add(948, "CHW", 2);
+		add(949, "TRY", 2);
+		add(950, "XAF", 0);
+		add(951, "XCD", 2);
+		add(952, "XOF", 0);
+		add(953, "XPF", 0);
+		add(955, "XBA", 0);
+		add(956, "XBB", 0);
+		add(957, "XBC", 0);
+		add(958, "XBD", 0);
+		add(959, "XAU", 0);
+		add(960, "XDR", 0);
+		add(961, "XAG", 0);
+		add(962, "XPT", 0);
+		add(963, "XTS", 0);
+		add(964, "XPD", 0);
+		add(965, "XUA", 0);
+		add(967, "ZMW", 2);
+		add(968, "SRD", 2);
+		add(969, "MGA", 2);
+		add(970, "COU", 2);
+		add(971, "AFN", 2);
+		add(972, "TJS", 2);
+		add(973, "AOA", 2);
+		add(975, "BGN", 2);
+		add(976, "CDF", 2);
+		add(977, "BAM", 2);
+		add(978, "EUR", 2);
+		add(979, "MXV", 2);
+		add(980, "UAH", 2);
+		add(981, "GEL", 2);
+		add(984, "BOV", 2);
+		add(985, "PLN", 2);
+		add(986, "BRL", 2);
+		add(990, "CLF", 4);
+		add(994, "XSU", 0);
+		add(997, "USN", 2);
+	}
+
+	private static void add(int numericCode, String alphaCode, int minorUnits) {
+		ALPHA_CODES[numericCode] = alphaCode;
+		MINOR_UNITS[numericCode] = (byte) minorUnits;
+	}
+
 	/**
 	 * @param currencyByte
 	 *            2-byte representation of currency
 	 * @return String representation of currency
 	 */
 	public static String getCurrencyAsString(byte[] currencyCode) {
-		String byteString = bytesToHex(currencyCode);
-		if ("0040".equals(byteString)) {
-			return "ATS";
-		}
-		if ("0124".equals(byteString)) {
-			return "CAD";
-		}
-		if ("0156".equals(byteString)) {
-			return "CNY";
-		}
-		if ("0348".equals(byteString)) {
-			return "HUF";
-		}
-		if ("0643".equals(byteString)) {
-			return "RUB";
-		}
-		if ("0752".equals(byteString)) {
-			return "SEK";
-		}
-		if ("0756".equals(byteString)) {
-			return "CHF";
-		}
-		if ("0784".equals(byteString)) {
-			return "AED";
-		}
-		if ("0826".equals(byteString)) {
-			return "GBP";
-		}
-		if ("0840".equals(byteString)) {
-			return "USD";
-		}
-		if ("0941".equals(byteString)) {
-			return "RSD";
-		}
-		if ("0946".equals(byteString)) {
-			return "RON";
-		}
-		if ("0975".equals(byteString)) {
-			return "BGN";
-		}
-		if ("0977".equals(byteString)) {
-			return "BAM";
+		if (currencyCode.length != 2) {
+			return "ISO 4217 Currency Code " + bytesToHex(currencyCode);
 		}
-		if ("0978".equals(byteString)) {
+		return getCurrencyAsString(((currencyCode[0] & 0xFF) << 8)
+				| (currencyCode[1] & 0xFF));
+	}
+
+	/**
+	 * @param bcdCode
+	 *            the 2 currency bytes as in the record (e.g. 0x0978 for EUR)
+	 * @return String representation of currency
+	 */
+	public static String getCurrencyAsString(int bcdCode) {
+		int code = toNumericCode(bcdCode);
+		if (code == 978) {
 			return "€";
 		}
-		if ("0980".equals(byteString)) {
-			return "UAH";
-		}
-		if ("0985".equals(byteString)) {
-			return "PLN";
-		}
-
 		// special code for "not set" or "undefined"
-		if ("0999".equals(byteString)) {
+		if (code == 999) {
 			// TODO localization
 			return "<currency not set>";
 		}
-		if ("0000".equals(byteString)) {
+		if (code == 0) {
 			return "?";
 		}
+		if (code > 0 && ALPHA_CODES[code] != null) {
+			return ALPHA_CODES[code];
+		}
+		return "ISO 4217 Currency Code "
+				+ bytesToHex(new byte[] { (byte) (bcdCode >> 8),
+						(byte) bcdCode });
+	}
+
+	/**
+	 * Decodes a BCD encoded numeric code (currency or country)
+	 *
+	 * @param bcdCode
+	 *            the 2 code bytes as in the record (e.g. 0x0978 for EUR)
+	 * @return numeric code (e.g. 978), or -1 if not a valid BCD number below
+	 *         1000
+	 */
+	public static int toNumericCode(int bcdCode) {
+		if ((bcdCode & 0xF000) != 0 || (bcdCode & 0x0F00) > 0x0900
+				|| (bcdCode & 0x00F0) > 0x0090 || (bcdCode & 0x000F) > 9) {
+			return -1;
+		}
+		return ((bcdCode >> 8) & 0x0F) * 100 + ((bcdCode >> 4) & 0x0F) * 10
+				+ (bcdCode & 0x0F);
+	}
 
-		return "ISO 4217 Currency Code " + byteString;
+	/**
+	 * @param numericCode
+	 *            e.g. 978
+	 * @return alphabetic code (e.g. "EUR"), or <code>null</code> if unknown
+	 */
+	public static String getAlphaCode(int numericCode) {
+		if (numericCode < 0 || numericCode >= CODES) {
+			return null;
+		}
+		return ALPHA_CODES[numericCode];
 	}
 
+	/**
+	 * @param numericCode
+	 *            e.g. 978
+	 * @return number of decimal places of amounts in this currency (e.g. 2
+	 *         for EUR, 0 for JPY), {@link #DEFAULT_MINOR_UNITS} if unknown
+	 */
+	public static int getMinorUnits(int numericCode) {
+		if (numericCode < 0 || numericCode >= CODES
+				|| MINOR_UNITS[numericCode] < 0) {
+			return DEFAULT_MINOR_UNITS;
+		}
+		return MINOR_UNITS[numericCode];
+	}
 }
@@ -0,0 +1,69 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import java.io.IOException;
+
+import android.nfc.Tag;
+import android.nfc.TagLostException;
+import android.nfc.tech.IsoDep;
+import at.zweng.bankomatinfos.exceptions.CardLostException;
+import at.zweng.bankomatinfos.exceptions.NoSmartCardException;
+
+/**
+ * {@link ApduTransport} talking to a real card via Android's {@link IsoDep}.
+ * Android's {@link TagLostException} is reported as {@link CardLostException}
+ * like by all transports.
+ * 
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class IsoDepTransport implements ApduTransport {
+
+	private final Tag _nfcTag;
+	private IsoDep _isoDep;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param nfcTag
+	 */
+	public IsoDepTransport(Tag nfcTag) {
+		super();
+		this._nfcTag = nfcTag;
+	}
+
+	@Override
+	public void connect() throws IOException, NoSmartCardException {
+		_isoDep = IsoDep.get(_nfcTag);
+		if (_isoDep == null) {
+			throw new NoSmartCardException("This NFC tag is no ISO 7816 card");
+		}
+		try {
+			_isoDep.connect();
+		} catch (TagLostException e) {
+			throw new CardLostException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public byte[] transceive(byte[] command) throws IOException {
+		try {
+			return _isoDep.transceive(command);
+		} catch (TagLostException e) {
+			throw new CardLostException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		_isoDep.close();
+	}
+
+	@Override
+	public byte[] getHistoricalBytes() {
+		return _isoDep.getHistoricalBytes();
+	}
+
+	@Override
+	public byte[] getTagId() {
+		return _nfcTag.getId();
+	}
+}
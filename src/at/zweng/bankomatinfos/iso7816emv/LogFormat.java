@@ -0,0 +1,426 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import static at.zweng.bankomatinfos.iso7816emv.StatusWord.isSuccess;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+
+import at.zweng.bankomatinfos.exceptions.TlvParsingException;
+import at.zweng.bankomatinfos.model.EmvTransactionLogEntry;
+import at.zweng.bankomatinfos.model.TransactionLogTable;
+
+/**
+ * Compiled form of the 'Log Format' (tag 9F4F) returned by the card. The log
+ * format is a DOL (list of tags and lengths, without values) describing the
+ * layout of the transaction log records. It is parsed once into a table of
+ * field offsets, decoding a record is then just reading at fixed positions.
+ * <br>
+ * <br>
+ * Compiled formats are cached, so every distinct format is only parsed once.
+ * A compiled format is immutable, so it is shared by all threads. The cache is
+ * a {@link ConcurrentHashMap} keyed by the DOL bytes, it stops growing at
+ * {@link #MAX_CACHED_FORMATS} formats (cards use only a handful, but garbage
+ * data could contain any number).<br>
+ * <br>
+ * Examples of log formats seen so far:
+ *
+ * <pre>
+ * Austrian Bankomat cards (record length 44):
+ *   9F27 (1) Cryptogram Information Data
+ *   9F02 (6) Amount, Authorised (Numeric)
+ *   5F2A (2) Transaction Currency Code
+ *   9A   (3) Transaction Date
+ *   9F36 (2) Application Transaction Counter (ATC)
+ *   9F52 (6) Application Default Action (ADA)
+ *   DF3E (1) [unknown]
+ *   9F21 (3) Transaction Time (HHMMSS)
+ *   9F7C (20) Customer Exclusive Data
+ *
+ * Mastercard (2014, record length 20):
+ *   9F27 (1), 9F02 (6), 5F2A (2), 9A (3), 9F36 (2), 9F52 (6)
+ *
+ * VISA (record length 31):
+ *   9F36 (2), 9F02 (6), 9F03 (6), 9F1A (2), 95 (5), 5F2A (2), 9A (3),
+ *   9C (1), 9F80 (4)
+ * </pre>
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class LogFormat {
+
+	private static final int TAG_LOG_FORMAT = 0x9F4F;
+	private static final int TAG_CRYPTOGRAM_INFORMATION_DATA = 0x9F27;
+	private static final int TAG_AMOUNT_AUTHORISED = 0x9F02;
+	private static final int TAG_TRANSACTION_CURRENCY_CODE = 0x5F2A;
+	private static final int TAG_TRANSACTION_DATE = 0x9A;
+	private static final int TAG_TRANSACTION_TIME = 0x9F21;
+	private static final int TAG_ATC = 0x9F36;
+	private static final int TAG_APPLICATION_DEFAULT_ACTION = 0x9F52;
+	private static final int TAG_CUSTOMER_EXCLUSIVE_DATA = 0x9F7C;
+	// unknown tag found in logs of Austrian Bankomat cards (1 byte)
+	private static final int TAG_BANKOMAT_UNKNOWN = 0xDF3E;
+
+	private static final int MAX_CACHED_FORMATS = 64;
+	private static final ConcurrentHashMap<ByteBuffer, LogFormat> CACHE = new ConcurrentHashMap<ByteBuffer, LogFormat>();
+
+	// all fields in record order
+	private final int[] _tags;
+	private final int[] _offsets;
+	private final int[] _lengths;
+	private final int _recordLength;
+
+	// offsets of the fields we decode (-1 if not in log format)
+	private final int _cidOffset;
+	private final int _amountOffset;
+	private final int _amountLength;
+	private final int _currencyOffset;
+	private final int _dateOffset;
+	private final int _timeOffset;
+	private final int _atcOffset;
+	private final int _atcLength;
+	private final int _adaOffset;
+	private final int _adaLength;
+	private final int _unknownByteOffset;
+	private final int _customerExclusiveOffset;
+	private final int _customerExclusiveLength;
+
+	/**
+	 * Constructor, compiles the given DOL
+	 *
+	 * @param dol
+	 *            value of tag 9F4F
+	 * @throws TlvParsingException
+	 */
+	private LogFormat(byte[] dol) throws TlvParsingException {
+		TlvCursor cursor = new TlvCursor(dol);
+		int count = 0;
+		while (cursor.nextDolEntry()) {
+			count++;
+		}
+		_tags = new int[count];
+		_offsets = new int[count];
+		_lengths = new int[count];
+		cursor.reset(dol, 0, dol.length);
+		int offset = 0;
+		for (int i = 0; cursor.nextDolEntry(); i++) {
+			_tags[i] = cursor.getTag();
+			_offsets[i] = offset;
+			_lengths[i] = cursor.getValueLength();
+			offset += _lengths[i];
+		}
+		_recordLength = offset;
+
+		int cid = indexOf(TAG_CRYPTOGRAM_INFORMATION_DATA, 1);
+		int amount = indexOf(TAG_AMOUNT_AUTHORISED, 0);
+		int currency = indexOf(TAG_TRANSACTION_CURRENCY_CODE, 2);
+		int date = indexOf(TAG_TRANSACTION_DATE, 3);
+		int time = indexOf(TAG_TRANSACTION_TIME, 3);
+		int atc = indexOf(TAG_ATC, 0);
+		int ada = indexOf(TAG_APPLICATION_DEFAULT_ACTION, 0);
+		int unknownByte = indexOf(TAG_BANKOMAT_UNKNOWN, 1);
+		int customerExclusive = indexOf(TAG_CUSTOMER_EXCLUSIVE_DATA, 0);
+		_cidOffset = offsetOf(cid);
+		_amountOffset = offsetOf(amount);
+		_amountLength = lengthOf(amount);
+		_currencyOffset = offsetOf(currency);
+		_dateOffset = offsetOf(date);
+		_timeOffset = offsetOf(time);
+		_atcOffset = offsetOf(atc);
+		_atcLength = lengthOf(atc);
+		_adaOffset = offsetOf(ada);
+		_adaLength = lengthOf(ada);
+		_unknownByteOffset = offsetOf(unknownByte);
+		_customerExclusiveOffset = offsetOf(customerExclusive);
+		_customerExclusiveLength = lengthOf(customerExclusive);
+	}
+
+	/**
+	 * Returns the compiled log format for the response of a GET DATA 'Log
+	 * Format' command
+	 *
+	 * @param getDataResponse
+	 *            response incl. status word
+	 * @return log format or <code>null</code> if response is an error or does
+	 *         not contain a valid log format
+	 */
+	public static LogFormat fromGetDataResponse(byte[] getDataResponse) {
+		if (getDataResponse == null || getDataResponse.length <= 2
+				|| !isSuccess(getDataResponse)) {
+			return null;
+		}
+		try {
+			byte[] dol = EmvUtils.findTagValue(getDataResponse, 0,
+					getDataResponse.length - 2, TAG_LOG_FORMAT);
+			return dol == null ? null : forDol(dol);
+		} catch (TlvParsingException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the compiled log format for the given DOL (from cache if it was
+	 * compiled before)
+	 *
+	 * @param dol
+	 *            value of tag 9F4F
+	 * @return compiled log format
+	 * @throws TlvParsingException
+	 *             if the DOL is invalid
+	 */
+	public static LogFormat forDol(byte[] dol) throws TlvParsingException {
+		LogFormat format = CACHE.get(ByteBuffer.wrap(dol));
+		if (format == null) {
+			format = new LogFormat(dol);
+			if (CACHE.size() < MAX_CACHED_FORMATS) {
+				// the key must not change when the caller reuses the array
+				LogFormat cached = CACHE.putIfAbsent(
+						ByteBuffer.wrap(dol.clone()), format);
+				if (cached != null) {
+					format = cached;
+				}
+			}
+		}
+		return format;
+	}
+
+	/**
+	 * @return length of a log record (without status word)
+	 */
+	public int getRecordLength() {
+		return _recordLength;
+	}
+
+	/**
+	 * @return number of fields in a record
+	 */
+	public int getFieldCount() {
+		return _tags.length;
+	}
+
+	/**
+	 * @param i
+	 * @return tag of field i
+	 */
+	public int getFieldTag(int i) {
+		return _tags[i];
+	}
+
+	/**
+	 * @param i
+	 * @return offset of field i within the record
+	 */
+	public int getFieldOffset(int i) {
+		return _offsets[i];
+	}
+
+	/**
+	 * @param i
+	 * @return length of field i
+	 */
+	public int getFieldLength(int i) {
+		return _lengths[i];
+	}
+
+	/**
+	 * Checks if a READ RECORD response has the length of a log record of this
+	 * format
+	 *
+	 * @param responsePdu
+	 *            response incl. status word
+	 * @return <code>true</code> if length matches
+	 */
+	public boolean matches(byte[] responsePdu) {
+		return _recordLength > 0 && responsePdu.length == _recordLength + 2;
+	}
+
+	/**
+	 * Reads only the ATC of a log record (without decoding the other fields)
+	 *
+	 * @param responsePdu
+	 *            READ RECORD response incl. status word
+	 * @return ATC or -1 if the log format contains no ATC
+	 */
+	public int readAtc(byte[] responsePdu) {
+		if (_atcOffset < 0 || responsePdu.length < _atcOffset + _atcLength) {
+			return -1;
+		}
+		return readInt(responsePdu, _atcOffset, _atcLength);
+	}
+
+	/**
+	 * Decodes a log record
+	 *
+	 * @param responsePdu
+	 *            READ RECORD response incl. status word
+	 * @return decoded entry
+	 * @throws ParseException
+	 *             if date or time are not valid
+	 * @throws IllegalArgumentException
+	 *             if record is too short or amount is not valid BCD
+	 */
+	public EmvTransactionLogEntry decode(byte[] responsePdu)
+			throws ParseException {
+		if (responsePdu.length < _recordLength) {
+			throw new IllegalArgumentException("log record too short: "
+					+ responsePdu.length + " < " + _recordLength);
+		}
+		EmvTransactionLogEntry tx = new EmvTransactionLogEntry();
+		if (_cidOffset >= 0) {
+			tx.setCryptogramInformationData(responsePdu[_cidOffset]);
+		}
+		if (_amountOffset >= 0) {
+			tx.setAmount(readBcd(responsePdu, _amountOffset, _amountLength));
+		}
+		if (_currencyOffset >= 0) {
+			int currencyCode = readInt(responsePdu, _currencyOffset, 2);
+			tx.setCurrency(Iso4217CurrencyCodes
+					.getCurrencyAsString(currencyCode));
+			tx.setMinorUnits(Iso4217CurrencyCodes
+					.getMinorUnits(Iso4217CurrencyCodes
+							.toNumericCode(currencyCode)));
+		}
+		if (_dateOffset >= 0) {
+			long timestamp = BcdDate.toMillis(responsePdu, _dateOffset,
+					_timeOffset);
+			if (timestamp != BcdDate.NO_DATE) {
+				tx.setTransactionTimestamp(new Date(timestamp),
+						_timeOffset >= 0);
+			}
+		}
+		if (_atcOffset >= 0) {
+			tx.setAtc(readInt(responsePdu, _atcOffset, _atcLength));
+		}
+		if (_adaOffset >= 0) {
+			tx.setApplicationDefaultAction(part(responsePdu, _adaOffset,
+					_adaLength));
+		}
+		if (_unknownByteOffset >= 0) {
+			tx.setUnknownByte(responsePdu[_unknownByteOffset]);
+		}
+		if (_customerExclusiveOffset >= 0) {
+			tx.setCustomerExclusiveData(part(responsePdu,
+					_customerExclusiveOffset, _customerExclusiveLength));
+		}
+		tx.setRawEntry(responsePdu);
+		return tx;
+	}
+
+	/**
+	 * Decodes a log record and appends it as new row to the table (without
+	 * creating an entry object). The table is only changed if the record is
+	 * valid.
+	 *
+	 * @param table
+	 * @param responsePdu
+	 *            READ RECORD response incl. status word
+	 * @return index of the new row
+	 * @throws ParseException
+	 *             if date or time are not valid
+	 * @throws IllegalArgumentException
+	 *             if record is too short or amount is not valid BCD
+	 */
+	public int decodeInto(TransactionLogTable table, byte[] responsePdu)
+			throws ParseException {
+		if (responsePdu.length < _recordLength) {
+			throw new IllegalArgumentException("log record too short: "
+					+ responsePdu.length + " < " + _recordLength);
+		}
+		// decode everything which can fail before adding the row
+		long amount = _amountOffset >= 0 ? readBcd(responsePdu, _amountOffset,
+				_amountLength) : 0;
+		long timestamp = _dateOffset >= 0 ? BcdDate.toMillis(responsePdu,
+				_dateOffset, _timeOffset) : BcdDate.NO_DATE;
+		int row = table.addRow(responsePdu, 0, responsePdu.length);
+		if (_cidOffset >= 0) {
+			table.setCryptogramInformationData(row, responsePdu[_cidOffset]);
+		}
+		table.setAmount(row, amount);
+		if (_currencyOffset >= 0) {
+			table.setCurrencyCode(row, readInt(responsePdu, _currencyOffset, 2));
+		}
+		if (timestamp != BcdDate.NO_DATE) {
+			table.setTimestamp(row, timestamp, _timeOffset >= 0);
+		}
+		if (_atcOffset >= 0) {
+			table.setAtc(row, readInt(responsePdu, _atcOffset, _atcLength));
+		}
+		if (_adaOffset >= 0) {
+			table.setApplicationDefaultAction(row, _adaOffset, _adaLength);
+		}
+		if (_unknownByteOffset >= 0) {
+			table.setUnknownByte(row, responsePdu[_unknownByteOffset]);
+		}
+		if (_customerExclusiveOffset >= 0) {
+			table.setCustomerExclusiveData(row, _customerExclusiveOffset,
+					_customerExclusiveLength);
+		}
+		return row;
+	}
+
+	/**
+	 * @param tag
+	 * @param requiredLength
+	 *            required length of the field, or 0 for any length
+	 * @return index of first field with this tag, or -1
+	 */
+	private int indexOf(int tag, int requiredLength) {
+		for (int i = 0; i < _tags.length; i++) {
+			if (_tags[i] == tag
+					&& (requiredLength == 0 || _lengths[i] == requiredLength)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int offsetOf(int index) {
+		return index < 0 ? -1 : _offsets[index];
+	}
+
+	private int lengthOf(int index) {
+		return index < 0 ? 0 : _lengths[index];
+	}
+
+	private static byte[] part(byte[] data, int offset, int length) {
+		return Arrays.copyOfRange(data, offset, offset + length);
+	}
+
+	private static int readInt(byte[] data, int offset, int length) {
+		int value = 0;
+		for (int i = 0; i < length; i++) {
+			value = (value << 8) | (data[offset + i] & 0xFF);
+		}
+		return value;
+	}
+
+	private static long readBcd(byte[] data, int offset, int length) {
+		long value = 0;
+		for (int i = 0; i < length; i++) {
+			int high = (data[offset + i] >> 4) & 0x0F;
+			int low = data[offset + i] & 0x0F;
+			if (high > 9 || low > 9) {
+				throw new IllegalArgumentException("not a BCD number at offset "
+						+ (offset + i));
+			}
+			value = value * 100 + high * 10 + low;
+		}
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("LogFormat [");
+		for (int i = 0; i < _tags.length; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(Integer.toHexString(_tags[i]).toUpperCase());
+			sb.append(" (").append(_lengths[i]).append(")");
+		}
+		sb.append("], record length: ").append(_recordLength);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,107 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import java.io.IOException;
+
+import at.zweng.bankomatinfos.exceptions.NoSmartCardException;
+import at.zweng.bankomatinfos.exceptions.ReadCancelledException;
+
+/**
+ * {@link ApduTransport} decorator which measures the duration of every
+ * transceive call and records it in {@link ReadMetrics}. It is also the place
+ * where a read is cancelled: after {@link #cancel()} (which may be called
+ * from any thread) no more commands are sent to the card.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class MeteredTransport implements ApduTransport {
+
+	private final ApduTransport _delegate;
+	private final ReadMetrics _metrics;
+	private volatile boolean _cancelled;
+
+	/**
+	 * Constructor
+	 *
+	 * @param delegate
+	 *            the transport doing the real work
+	 * @param metrics
+	 *            where measurements are recorded
+	 */
+	public MeteredTransport(ApduTransport delegate, ReadMetrics metrics) {
+		this._delegate = delegate;
+		this._metrics = metrics;
+	}
+
+	@Override
+	public void connect() throws IOException, NoSmartCardException {
+		_delegate.connect();
+	}
+
+	@Override
+	public byte[] transceive(byte[] command) throws IOException {
+		checkCancelled();
+		long start = System.nanoTime();
+		byte[] response = null;
+		try {
+			response = _delegate.transceive(command);
+			return response;
+		} finally {
+			// also record failed commands (response == null)
+			_metrics.record(command, response, System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		_delegate.close();
+	}
+
+	@Override
+	public byte[] getHistoricalBytes() {
+		return _delegate.getHistoricalBytes();
+	}
+
+	@Override
+	public byte[] getTagId() {
+		return _delegate.getTagId();
+	}
+
+	/**
+	 * Makes every following {@link #transceive(byte[])} fail with a
+	 * {@link ReadCancelledException}
+	 */
+	public void cancel() {
+		_cancelled = true;
+	}
+
+	/**
+	 * @return <code>true</code> if {@link #cancel()} was called
+	 */
+	public boolean isCancelled() {
+		return _cancelled;
+	}
+
+	/**
+	 * @throws ReadCancelledException
+	 *             if {@link #cancel()} was called
+	 */
+	public void checkCancelled() throws ReadCancelledException {
+		if (_cancelled) {
+			throw new ReadCancelledException("card read cancelled");
+		}
+	}
+
+	/**
+	 * @return the wrapped transport
+	 */
+	public ApduTransport getDelegate() {
+		return _delegate;
+	}
+
+	/**
+	 * @return the metrics
+	 */
+	public ReadMetrics getMetrics() {
+		return _metrics;
+	}
+}
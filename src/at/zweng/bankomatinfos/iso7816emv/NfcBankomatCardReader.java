@@ -23,46 +23,50 @@ import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.createReadRecordApdu;
 import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.createSelectAid;
 import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.createSelectMasterFile;
 import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.createSelectParentDfFile;
+import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.createGetProcessingOptionsApdu;
 import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.filterTagsForResult;
-import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.getAmountFromBcdBytes;
+import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.getAflFromGpoResponse;
 import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.getAmountFromBytes;
-import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.getDateFromBcdBytes;
-import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.getNextTLV;
-import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.getTagsFromBerTlvAPDUResponse;
-import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.getTimeStampFromBcdBytes;
 import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.getTimeStampFromQuickLog;
-import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.isStatusSuccess;
-import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.prettyPrintBerTlvAPDUResponse;
+import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.parseApplicationFileLocator;
 import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.statusToString;
-import static at.zweng.bankomatinfos.util.Utils.TAG;
+import static at.zweng.bankomatinfos.iso7816emv.StatusWord.isSuccess;
 import static at.zweng.bankomatinfos.util.Utils.byteArrayToInt;
 import static at.zweng.bankomatinfos.util.Utils.bytesToHex;
 import static at.zweng.bankomatinfos.util.Utils.cutoffLast2Bytes;
+import static at.zweng.bankomatinfos.util.Utils.formatDateWithTime;
 import static at.zweng.bankomatinfos.util.Utils.fromHexString;
 import static at.zweng.bankomatinfos.util.Utils.getByteArrayPart;
-import static at.zweng.bankomatinfos.util.Utils.getLast2Bytes;
 import static at.zweng.bankomatinfos.util.Utils.prettyPrintString;
 import static at.zweng.bankomatinfos.util.Utils.readBcdIntegerFromBytes;
 import static at.zweng.bankomatinfos.util.Utils.readLongFromBytes;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.Set;
 
 import android.content.Context;
 import android.nfc.Tag;
-import android.nfc.tech.IsoDep;
-import android.util.Log;
 import at.zweng.bankomatinfos.AppController;
+import at.zweng.bankomatinfos.exceptions.CardLostException;
 import at.zweng.bankomatinfos.exceptions.NoSmartCardException;
+import at.zweng.bankomatinfos.exceptions.ReadCancelledException;
 import at.zweng.bankomatinfos.exceptions.TlvParsingException;
+import at.zweng.bankomatinfos.model.AbstractTransactionLogEntry;
 import at.zweng.bankomatinfos.model.CardInfo;
-import at.zweng.bankomatinfos.model.EmvTransactionLogEntry;
+import at.zweng.bankomatinfos.model.CardProfile;
+import at.zweng.bankomatinfos.model.CardProfile.ApplicationProfile;
+import at.zweng.bankomatinfos.model.CardProfile.RecordLocation;
 import at.zweng.bankomatinfos.model.InfoKeyValuePair;
 import at.zweng.bankomatinfos.model.QuickTransactionLogEntry;
+import at.zweng.bankomatinfos.model.TransactionLogTable;
+import at.zweng.bankomatinfos.util.CardProfileStore;
+import at.zweng.bankomatinfos.util.ContextTextProvider;
+import at.zweng.bankomatinfos.util.DebugLog;
+import at.zweng.bankomatinfos.util.TextProvider;
 import at.zweng.bankomatinfos2.R;
 
 /**
@@ -71,52 +75,42 @@ import at.zweng.bankomatinfos2.R;
  * @author Johannes Zweng <johannes@zweng.at>
  */
 public class NfcBankomatCardReader {
-	private Tag _nfcTag;
-	private IsoDep _localIsoDep;
-	private AppController _ctl;
-	private List<TagAndValue> _tagList;
-	private Context _ctx;
-
-	// 9F 4F - 18 bytes: Log Format
-	// 9F 36 (02 bytes) -> Application Transaction Counter (ATC)
-	// 9F 02 (06 bytes) -> Amount, Authorised (Numeric)
-	// 9F 03 (06 bytes) -> Amount, Other (Numeric)
-	// 9F 1A (02 bytes) -> Terminal Country Code
-	// 95 (05 bytes) -> Terminal Verification Results (TVR)
-	// 5F 2A (02 bytes) -> Transaction Currency Code
-	// 9A (03 bytes) -> Transaction Date
-	// 9C (01 bytes) -> Transaction Type
-	// 9F 80 04 (04 bytes) -> [UNHANDLED TAG]
-	private static final String LOG_FORMAT_VISA = "9F4F189F36029F02069F03069F1A0295055F2A029A039C019F80049000";
-	private static final int LOG_LENGTH_VISA = 33;
-
-	// 9F 4F - 11 bytes: Log Format
-	// 9F 27 (01 bytes) -> Cryptogram Information Data
-	// 9F 02 (06 bytes) -> Amount, Authorised (Numeric)
-	// 5F 2A (02 bytes) -> Transaction Currency Code
-	// 9A (03 bytes) -> Transaction Date
-	// 9F 36 (02 bytes) -> Application Transaction Counter (ATC)
-	// 9F 52 (06 bytes) -> Application Default Action (ADA)
-	// total length: 20 bytes
-	private static final String LOG_FORMAT_MASTERCARD = "9F4F119F27019F02065F2A029A039F36029F52069000";
-	private static final int LOG_LENGTH_MASTERCARD = 22;
-
-	// 9F 4F - 1A bytes: Log Format
-	// 9F 27 (01 bytes) -> Cryptogram Information Data
-	// 9F 02 (06 bytes) -> Amount, Authorised (Numeric)
-	// 5F 2A (02 bytes) -> Transaction Currency Code
-	// 9A (03 bytes) -> Transaction Date
-	// 9F 36 (02 bytes) -> Application Transaction Counter (ATC)
-	// 9F 52 (06 bytes) -> Application Default Action (ADA)
-	// DF 3E (01 bytes) -> [UNHANDLED TAG]
-	// 9F 21 (03 bytes) -> Transaction Time (HHMMSS)
-	// 9F 7C (0x14 bytes) -> Customer Exclusive Data
-	// total length: 44 bytes
-	private static final String LOG_FORMAT_BANKOMAT_AUSTRIA = "9F4F1A9F27019F02065F2A029A039F36029F5206DF3E019F21039F7C149000";
-	private static final int LOG_LENGTH_BANKOMAT_AUSTRIA = 46;
+	private MeteredTransport _transport;
+	// trace of the communication and of what was found
+	private ApduTrace _log;
+	// debug output (Android log on the device)
+	private DebugLog _debug = DebugLog.getDefault();
+	private TlvIndex _tags;
+	private TextProvider _texts;
+	private boolean _useAfl;
+	private ReadMetrics _metrics;
+
+	// card profiles (null if disabled)
+	private CardProfileStore _profileStore;
+	// profile of earlier read of this card (null if card is unknown)
+	private CardProfile _knownProfile;
+	// what we learn about the card during this read
+	private CardProfile _newProfile;
+	// application currently read (in new and known profile)
+	private ApplicationProfile _currentApp;
+	private ApplicationProfile _knownApp;
+	private String _cardUniqueId;
+	// card without CPLC data: profile was already looked up by the PAN
+	private boolean _panProfileLookedUp;
+	// stop reading the log at the last known ATC and merge with history
+	private boolean _incrementalTxLog;
 
 	private static final int LOG_LENGTH_QUICK = 35;
 
+	// 9F 4D: Log Entry (SFI of log EF, max number of log records)
+	private static final int TAG_LOG_ENTRY = 0x9F4D;
+
+	// max number of transaction log entries kept in the card profile
+	private static final int MAX_STORED_LOG_ENTRIES = 250;
+
+	// 5A: Application Primary Account Number (PAN)
+	private static final int TAG_PAN = 0x5A;
+
 	// until now on all cards I've seen which head a tx log, they were stored on
 	// EF11
 	// we also cannot rely on cards Log Entry tag, as some cards don't contain
@@ -124,8 +118,32 @@ public class NfcBankomatCardReader {
 	// but still have logs in EF11
 	private static final int LOG_RECORD_EF = 11;
 
-	// FIXME: dynamic parsing of log entries, not static pattern comparison
-	private String _logFormatResponse;
+	// upper bound of records we probe in an EF which is not listed in the
+	// AFL (e.g. the log EF)
+	private static final int MAX_PROBED_RECORDS = 32;
+
+	// log format (9F4F) of the currently selected application
+	private LogFormat _logFormat;
+
+	// decoding of responses in parallel to the card I/O (during a read)
+	private ResponsePipeline _pipeline;
+	private boolean _decodeInBackground = true;
+
+	// informed about progress and partial results (may be null)
+	private ReadListener _listener;
+	// top level phase currently read
+	private ReadPhase _phase;
+
+	// checkpoint to continue from (given by caller, null if none)
+	private ReadCheckpoint _resumeFrom;
+	// progress of the running read (null before the card is identified)
+	private ReadCheckpoint _progress;
+	// progress of the last read, if it was interrupted by a lost tag
+	private ReadCheckpoint _checkpoint;
+	// AID of the application currently read
+	private byte[] _currentAid;
+	// decides when to leave an EF during file scans
+	private RecordProbeStrategy _probe;
 
 	/**
 	 * Constructor
@@ -133,33 +151,162 @@ public class NfcBankomatCardReader {
 	 * @param _nfcTag
 	 */
 	public NfcBankomatCardReader(Tag nfcTag, Context ctx) {
+		this(new IsoDepTransport(nfcTag), ctx);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param transport
+	 *            the channel used for talking to the card
+	 * @param ctx
+	 */
+	public NfcBankomatCardReader(ApduTransport transport, Context ctx) {
+		this(transport, ctx, AppController.getInstance().getTrace());
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param transport
+	 *            the channel used for talking to the card
+	 * @param ctx
+	 * @param log
+	 *            trace the read is logged to (instead of the app wide log of
+	 *            {@link AppController})
+	 */
+	public NfcBankomatCardReader(ApduTransport transport, Context ctx,
+			ApduTrace log) {
+		this(transport, new ContextTextProvider(ctx), log);
+	}
+
+	/**
+	 * Constructor (does not need Android resources, e.g. for replaying
+	 * recorded sessions on a plain JVM)
+	 * 
+	 * @param transport
+	 *            the channel used for talking to the card
+	 * @param texts
+	 *            for the labels of the result
+	 * @param log
+	 *            trace the read is logged to
+	 */
+	public NfcBankomatCardReader(ApduTransport transport, TextProvider texts,
+			ApduTrace log) {
 		super();
-		this._nfcTag = nfcTag;
-		this._ctl = AppController.getInstance();
-		this._tagList = new ArrayList<TagAndValue>();
-		this._ctx = ctx;
+		this._metrics = new ReadMetrics();
+		this._transport = new MeteredTransport(transport, _metrics);
+		this._log = log;
+		this._tags = new TlvIndex();
+		this._texts = texts;
+	}
+
+	/**
+	 * Enables card profiles: what is found on a card is remembered, and on
+	 * later reads of the same card only the commands known to succeed are
+	 * sent.
+	 * 
+	 * @param profileStore
+	 *            store for the profiles, or <code>null</code> to disable
+	 */
+	public void setCardProfileStore(CardProfileStore profileStore) {
+		this._profileStore = profileStore;
+	}
+
+	/**
+	 * Enables incremental reading of transaction logs (needs a card profile
+	 * store): log records are only read until the newest entry of the last
+	 * read is reached, the rest is taken from the stored history.
+	 * 
+	 * @param incrementalTxLog
+	 */
+	public void setIncrementalTxLog(boolean incrementalTxLog) {
+		this._incrementalTxLog = incrementalTxLog;
 	}
 
 	/**
-	 * Connects to IsoDep
+	 * @param debugLog
+	 *            receives the debug output of the read (default:
+	 *            {@link DebugLog#getDefault()})
+	 */
+	public void setDebugLog(DebugLog debugLog) {
+		this._debug = debugLog;
+	}
+
+	/**
+	 * @param listener
+	 *            gets informed about the progress of the read (called on the
+	 *            reading thread), or <code>null</code>
+	 */
+	public void setReadListener(ReadListener listener) {
+		this._listener = listener;
+	}
+
+	/**
+	 * @param decodeInBackground
+	 *            <code>true</code> (default) to decode responses on a worker
+	 *            thread while the next command is exchanged with the card,
+	 *            <code>false</code> to decode them directly (if there is no
+	 *            I/O to wait for, e.g. for recorded sessions)
+	 */
+	public void setDecodeInBackground(boolean decodeInBackground) {
+		this._decodeInBackground = decodeInBackground;
+	}
+
+	/**
+	 * Cancels a running read (may be called from any thread). The read stops
+	 * before the next command is sent to the card and
+	 * {@link #readAllCardData(boolean, boolean)} throws a
+	 * {@link ReadCancelledException}.
+	 */
+	public void cancel() {
+		_transport.cancel();
+	}
+
+	/**
+	 * @param checkpoint
+	 *            checkpoint of an earlier, interrupted read: if the card
+	 *            matches, the next read continues from there, otherwise the
+	 *            log is cleared and the card is read from the start (or
+	 *            <code>null</code>)
+	 */
+	public void setResumeCheckpoint(ReadCheckpoint checkpoint) {
+		this._resumeFrom = checkpoint;
+	}
+
+	/**
+	 * @return progress of the last read if it was interrupted because the
+	 *         card was lost (for continuing with
+	 *         {@link #setResumeCheckpoint(ReadCheckpoint)}), otherwise
+	 *         <code>null</code>
+	 */
+	public ReadCheckpoint getCheckpoint() {
+		return _checkpoint;
+	}
+
+	/**
+	 * @return timing metrics of the last read
+	 */
+	public ReadMetrics getReadMetrics() {
+		return _metrics;
+	}
+
+	/**
+	 * Connects to the card
 	 * 
 	 * @throws IOException
 	 */
-	public void connectIsoDep() throws IOException, NoSmartCardException {
-		_localIsoDep = IsoDep.get(_nfcTag);
-		if (_localIsoDep == null) {
-			throw new NoSmartCardException("This NFC tag is no ISO 7816 card");
-		}
-		_localIsoDep.connect();
+	public void connect() throws IOException, NoSmartCardException {
+		_transport.connect();
 	}
 
 	/**
-	 * Disconnects to IsoDep
+	 * Disconnects from the card
 	 * 
 	 * @throws IOException
 	 */
-	public void disconnectIsoDep() throws IOException {
-		_localIsoDep.close();
+	public void disconnect() throws IOException {
+		_transport.close();
 	}
 
 	/**
@@ -174,29 +321,247 @@ public class NfcBankomatCardReader {
 	 */
 	public CardInfo readAllCardData(boolean performFullFileScan)
 			throws IOException {
-		CardInfo result = new CardInfo(_ctx);
-		_ctl.log("Starting to read data from card..");
-		result.addSectionHeader(_ctx.getResources().getString(
-				R.string.section_nfc));
-		result.setNfcTagId(_nfcTag.getId());
-		_ctl.log("NFC Tag ID: "
-				+ prettyPrintString(bytesToHex(_nfcTag.getId()), 2));
-		_ctl.log("Historical bytes: "
-				+ prettyPrintString(
-						bytesToHex(_localIsoDep.getHistoricalBytes()), 2));
-		result.addSectionHeader(_ctx.getResources().getString(
-				R.string.section_GPCS_CPLC));
-		result = readCPLCInfos(result);
-		result.addSectionHeader(_ctx.getResources().getString(
-				R.string.section_emv));
-		result = readQuickInfos(result);
-		result = readMaestroCardInfos(result, performFullFileScan);
-		result = readVisaCardInfos(result, performFullFileScan);
-		result = readMastercardInfos(result, performFullFileScan);
-		_ctl.log("FINISHED! :-)");
+		return readAllCardData(performFullFileScan, false);
+	}
+
+	/**
+	 * Try to read all bankomat card data<br>
+	 * 
+	 * @param performFullFileScan
+	 *            <code>true</code> if we should try to scan all EFs, false if
+	 *            only some well known on Austrian Bankomat Cards
+	 * @param useAfl
+	 *            <code>true</code> if we should send GET PROCESSING OPTIONS
+	 *            and only read the records listed in the cards 'Application
+	 *            File Locator' (falls back to scanning if this fails)
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public CardInfo readAllCardData(boolean performFullFileScan, boolean useAfl)
+			throws IOException {
+		_useAfl = useAfl;
+		_metrics.reset();
+		_knownProfile = null;
+		_newProfile = new CardProfile(null);
+		_currentApp = null;
+		_knownApp = null;
+		_cardUniqueId = null;
+		_panProfileLookedUp = false;
+		_phase = null;
+		_currentAid = null;
+		_progress = null;
+		_checkpoint = null;
+		_probe = new RecordProbeStrategy(performFullFileScan);
+		ReadCheckpoint resume = _resumeFrom;
+		_resumeFrom = null;
+		_pipeline = new ResponsePipeline(_decodeInBackground);
+		try {
+			CardInfo result = new CardInfo(_texts);
+			_log.message("Starting to read data from card..");
+			result.addSectionHeader(_texts.getString(R.string.section_nfc));
+			result.setNfcTagId(_transport.getTagId());
+			_log.message("NFC Tag ID: "
+					+ prettyPrintString(bytesToHex(_transport.getTagId()), 2));
+			_log.message("Historical bytes: "
+					+ prettyPrintString(
+							bytesToHex(_transport.getHistoricalBytes()), 2));
+			result.addSectionHeader(_texts
+					.getString(R.string.section_GPCS_CPLC));
+			enterPhase(ReadPhase.CPLC, result);
+			result = readCPLCInfos(result);
+			if (resume != null
+					&& resume.matches(_transport.getTagId(), _cardUniqueId,
+							performFullFileScan, useAfl,
+							System.currentTimeMillis())) {
+				_log.message("Same card as in interrupted read, continuing: "
+						+ resume);
+				// card is identified, continue with the earlier state
+				_pipeline.await();
+				_tags = resume.getTags();
+				_probe = resume.getProbe();
+				_knownProfile = resume.getKnownProfile();
+				_newProfile = resume.getNewProfile();
+				result = resume.copyResult();
+			} else if (resume != null) {
+				// the log of the interrupted read belongs to another read
+				_pipeline.close();
+				_log.clear();
+				_log.message("Cannot continue interrupted read (other card, "
+						+ "other settings or too late), starting over..");
+				return readAllCardData(performFullFileScan, useAfl);
+			} else {
+				loadCardProfile();
+				result.addSectionHeader(_texts
+						.getString(R.string.section_emv));
+			}
+			_progress = new ReadCheckpoint(_transport.getTagId(),
+					_cardUniqueId, performFullFileScan, useAfl, _tags, _probe,
+					_knownProfile, _newProfile);
+			if (resume != null && resume.isReadingRecords()) {
+				enterPhase(resume.getPhase(), result);
+				result = continueRecordRead(resume, result, performFullFileScan);
+			}
+			if (mustRead(ReadPhase.QUICK, resume)) {
+				enterPhase(ReadPhase.QUICK, result);
+				result = readQuickInfos(result);
+			}
+			if (mustRead(ReadPhase.MAESTRO, resume)) {
+				enterPhase(ReadPhase.MAESTRO, result);
+				result = readMaestroCardInfos(result, performFullFileScan);
+			}
+			if (mustRead(ReadPhase.VISA, resume)) {
+				enterPhase(ReadPhase.VISA, result);
+				result = readVisaCardInfos(result, performFullFileScan);
+			}
+			if (mustRead(ReadPhase.MASTERCARD, resume)) {
+				enterPhase(ReadPhase.MASTERCARD, result);
+				result = readMastercardInfos(result, performFullFileScan);
+			}
+			// final join: wait until all responses are processed
+			_pipeline.await();
+			_metrics.finish();
+			saveCardProfile();
+			result.setCardKey(cardKey());
+			result.setReadMetrics(_metrics);
+			if (_probe.getEfCount() > 0) {
+				result.addKeyValuePair(new InfoKeyValuePair(_texts
+						.getString(R.string.lbl_file_scan),
+						_probe.getApduCount() + " APDUs, "
+								+ _probe.getEfNotFoundCount() + "/"
+								+ _probe.getEfCount() + " EFs empty, ~"
+								+ _probe.getApdusSaved() + " APDUs saved"));
+			}
+			_log.message(_metrics.toSummaryString());
+			_log.message("FINISHED! :-)");
+			return result;
+		} catch (CardLostException cle) {
+			saveCheckpoint();
+			throw cle;
+		} finally {
+			_pipeline.close();
+		}
+	}
+
+	/**
+	 * @param phase
+	 * @param resume
+	 *            checkpoint the read continues from (or <code>null</code>)
+	 * @return <code>false</code> if the phase was already completed before
+	 *         the checkpoint
+	 */
+	private static boolean mustRead(ReadPhase phase, ReadCheckpoint resume) {
+		if (resume == null) {
+			return true;
+		}
+		if (resume.isReadingRecords()) {
+			// interrupted phase is completed by continueRecordRead()
+			return phase.ordinal() > resume.getPhase().ordinal();
+		}
+		return phase.ordinal() >= resume.getPhase().ordinal();
+	}
+
+	/**
+	 * Called when the card was lost: keeps the progress so that the next read
+	 * of the same card can continue from here
+	 */
+	private void saveCheckpoint() {
+		if (_progress == null || _progress.getPhase() == null) {
+			// card was not identified yet, nothing worth keeping
+			return;
+		}
+		try {
+			// the checkpoint must contain all responses read until now
+			_pipeline.await();
+		} catch (RuntimeException e) {
+			_debug.w("exception while processing responses", e);
+		}
+		_progress.setTime(System.currentTimeMillis());
+		_checkpoint = _progress;
+		_log.message("Card lost, saved checkpoint: " + _checkpoint);
+	}
+
+	/**
+	 * Continues an interrupted file scan or AFL read: the application is
+	 * selected again and the read goes on at the next record (GET DATA
+	 * commands are not sent again, GET PROCESSING OPTIONS is sent again for
+	 * the AFL read)
+	 * 
+	 * @param resume
+	 * @param result
+	 * @param fullFileScan
+	 * @return
+	 * @throws IOException
+	 */
+	private CardInfo continueRecordRead(ReadCheckpoint resume,
+			CardInfo result, boolean fullFileScan) throws IOException {
+		byte[] aid = resume.getScanAid();
+		_log.message("Selecting AID " + bytesToHex(aid)
+				+ " again for continuing to read records..");
+		byte[] selectAidResponse = selectApplicationGetBytes(aid);
+		logBerTlvResponse(selectAidResponse);
+		if (!isSuccess(selectAidResponse)) {
+			_log.message("Could not select application again..");
+			return result;
+		}
+		startApplication(aid);
+		_logFormat = resume.getScanLogFormat();
+		_metrics.startPhase(ReadPhase.FILE_SCAN);
+		try {
+			if (!resume.isAflRead()) {
+				result = searchForFiles(result, fullFileScan, true,
+						resume.getScanSfi(), resume.getScanRecord(),
+						resume.getScanTxList());
+			} else if (!readFilesByAfl(selectAidResponse, result,
+					resume.getAflEntry(), resume.getScanRecord(),
+					resume.getScanTxList())) {
+				result = searchForFiles(result, fullFileScan, true, 0,
+						RecordProbeStrategy.FIRST_RECORD,
+						resume.getScanTxList());
+			}
+			result = finishEmvData(result);
+		} catch (RuntimeException re) {
+			_log.message("ERROR: Catched Exception while continuing to read records:\n"
+					+ re + "\n" + re.getMessage());
+			_debug.w("Catched Exception while continuing to read records: ",
+					re);
+		} catch (TlvParsingException tle) {
+			_log.message("ERROR: Catched Exception while continuing to read records:\n"
+					+ tle + "\n" + tle.getMessage());
+			_debug.w("Catched Exception while continuing to read records: ",
+					tle);
+		}
 		return result;
 	}
 
+	/**
+	 * Starts a top level phase of the read: aborts if the read was cancelled
+	 * and publishes the data of the previous phase to the listener. (The
+	 * result of the last phase is the return value of the read.)
+	 * 
+	 * @param phase
+	 * @param result
+	 *            data read so far
+	 * @throws ReadCancelledException
+	 */
+	private void enterPhase(ReadPhase phase, CardInfo result)
+			throws ReadCancelledException {
+		_transport.checkCancelled();
+		if (_listener != null && _phase != null) {
+			// snapshot has to contain all responses of the previous phase
+			_pipeline.await();
+			_listener.onPartialResult(_phase, result.snapshot());
+		}
+		_phase = phase;
+		if (_progress != null) {
+			_progress.startPhase(phase, result.snapshot());
+		}
+		_metrics.startPhase(phase);
+		if (_listener != null) {
+			_listener.onPhaseStarted(phase);
+		}
+	}
+
 	/**
 	 * Try to read generic infos about the SmartCard as defined in the
 	 * "GlobalPlatform Card Specification" (GPCS).
@@ -204,14 +569,13 @@ public class NfcBankomatCardReader {
 	 * @param result
 	 * @return
 	 * @throws IOException
-	 * @throws TlvParsingException
 	 */
 	private CardInfo readCPLCInfos(CardInfo result) throws IOException {
-		_ctl.log("Trying to read Card Production Life Cycle (CPLC) data as "
+		_log.message("Trying to read Card Production Life Cycle (CPLC) data as "
 				+ "defined by GlobalPlatform Card Specification (GPCS)..");
 		byte[] resultPdu = sendGetCPLC();
 		// if not success, abort here
-		if (!isStatusSuccess(getLast2Bytes(resultPdu))) {
+		if (!isSuccess(resultPdu)) {
 			return result;
 		}
 		if (resultPdu.length <= 2) {
@@ -220,32 +584,28 @@ public class NfcBankomatCardReader {
 
 		try {
 			CPLC cplcData = CPLC.parse(cutoffLast2Bytes(resultPdu));
+			_cardUniqueId = cplcData.createCardUniqueIdentifier();
+			result.setCardUniqueIdentifier(_cardUniqueId);
 			String cplcString = cplcData.toString();
-			_ctl.log(cplcString);
-			Log.d(TAG, "CPLC data: " + cplcString);
-
-			Pattern p = Pattern.compile("^0+$");
-			Map<String, String> fields = cplcData.getFields();
-			_ctl.log("Same date human readable parsed:");
-			for (String key : fields.keySet()) {
-				String val = fields.get(key);
-				if (p.matcher(val).matches()) {
+			_log.message(cplcString);
+			_debug.d("CPLC data: " + cplcString);
+
+			_log.message("Same date human readable parsed:");
+			for (CPLC.Field field : CPLC.Field.values()) {
+				if (cplcData.isZero(field)) {
 					// ignore fields which are just 000s
 					continue;
 				}
-				String humanReadableVal = CPLC.getHumanReadableValue(key, val);
-				_ctl.log("  * " + key + ":\n    " + humanReadableVal);
-				result.addKeyValuePair(new InfoKeyValuePair(key,
+				String humanReadableVal = cplcData.getHumanReadableValue(field);
+				_log.message("  * " + field.getName() + ":\n    "
+						+ humanReadableVal);
+				result.addKeyValuePair(new InfoKeyValuePair(field.getName(),
 						humanReadableVal));
 			}
-		} catch (TlvParsingException pe) {
-			_ctl.log("ERROR: Catched Exception while reading CPLC data:\n" + pe
-					+ "\n" + pe.getMessage());
-			Log.w(TAG, "Catched Exception while reading CPLC infos: ", pe);
 		} catch (RuntimeException re) {
-			_ctl.log("ERROR: Catched Exception while reading CPLC infos:\n"
+			_log.message("ERROR: Catched Exception while reading CPLC infos:\n"
 					+ re + "\n" + re.getMessage());
-			Log.w(TAG, "Catched Exception while reading CPLC infos: ", re);
+			_debug.w("Catched Exception while reading CPLC infos: ", re);
 		}
 		return result;
 	}
@@ -257,11 +617,17 @@ public class NfcBankomatCardReader {
 	 * @throws IOException
 	 */
 	private CardInfo readQuickInfos(CardInfo result) throws IOException {
-		Log.d(TAG, "check if card contains QUICK AID..");
-		_ctl.log("Trying to select QUICK AID..");
+		_debug.d("check if card contains QUICK AID..");
+		if (_knownProfile != null && !_knownProfile.isQuickCard()) {
+			_log.message("Skipping QUICK AID (not found on last read of this card)..");
+			result.setQuickCard(false);
+			return result;
+		}
+		_log.message("Trying to select QUICK AID..");
 		byte[] selectAidResponse = selectApplicationGetBytes(APPLICATION_ID_QUICK);
-		boolean isQuickCard = isStatusSuccess(getLast2Bytes(selectAidResponse));
-		_ctl.log("is a Quick card: " + isQuickCard);
+		boolean isQuickCard = isSuccess(selectAidResponse);
+		_newProfile.setQuickCard(isQuickCard);
+		_log.message("is a Quick card: " + isQuickCard);
 		result.setQuickCard(isQuickCard);
 		if (!isQuickCard) {
 			return result;
@@ -275,13 +641,13 @@ public class NfcBankomatCardReader {
 					.getCurrencyAsString(getQuickCardCurrencyBytes()));
 			result = tryReadingQuickLogEntries(result);
 		} catch (TlvParsingException pe) {
-			_ctl.log("ERROR: Catched Exception while reading QUICK infos:\n"
+			_log.message("ERROR: Catched Exception while reading QUICK infos:\n"
 					+ pe + "\n" + pe.getMessage());
-			Log.w(TAG, "Catched Exception while reading QUICK infos: ", pe);
+			_debug.w("Catched Exception while reading QUICK infos: ", pe);
 		} catch (RuntimeException re) {
-			_ctl.log("ERROR: Catched Exception while reading QUICK infos:\n"
+			_log.message("ERROR: Catched Exception while reading QUICK infos:\n"
 					+ re + "\n" + re.getMessage());
-			Log.w(TAG, "Catched Exception while reading QUICK infos: ", re);
+			_debug.w("Catched Exception while reading QUICK infos: ", re);
 		}
 		return result;
 	}
@@ -297,29 +663,34 @@ public class NfcBankomatCardReader {
 	 */
 	private CardInfo readMaestroCardInfos(CardInfo result, boolean fullFileScan)
 			throws IOException {
-		Log.d(TAG, "check if card contains MAESTRO AID..");
-		_ctl.log("Trying to select Maestro AID..");
+		_debug.d("check if card contains MAESTRO AID..");
+		if (skipApplication(APPLICATION_ID_EMV_MAESTRO_BANKOMAT)) {
+			result.setMaestroCard(false);
+			return result;
+		}
+		_log.message("Trying to select Maestro AID..");
 		byte[] selectAidResponse = selectApplicationGetBytes(APPLICATION_ID_EMV_MAESTRO_BANKOMAT);
 		logBerTlvResponse(selectAidResponse);
-		boolean isMaestroCard = isStatusSuccess(getLast2Bytes(selectAidResponse));
-		_ctl.log("is a MAESTRO card: " + isMaestroCard);
+		boolean isMaestroCard = isSuccess(selectAidResponse);
+		_log.message("is a MAESTRO card: " + isMaestroCard);
 		result.setMaestroCard(isMaestroCard);
 		if (!isMaestroCard) {
 			return result;
 		}
+		startApplication(APPLICATION_ID_EMV_MAESTRO_BANKOMAT);
 		// ok, so let's catch exceptions here, instead of just letting the whole
 		// scan abort, so that the user gets at least some infos where the
 		// parsing failed:
 		try {
 			result = readEmvData(selectAidResponse, result, fullFileScan);
 		} catch (RuntimeException re) {
-			_ctl.log("ERROR: Catched Exception while reading Maestro infos:\n"
+			_log.message("ERROR: Catched Exception while reading Maestro infos:\n"
 					+ re + "\n" + re.getMessage());
-			Log.w(TAG, "Catched Exception while reading Maestro infos: ", re);
+			_debug.w("Catched Exception while reading Maestro infos: ", re);
 		} catch (TlvParsingException tle) {
-			_ctl.log("ERROR: Catched Exception while reading Maestro infos:\n"
+			_log.message("ERROR: Catched Exception while reading Maestro infos:\n"
 					+ tle + "\n" + tle.getMessage());
-			Log.w(TAG, "Catched Exception while reading Maestro infos: ", tle);
+			_debug.w("Catched Exception while reading Maestro infos: ", tle);
 		}
 		return result;
 	}
@@ -335,30 +706,35 @@ public class NfcBankomatCardReader {
 	 */
 	private CardInfo readMastercardInfos(CardInfo result, boolean fullFileScan)
 			throws IOException {
-		Log.d(TAG, "check if card contains Mastercard Creditcard AID..");
-		_ctl.log("Trying to select Mastercard Creditcard AID..");
+		_debug.d("check if card contains Mastercard Creditcard AID..");
+		if (skipApplication(APPLICATION_ID_EMV_MASTERCARD)) {
+			result.setMasterCard(false);
+			return result;
+		}
+		_log.message("Trying to select Mastercard Creditcard AID..");
 		byte[] selectAidResponse = selectApplicationGetBytes(APPLICATION_ID_EMV_MASTERCARD);
 		logBerTlvResponse(selectAidResponse);
-		boolean isMastercard = isStatusSuccess(getLast2Bytes(selectAidResponse));
-		_ctl.log("is a Mastercard Creditcard: " + isMastercard);
+		boolean isMastercard = isSuccess(selectAidResponse);
+		_log.message("is a Mastercard Creditcard: " + isMastercard);
 		result.setMasterCard(isMastercard);
 		if (!isMastercard) {
 			return result;
 		}
+		startApplication(APPLICATION_ID_EMV_MASTERCARD);
 		// ok, so let's catch exceptions here, instead of just letting the whole
 		// scan abort, so that the user gets at least some infos where the
 		// parsing failed:
 		try {
 			result = readEmvData(selectAidResponse, result, fullFileScan);
 		} catch (RuntimeException re) {
-			_ctl.log("ERROR: Catched Exception while reading mastercard infos:\n"
+			_log.message("ERROR: Catched Exception while reading mastercard infos:\n"
 					+ re + "\n" + re.getMessage());
-			Log.w(TAG, "Catched Exception while reading mastercard  infos: ",
+			_debug.w("Catched Exception while reading mastercard  infos: ",
 					re);
 		} catch (TlvParsingException tle) {
-			_ctl.log("ERROR: Catched Exception while reading mastercard  infos:\n"
+			_log.message("ERROR: Catched Exception while reading mastercard  infos:\n"
 					+ tle + "\n" + tle.getMessage());
-			Log.w(TAG, "Catched Exception while reading mastercard  infos: ",
+			_debug.w("Catched Exception while reading mastercard  infos: ",
 					tle);
 		}
 		return result;
@@ -375,29 +751,34 @@ public class NfcBankomatCardReader {
 	 */
 	private CardInfo readVisaCardInfos(CardInfo result, boolean fullFileScan)
 			throws IOException {
-		Log.d(TAG, "check if card contains VISA Creditcard AID..");
-		_ctl.log("Trying to select VISA Creditcard AID..");
+		_debug.d("check if card contains VISA Creditcard AID..");
+		if (skipApplication(APPLICATION_ID_EMV_VISA_CREDITCARD)) {
+			result.setVisaCard(false);
+			return result;
+		}
+		_log.message("Trying to select VISA Creditcard AID..");
 		byte[] selectAidResponse = selectApplicationGetBytes(APPLICATION_ID_EMV_VISA_CREDITCARD);
 		logBerTlvResponse(selectAidResponse);
-		boolean isVisaCard = isStatusSuccess(getLast2Bytes(selectAidResponse));
-		_ctl.log("is a VISA Creditcard: " + isVisaCard);
+		boolean isVisaCard = isSuccess(selectAidResponse);
+		_log.message("is a VISA Creditcard: " + isVisaCard);
 		result.setVisaCard(isVisaCard);
 		if (!isVisaCard) {
 			return result;
 		}
+		startApplication(APPLICATION_ID_EMV_VISA_CREDITCARD);
 		// ok, so let's catch exceptions here, instead of just letting the whole
 		// scan abort, so that the user gets at least some infos where the
 		// parsing failed:
 		try {
 			result = readEmvData(selectAidResponse, result, fullFileScan);
 		} catch (RuntimeException re) {
-			_ctl.log("ERROR: Catched Exception while reading VISA card infos:\n"
+			_log.message("ERROR: Catched Exception while reading VISA card infos:\n"
 					+ re + "\n" + re.getMessage());
-			Log.w(TAG, "Catched Exception while reading VISA card infos: ", re);
+			_debug.w("Catched Exception while reading VISA card infos: ", re);
 		} catch (TlvParsingException tle) {
-			_ctl.log("ERROR: Catched Exception while reading VISA card infos:\n"
+			_log.message("ERROR: Catched Exception while reading VISA card infos:\n"
 					+ tle + "\n" + tle.getMessage());
-			Log.w(TAG, "Catched Exception while reading VISA card infos: ", tle);
+			_debug.w("Catched Exception while reading VISA card infos: ", tle);
 		}
 		return result;
 	}
@@ -416,6 +797,7 @@ public class NfcBankomatCardReader {
 	 */
 	private CardInfo readEmvData(byte[] selectAidResponse, CardInfo result,
 			boolean fullFileScan) throws IOException, TlvParsingException {
+		_metrics.startPhase(ReadPhase.GET_DATA);
 		tryToReadLogFormat();
 		result = tryToReadPinRetryCounter(result);
 		tryToReadCurrentAtcValue();
@@ -423,8 +805,25 @@ public class NfcBankomatCardReader {
 		tryToReadAllCommonSimpleTlvTags();
 		tryToReadAllCommonBerTlvTags();
 		tryToReadAdditionalGetDataFields();
-		result = searchForFiles(result, fullFileScan, true);
-		result.addKeyValuePairs(filterTagsForResult(_ctx, _tagList, false));
+		_metrics.startPhase(ReadPhase.FILE_SCAN);
+		if (_knownApp != null) {
+			readFilesByProfile(_knownApp, result);
+		} else if (!_useAfl || !readFilesByAfl(selectAidResponse, result)) {
+			result = searchForFiles(result, fullFileScan, true);
+		}
+		return finishEmvData(result);
+	}
+
+	/**
+	 * Adds the tags found in the current application to the result
+	 * 
+	 * @param result
+	 * @return
+	 * @throws TlvParsingException
+	 */
+	private CardInfo finishEmvData(CardInfo result) throws TlvParsingException {
+		_pipeline.await();
+		result.addKeyValuePairs(filterTagsForResult(_texts, _tags, false));
 		result = lookForLogEntryEmvTag(result);
 		return result;
 	}
@@ -435,13 +834,16 @@ public class NfcBankomatCardReader {
 	 * @throws IOException
 	 */
 	private void tryToReadLogFormat() throws IOException {
-		_ctl.log("trying to send GET DATA to get 'Log Format' tag from  card...");
-		_ctl.log("sent: " + bytesToHex(EMV_COMMAND_GET_DATA_PIN_RETRY_COUNTER));
-		byte[] resultPdu = _localIsoDep
-				.transceive(EMV_COMMAND_GET_DATA_LOG_FORMAT);
-		_logFormatResponse = bytesToHex(resultPdu);
-		logResultPdu(resultPdu);
-		logBerTlvResponse(resultPdu);
+		byte[] resultPdu = sendGetData(
+				"trying to send GET DATA to get 'Log Format' tag from  card...",
+				EMV_COMMAND_GET_DATA_LOG_FORMAT);
+		_logFormat = LogFormat.fromGetDataResponse(resultPdu);
+		if (_logFormat != null) {
+			_log.message(_logFormat.toString());
+			if (_currentApp != null) {
+				_currentApp.setLogFormat(bytesToHex(resultPdu));
+			}
+		}
 	}
 
 	/**
@@ -452,19 +854,21 @@ public class NfcBankomatCardReader {
 	 */
 	private CardInfo tryToReadPinRetryCounter(CardInfo result)
 			throws IOException, TlvParsingException {
-		_ctl.log("trying to read PIN retry counter from card...");
-		_ctl.log("sent: " + bytesToHex(EMV_COMMAND_GET_DATA_PIN_RETRY_COUNTER));
-		byte[] resultPdu = _localIsoDep
-				.transceive(EMV_COMMAND_GET_DATA_PIN_RETRY_COUNTER);
-		logResultPdu(resultPdu);
-		logBerTlvResponse(resultPdu);
-		if (isStatusSuccess(getLast2Bytes(resultPdu))) {
-			BERTLV tlv = getNextTLV(new ByteArrayInputStream(resultPdu));
-			int pinRetryCounter = tlv.getValueBytes()[0];
-			_ctl.log("-----------------------------------------------------");
-			_ctl.log("  Current PIN retry counter: >>>>>> " + pinRetryCounter
+		byte[] resultPdu = sendGetData(
+				"trying to read PIN retry counter from card...",
+				EMV_COMMAND_GET_DATA_PIN_RETRY_COUNTER);
+		if (resultPdu != null && isSuccess(resultPdu)) {
+			TlvCursor cursor = new TlvCursor(resultPdu, 0,
+					resultPdu.length - 2);
+			if (!cursor.next() || cursor.getValueLength() < 1) {
+				throw new TlvParsingException(
+						"PIN retry counter response contains no value");
+			}
+			int pinRetryCounter = cursor.getValueByte(0);
+			_log.message("-----------------------------------------------------");
+			_log.message("  Current PIN retry counter: >>>>>> " + pinRetryCounter
 					+ " <<<<<<");
-			_ctl.log("-----------------------------------------------------");
+			_log.message("-----------------------------------------------------");
 			result.setPinRetryCounter(pinRetryCounter);
 		}
 		return result;
@@ -480,50 +884,23 @@ public class NfcBankomatCardReader {
 	 */
 	private void tryToReadAdditionalGetDataFields() throws IOException,
 			TlvParsingException {
-		_ctl.log("trying to send GET DATA for getting 'card risk management currency(?)'...");
-		_ctl.log("sent: " + bytesToHex(EMV_COMMAND_GET_DATA_CRM_CURRENCY));
-		byte[] resultPdu = _localIsoDep
-				.transceive(EMV_COMMAND_GET_DATA_CRM_CURRENCY);
-		logResultPdu(resultPdu);
-		logBerTlvResponse(resultPdu);
+		sendGetData("trying to send GET DATA for getting 'card risk management currency(?)'...",
+				EMV_COMMAND_GET_DATA_CRM_CURRENCY);
 
-		_ctl.log("trying to send GET DATA for getting 'card risk management country(?)'...");
-		_ctl.log("sent: " + bytesToHex(EMV_COMMAND_GET_DATA_CRM_COUNTRY));
-		resultPdu = _localIsoDep.transceive(EMV_COMMAND_GET_DATA_CRM_COUNTRY);
-		logResultPdu(resultPdu);
-		logBerTlvResponse(resultPdu);
+		sendGetData("trying to send GET DATA for getting 'card risk management country(?)'...",
+				EMV_COMMAND_GET_DATA_CRM_COUNTRY);
 
-		_ctl.log("trying to send GET DATA for getting 'lower consecutive offline limit(?)'...");
-		_ctl.log("sent: "
-				+ bytesToHex(EMV_COMMAND_GET_DATA_LOWER_CONSECUTIVE_OFFLINE_LIMIT));
-		resultPdu = _localIsoDep
-				.transceive(EMV_COMMAND_GET_DATA_LOWER_CONSECUTIVE_OFFLINE_LIMIT);
-		logResultPdu(resultPdu);
-		logBerTlvResponse(resultPdu);
+		sendGetData("trying to send GET DATA for getting 'lower consecutive offline limit(?)'...",
+				EMV_COMMAND_GET_DATA_LOWER_CONSECUTIVE_OFFLINE_LIMIT);
 
-		_ctl.log("trying to send GET DATA for getting 'upper consecutive offline limit(?)'...");
-		_ctl.log("sent: "
-				+ bytesToHex(EMV_COMMAND_GET_DATA_UPPER_CONSECUTIVE_OFFLINE_LIMIT));
-		resultPdu = _localIsoDep
-				.transceive(EMV_COMMAND_GET_DATA_UPPER_CONSECUTIVE_OFFLINE_LIMIT);
-		logResultPdu(resultPdu);
-		logBerTlvResponse(resultPdu);
+		sendGetData("trying to send GET DATA for getting 'upper consecutive offline limit(?)'...",
+				EMV_COMMAND_GET_DATA_UPPER_CONSECUTIVE_OFFLINE_LIMIT);
 
-		_ctl.log("trying to send GET DATA for getting 'lower cumulative offline tx amount(?)'...");
-		_ctl.log("sent: "
-				+ bytesToHex(EMV_COMMAND_GET_DATA_LOWER_CUMULATIVE_TX_AMOUNT));
-		resultPdu = _localIsoDep
-				.transceive(EMV_COMMAND_GET_DATA_LOWER_CUMULATIVE_TX_AMOUNT);
-		logResultPdu(resultPdu);
-		logBerTlvResponse(resultPdu);
+		sendGetData("trying to send GET DATA for getting 'lower cumulative offline tx amount(?)'...",
+				EMV_COMMAND_GET_DATA_LOWER_CUMULATIVE_TX_AMOUNT);
 
-		_ctl.log("trying to send GET DATA for getting 'upper cumulative offline tx amount(?)'...");
-		_ctl.log("sent: "
-				+ bytesToHex(EMV_COMMAND_GET_DATA_UPPER_CUMULATIVE_TX_AMOUNT));
-		resultPdu = _localIsoDep
-				.transceive(EMV_COMMAND_GET_DATA_UPPER_CUMULATIVE_TX_AMOUNT);
-		logResultPdu(resultPdu);
-		logBerTlvResponse(resultPdu);
+		sendGetData("trying to send GET DATA for getting 'upper cumulative offline tx amount(?)'...",
+				EMV_COMMAND_GET_DATA_UPPER_CUMULATIVE_TX_AMOUNT);
 	}
 
 	/**
@@ -532,12 +909,8 @@ public class NfcBankomatCardReader {
 	 * @throws IOException
 	 */
 	private void tryToReadCurrentAtcValue() throws IOException {
-		_ctl.log("trying to send GET DATA for getting 'ATC' (current application transaction counter)...");
-		_ctl.log("sent: " + bytesToHex(EMV_COMMAND_GET_DATA_APP_TX_COUNTER));
-		byte[] resultPdu = _localIsoDep
-				.transceive(EMV_COMMAND_GET_DATA_APP_TX_COUNTER);
-		logResultPdu(resultPdu);
-		logBerTlvResponse(resultPdu);
+		sendGetData("trying to send GET DATA for getting 'ATC' (current application transaction counter)...",
+				EMV_COMMAND_GET_DATA_APP_TX_COUNTER);
 	}
 
 	/**
@@ -546,13 +919,8 @@ public class NfcBankomatCardReader {
 	 * @throws IOException
 	 */
 	private void tryToReadLastOnlineAtcRegisterValue() throws IOException {
-		_ctl.log("trying to send GET DATA for getting 'Last online ATC Register' (application transaction counter of last online transaction)...");
-		_ctl.log("sent: "
-				+ bytesToHex(EMV_COMMAND_GET_DATA_LAST_ONLINE_APP_TX_COUNTER));
-		byte[] resultPdu = _localIsoDep
-				.transceive(EMV_COMMAND_GET_DATA_LAST_ONLINE_APP_TX_COUNTER);
-		logResultPdu(resultPdu);
-		logBerTlvResponse(resultPdu);
+		sendGetData("trying to send GET DATA for getting 'Last online ATC Register' (application transaction counter of last online transaction)...",
+				EMV_COMMAND_GET_DATA_LAST_ONLINE_APP_TX_COUNTER);
 	}
 
 	/**
@@ -561,13 +929,8 @@ public class NfcBankomatCardReader {
 	 * @throws IOException
 	 */
 	private void tryToReadAllCommonSimpleTlvTags() throws IOException {
-		_ctl.log("trying to send command for getting all common simple TLV tags...");
-		_ctl.log("sent: "
-				+ bytesToHex(EMV_COMMAND_GET_DATA_ALL_COMMON_SIMPLE_TLV));
-		byte[] resultPdu = _localIsoDep
-				.transceive(EMV_COMMAND_GET_DATA_ALL_COMMON_SIMPLE_TLV);
-		logResultPdu(resultPdu);
-		logBerTlvResponse(resultPdu);
+		sendGetData("trying to send command for getting all common simple TLV tags...",
+				EMV_COMMAND_GET_DATA_ALL_COMMON_SIMPLE_TLV);
 	}
 
 	/**
@@ -576,12 +939,35 @@ public class NfcBankomatCardReader {
 	 * @throws IOException
 	 */
 	private void tryToReadAllCommonBerTlvTags() throws IOException {
-		_ctl.log("trying to send command for getting all common BER TLV tags...");
-		_ctl.log("sent: " + bytesToHex(EMV_COMMAND_GET_DATA_ALL_COMMON_BER_TLV));
-		byte[] resultPdu = _localIsoDep
-				.transceive(EMV_COMMAND_GET_DATA_ALL_COMMON_BER_TLV);
+		sendGetData("trying to send command for getting all common BER TLV tags...",
+				EMV_COMMAND_GET_DATA_ALL_COMMON_BER_TLV);
+	}
+
+	/**
+	 * Sends a GET DATA command and logs the response. If the card is known and
+	 * this command failed on the last read, it is not sent at all.
+	 * 
+	 * @param logMessage
+	 * @param command
+	 * @return response or <code>null</code> if command was skipped
+	 * @throws IOException
+	 */
+	private byte[] sendGetData(String logMessage, byte[] command)
+			throws IOException {
+		if (_knownApp != null && !_knownApp.isCommandSuccessful(command)) {
+			_log.message("skipped (failed on last read of this card): "
+					+ logMessage);
+			return null;
+		}
+		_log.message(logMessage);
+		_log.command(command);
+		byte[] resultPdu = _transport.transceive(command);
 		logResultPdu(resultPdu);
 		logBerTlvResponse(resultPdu);
+		if (_currentApp != null && isSuccess(resultPdu)) {
+			_currentApp.addSuccessfulCommand(command);
+		}
+		return resultPdu;
 	}
 
 	/**
@@ -603,16 +989,16 @@ public class NfcBankomatCardReader {
 		// this just performs PLAINTEXT pin verification (not supported on
 		// modern cards)
 		// TODO: maybe implement enciphered PIN verification..
-		_ctl.log("trying to VERIFY PLAINTEXT PIN: " + pin);
-		byte[] resultPdu = _localIsoDep.transceive(createApduVerifyPIN(pin,
+		_log.message("trying to VERIFY PLAINTEXT PIN: " + pin);
+		byte[] resultPdu = _transport.transceive(createApduVerifyPIN(pin,
 				true));
 		logResultPdu(resultPdu);
 		logBerTlvResponse(resultPdu);
 	}
 
 	private byte[] transceiveAndLog(byte[] data) throws IOException {
-		_ctl.log("sending: " + bytesToHex(data));
-		return _localIsoDep.transceive(data);
+		_log.command(data);
+		return _transport.transceive(data);
 	}
 
 	/**
@@ -626,27 +1012,52 @@ public class NfcBankomatCardReader {
 
 		byte[] resultPdu;
 
-		_ctl.log("-----------------------------------");
-		_ctl.log("-- reading Paylife QUICK log entries: ");
+		_log.message("-----------------------------------");
+		_log.message("-- reading Paylife QUICK log entries: ");
 		// selecting DF containing logs:
 		resultPdu = transceiveAndLog(fromHexString("00 a4 00 00 02 01 04"));
 		logResultPdu(resultPdu);
+		int lastAtc = _incrementalTxLog && _knownProfile != null ? _knownProfile
+				.getQuickLastAtc() : -1;
 		int currRecord = 1;
 		while (true) {
 			// read currently selected file
 			resultPdu = readRecord(0, currRecord, true);
-			if (isStatusSuccess(getLast2Bytes(resultPdu))) {
+			if (isSuccess(resultPdu)) {
 				QuickTransactionLogEntry log = parseQuickTxLogEntryFromByteArray(resultPdu);
-				_ctl.log("-----------------------------------");
-				_ctl.log(log.toString());
+				if (log == null) {
+					break;
+				}
+				_log.message("-----------------------------------");
+				_log.message(log.toString());
 				quickLogs.add(log);
 				currRecord++;
+				if (log.getAtc() == lastAtc) {
+					_log.message("reached newest QUICK log entry of last read (ATC "
+							+ lastAtc + "), stop reading..");
+					break;
+				}
 			} else {
 				break;
 			}
 		}
+		if (_incrementalTxLog) {
+			List<QuickTransactionLogEntry> history = new ArrayList<QuickTransactionLogEntry>();
+			if (_knownProfile != null) {
+				for (String raw : _knownProfile.getQuickTransactionLog()) {
+					QuickTransactionLogEntry entry = parseQuickTxLogEntryFromByteArray(fromHexString(raw));
+					if (entry != null) {
+						history.add(entry);
+					}
+				}
+			}
+			quickLogs = mergeWithHistory(quickLogs, history);
+			_newProfile.setQuickTransactionLog(toRawHex(quickLogs));
+			_newProfile.setQuickLastAtc(quickLogs.isEmpty() ? -1 : quickLogs
+					.get(0).getAtc());
+		}
 		result.setQuickLog(quickLogs);
-		_ctl.log("-----------------------------------");
+		_log.message("-----------------------------------");
 		return result;
 	}
 
@@ -669,44 +1080,44 @@ public class NfcBankomatCardReader {
 		// card!!! Only perform if you know what you do!!!
 		//
 		//
-		// _ctl.log("trying to send command GET CHALLENGE: ");
-		// resultPdu = _localIsoDep.transceive(EMV_COMMAND_GET_CHALLENGE);
+		// _log.message("trying to send command GET CHALLENGE: ");
+		// resultPdu = _transport.transceive(EMV_COMMAND_GET_CHALLENGE);
 		// logResultPdu(resultPdu);
 		//
 		//
 		// Log.d(TAG, "trying to send SELECT COMMAND 3F 00: ");
 		// cmd = createSelectFile(fromHexString("3F 00"));
 		// Log.d(TAG, "sending: " + bytesToHex(cmd));
-		// resultPdu = _localIsoDep.transceive(cmd);
+		// resultPdu = _transport.transceive(cmd);
 		// logResultPdu(resultPdu);
 		//
 		// Log.d(TAG, "trying to send SELECT COMMAND 00 02: ");
 		// cmd = createSelectFile(fromHexString("00 02"));
 		// Log.d(TAG, "sending: " + bytesToHex(cmd));
-		// resultPdu = _localIsoDep.transceive(cmd);
+		// resultPdu = _transport.transceive(cmd);
 		// logResultPdu(resultPdu);
 		//
 		// searchForFiles(result, false);
 		//
 		// cmd="80 CA XX XX 00";
-		// _ctl.log("trying to send command (): "+cmd);
-		// resultPdu = _localIsoDep.transceive(fromHexString(cmd));
+		// _log.message("trying to send command (): "+cmd);
+		// resultPdu = _transport.transceive(fromHexString(cmd));
 		// logResultPdu(resultPdu);
 		// logBerTlvResponse(resultPdu);
 		// String cmd;
 		// cmd = "80 CA BF 30 00";
-		// _ctl.log("trying to send command (): " + cmd);
-		// resultPdu = _localIsoDep.transceive(fromHexString(cmd));
+		// _log.message("trying to send command (): " + cmd);
+		// resultPdu = _transport.transceive(fromHexString(cmd));
 		// logResultPdu(resultPdu);
 		// logBerTlvResponse(resultPdu);
 		// cmd = "80 CA 9F 35 00";
-		// _ctl.log("trying to send command (): " + cmd);
-		// resultPdu = _localIsoDep.transceive(fromHexString(cmd));
+		// _log.message("trying to send command (): " + cmd);
+		// resultPdu = _transport.transceive(fromHexString(cmd));
 		// logResultPdu(resultPdu);
 		// logBerTlvResponse(resultPdu);
 		// cmd = "80 CA 9F 50 00";
-		// _ctl.log("trying to send command (): " + cmd);
-		// resultPdu = _localIsoDep.transceive(fromHexString(cmd));
+		// _log.message("trying to send command (): " + cmd);
+		// resultPdu = _transport.transceive(fromHexString(cmd));
 		// logResultPdu(resultPdu);
 		// logBerTlvResponse(resultPdu);
 
@@ -729,17 +1140,12 @@ public class NfcBankomatCardReader {
 	 * @return
 	 */
 	private CardInfo lookForLogEntryEmvTag(CardInfo result) {
-		boolean foundLogTag = false;
-		for (TagAndValue tv : _tagList) {
-			if ("9F4D".equals(bytesToHex(tv.getTag().getTagBytes()))) {
-				foundLogTag = true;
-			}
-		}
+		boolean foundLogTag = _tags.contains(TAG_LOG_ENTRY);
 		if (foundLogTag) {
-			Log.d(TAG, "YES! EMV Tag 'Log Entry' found! This card *may* "
+			_debug.d("YES! EMV Tag 'Log Entry' found! This card *may* "
 					+ "store transactions logs.");
 		} else {
-			Log.d(TAG,
+			_debug.d(
 					"NO! Dit not find the EMV Tag 'Log Entry'! This means "
 							+ "that this card propably won't store transactions logs at all.");
 		}
@@ -762,7 +1168,35 @@ public class NfcBankomatCardReader {
 	 */
 	private CardInfo searchForFiles(CardInfo result, boolean fullFileScan,
 			boolean tryToParse) throws IOException {
-		_ctl.log("We ignore the cards 'Application File Locator' and just iterate over files here..");
+		return searchForFiles(result, fullFileScan, tryToParse, 0,
+				RecordProbeStrategy.FIRST_RECORD, new TransactionLogTable());
+	}
+
+	/**
+	 * Like {@link #searchForFiles(CardInfo, boolean, boolean)}, but starts at
+	 * the given position (for continuing an interrupted scan)
+	 * 
+	 * @param result
+	 * @param fullFileScan
+	 * @param tryToParse
+	 * @param startSfi
+	 *            first EF to read
+	 * @param startRecord
+	 *            first record to read in the first EF
+	 * @param txList
+	 *            log entries found until now (new ones are added)
+	 * @return
+	 * @throws IOException
+	 */
+	private CardInfo searchForFiles(CardInfo result, boolean fullFileScan,
+			boolean tryToParse, int startSfi, int startRecord,
+			TransactionLogTable txList) throws IOException {
+		if (_progress != null && _currentAid != null) {
+			_progress.startFileScan(_currentAid, _logFormat,
+					result.snapshot(), txList);
+			_progress.setScanPosition(startSfi, startRecord);
+		}
+		_log.message("We ignore the cards 'Application File Locator' and just iterate over files here..");
 
 		// we now simply check in 2 loops a lot of files and records if they
 		// return BER-TLV encoded data or Transaction Logs
@@ -773,12 +1207,9 @@ public class NfcBankomatCardReader {
 		// just iterate over everything.
 
 		// if we find something looking like a TX log, add it to TX list
-		List<EmvTransactionLogEntry> txList = new ArrayList<EmvTransactionLogEntry>();
-
-		int consecutiveErrorRecords = 0;
 
 		// iterate over EFs
-		for (int shortEfFileIdentifier = 0; shortEfFileIdentifier < 32; shortEfFileIdentifier++) {
+		for (int shortEfFileIdentifier = startSfi; shortEfFileIdentifier < 32; shortEfFileIdentifier++) {
 
 			// ugly and hardcoded, but keep it for now
 			// jump to next if EF not in whitelst
@@ -790,61 +1221,529 @@ public class NfcBankomatCardReader {
 					continue;
 			}
 
-			// for each new EF set the consecutive error counter to 0
-			consecutiveErrorRecords = 0;
+			if (shortEfFileIdentifier == LOG_RECORD_EF) {
+				loadCardProfileByPan();
+			}
 
-			Log.d(TAG, "Trying now to read EF " + shortEfFileIdentifier + "...");
+			// an interrupted scan continues in the middle of the first EF
+			boolean continueEf = shortEfFileIdentifier == startSfi
+					&& startRecord > RecordProbeStrategy.FIRST_RECORD;
+			if (!continueEf) {
+				_probe.startEf();
+			}
+
+			_debug.d("Trying now to read EF " + shortEfFileIdentifier + "...");
 
 			// iterate over records within EF
-			for (int currentRecord = 0; currentRecord < 256; currentRecord++) {
-				if ((fullFileScan && consecutiveErrorRecords > 6)
-						|| (!fullFileScan && consecutiveErrorRecords > 2)) {
-					// if we had 6 errors (or 3 if we do a fast scan) in a row
-					// we assume that no more
-					// records will come and just leave this EF and go
-					// to the next
-					break;
-				}
+			for (int currentRecord = continueEf ? startRecord
+					: RecordProbeStrategy.FIRST_RECORD; currentRecord < 256; currentRecord++) {
 				byte[] responsePdu = readRecord(shortEfFileIdentifier,
 						currentRecord, false);
-				if (isStatusSuccess(getLast2Bytes(responsePdu))) {
-					// also if we find a record set counter to 0
-					consecutiveErrorRecords = 0;
+				// leave EF if file does not exist or the error budget is used
+				// up (see RecordProbeStrategy)
+				boolean readNext = _probe.onResponse(currentRecord,
+						responsePdu);
+				updateScanPosition(shortEfFileIdentifier, currentRecord + 1);
+				if (isSuccess(responsePdu)) {
 					if (tryToParse) {
-						if (shortEfFileIdentifier == LOG_RECORD_EF
-								&& lengthLooksLikeTxLog(responsePdu)) {
-							EmvTransactionLogEntry txLogEntry = tryToParseLogEntry(responsePdu);
-							if (txLogEntry != null) {
-								txList.add(txLogEntry);
-								_ctl.log(txLogEntry.toString());
-							}
-						} else {
-							// avoid that a single unparsable record may abort
-							// the whole scan
-							try {
-								logBerTlvResponse(responsePdu);
-							} catch (Exception e) {
-								Log.w(TAG,
-										"Ignored exception while parsing TLV data",
-										e);
-							}
+						if (processRecord(shortEfFileIdentifier, LOG_RECORD_EF,
+								responsePdu, txList)) {
+							_probe.stopEf();
+							break;
 						}
 					} else {
 						logResultPdu(responsePdu);
 					}
-				} else {
-					consecutiveErrorRecords++;
-					// if card returns error for this record, just try the
-					// next...
-					continue;
 				}
+				if (!readNext) {
+					break;
+				}
+			}
+			_probe.endEf();
+		}
+		_log.message(_probe.toString());
+		result.setTransactionLog(mergeTxHistory(txList));
+		return result;
+	}
+
+	/**
+	 * Remembers how far the file scan got (for continuing after a lost card)
+	 */
+	private void updateScanPosition(int sfi, int nextRecord) {
+		if (_progress != null) {
+			_progress.setScanPosition(sfi, nextRecord);
+		}
+	}
+
+	/**
+	 * Remembers how far the AFL read got (for continuing after a lost card)
+	 */
+	private void updateAflPosition(int aflEntry, int nextRecord) {
+		if (_progress != null) {
+			_progress.setAflPosition(aflEntry, nextRecord);
+		}
+	}
+
+	/**
+	 * Sends GET PROCESSING OPTIONS and reads exactly the records listed in the
+	 * returned 'Application File Locator' (AFL). The EF containing the
+	 * transaction logs is normally not part of the AFL, so it is probed
+	 * separately (using the SFI from tag 9F4D 'Log Entry' if present).
+	 * 
+	 * @param selectAidResponse
+	 * @param result
+	 * @return <code>true</code> if files were read by AFL, <code>false</code>
+	 *         if GET PROCESSING OPTIONS failed or returned no AFL (caller
+	 *         should fall back to scanning)
+	 * @throws IOException
+	 */
+	private boolean readFilesByAfl(byte[] selectAidResponse, CardInfo result)
+			throws IOException {
+		return readFilesByAfl(selectAidResponse, result, 0,
+				RecordProbeStrategy.FIRST_RECORD, new TransactionLogTable());
+	}
+
+	/**
+	 * Like {@link #readFilesByAfl(byte[], CardInfo)}, but starts at the given
+	 * position (for continuing an interrupted read)
+	 * 
+	 * @param selectAidResponse
+	 * @param result
+	 * @param startEntry
+	 *            index of the first AFL entry to read (number of AFL entries
+	 *            for starting with the probe of the log EF)
+	 * @param startRecord
+	 *            first record to read in the first entry
+	 * @param txList
+	 *            log entries found until now (new ones are added)
+	 * @return
+	 * @throws IOException
+	 */
+	private boolean readFilesByAfl(byte[] selectAidResponse, CardInfo result,
+			int startEntry, int startRecord, TransactionLogTable txList)
+			throws IOException {
+		_log.message("trying to send GET PROCESSING OPTIONS for reading the 'Application File Locator'...");
+		byte[] command = createGetProcessingOptionsApdu(selectAidResponse);
+		if (command == null) {
+			_log.message("Cannot build GET PROCESSING OPTIONS for this card, will scan files instead..");
+			return false;
+		}
+		_log.command(command);
+		byte[] resultPdu = _transport.transceive(command);
+		logResultPdu(resultPdu);
+		if (!isSuccess(resultPdu) || resultPdu.length <= 2) {
+			_log.message("GET PROCESSING OPTIONS failed, will scan files instead..");
+			return false;
+		}
+		logBerTlvResponse(resultPdu);
+		List<AflEntry> afl;
+		try {
+			byte[] rawAfl = getAflFromGpoResponse(cutoffLast2Bytes(resultPdu));
+			if (rawAfl == null) {
+				_log.message("No AFL found in response, will scan files instead..");
+				return false;
+			}
+			afl = parseApplicationFileLocator(rawAfl);
+		} catch (TlvParsingException e) {
+			_log.message("Could not parse AFL, will scan files instead..");
+			_debug.w("exception while parsing AFL", e);
+			return false;
+		}
+
+		if (_progress != null && _currentAid != null) {
+			_progress.startAflRead(_currentAid, _logFormat, result.snapshot(),
+					txList);
+			_progress.setAflPosition(startEntry, startRecord);
+		}
+		int logSfi = LOG_RECORD_EF;
+		int logRecords = MAX_PROBED_RECORDS;
+		_pipeline.await();
+		byte[] logEntry = _tags.getValue(TAG_LOG_ENTRY);
+		if (logEntry != null && logEntry.length == 2 && logEntry[0] >= 1
+				&& logEntry[0] <= 30) {
+			logSfi = logEntry[0];
+			// The 2nd byte of the Log Entry is the maximum number of records
+			// in the log EF (EMV Book 3, Annex D), so it is the bound for the
+			// probe as it is (1..255, records are numbered from 1). Reading
+			// stops at the first error anyway. On my Bank Austria card there
+			// was once 1 record more than announced, such cards are still
+			// covered completely by the file scan (not AFL based) read.
+			logRecords = logEntry[1] & 0xFF;
+		}
+
+		boolean logSfiInAfl = false;
+		for (AflEntry entry : afl) {
+			if (entry.getSfi() == logSfi) {
+				logSfiInAfl = true;
+			}
+		}
+		for (int i = startEntry; i < afl.size(); i++) {
+			AflEntry entry = afl.get(i);
+			_log.message("reading " + entry);
+			int firstRecord = entry.getFirstRecord();
+			if (i == startEntry && startRecord > firstRecord) {
+				// an interrupted read continues in the middle of the entry
+				firstRecord = startRecord;
+			}
+			for (int record = firstRecord; record <= entry.getLastRecord(); record++) {
+				byte[] responsePdu = readRecord(entry.getSfi(), record, false);
+				updateAflPosition(i, record + 1);
+				if (isSuccess(responsePdu)
+						&& processRecord(entry.getSfi(), logSfi, responsePdu,
+								txList)) {
+					break;
+				}
+			}
+		}
+
+		// bounded probe of log EF (not listed in the AFL)
+		if (!logSfiInAfl) {
+			loadCardProfileByPan();
+			_log.message("probing log EF " + logSfi + " (not listed in AFL)..");
+			int firstRecord = startEntry == afl.size() ? startRecord
+					: RecordProbeStrategy.FIRST_RECORD;
+			for (int record = firstRecord; record <= logRecords; record++) {
+				byte[] responsePdu = readRecord(logSfi, record, false);
+				updateAflPosition(afl.size(), record + 1);
+				if (!isSuccess(responsePdu)
+						|| processRecord(logSfi, logSfi, responsePdu, txList)) {
+					break;
+				}
+			}
+		}
+		result.setTransactionLog(mergeTxHistory(txList));
+		return true;
+	}
+
+	/**
+	 * Reads only the records which were found on the last read of this card.
+	 * As the transaction log is cyclic and may have changed since then, the
+	 * log EF is read from the first record until the first error.
+	 * 
+	 * @param knownApp
+	 *            profile of the current application from the last read
+	 * @param result
+	 * @throws IOException
+	 */
+	private void readFilesByProfile(ApplicationProfile knownApp,
+			CardInfo result) throws IOException {
+		_log.message("Card is known, only reading records found on last read..");
+		TransactionLogTable txList = new TransactionLogTable();
+		int logSfi = knownApp.getLogSfi();
+		for (RecordLocation location : knownApp.getRecords()) {
+			if (location.getSfi() == logSfi) {
+				continue;
+			}
+			byte[] responsePdu = readRecord(location.getSfi(),
+					location.getRecord(), false);
+			if (isSuccess(responsePdu)) {
+				processRecord(location.getSfi(), LOG_RECORD_EF, responsePdu,
+						txList);
+			}
+		}
+		if (logSfi >= 0) {
+			for (int record = 1; record <= MAX_PROBED_RECORDS; record++) {
+				byte[] responsePdu = readRecord(logSfi, record, false);
+				if (!isSuccess(responsePdu)
+						|| processRecord(logSfi, logSfi, responsePdu, txList)) {
+					break;
+				}
+			}
+		}
+		result.setTransactionLog(mergeTxHistory(txList));
+	}
+
+	/**
+	 * In incremental mode: merges the transaction log entries just read with
+	 * the entries stored on earlier reads of this card and remembers the
+	 * result in the new card profile.
+	 * 
+	 * @param txList
+	 *            entries read from the card (newest first)
+	 * @return merged table (newest first)
+	 */
+	private TransactionLogTable mergeTxHistory(TransactionLogTable txList) {
+		// wait until all log records are decoded
+		_pipeline.await();
+		if (!_incrementalTxLog || _currentApp == null) {
+			return txList;
+		}
+		TransactionLogTable history = new TransactionLogTable();
+		if (_knownApp != null) {
+			for (String raw : _knownApp.getTransactionLog()) {
+				byte[] rawRecord = fromHexString(raw);
+				if (lengthLooksLikeTxLog(rawRecord)) {
+					tryToParseLogEntry(_logFormat, rawRecord, history);
+				}
+			}
+		}
+		TransactionLogTable merged = mergeWithHistory(txList, history);
+		_currentApp.setTransactionLog(toRawHex(merged));
+		_currentApp.setLastAtc(merged.isEmpty() ? -1 : merged.getAtc(0));
+		return merged;
+	}
+
+	/**
+	 * Like {@link #mergeWithHistory(List, List)}, for EMV log tables
+	 * 
+	 * @param entries
+	 *            entries read from the card (newest first)
+	 * @param history
+	 *            entries from earlier reads (newest first)
+	 * @return merged table (newest first)
+	 */
+	private TransactionLogTable mergeWithHistory(TransactionLogTable entries,
+			TransactionLogTable history) {
+		TransactionLogTable merged = entries.copy();
+		Set<Integer> atcs = new HashSet<Integer>();
+		for (int i = 0; i < entries.size(); i++) {
+			atcs.add(entries.getAtc(i));
+		}
+		int fromHistory = 0;
+		for (int i = 0; i < history.size(); i++) {
+			if (atcs.add(history.getAtc(i))) {
+				merged.addRow(history, i);
+				fromHistory++;
+			}
+		}
+		_log.message("transaction log: " + (merged.size() - fromHistory)
+				+ " entries read from card, " + fromHistory
+				+ " taken from stored history");
+		return merged;
+	}
+
+	/**
+	 * Appends all stored entries with an ATC not contained in the entries just
+	 * read.
+	 * 
+	 * @param entries
+	 *            entries read from the card (newest first)
+	 * @param history
+	 *            entries from earlier reads (newest first)
+	 * @return merged list (newest first)
+	 */
+	private <T extends AbstractTransactionLogEntry> List<T> mergeWithHistory(
+			List<T> entries, List<T> history) {
+		List<T> merged = new ArrayList<T>(entries);
+		Set<Integer> atcs = new HashSet<Integer>();
+		for (T entry : entries) {
+			atcs.add(entry.getAtc());
+		}
+		int fromHistory = 0;
+		for (T entry : history) {
+			if (atcs.add(entry.getAtc())) {
+				merged.add(entry);
+				fromHistory++;
 			}
+		}
+		_log.message("transaction log: " + (merged.size() - fromHistory)
+				+ " entries read from card, " + fromHistory
+				+ " taken from stored history");
+		return merged;
+	}
+
+	/**
+	 * @param entries
+	 * @return raw records as hex strings (at most
+	 *         {@link #MAX_STORED_LOG_ENTRIES})
+	 */
+	private static List<String> toRawHex(
+			List<? extends AbstractTransactionLogEntry> entries) {
+		List<String> result = new ArrayList<String>();
+		for (AbstractTransactionLogEntry entry : entries) {
+			if (result.size() == MAX_STORED_LOG_ENTRIES) {
+				break;
+			}
+			result.add(bytesToHex(entry.getRawEntry()));
+		}
+		return result;
+	}
 
+	/**
+	 * @param table
+	 * @return raw records as hex strings (at most
+	 *         {@link #MAX_STORED_LOG_ENTRIES})
+	 */
+	private static List<String> toRawHex(TransactionLogTable table) {
+		List<String> result = new ArrayList<String>();
+		for (int i = 0; i < table.size() && i < MAX_STORED_LOG_ENTRIES; i++) {
+			result.add(bytesToHex(table.copyRawEntry(i)));
 		}
-		result.setTransactionLog(txList);
 		return result;
 	}
 
+	/**
+	 * Looks up the profile of this card from an earlier read
+	 */
+	private void loadCardProfile() {
+		if (_profileStore == null) {
+			return;
+		}
+		if (_cardUniqueId == null) {
+			_log.message("Card has no CPLC data, will look up card profile after reading the PAN..");
+			return;
+		}
+		_knownProfile = _profileStore.load(CardProfile
+				.keyForCardUniqueIdentifier(_cardUniqueId));
+		if (_knownProfile != null) {
+			_log.message("Card was read before ("
+					+ formatDateWithTime(new Date(_knownProfile.getLastSeen()))
+					+ "), performing targeted read: " + _knownProfile);
+		}
+	}
+
+	/**
+	 * Cards without CPLC data can only be identified by the PAN, which is read
+	 * from the records of the first application. So the profile is looked up
+	 * before the log EF is read: the log is read incrementally and the
+	 * following applications are read by the profile.
+	 */
+	private void loadCardProfileByPan() {
+		if (_profileStore == null || _cardUniqueId != null
+				|| _knownProfile != null || _panProfileLookedUp) {
+			return;
+		}
+		// the PAN is decoded by the pipeline
+		_pipeline.await();
+		String key = cardKey();
+		if (key == null) {
+			return;
+		}
+		_panProfileLookedUp = true;
+		_knownProfile = _profileStore.load(key);
+		if (_knownProfile != null) {
+			_log.message("Card was read before ("
+					+ formatDateWithTime(new Date(_knownProfile.getLastSeen()))
+					+ "), found by PAN, performing targeted read: "
+					+ _knownProfile);
+			if (_currentAid != null) {
+				_knownApp = _knownProfile.getApplication(bytesToHex(_currentAid));
+			}
+		}
+	}
+
+	/**
+	 * @return key identifying the card (by CPLC CUID, or by a hash of the
+	 *         PAN), or <code>null</code> if neither was found
+	 */
+	private String cardKey() {
+		if (_cardUniqueId != null) {
+			return CardProfile.keyForCardUniqueIdentifier(_cardUniqueId);
+		}
+		byte[] pan = _tags.getValue(TAG_PAN);
+		if (pan != null) {
+			return CardProfile.keyForPan(bytesToHex(pan).replace("F", ""));
+		}
+		return null;
+	}
+
+	/**
+	 * Stores what we found on the card during this read
+	 */
+	private void saveCardProfile() {
+		if (_profileStore == null) {
+			return;
+		}
+		String key = cardKey();
+		if (key == null) {
+			_log.message("Found no CPLC data or PAN, cannot remember this card..");
+			return;
+		}
+		_newProfile.setKey(key);
+		_newProfile.setLastSeen(System.currentTimeMillis());
+		try {
+			_profileStore.save(_newProfile);
+		} catch (IOException e) {
+			_log.message("Could not save card profile: " + e);
+			_debug.w("could not save card profile", e);
+		}
+	}
+
+	/**
+	 * Checks if an application does not need to be selected as the card is
+	 * known and did not have it on the last read.
+	 * 
+	 * @param aid
+	 * @return <code>true</code> if application should be skipped
+	 */
+	private boolean skipApplication(byte[] aid) {
+		_currentApp = null;
+		_knownApp = null;
+		if (_knownProfile != null
+				&& _knownProfile.getApplication(bytesToHex(aid)) == null) {
+			_log.message("Skipping AID " + bytesToHex(aid)
+					+ " (not found on last read of this card)..");
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Called after an application was selected successfully
+	 * 
+	 * @param aid
+	 */
+	private void startApplication(byte[] aid) {
+		_currentAid = aid;
+		String aidHex = bytesToHex(aid);
+		_currentApp = _newProfile.addApplication(aidHex);
+		_knownApp = _knownProfile == null ? null : _knownProfile
+				.getApplication(aidHex);
+	}
+
+	/**
+	 * Process a successfully read record: either parse it as transaction log
+	 * entry or try to decode it as BER-TLV data. Decoding is done by the
+	 * {@link ResponsePipeline}, only the ATC of log records is read directly.
+	 * 
+	 * @param sfi
+	 *            short EF identifier the record was read from
+	 * @param logSfi
+	 *            short EF identifier containing the transaction log
+	 * @param responsePdu
+	 * @param txList
+	 *            parsed log entries will be added to this table (by the
+	 *            pipeline thread)
+	 * @return <code>true</code> if the record is the newest log entry of the
+	 *         last read (in incremental mode), so no further records of this
+	 *         EF need to be read
+	 */
+	private boolean processRecord(int sfi, int logSfi,
+			final byte[] responsePdu, final TransactionLogTable txList) {
+		if (sfi == logSfi && lengthLooksLikeTxLog(responsePdu)) {
+			final LogFormat logFormat = _logFormat;
+			_pipeline.submit(new Runnable() {
+				@Override
+				public void run() {
+					int row = tryToParseLogEntry(logFormat, responsePdu,
+							txList);
+					if (row >= 0) {
+						_log.message(txList.row(row).toString());
+					}
+				}
+			});
+			if (_currentApp != null) {
+				_currentApp.setLogSfi(sfi);
+			}
+			int atc = logFormat.readAtc(responsePdu);
+			if (_incrementalTxLog && _knownApp != null && atc >= 0
+					&& atc == _knownApp.getLastAtc()) {
+				_log.message("reached newest log entry of last read (ATC " + atc
+						+ "), stop reading log..");
+				return true;
+			}
+		} else {
+			// avoid that a single unparsable record may abort
+			// the whole scan
+			try {
+				logBerTlvResponse(responsePdu);
+			} catch (Exception e) {
+				_debug.w("Ignored exception while parsing TLV data", e);
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Very simple test for log record..
 	 * 
@@ -852,29 +1751,34 @@ public class NfcBankomatCardReader {
 	 * @return
 	 */
 	private boolean lengthLooksLikeTxLog(byte[] rawRecord) {
-		if (LOG_FORMAT_BANKOMAT_AUSTRIA.equals(_logFormatResponse)) {
-			return (rawRecord.length == LOG_LENGTH_BANKOMAT_AUSTRIA);
-		} else if (LOG_FORMAT_MASTERCARD.equals(_logFormatResponse)) {
-			return (rawRecord.length == LOG_LENGTH_MASTERCARD);
-		} else if (LOG_FORMAT_VISA.equals(_logFormatResponse)) {
-			return (rawRecord.length == LOG_LENGTH_VISA);
-		}
-		return false;
+		return _logFormat != null && _logFormat.matches(rawRecord);
 	}
 
 	/**
+	 * Decodes a log record into a new row of the table
+	 * 
+	 * @param logFormat
+	 *            log format of the application the record was read from
 	 * @param rawRecord
-	 * @return
+	 *            (incl. status word)
+	 * @param table
+	 * @return index of the new row or -1 if something could not be parsed
 	 */
-	private EmvTransactionLogEntry tryToParseLogEntry(byte[] rawRecord) {
-		if (LOG_FORMAT_BANKOMAT_AUSTRIA.equals(_logFormatResponse)) {
-			return parseBankomatTxLogEntryFromByteArray(rawRecord);
-		} else if (LOG_FORMAT_MASTERCARD.equals(_logFormatResponse)) {
-			return parseMastercardTxLogEntryFromByteArray(rawRecord);
-		} else if (LOG_FORMAT_VISA.equals(_logFormatResponse)) {
-			return parseVisaTxLogEntryFromByteArray(rawRecord);
+	private int tryToParseLogEntry(LogFormat logFormat, byte[] rawRecord,
+			TransactionLogTable table) {
+		if (logFormat == null) {
+			return -1;
+		}
+		try {
+			return logFormat.decodeInto(table, rawRecord);
+		} catch (Exception e) {
+			String msg = "Exception while trying to parse transaction entry: "
+					+ e + "\n" + e.getMessage() + "\nraw byte array:\n"
+					+ prettyPrintString(bytesToHex(rawRecord), 2);
+			_debug.w(msg, e);
+			_log.message(msg);
+			return -1;
 		}
-		return null;
 	}
 
 	/**
@@ -917,7 +1821,7 @@ public class NfcBankomatCardReader {
 		// 9F 52 (06 bytes) -> Application Default Action (ADA)
 
 		if (rawRecord.length < LOG_LENGTH_QUICK) {
-			Log.w(TAG,
+			_debug.w(
 					"parseTxLogEntryFromByteArray: byte array is not long enough for quick log entry:\n"
 							+ prettyPrintString(bytesToHex(rawRecord), 2));
 			return null;
@@ -946,189 +1850,6 @@ public class NfcBankomatCardReader {
 		return tx;
 	}
 
-	/**
-	 * Try to parse the raw byte array into an object
-	 * 
-	 * @param rawRecord
-	 *            (without status word
-	 * @return the parsed record or <code>null</code> if something could not be
-	 *         parsed
-	 */
-	private EmvTransactionLogEntry parseMastercardTxLogEntryFromByteArray(
-			byte[] rawRecord) {
-
-		// hardcoded to log format of Mastercard (2014)
-
-		// 9F 4F - 1A bytes: Log Format
-		// --------------------------------------
-		// 9F 27 (01 bytes) -> Cryptogram Information Data
-		// 9F 02 (06 bytes) -> Amount, Authorised (Numeric)
-		// 5F 2A (02 bytes) -> Transaction Currency Code
-		// 9A (03 bytes) -> Transaction Date
-		// 9F 36 (02 bytes) -> Application Transaction Counter (ATC)
-		// 9F 52 (06 bytes) -> Application Default Action (ADA)
-
-		if (rawRecord.length < LOG_LENGTH_MASTERCARD) {
-			// only continue if record is at least 24(+2 status) bytes long
-			Log.w(TAG,
-					"parseTxLogEntryFromByteArray: byte array is not long enough for log entry:\n"
-							+ prettyPrintString(bytesToHex(rawRecord), 2));
-			return null;
-		}
-
-		EmvTransactionLogEntry tx = new EmvTransactionLogEntry();
-		try {
-			tx.setCryptogramInformationData(rawRecord[0]);
-			tx.setAmount(getAmountFromBcdBytes(getByteArrayPart(rawRecord, 1, 6)));
-			tx.setCurrency(Iso4217CurrencyCodes
-					.getCurrencyAsString(getByteArrayPart(rawRecord, 7, 8)));
-			tx.setTransactionTimestamp(
-					getDateFromBcdBytes(getByteArrayPart(rawRecord, 9, 11)),
-					false);
-			tx.setAtc(byteArrayToInt(getByteArrayPart(rawRecord, 12, 13)));
-			tx.setApplicationDefaultAction(getByteArrayPart(rawRecord, 14, 19));
-			tx.setRawEntry(rawRecord);
-		} catch (Exception e) {
-			String msg = "Exception while trying to parse transaction entry: "
-					+ e + "\n" + e.getMessage() + "\nraw byte array:\n"
-					+ prettyPrintString(bytesToHex(rawRecord), 2);
-			Log.w(TAG, msg, e);
-			_ctl.log(msg);
-			return null;
-		}
-		return tx;
-	}
-
-	/**
-	 * Try to parse the raw byte array into an object
-	 * 
-	 * @param rawRecord
-	 *            (without status word
-	 * @return the parsed record or <code>null</code> if something could not be
-	 *         parsed
-	 */
-	private EmvTransactionLogEntry parseVisaTxLogEntryFromByteArray(
-			byte[] rawRecord) {
-
-		// hardcoded to log format of Mastercard (2014)
-
-		// 9F 4F - 1A bytes: Log Format
-		// --------------------------------------
-		// 9F 36 (02 bytes) -> Application Transaction Counter (ATC)
-		// 9F 02 (06 bytes) -> Amount, Authorised (Numeric)
-		// 9F 03 (06 bytes) -> Amount, Other (Numeric)
-		// 9F 1A (02 bytes) -> Terminal Country Code
-		// 95 (05 bytes) -> Terminal Verification Results (TVR)
-		// 5F 2A (02 bytes) -> Transaction Currency Code
-		// 9A (03 bytes) -> Transaction Date
-		// 9C (01 bytes) -> Transaction Type
-		// 9F 80 (04 bytes) -> [UNHANDLED TAG]
-
-		if (rawRecord.length < LOG_LENGTH_VISA) {
-			Log.w(TAG,
-					"parseTxLogEntryFromByteArray: byte array is not long enough for VISA log entry:\n"
-							+ prettyPrintString(bytesToHex(rawRecord), 2));
-			return null;
-		}
-
-		EmvTransactionLogEntry tx = new EmvTransactionLogEntry();
-		try {
-			tx.setAtc(byteArrayToInt(getByteArrayPart(rawRecord, 0, 1)));
-			tx.setAmount(getAmountFromBcdBytes(getByteArrayPart(rawRecord, 2, 7)));
-			// TODO: currently we ignore "Amount, Other" for VISA logs
-			// 8-13
-			// TODO: include terminal country code (14-15)
-			// TODO: include TVR for VISA (16-20)
-			tx.setCurrency(Iso4217CurrencyCodes
-					.getCurrencyAsString(getByteArrayPart(rawRecord, 21, 22)));
-			tx.setTransactionTimestamp(
-					getDateFromBcdBytes(getByteArrayPart(rawRecord, 23, 25)),
-					false);
-			// TODO: include Transaction Type (26)
-			// TODO: include unknown tag 9f 80 (27-30)
-
-			tx.setRawEntry(rawRecord);
-		} catch (Exception e) {
-			String msg = "Exception while trying to parse transaction entry: "
-					+ e + "\n" + e.getMessage() + "\nraw byte array:\n"
-					+ prettyPrintString(bytesToHex(rawRecord), 2);
-			Log.w(TAG, msg, e);
-			_ctl.log(msg);
-			return null;
-		}
-		return tx;
-	}
-
-	/**
-	 * Try to parse the raw byte array into an object
-	 * 
-	 * @param rawRecord
-	 *            (without status word
-	 * @return the parsed record or <code>null</code> if something could not be
-	 *         parsed
-	 */
-	private EmvTransactionLogEntry parseBankomatTxLogEntryFromByteArray(
-			byte[] rawRecord) {
-
-		// hardcoded to log format of Austrian cards
-
-		// 9F 4F - 1A bytes: Log Format
-		// --------------------------------------
-		// 9F 27 (01 bytes) -> Cryptogram Information Data
-		// 9F 02 (06 bytes) -> Amount, Authorised (Numeric)
-		// 5F 2A (02 bytes) -> Transaction Currency Code
-		// 9A (03 bytes) -> Transaction Date
-		// 9F 36 (02 bytes) -> Application Transaction Counter (ATC)
-		// 9F 52 (06 bytes) -> Application Default Action (ADA)
-		// DF 3E (01 bytes) -> [UNHANDLED TAG]
-		// 9F 21 (03 bytes) -> Transaction Time (HHMMSS)
-		// 9F 7C (14 bytes) -> Customer Exclusive Data
-
-		if (rawRecord.length < 24) {
-			// only continue if record is at least 24(+2 status) bytes long
-			Log.w(TAG,
-					"parseTxLogEntryFromByteArray: byte array is not long enough:\n"
-							+ prettyPrintString(bytesToHex(rawRecord), 2));
-			return null;
-		}
-
-		EmvTransactionLogEntry tx = new EmvTransactionLogEntry();
-		try {
-			tx.setCryptogramInformationData(rawRecord[0]);
-			tx.setAmount(getAmountFromBcdBytes(getByteArrayPart(rawRecord, 1, 6)));
-			tx.setCurrency(Iso4217CurrencyCodes
-					.getCurrencyAsString(getByteArrayPart(rawRecord, 7, 8)));
-			tx.setTransactionTimestamp(
-					getTimeStampFromBcdBytes(
-							getByteArrayPart(rawRecord, 9, 11),
-							getByteArrayPart(rawRecord, 21, 23)), true);
-			tx.setAtc(byteArrayToInt(getByteArrayPart(rawRecord, 12, 13)));
-			tx.setApplicationDefaultAction(getByteArrayPart(rawRecord, 14, 19));
-			tx.setUnknownByte(rawRecord[20]);
-
-			// if record has only 24 bytes then there is no cust excl data
-			// as it starts at byte 25
-			if (rawRecord.length == 24) {
-				tx.setCustomerExclusiveData(new byte[0]);
-			} else {
-				// for being tolerant we parse from byte 25 untiil end (last 2
-				// bytes are status)
-				tx.setCustomerExclusiveData(getByteArrayPart(rawRecord, 24,
-						rawRecord.length - 3));
-			}
-
-			tx.setRawEntry(rawRecord);
-		} catch (Exception e) {
-			String msg = "Exception while trying to parse transaction entry: "
-					+ e + "\n" + e.getMessage() + "\nraw byte array:\n"
-					+ prettyPrintString(bytesToHex(rawRecord), 2);
-			Log.w(TAG, msg, e);
-			_ctl.log(msg);
-			return null;
-		}
-		return tx;
-	}
-
 	/**
 	 * Perform a READ RECORD command on the card
 	 * 
@@ -1146,13 +1867,17 @@ public class NfcBankomatCardReader {
 			boolean logAlways) throws IOException {
 		byte[] readRecordApdu = createReadRecordApdu(shortEfFileIdentifier,
 				recordNumber);
-		byte[] resultPdu = _localIsoDep.transceive(readRecordApdu);
-		if (logAlways || isStatusSuccess(getLast2Bytes(resultPdu))) {
+		byte[] resultPdu = _transport.transceive(readRecordApdu);
+		if (_currentApp != null && isSuccess(resultPdu)) {
+			_currentApp.addRecord(shortEfFileIdentifier, recordNumber,
+					resultPdu.length);
+		}
+		if (logAlways || isSuccess(resultPdu)) {
 			String msg = "READ RECORD for EF " + shortEfFileIdentifier
 					+ " and RECORD " + recordNumber;
-			Log.d(TAG, msg);
-			_ctl.log(msg);
-			_ctl.log("sent: " + bytesToHex(readRecordApdu));
+			_debug.d(msg);
+			_log.message(msg);
+			_log.command(readRecordApdu);
 			logResultPdu(resultPdu);
 		}
 		return resultPdu;
@@ -1168,12 +1893,12 @@ public class NfcBankomatCardReader {
 	@SuppressWarnings("unused")
 	private byte[] selectMasterfile() throws IOException {
 		byte[] readRecordApdu = createSelectMasterFile();
-		byte[] resultPdu = _localIsoDep.transceive(readRecordApdu);
-		if (isStatusSuccess(getLast2Bytes(resultPdu))) {
+		byte[] resultPdu = _transport.transceive(readRecordApdu);
+		if (isSuccess(resultPdu)) {
 			String msg = "SELECT MF  (cd / ) ";
-			Log.d(TAG, msg);
-			_ctl.log(msg);
-			_ctl.log("sent: " + bytesToHex(readRecordApdu));
+			_debug.d(msg);
+			_log.message(msg);
+			_log.command(readRecordApdu);
 			logResultPdu(resultPdu);
 		}
 		return resultPdu;
@@ -1188,12 +1913,12 @@ public class NfcBankomatCardReader {
 	@SuppressWarnings("unused")
 	private byte[] selectParentDf() throws IOException {
 		byte[] readRecordApdu = createSelectParentDfFile();
-		byte[] resultPdu = _localIsoDep.transceive(readRecordApdu);
-		if (isStatusSuccess(getLast2Bytes(resultPdu))) {
+		byte[] resultPdu = _transport.transceive(readRecordApdu);
+		if (isSuccess(resultPdu)) {
 			String msg = "SELECT parent DF  (cd .. ) ";
-			Log.d(TAG, msg);
-			_ctl.log(msg);
-			_ctl.log("sent: " + bytesToHex(readRecordApdu));
+			_debug.d(msg);
+			_log.message(msg);
+			_log.command(readRecordApdu);
 			logResultPdu(resultPdu);
 		}
 		return resultPdu;
@@ -1204,21 +1929,20 @@ public class NfcBankomatCardReader {
 	 * @throws IOException
 	 */
 	private long getQuickCardBalance() throws IOException {
-		_ctl.log("Reading QUICK balance");
-		_ctl.log("sent: " + bytesToHex(ISO_COMMAND_QUICK_READ_BALANCE));
-		byte[] resultPdu = _localIsoDep
-				.transceive(ISO_COMMAND_QUICK_READ_BALANCE);
+		_log.message("Reading QUICK balance");
+		_log.command(ISO_COMMAND_QUICK_READ_BALANCE);
+		byte[] resultPdu = _transport.transceive(ISO_COMMAND_QUICK_READ_BALANCE);
 		logResultPdu(resultPdu);
-		if (!isStatusSuccess(getLast2Bytes(resultPdu))) {
-			Log.w(TAG,
+		if (!isSuccess(resultPdu)) {
+			_debug.w(
 					"getQuickCardBalance: Response status word was not ok! Error: "
-							+ statusToString(getLast2Bytes(resultPdu))
+							+ statusToString(resultPdu, resultPdu.length - 2)
 							+ ". In hex: " + bytesToHex(resultPdu));
-			_ctl.log("will return balance -1");
+			_log.message("will return balance -1");
 			return -1;
 		}
 		long balance = getAmountFromBytes(resultPdu);
-		_ctl.log("QUICK balance = " + balance);
+		_log.message("QUICK balance = " + balance);
 		return balance;
 	}
 
@@ -1229,26 +1953,25 @@ public class NfcBankomatCardReader {
 	 */
 	private byte[] getQuickCardCurrencyBytes() throws IOException,
 			TlvParsingException {
-		_ctl.log("Reading QUICK currency");
-		_ctl.log("sent: " + bytesToHex(ISO_COMMAND_QUICK_READ_CURRENCY));
-		byte[] resultPdu = _localIsoDep
-				.transceive(ISO_COMMAND_QUICK_READ_CURRENCY);
+		_log.message("Reading QUICK currency");
+		_log.command(ISO_COMMAND_QUICK_READ_CURRENCY);
+		byte[] resultPdu = _transport.transceive(ISO_COMMAND_QUICK_READ_CURRENCY);
 		logResultPdu(resultPdu);
-		if (!isStatusSuccess(getLast2Bytes(resultPdu))) {
+		if (!isSuccess(resultPdu)) {
 			String msg = "getQuickCardCurrencyBytes: Response status was not 'SUCCESS'! The response was: "
-					+ statusToString(getLast2Bytes(resultPdu))
+					+ statusToString(resultPdu, resultPdu.length - 2)
 					+ ". In hex: "
 					+ bytesToHex(resultPdu)
 					+ "\nThe complete response was:\n"
 					+ prettyPrintString(bytesToHex(resultPdu), 2);
-			Log.w(TAG, msg);
+			_debug.w(msg);
 			throw new TlvParsingException(msg);
 		}
 		byte[] rawCurrency = new byte[2];
 		System.arraycopy(resultPdu, 0, rawCurrency, 0, 2);
-		_ctl.log("QUICK currency = "
+		_log.message("QUICK currency = "
 				+ prettyPrintString(bytesToHex(rawCurrency), 2));
-		_ctl.log("QUICK currency = "
+		_log.message("QUICK currency = "
 				+ Iso4217CurrencyCodes.getCurrencyAsString(rawCurrency));
 		return rawCurrency;
 	}
@@ -1262,29 +1985,29 @@ public class NfcBankomatCardReader {
 	 * @throws IOException
 	 */
 	private byte[] sendGetCPLC() throws IOException {
-		Log.d(TAG, "sending GET CPLC command..");
+		_debug.d("sending GET CPLC command..");
 		byte[] command = EmvUtils.GPCS_GET_CPLC_COMMAND;
-		Log.d(TAG, "will send byte array: " + bytesToHex(command));
-		_ctl.log("sent: " + bytesToHex(command));
-		byte[] resultPdu = _localIsoDep.transceive(command);
+		_debug.d("will send byte array: " + bytesToHex(command));
+		_log.command(command);
+		byte[] resultPdu = _transport.transceive(command);
 		logResultPdu(resultPdu);
-		Log.d(TAG, "received byte array:  " + bytesToHex(resultPdu));
+		_debug.d("received byte array:  " + bytesToHex(resultPdu));
 
 		// some card don't return CPLC if sent with Le 00
 		// retry it with (hardcoded) Le value
 		// TODO: better check if SW1 == 6D ("incorrect len, SW2 specifies
 		// correct length")
 		// and send specified len
-		if (!isStatusSuccess(getLast2Bytes(resultPdu))) {
-			Log.d(TAG,
+		if (!isSuccess(resultPdu)) {
+			_debug.d(
 					"sending GET CPLC returned an error, will retry with Le set..");
-			Log.d(TAG, "sending GET CPLC command with Le set..");
+			_debug.d("sending GET CPLC command with Le set..");
 			command = EmvUtils.GPCS_GET_CPLC_COMMAND_WITH_LENGTH;
-			Log.d(TAG, "will send byte array: " + bytesToHex(command));
-			_ctl.log("sent: " + bytesToHex(command));
-			resultPdu = _localIsoDep.transceive(command);
+			_debug.d("will send byte array: " + bytesToHex(command));
+			_log.command(command);
+			resultPdu = _transport.transceive(command);
 			logResultPdu(resultPdu);
-			Log.d(TAG, "received byte array:  " + bytesToHex(resultPdu));
+			_debug.d("received byte array:  " + bytesToHex(resultPdu));
 		}
 		return resultPdu;
 	}
@@ -1297,14 +2020,14 @@ public class NfcBankomatCardReader {
 	 * @throws IOException
 	 */
 	private byte[] selectApplicationGetBytes(byte[] appId) throws IOException {
-		Log.d(TAG, "sending ISO7816 SELECT command, with AID: "
+		_debug.d("sending ISO7816 SELECT command, with AID: "
 				+ bytesToHex(appId));
 		byte[] command = createSelectAid(appId);
-		Log.d(TAG, "will send byte array: " + bytesToHex(command));
-		_ctl.log("sent: " + bytesToHex(command));
-		byte[] resultPdu = _localIsoDep.transceive(command);
+		_debug.d("will send byte array: " + bytesToHex(command));
+		_log.command(command);
+		byte[] resultPdu = _transport.transceive(command);
 		logResultPdu(resultPdu);
-		Log.d(TAG, "received byte array:  " + bytesToHex(resultPdu));
+		_debug.d("received byte array:  " + bytesToHex(resultPdu));
 		return resultPdu;
 	}
 
@@ -1314,16 +2037,12 @@ public class NfcBankomatCardReader {
 	 * @param resultPdu
 	 */
 	private void logResultPdu(byte[] resultPdu) {
-		Log.d(TAG, "received: " + bytesToHex(resultPdu));
-		Log.d(TAG,
-				"status: "
-						+ prettyPrintString(
-								bytesToHex(getLast2Bytes(resultPdu)), 2));
-		Log.d(TAG, "status: " + statusToString(getLast2Bytes(resultPdu)));
-		_ctl.log("received: " + bytesToHex(resultPdu));
-		_ctl.log("status: "
-				+ prettyPrintString(bytesToHex(getLast2Bytes(resultPdu)), 2)
-				+ " - " + statusToString(getLast2Bytes(resultPdu)));
+		if (_debug.isDebugEnabled()) {
+			_debug.d("received: " + bytesToHex(resultPdu));
+			_debug.d("status: " + statusToString(resultPdu, resultPdu.length - 2));
+		}
+		// formatting is done lazily when the log is displayed
+		_log.response(resultPdu);
 	}
 
 	/**
@@ -1333,17 +2052,23 @@ public class NfcBankomatCardReader {
 	 */
 	private void logBerTlvResponse(byte[] resultPdu) {
 		if (resultPdu.length > 2) {
-			try {
-				byte[] data = cutoffLast2Bytes(resultPdu);
-				_ctl.log("Trying to decode response as BER-TLV..");
-				_ctl.log(prettyPrintBerTlvAPDUResponse(data, 0));
-				// and add all found tags to list
-				_tagList.addAll(getTagsFromBerTlvAPDUResponse(data));
-			} catch (TlvParsingException e) {
-				_ctl.log("decoding error... maybe this data is not BER-TLV encoded?");
-				Log.w(TAG, "exception while parsing BER-TLV PDU response\n"
-						+ prettyPrintString(bytesToHex(resultPdu), 2), e);
-			}
+			final byte[] data = cutoffLast2Bytes(resultPdu);
+			_log.message("Trying to decode response as BER-TLV..");
+			// pretty printing is done later when the log is shown
+			_log.berTlv(data);
+			// add all found tags to index (on the pipeline thread)
+			_pipeline.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						_tags.add(data, 0, data.length);
+					} catch (TlvParsingException e) {
+						_debug.w("exception while parsing BER-TLV PDU response\n"
+								+ prettyPrintString(bytesToHex(data), 2), e);
+					}
+				}
+			});
 		}
 	}
+
 }
\ No newline at end of file
@@ -0,0 +1,310 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import java.util.Arrays;
+
+import at.zweng.bankomatinfos.model.CardInfo;
+import at.zweng.bankomatinfos.model.CardProfile;
+import at.zweng.bankomatinfos.model.TransactionLogTable;
+
+/**
+ * Progress of a card read which was interrupted because the card left the NFC
+ * field. If the same card is presented again within
+ * {@link #RESUME_WINDOW_MILLIS}, the reader continues from here instead of
+ * starting over. The card is recognized by its CPLC card unique identifier, or
+ * by its NFC tag ID if the card has no CPLC data (this only works for cards
+ * with a fixed tag ID). When continuing:
+ * <ul>
+ * <li>phases completed before are not read again</li>
+ * <li>if the records of an application were being read (file scan or read by
+ * the 'Application File Locator'), the application is selected again (for the
+ * AFL read GET PROCESSING OPTIONS is sent again) and the read continues at the
+ * next record, otherwise</li>
+ * <li>the phase in progress is restarted from its beginning</li>
+ * </ul>
+ * Only the CPLC data is read again on every tap (for recognizing the card).<br>
+ * <br>
+ * A checkpoint is filled by {@link NfcBankomatCardReader} during the read and
+ * must not be used by more than one read at a time.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ReadCheckpoint {
+
+	/** how long an interrupted read can be continued */
+	public static final long RESUME_WINDOW_MILLIS = 2 * 60 * 1000;
+
+	private final byte[] _tagId;
+	private final String _cardUniqueId;
+	private final boolean _fullFileScan;
+	private final boolean _useAfl;
+	private long _time;
+
+	// reader state shared by all phases
+	private final TlvIndex _tags;
+	private final RecordProbeStrategy _probe;
+	private final CardProfile _knownProfile;
+	private final CardProfile _newProfile;
+
+	// top level phase in progress and the result at its start
+	private ReadPhase _phase;
+	private CardInfo _phaseStart;
+
+	// record read in progress (_scanAid is null if none)
+	private byte[] _scanAid;
+	private boolean _scanByAfl;
+	// AFL read: index of the AFL entry (number of entries: log EF probe)
+	private int _aflEntry;
+	private LogFormat _scanLogFormat;
+	private CardInfo _scanStart;
+	private TransactionLogTable _scanTxList;
+	private int _scanSfi;
+	private int _scanRecord;
+
+	/**
+	 * Constructor
+	 *
+	 * @param tagId
+	 * @param cardUniqueId
+	 *            from the CPLC data (may be <code>null</code>)
+	 * @param fullFileScan
+	 * @param useAfl
+	 *            read options (a read is only continued with the same options)
+	 * @param tags
+	 * @param probe
+	 * @param knownProfile
+	 * @param newProfile
+	 *            reader state which is carried over to the next read
+	 */
+	ReadCheckpoint(byte[] tagId, String cardUniqueId, boolean fullFileScan,
+			boolean useAfl, TlvIndex tags, RecordProbeStrategy probe,
+			CardProfile knownProfile, CardProfile newProfile) {
+		this._tagId = tagId;
+		this._cardUniqueId = cardUniqueId;
+		this._fullFileScan = fullFileScan;
+		this._useAfl = useAfl;
+		this._tags = tags;
+		this._probe = probe;
+		this._knownProfile = knownProfile;
+		this._newProfile = newProfile;
+	}
+
+	/**
+	 * @param tagId
+	 *            NFC tag ID of the card presented now
+	 * @param cardUniqueId
+	 *            CPLC card unique identifier of the card presented now (may be
+	 *            <code>null</code>)
+	 * @param fullFileScan
+	 * @param useAfl
+	 *            read options of the new read
+	 * @param now
+	 *            current time in milliseconds
+	 * @return <code>true</code> if the new read can continue from this
+	 *         checkpoint
+	 */
+	public boolean matches(byte[] tagId, String cardUniqueId,
+			boolean fullFileScan, boolean useAfl, long now) {
+		if (now - _time > RESUME_WINDOW_MILLIS || now < _time) {
+			return false;
+		}
+		if (fullFileScan != _fullFileScan || useAfl != _useAfl) {
+			return false;
+		}
+		// many cards use random NFC IDs, so the CUID is the better criteria
+		if (_cardUniqueId != null || cardUniqueId != null) {
+			return _cardUniqueId != null
+					&& _cardUniqueId.equals(cardUniqueId);
+		}
+		return tagId != null && tagId.length > 0
+				&& Arrays.equals(_tagId, tagId);
+	}
+
+	/**
+	 * Called at the start of a top level phase
+	 *
+	 * @param phase
+	 * @param snapshot
+	 *            copy of the result at the start of the phase
+	 */
+	void startPhase(ReadPhase phase, CardInfo snapshot) {
+		_phase = phase;
+		_phaseStart = snapshot;
+		_scanAid = null;
+		_scanByAfl = false;
+		_scanTxList = null;
+		_scanStart = null;
+	}
+
+	/**
+	 * Called at the start of a file scan
+	 *
+	 * @param aid
+	 *            application being scanned
+	 * @param logFormat
+	 *            log format of the application (may be <code>null</code>)
+	 * @param snapshot
+	 *            copy of the result at the start of the scan
+	 * @param txList
+	 *            table collecting the log entries found by the scan
+	 */
+	void startFileScan(byte[] aid, LogFormat logFormat, CardInfo snapshot,
+			TransactionLogTable txList) {
+		_scanAid = aid;
+		_scanByAfl = false;
+		_scanLogFormat = logFormat;
+		_scanStart = snapshot;
+		_scanTxList = txList;
+	}
+
+	/**
+	 * Called at the start of reading the records listed in the 'Application
+	 * File Locator'
+	 *
+	 * @param aid
+	 *            application being read
+	 * @param logFormat
+	 *            log format of the application (may be <code>null</code>)
+	 * @param snapshot
+	 *            copy of the result at the start of the read
+	 * @param txList
+	 *            table collecting the log entries found
+	 */
+	void startAflRead(byte[] aid, LogFormat logFormat, CardInfo snapshot,
+			TransactionLogTable txList) {
+		startFileScan(aid, logFormat, snapshot, txList);
+		_scanByAfl = true;
+	}
+
+	/**
+	 * Called after each record of the file scan
+	 *
+	 * @param sfi
+	 * @param nextRecord
+	 *            next record to read in this EF
+	 */
+	void setScanPosition(int sfi, int nextRecord) {
+		_scanSfi = sfi;
+		_scanRecord = nextRecord;
+	}
+
+	/**
+	 * Called after each record of the AFL read
+	 *
+	 * @param aflEntry
+	 *            index of the AFL entry being read (number of AFL entries for
+	 *            the probe of the log EF)
+	 * @param nextRecord
+	 *            next record to read
+	 */
+	void setAflPosition(int aflEntry, int nextRecord) {
+		_aflEntry = aflEntry;
+		_scanRecord = nextRecord;
+	}
+
+	/**
+	 * Marks the moment the read was interrupted (starts the resume window)
+	 *
+	 * @param time
+	 *            in milliseconds
+	 */
+	void setTime(long time) {
+		_time = time;
+	}
+
+	/**
+	 * @return time when the read was interrupted (in milliseconds)
+	 */
+	public long getTime() {
+		return _time;
+	}
+
+	/**
+	 * @return top level phase which was interrupted
+	 */
+	public ReadPhase getPhase() {
+		return _phase;
+	}
+
+	/**
+	 * @return <code>true</code> if reading the records of an application (file
+	 *         scan or AFL read) was interrupted
+	 */
+	public boolean isReadingRecords() {
+		return _scanAid != null;
+	}
+
+	/**
+	 * @return <code>true</code> if the interrupted record read was guided by
+	 *         the 'Application File Locator'
+	 */
+	public boolean isAflRead() {
+		return _scanByAfl;
+	}
+
+	/**
+	 * @return copy of the result to continue with
+	 */
+	CardInfo copyResult() {
+		CardInfo result = (isReadingRecords() ? _scanStart : _phaseStart)
+				.snapshot();
+		result.setPartial(false);
+		return result;
+	}
+
+	TlvIndex getTags() {
+		return _tags;
+	}
+
+	RecordProbeStrategy getProbe() {
+		return _probe;
+	}
+
+	CardProfile getKnownProfile() {
+		return _knownProfile;
+	}
+
+	CardProfile getNewProfile() {
+		return _newProfile;
+	}
+
+	byte[] getScanAid() {
+		return _scanAid;
+	}
+
+	LogFormat getScanLogFormat() {
+		return _scanLogFormat;
+	}
+
+	TransactionLogTable getScanTxList() {
+		return _scanTxList;
+	}
+
+	int getScanSfi() {
+		return _scanSfi;
+	}
+
+	int getScanRecord() {
+		return _scanRecord;
+	}
+
+	int getAflEntry() {
+		return _aflEntry;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("ReadCheckpoint [phase=");
+		sb.append(_phase);
+		if (isReadingRecords() && _scanByAfl) {
+			sb.append(", AFL read at entry ").append(_aflEntry)
+					.append(" record ").append(_scanRecord).append(", ")
+					.append(_scanTxList.size()).append(" log entries");
+		} else if (isReadingRecords()) {
+			sb.append(", file scan at EF ").append(_scanSfi)
+					.append(" record ").append(_scanRecord).append(", ")
+					.append(_scanTxList.size()).append(" log entries");
+		}
+		sb.append(']');
+		return sb.toString();
+	}
+}
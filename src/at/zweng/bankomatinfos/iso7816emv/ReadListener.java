@@ -0,0 +1,30 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import at.zweng.bankomatinfos.model.CardInfo;
+
+/**
+ * Gets informed about the progress of a card read. All methods are called on
+ * the reading thread, so implementations must not touch any views directly.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public interface ReadListener {
+
+	/**
+	 * A new phase of the read has started
+	 *
+	 * @param phase
+	 */
+	void onPhaseStarted(ReadPhase phase);
+
+	/**
+	 * A phase of the read is complete
+	 *
+	 * @param phase
+	 *            the finished phase
+	 * @param snapshot
+	 *            copy of everything read so far (not changed by the reader
+	 *            afterwards)
+	 */
+	void onPartialResult(ReadPhase phase, CardInfo snapshot);
+}
@@ -0,0 +1,489 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Timing metrics of a card read. Every transceive is recorded with its
+ * command class (INS byte), response size, status word and duration, and
+ * aggregated per {@link ReadPhase} into a latency histogram. The sequence of
+ * phases is kept as well, so the time spent in each step of a read can be
+ * reconstructed.<br>
+ * <br>
+ * Histogram bucket <i>i</i> counts commands which took between 2^i and
+ * 2^(i+1) microseconds (bucket 0 also contains everything below 1
+ * microsecond, the last bucket everything above).
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ReadMetrics {
+
+	/**
+	 * Number of histogram buckets (last bucket: >= ~8.4 seconds)
+	 */
+	public static final int HISTOGRAM_BUCKETS = 24;
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	/**
+	 * Aggregated statistics of one phase
+	 */
+	public static class PhaseStats {
+		private final ReadPhase _phase;
+		private int _count;
+		private long _totalNanos;
+		private long _minNanos = Long.MAX_VALUE;
+		private long _maxNanos;
+		private long _responseBytes;
+		private final long[] _histogram = new long[HISTOGRAM_BUCKETS];
+		private final int[] _insCount = new int[256];
+		private final long[] _insNanos = new long[256];
+		private final Map<Integer, Integer> _statusWordCount = new TreeMap<Integer, Integer>();
+
+		private PhaseStats(ReadPhase phase) {
+			this._phase = phase;
+		}
+
+		private void add(int ins, int responseSize, int sw, long nanos) {
+			_count++;
+			_totalNanos += nanos;
+			_minNanos = Math.min(_minNanos, nanos);
+			_maxNanos = Math.max(_maxNanos, nanos);
+			_responseBytes += responseSize;
+			_histogram[bucketOf(nanos)]++;
+			_insCount[ins]++;
+			_insNanos[ins] += nanos;
+			Integer old = _statusWordCount.get(sw);
+			_statusWordCount.put(sw, old == null ? 1 : old + 1);
+		}
+
+		/**
+		 * @return the phase
+		 */
+		public ReadPhase getPhase() {
+			return _phase;
+		}
+
+		/**
+		 * @return number of commands sent
+		 */
+		public int getCount() {
+			return _count;
+		}
+
+		/**
+		 * @return sum of all command durations
+		 */
+		public long getTotalNanos() {
+			return _totalNanos;
+		}
+
+		/**
+		 * @return shortest command duration (0 if no commands)
+		 */
+		public long getMinNanos() {
+			return _count == 0 ? 0 : _minNanos;
+		}
+
+		/**
+		 * @return longest command duration
+		 */
+		public long getMaxNanos() {
+			return _maxNanos;
+		}
+
+		/**
+		 * @return total number of bytes received (incl. status words)
+		 */
+		public long getResponseBytes() {
+			return _responseBytes;
+		}
+
+		/**
+		 * @return copy of the latency histogram
+		 */
+		public long[] getHistogram() {
+			return Arrays.copyOf(_histogram, _histogram.length);
+		}
+
+		/**
+		 * @param ins
+		 *            instruction byte (0-255)
+		 * @return number of commands with this INS byte
+		 */
+		public int getInsCount(int ins) {
+			return _insCount[ins & 0xFF];
+		}
+
+		/**
+		 * @param ins
+		 *            instruction byte (0-255)
+		 * @return total duration of commands with this INS byte
+		 */
+		public long getInsNanos(int ins) {
+			return _insNanos[ins & 0xFF];
+		}
+
+		/**
+		 * @return number of responses per status word (-1: no response)
+		 */
+		public Map<Integer, Integer> getStatusWordCount() {
+			return new TreeMap<Integer, Integer>(_statusWordCount);
+		}
+	}
+
+	/**
+	 * One contiguous section of the read in a certain phase
+	 */
+	public static class Segment {
+		private final ReadPhase _phase;
+		private final long _startNanos;
+		private long _endNanos;
+		private int _count;
+
+		private Segment(ReadPhase phase, long startNanos) {
+			this._phase = phase;
+			this._startNanos = startNanos;
+			this._endNanos = startNanos;
+		}
+
+		/**
+		 * @return the phase
+		 */
+		public ReadPhase getPhase() {
+			return _phase;
+		}
+
+		/**
+		 * @return offset from start of read
+		 */
+		public long getStartNanos() {
+			return _startNanos;
+		}
+
+		/**
+		 * @return duration of this segment
+		 */
+		public long getDurationNanos() {
+			return _endNanos - _startNanos;
+		}
+
+		/**
+		 * @return number of commands sent in this segment
+		 */
+		public int getCount() {
+			return _count;
+		}
+	}
+
+	private long _startNanos;
+	private long _endNanos;
+	private ReadPhase _currentPhase;
+	private PhaseStats[] _phaseStats;
+	private List<Segment> _segments;
+
+	// every single command in compact form
+	private int _apduCount;
+	private byte[] _apduPhase;
+	private byte[] _apduIns;
+	private int[] _apduResponseSize;
+	private int[] _apduStatusWord;
+	private long[] _apduStartNanos;
+	private long[] _apduNanos;
+
+	/**
+	 * Constructor
+	 */
+	public ReadMetrics() {
+		reset();
+	}
+
+	/**
+	 * Clears all recorded data and restarts the clock
+	 */
+	public synchronized void reset() {
+		_startNanos = System.nanoTime();
+		_endNanos = 0;
+		_currentPhase = null;
+		_phaseStats = new PhaseStats[ReadPhase.values().length];
+		_segments = new ArrayList<Segment>();
+		_apduCount = 0;
+		_apduPhase = new byte[INITIAL_CAPACITY];
+		_apduIns = new byte[INITIAL_CAPACITY];
+		_apduResponseSize = new int[INITIAL_CAPACITY];
+		_apduStatusWord = new int[INITIAL_CAPACITY];
+		_apduStartNanos = new long[INITIAL_CAPACITY];
+		_apduNanos = new long[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Starts a new phase. All following commands are accounted to this phase.
+	 *
+	 * @param phase
+	 */
+	public synchronized void startPhase(ReadPhase phase) {
+		long now = System.nanoTime();
+		closeSegment(now);
+		_currentPhase = phase;
+		_segments.add(new Segment(phase, now - _startNanos));
+	}
+
+	/**
+	 * Stops the clock (call at the end of the read)
+	 */
+	public synchronized void finish() {
+		_endNanos = System.nanoTime();
+		closeSegment(_endNanos);
+		_currentPhase = null;
+	}
+
+	private void closeSegment(long now) {
+		if (_currentPhase != null) {
+			_segments.get(_segments.size() - 1)._endNanos = now - _startNanos;
+		}
+	}
+
+	/**
+	 * Records a single command
+	 *
+	 * @param command
+	 *            command APDU
+	 * @param response
+	 *            response APDU or <code>null</code> if transceive failed
+	 * @param durationNanos
+	 */
+	public synchronized void record(byte[] command, byte[] response,
+			long durationNanos) {
+		ReadPhase phase = _currentPhase;
+		if (phase == null) {
+			// commands sent outside of any phase (e.g. before start)
+			phase = ReadPhase.OTHER;
+		}
+		int ins = (command != null && command.length > 1) ? command[1] & 0xFF
+				: 0;
+		int responseSize = response == null ? 0 : response.length;
+		int sw = -1;
+		if (response != null && response.length >= 2) {
+			sw = ((response[response.length - 2] & 0xFF) << 8)
+					| (response[response.length - 1] & 0xFF);
+		}
+		PhaseStats stats = _phaseStats[phase.ordinal()];
+		if (stats == null) {
+			stats = new PhaseStats(phase);
+			_phaseStats[phase.ordinal()] = stats;
+		}
+		stats.add(ins, responseSize, sw, durationNanos);
+		if (_currentPhase != null) {
+			_segments.get(_segments.size() - 1)._count++;
+		}
+
+		ensureCapacity(_apduCount + 1);
+		_apduPhase[_apduCount] = (byte) phase.ordinal();
+		_apduIns[_apduCount] = (byte) ins;
+		_apduResponseSize[_apduCount] = responseSize;
+		_apduStatusWord[_apduCount] = sw;
+		_apduStartNanos[_apduCount] = System.nanoTime() - durationNanos
+				- _startNanos;
+		_apduNanos[_apduCount] = durationNanos;
+		_apduCount++;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= _apduIns.length) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, _apduIns.length * 2);
+		_apduPhase = Arrays.copyOf(_apduPhase, newCapacity);
+		_apduIns = Arrays.copyOf(_apduIns, newCapacity);
+		_apduResponseSize = Arrays.copyOf(_apduResponseSize, newCapacity);
+		_apduStatusWord = Arrays.copyOf(_apduStatusWord, newCapacity);
+		_apduStartNanos = Arrays.copyOf(_apduStartNanos, newCapacity);
+		_apduNanos = Arrays.copyOf(_apduNanos, newCapacity);
+	}
+
+	/**
+	 * @param nanos
+	 * @return histogram bucket for given duration
+	 */
+	public static int bucketOf(long nanos) {
+		long micros = nanos / 1000;
+		if (micros <= 1) {
+			return 0;
+		}
+		int bucket = 63 - Long.numberOfLeadingZeros(micros);
+		return Math.min(bucket, HISTOGRAM_BUCKETS - 1);
+	}
+
+	/**
+	 * @return total duration of the read (until now if not finished)
+	 */
+	public synchronized long getTotalNanos() {
+		long end = _endNanos == 0 ? System.nanoTime() : _endNanos;
+		return end - _startNanos;
+	}
+
+	/**
+	 * @return total number of commands sent
+	 */
+	public synchronized int getApduCount() {
+		return _apduCount;
+	}
+
+	/**
+	 * @param phase
+	 * @return stats for the phase, or <code>null</code> if no command was sent
+	 *         in this phase
+	 */
+	public synchronized PhaseStats getPhaseStats(ReadPhase phase) {
+		return _phaseStats[phase.ordinal()];
+	}
+
+	/**
+	 * @return all phase segments in chronological order
+	 */
+	public synchronized List<Segment> getSegments() {
+		return new ArrayList<Segment>(_segments);
+	}
+
+	/**
+	 * @return human readable summary (one line per phase)
+	 */
+	public synchronized String toSummaryString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Read timing: ");
+		sb.append(formatMillis(getTotalNanos()));
+		sb.append(" ms, ");
+		sb.append(_apduCount);
+		sb.append(" APDUs");
+		for (ReadPhase phase : ReadPhase.values()) {
+			PhaseStats stats = _phaseStats[phase.ordinal()];
+			if (stats == null) {
+				continue;
+			}
+			sb.append("\n  ");
+			sb.append(phase.name());
+			sb.append(": ");
+			sb.append(formatPhase(stats));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @param stats
+	 * @return short human readable description of a phase
+	 */
+	public static String formatPhase(PhaseStats stats) {
+		return stats.getCount() + " APDUs, "
+				+ formatMillis(stats.getTotalNanos()) + " ms (avg "
+				+ formatMillis(stats.getTotalNanos() / stats.getCount())
+				+ " ms, max " + formatMillis(stats.getMaxNanos()) + " ms)";
+	}
+
+	/**
+	 * @return all metrics as JSON document (machine readable export)
+	 */
+	public synchronized String toJson() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n  \"totalNanos\": ").append(getTotalNanos());
+		sb.append(",\n  \"apduCount\": ").append(_apduCount);
+		sb.append(",\n  \"histogramBucketsMicros\": \"2^i <= duration < 2^(i+1)\"");
+
+		sb.append(",\n  \"phases\": [");
+		boolean first = true;
+		for (PhaseStats stats : _phaseStats) {
+			if (stats == null) {
+				continue;
+			}
+			sb.append(first ? "\n" : ",\n");
+			first = false;
+			sb.append("    {\"phase\": \"").append(stats._phase.name());
+			sb.append("\", \"count\": ").append(stats._count);
+			sb.append(", \"totalNanos\": ").append(stats._totalNanos);
+			sb.append(", \"minNanos\": ").append(stats.getMinNanos());
+			sb.append(", \"maxNanos\": ").append(stats._maxNanos);
+			sb.append(", \"responseBytes\": ").append(stats._responseBytes);
+			sb.append(", \"histogram\": [");
+			for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+				if (i > 0) {
+					sb.append(", ");
+				}
+				sb.append(stats._histogram[i]);
+			}
+			sb.append("], \"ins\": {");
+			boolean firstIns = true;
+			for (int ins = 0; ins < 256; ins++) {
+				if (stats._insCount[ins] == 0) {
+					continue;
+				}
+				if (!firstIns) {
+					sb.append(", ");
+				}
+				firstIns = false;
+				sb.append('"').append(hex(ins, 2)).append("\": {\"count\": ")
+						.append(stats._insCount[ins])
+						.append(", \"totalNanos\": ")
+						.append(stats._insNanos[ins]).append('}');
+			}
+			sb.append("}, \"statusWords\": {");
+			boolean firstSw = true;
+			for (Map.Entry<Integer, Integer> e : stats._statusWordCount
+					.entrySet()) {
+				if (!firstSw) {
+					sb.append(", ");
+				}
+				firstSw = false;
+				sb.append('"').append(swToString(e.getKey())).append("\": ")
+						.append(e.getValue());
+			}
+			sb.append("}}");
+		}
+		sb.append("\n  ]");
+
+		sb.append(",\n  \"segments\": [");
+		for (int i = 0; i < _segments.size(); i++) {
+			Segment s = _segments.get(i);
+			sb.append(i == 0 ? "\n" : ",\n");
+			sb.append("    {\"phase\": \"").append(s._phase.name());
+			sb.append("\", \"startNanos\": ").append(s._startNanos);
+			sb.append(", \"durationNanos\": ").append(s.getDurationNanos());
+			sb.append(", \"count\": ").append(s._count).append('}');
+		}
+		sb.append("\n  ]");
+
+		sb.append(",\n  \"apdus\": [");
+		ReadPhase[] phases = ReadPhase.values();
+		for (int i = 0; i < _apduCount; i++) {
+			sb.append(i == 0 ? "\n" : ",\n");
+			sb.append("    {\"phase\": \"")
+					.append(phases[_apduPhase[i]].name());
+			sb.append("\", \"ins\": \"").append(hex(_apduIns[i] & 0xFF, 2));
+			sb.append("\", \"responseSize\": ").append(_apduResponseSize[i]);
+			sb.append(", \"sw\": \"").append(swToString(_apduStatusWord[i]));
+			sb.append("\", \"startNanos\": ").append(_apduStartNanos[i]);
+			sb.append(", \"durationNanos\": ").append(_apduNanos[i])
+					.append('}');
+		}
+		sb.append("\n  ]\n}\n");
+		return sb.toString();
+	}
+
+	private static String swToString(int sw) {
+		return sw < 0 ? "none" : hex(sw, 4);
+	}
+
+	private static String hex(int value, int digits) {
+		return String.format(Locale.US, "%0" + digits + "X", value);
+	}
+
+	/**
+	 * @param nanos
+	 * @return milliseconds with 1 decimal place
+	 */
+	public static String formatMillis(long nanos) {
+		return String.format(Locale.US, "%.1f", nanos / 1000000.0);
+	}
+}
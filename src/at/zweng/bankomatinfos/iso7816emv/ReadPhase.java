@@ -0,0 +1,25 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+/**
+ * Phases of reading a card (used for grouping timing metrics)
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public enum ReadPhase {
+	/** reading GlobalPlatform CPLC data */
+	CPLC,
+	/** selecting and reading the QUICK application */
+	QUICK,
+	/** selecting the Maestro application */
+	MAESTRO,
+	/** selecting the VISA application */
+	VISA,
+	/** selecting the Mastercard application */
+	MASTERCARD,
+	/** GET DATA commands sent after selecting an EMV application */
+	GET_DATA,
+	/** reading records (file scan or AFL) */
+	FILE_SCAN,
+	/** commands sent outside of any phase (not attributed to a step) */
+	OTHER
+}
@@ -0,0 +1,187 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import static at.zweng.bankomatinfos.iso7816emv.StatusWord.SW_FILE_NOT_FOUND;
+import static at.zweng.bankomatinfos.iso7816emv.StatusWord.SW_SUCCESS;
+
+/**
+ * Decides when the scan of an EF (short file identifier) can stop, and
+ * counts how many APDUs this saves.<br>
+ * <br>
+ * Records are numbered from 1 (ISO 7816-4), so probing starts there. If the
+ * card answers '6A 82' (file not found) the EF does not exist and is left at
+ * once. Otherwise the EF is left after a number of failed records in a row
+ * (the error budget). A full scan always uses the old fixed limit of 7. Otherwise
+ * the budget starts with the old fixed limit of 3 and after the first existing
+ * EF it is learned from the card: the largest gap between records seen so far
+ * plus one, but at least 2. So an EF is left after two '6A 83' (record not
+ * found) in a row on most cards, and an EF starting at record 2 (or with a
+ * single missing record) is still read completely.<br>
+ * <br>
+ * One instance is used for all file scans of a card read. This class is not
+ * thread safe.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class RecordProbeStrategy {
+
+	/** first record number */
+	public static final int FIRST_RECORD = 1;
+
+	// fixed limits used before: stop after this many errors in a row
+	private static final int FIXED_BUDGET = 3;
+	private static final int FIXED_BUDGET_FULL_SCAN = 7;
+	// learned budget is never lower than this
+	private static final int MIN_BUDGET = 2;
+
+	private final boolean _fullFileScan;
+	private final int _fixedBudget;
+	private int _budget;
+	// largest number of missing records followed by an existing one
+	private int _maxGap;
+
+	// current EF
+	private int _consecutiveErrors;
+	private int _lastRecord;
+	private boolean _stopped;
+
+	// statistics
+	private int _efCount;
+	private int _efNotFoundCount;
+	private int _recordCount;
+	private int _apduCount;
+	private int _fixedApduCount;
+
+	/**
+	 * Constructor
+	 *
+	 * @param fullFileScan
+	 *            <code>true</code> for a full scan (larger fixed budget)
+	 */
+	public RecordProbeStrategy(boolean fullFileScan) {
+		_fullFileScan = fullFileScan;
+		_fixedBudget = fullFileScan ? FIXED_BUDGET_FULL_SCAN : FIXED_BUDGET;
+		_budget = _fixedBudget;
+	}
+
+	/**
+	 * Starts the scan of the next EF
+	 */
+	public void startEf() {
+		_consecutiveErrors = 0;
+		_lastRecord = -1;
+		_stopped = false;
+	}
+
+	/**
+	 * Processes the response to READ RECORD
+	 *
+	 * @param record
+	 *            record number which was read
+	 * @param response
+	 * @return <code>true</code> if the next record of this EF should be read
+	 */
+	public boolean onResponse(int record, byte[] response) {
+		_apduCount++;
+		int sw = StatusWord.fromResponse(response);
+		if (sw == SW_SUCCESS) {
+			if (_consecutiveErrors > _maxGap) {
+				_maxGap = _consecutiveErrors;
+			}
+			_consecutiveErrors = 0;
+			_lastRecord = record;
+			_recordCount++;
+			return true;
+		}
+		if (sw == SW_FILE_NOT_FOUND) {
+			return false;
+		}
+		_consecutiveErrors++;
+		return _consecutiveErrors < _budget;
+	}
+
+	/**
+	 * Called if the caller stops reading the EF for its own reasons (e.g.
+	 * known part of the transaction log reached)
+	 */
+	public void stopEf() {
+		_stopped = true;
+	}
+
+	/**
+	 * Finishes the scan of the current EF (updates budget and statistics)
+	 */
+	public void endEf() {
+		_efCount++;
+		if (_lastRecord < 0) {
+			_efNotFoundCount++;
+			// old scan: records 0, 1, 2.. until the budget was used up
+			_fixedApduCount += _fixedBudget;
+			return;
+		}
+		// old scan started at (invalid) record 0
+		_fixedApduCount += _lastRecord + 1 + (_stopped ? 0 : _fixedBudget);
+		if (!_fullFileScan) {
+			_budget = Math.max(MIN_BUDGET, Math.min(_fixedBudget, _maxGap + 1));
+		}
+	}
+
+	/**
+	 * @return number of failed records in a row after which an EF is left
+	 */
+	public int getErrorBudget() {
+		return _budget;
+	}
+
+	/**
+	 * @return number of READ RECORD commands sent
+	 */
+	public int getApduCount() {
+		return _apduCount;
+	}
+
+	/**
+	 * @return estimated number of READ RECORD commands the scan with fixed
+	 *         limits (starting at record 0) would have sent for the same
+	 *         records
+	 */
+	public int getFixedApduCount() {
+		return _fixedApduCount;
+	}
+
+	/**
+	 * @return estimated number of commands saved (can be negative for
+	 *         interrupted scans)
+	 */
+	public int getApdusSaved() {
+		return _fixedApduCount - _apduCount;
+	}
+
+	/**
+	 * @return number of EFs scanned
+	 */
+	public int getEfCount() {
+		return _efCount;
+	}
+
+	/**
+	 * @return number of EFs without any record
+	 */
+	public int getEfNotFoundCount() {
+		return _efNotFoundCount;
+	}
+
+	/**
+	 * @return number of records found
+	 */
+	public int getRecordCount() {
+		return _recordCount;
+	}
+
+	@Override
+	public String toString() {
+		return "file scan: " + _efCount + " EFs (" + _efNotFoundCount
+				+ " empty), " + _recordCount + " records, " + _apduCount
+				+ " APDUs, error budget " + _budget + " (max. gap " + _maxGap
+				+ "), ~" + getApdusSaved() + " APDUs saved";
+	}
+}
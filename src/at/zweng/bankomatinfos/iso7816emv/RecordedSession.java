@@ -0,0 +1,144 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import at.zweng.bankomatinfos.iso7816emv.ApduTrace.Direction;
+import at.zweng.bankomatinfos.iso7816emv.ApduTrace.Record;
+
+/**
+ * The command/response pairs recorded while reading one card (e.g. collected
+ * from field devices), for replaying them offline with a
+ * {@link SimulatedCardTransport} (see {@link TraceAnalyzer}).<br>
+ * <br>
+ * The raw byte arrays are stored by reference and must not be modified
+ * afterwards.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class RecordedSession {
+
+	private final String _id;
+	private final byte[] _tagId;
+	private final byte[] _historicalBytes;
+	private final List<byte[]> _commands = new ArrayList<byte[]>();
+	private final List<byte[]> _responses = new ArrayList<byte[]>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param id
+	 *            name of the session (e.g. file name of the dump)
+	 * @param tagId
+	 *            NFC tag ID of the card
+	 * @param historicalBytes
+	 *            historical bytes of the card
+	 */
+	public RecordedSession(String id, byte[] tagId, byte[] historicalBytes) {
+		this._id = id;
+		this._tagId = tagId;
+		this._historicalBytes = historicalBytes;
+	}
+
+	/**
+	 * Creates a session from the APDUs in a trace: each command is paired
+	 * with the response following it (log messages in between are ignored,
+	 * commands without response are skipped)
+	 *
+	 * @param id
+	 * @param tagId
+	 * @param historicalBytes
+	 * @param trace
+	 * @return the session
+	 */
+	public static RecordedSession fromTrace(String id, byte[] tagId,
+			byte[] historicalBytes, ApduTrace trace) {
+		RecordedSession session = new RecordedSession(id, tagId,
+				historicalBytes);
+		byte[] command = null;
+		for (Record record : trace.getRecords()) {
+			if (record.getDirection() == Direction.COMMAND) {
+				command = record.getData();
+			} else if (record.getDirection() == Direction.RESPONSE
+					&& command != null) {
+				session.addExchange(command, record.getData());
+				command = null;
+			}
+		}
+		return session;
+	}
+
+	/**
+	 * @param command
+	 *            command APDU
+	 * @param response
+	 *            response APDU (incl. status word)
+	 */
+	public void addExchange(byte[] command, byte[] response) {
+		_commands.add(command);
+		_responses.add(response);
+	}
+
+	/**
+	 * @return number of command/response pairs
+	 */
+	public int size() {
+		return _commands.size();
+	}
+
+	/**
+	 * @param i
+	 * @return command APDU of exchange i
+	 */
+	public byte[] getCommand(int i) {
+		return _commands.get(i);
+	}
+
+	/**
+	 * @param i
+	 * @return response APDU of exchange i
+	 */
+	public byte[] getResponse(int i) {
+		return _responses.get(i);
+	}
+
+	/**
+	 * @return name of the session
+	 */
+	public String getId() {
+		return _id;
+	}
+
+	/**
+	 * @return NFC tag ID of the card
+	 */
+	public byte[] getTagId() {
+		return _tagId;
+	}
+
+	/**
+	 * @return historical bytes of the card
+	 */
+	public byte[] getHistoricalBytes() {
+		return _historicalBytes;
+	}
+
+	/**
+	 * @return a new simulated card answering with the recorded responses (if
+	 *         a command was recorded more than once, the last response wins)
+	 */
+	public SimulatedCardTransport toTransport() {
+		SimulatedCardTransport transport = new SimulatedCardTransport(_tagId,
+				_historicalBytes);
+		for (int i = 0; i < _commands.size(); i++) {
+			transport.addResponse(_commands.get(i), _responses.get(i));
+		}
+		return transport;
+	}
+
+	@Override
+	public String toString() {
+		return "RecordedSession [" + _id + ", " + _commands.size()
+				+ " exchanges]";
+	}
+}
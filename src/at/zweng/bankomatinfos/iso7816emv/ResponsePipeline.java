@@ -0,0 +1,139 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Second stage of the card read: processing of responses (decoding, indexing)
+ * runs on a single worker thread in the order it was submitted, while the
+ * reading thread already sends the next command to the card. So the card has
+ * to stay in the field only for about the pure I/O time.<br>
+ * <br>
+ * Before the reading thread uses anything the worker produces it has to call
+ * {@link #await()} (this also establishes the memory visibility of the
+ * results).<br>
+ * <br>
+ * Without a card (e.g. when replaying recorded sessions) there is no I/O to
+ * overlap with, so the pipeline can also run each task directly in
+ * {@link #submit(Runnable)} on the calling thread.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ResponsePipeline {
+
+	// null if tasks run on the calling thread
+	private final ExecutorService _executor;
+	private final List<Future<?>> _pending = new ArrayList<Future<?>>();
+	// first exception of a task run on the calling thread
+	private Throwable _failure;
+
+	/**
+	 * Constructor, starts the worker thread
+	 */
+	public ResponsePipeline() {
+		this(true);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param background
+	 *            <code>true</code> to start a worker thread,
+	 *            <code>false</code> to run the tasks on the calling thread
+	 */
+	public ResponsePipeline(boolean background) {
+		if (!background) {
+			_executor = null;
+			return;
+		}
+		_executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "card-response-pipeline");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Queues a task for the worker thread
+	 *
+	 * @param task
+	 */
+	public void submit(Runnable task) {
+		if (_executor != null) {
+			_pending.add(_executor.submit(task));
+			return;
+		}
+		try {
+			task.run();
+		} catch (RuntimeException e) {
+			if (_failure == null) {
+				_failure = e;
+			}
+		} catch (Error e) {
+			if (_failure == null) {
+				_failure = e;
+			}
+		}
+	}
+
+	/**
+	 * Waits until all submitted tasks are done.
+	 *
+	 * @throws RuntimeException
+	 *             the first exception thrown by a task (after all tasks have
+	 *             finished)
+	 */
+	public void await() {
+		Throwable failure = _failure;
+		_failure = null;
+		boolean interrupted = false;
+		for (Future<?> f : _pending) {
+			while (true) {
+				try {
+					f.get();
+					break;
+				} catch (InterruptedException e) {
+					// results must be complete, so keep waiting
+					interrupted = true;
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause();
+					}
+					break;
+				}
+			}
+		}
+		_pending.clear();
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+		if (failure != null) {
+			throw new IllegalStateException(failure);
+		}
+	}
+
+	/**
+	 * Stops the worker thread (tasks not yet started are dropped)
+	 */
+	public void close() {
+		_pending.clear();
+		_failure = null;
+		if (_executor != null) {
+			_executor.shutdownNow();
+		}
+	}
+}
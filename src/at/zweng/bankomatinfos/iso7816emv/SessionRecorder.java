@@ -0,0 +1,205 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import at.zweng.bankomatinfos.exceptions.NoSmartCardException;
+
+/**
+ * {@link ApduTransport} decorator which records every exchange with the card
+ * in the binary format of {@link SessionRecording}. While the card is read a
+ * frame is only appended to a byte array (no formatting, no I/O), the file is
+ * written afterwards with {@link #save(File)}.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class SessionRecorder implements ApduTransport {
+
+	private static final int INITIAL_CAPACITY = 4096;
+	private static final int MAX_LENGTH = 0xFFFF;
+	private static final long MAX_MICROS = 0xFFFFFFFFL;
+
+	private final ApduTransport _delegate;
+	private byte[] _buffer = new byte[INITIAL_CAPACITY];
+	private int _length;
+	// the header is written on connect (tag ID and historical bytes known)
+	private boolean _headerWritten;
+	private int _headerLength;
+
+	/**
+	 * Constructor
+	 *
+	 * @param delegate
+	 *            the transport doing the real work
+	 */
+	public SessionRecorder(ApduTransport delegate) {
+		this._delegate = delegate;
+	}
+
+	@Override
+	public void connect() throws IOException, NoSmartCardException {
+		_delegate.connect();
+		writeHeader();
+	}
+
+	@Override
+	public byte[] transceive(byte[] command) throws IOException {
+		long start = System.nanoTime();
+		byte[] response = null;
+		try {
+			response = _delegate.transceive(command);
+			return response;
+		} finally {
+			// also record failed commands (response == null)
+			record(command, response, System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		_delegate.close();
+	}
+
+	@Override
+	public byte[] getHistoricalBytes() {
+		return _delegate.getHistoricalBytes();
+	}
+
+	@Override
+	public byte[] getTagId() {
+		return _delegate.getTagId();
+	}
+
+	/**
+	 * Appends a frame (the header is written first if it is still missing)
+	 *
+	 * @param command
+	 *            command APDU
+	 * @param response
+	 *            response APDU, or <code>null</code> if the exchange failed
+	 * @param durationNanos
+	 *            how long the exchange took
+	 */
+	public void record(byte[] command, byte[] response, long durationNanos) {
+		writeHeader();
+		int cmdLength = Math.min(command.length, MAX_LENGTH);
+		int respLength = response == null ? 0 : Math.min(response.length,
+				MAX_LENGTH);
+		long micros = Math.max(0,
+				Math.min(durationNanos / 1000L, MAX_MICROS));
+		ensureCapacity(SessionRecording.FRAME_HEADER_LENGTH + cmdLength
+				+ respLength);
+		putShort(cmdLength);
+		putShort(respLength);
+		putShort((int) (micros >>> 16));
+		putShort((int) micros);
+		System.arraycopy(command, 0, _buffer, _length, cmdLength);
+		_length += cmdLength;
+		if (respLength > 0) {
+			System.arraycopy(response, 0, _buffer, _length, respLength);
+			_length += respLength;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if no exchange was recorded yet
+	 */
+	public boolean isEmpty() {
+		return _length == _headerLength;
+	}
+
+	/**
+	 * @return size of the recording in bytes
+	 */
+	public int size() {
+		return _length;
+	}
+
+	/**
+	 * Writes the recording
+	 *
+	 * @param out
+	 *            (not closed)
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		writeHeader();
+		out.write(_buffer, 0, _length);
+	}
+
+	/**
+	 * Writes the recording to a file (replaces the file)
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		File dir = file.getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("cannot create directory " + dir);
+		}
+		File tmp = new File(file.getPath() + ".tmp");
+		OutputStream out = new FileOutputStream(tmp);
+		try {
+			writeTo(out);
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("cannot write " + file);
+		}
+	}
+
+	/**
+	 * @return the wrapped transport
+	 */
+	public ApduTransport getDelegate() {
+		return _delegate;
+	}
+
+	private void writeHeader() {
+		if (_headerWritten) {
+			return;
+		}
+		_headerWritten = true;
+		byte[] tagId = nonNull(_delegate.getTagId());
+		byte[] hist = nonNull(_delegate.getHistoricalBytes());
+		ensureCapacity(SessionRecording.MAGIC.length + 3 + tagId.length
+				+ hist.length);
+		System.arraycopy(SessionRecording.MAGIC, 0, _buffer, _length,
+				SessionRecording.MAGIC.length);
+		_length += SessionRecording.MAGIC.length;
+		_buffer[_length++] = (byte) SessionRecording.VERSION;
+		putBytes(tagId);
+		putBytes(hist);
+		_headerLength = _length;
+	}
+
+	private void putBytes(byte[] data) {
+		int length = Math.min(data.length, 0xFF);
+		_buffer[_length++] = (byte) length;
+		System.arraycopy(data, 0, _buffer, _length, length);
+		_length += length;
+	}
+
+	private void putShort(int value) {
+		_buffer[_length++] = (byte) (value >>> 8);
+		_buffer[_length++] = (byte) value;
+	}
+
+	private void ensureCapacity(int additional) {
+		if (_length + additional > _buffer.length) {
+			byte[] bigger = new byte[Math.max(_buffer.length * 2, _length
+					+ additional)];
+			System.arraycopy(_buffer, 0, bigger, 0, _length);
+			_buffer = bigger;
+		}
+	}
+
+	private static byte[] nonNull(byte[] data) {
+		return data == null ? new byte[0] : data;
+	}
+}
@@ -0,0 +1,299 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary recording of the APDUs exchanged with one card (written by
+ * {@link SessionRecorder}). A recording is read straight from a memory mapped
+ * file: {@link FrameCursor} walks over the frames and hands out views of the
+ * mapped bytes, nothing is copied or decoded before it is needed.<br>
+ * <br>
+ * Format (all numbers unsigned, big endian):
+ *
+ * <pre>
+ * header:  'A' 'P' 'D' 'U'            magic
+ *          version (1)                {@link #VERSION}
+ *          tag ID length (1)          tag ID
+ *          historical bytes length (1) historical bytes
+ * frames:  command length (2)
+ *          response length (2)        (0 if the exchange failed)
+ *          duration in microseconds (4)
+ *          command, response
+ * </pre>
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class SessionRecording {
+
+	/** format version written by {@link SessionRecorder} */
+	public static final int VERSION = 1;
+
+	/** usual file name suffix */
+	public static final String FILE_SUFFIX = ".apdu";
+
+	static final byte[] MAGIC = { 'A', 'P', 'D', 'U' };
+	static final int FRAME_HEADER_LENGTH = 8;
+
+	private final ByteBuffer _data;
+	private final byte[] _tagId;
+	private final byte[] _historicalBytes;
+	// offset of the first frame
+	private final int _framesStart;
+
+	/**
+	 * Constructor
+	 *
+	 * @param data
+	 *            the recording (from position to limit, not copied)
+	 * @throws IOException
+	 *             if the header is invalid
+	 */
+	public SessionRecording(ByteBuffer data) throws IOException {
+		_data = data.slice().order(ByteOrder.BIG_ENDIAN);
+		try {
+			ByteBuffer in = _data.duplicate();
+			for (byte b : MAGIC) {
+				if (in.get() != b) {
+					throw new IOException("not an APDU session recording");
+				}
+			}
+			int version = in.get() & 0xFF;
+			if (version != VERSION) {
+				throw new IOException("unsupported recording version "
+						+ version);
+			}
+			_tagId = new byte[in.get() & 0xFF];
+			in.get(_tagId);
+			_historicalBytes = new byte[in.get() & 0xFF];
+			in.get(_historicalBytes);
+			_framesStart = in.position();
+		} catch (BufferUnderflowException e) {
+			throw new IOException("recording header is truncated");
+		}
+	}
+
+	/**
+	 * Maps a recording file into memory (read only)
+	 *
+	 * @param file
+	 * @return the recording
+	 * @throws IOException
+	 */
+	public static SessionRecording map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			// the mapping stays valid after the channel is closed
+			return new SessionRecording(channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return NFC tag ID of the recorded card
+	 */
+	public byte[] getTagId() {
+		return _tagId;
+	}
+
+	/**
+	 * @return historical bytes of the recorded card
+	 */
+	public byte[] getHistoricalBytes() {
+		return _historicalBytes;
+	}
+
+	/**
+	 * @return a new cursor before the first frame (cursors are independent,
+	 *         but each must only be used by one thread)
+	 */
+	public FrameCursor frames() {
+		return new FrameCursor();
+	}
+
+	/**
+	 * Copies the exchanges into a {@link RecordedSession} (e.g. for the
+	 * {@link TraceAnalyzer}). Failed exchanges are left out.
+	 *
+	 * @param id
+	 *            name of the session
+	 * @return the session
+	 * @throws IOException
+	 *             if a frame is truncated
+	 */
+	public RecordedSession toSession(String id) throws IOException {
+		RecordedSession session = new RecordedSession(id, _tagId,
+				_historicalBytes);
+		FrameCursor frame = frames();
+		while (frame.next()) {
+			if (frame.getResponseLength() > 0) {
+				session.addExchange(frame.copyCommand(), frame.copyResponse());
+			}
+		}
+		return session;
+	}
+
+	/**
+	 * @param withTiming
+	 *            <code>true</code> to answer each command after its recorded
+	 *            duration
+	 * @return a new simulated card answering with the recorded responses (if
+	 *         a command was recorded more than once, the last response wins)
+	 * @throws IOException
+	 *             if a frame is truncated
+	 */
+	public SimulatedCardTransport toTransport(boolean withTiming)
+			throws IOException {
+		SimulatedCardTransport transport = new SimulatedCardTransport(_tagId,
+				_historicalBytes);
+		FrameCursor frame = frames();
+		while (frame.next()) {
+			if (frame.getResponseLength() == 0) {
+				continue;
+			}
+			if (withTiming) {
+				transport.addResponse(frame.copyCommand(),
+						frame.copyResponse(), frame.getDurationNanos());
+			} else {
+				transport.addResponse(frame.copyCommand(),
+						frame.copyResponse());
+			}
+		}
+		return transport;
+	}
+
+	/**
+	 * Iterates over the frames of the recording. Accessors refer to the frame
+	 * the last {@link #next()} moved to.
+	 */
+	public class FrameCursor {
+		private int _next = _framesStart;
+		private int _commandOffset = -1;
+		private int _commandLength;
+		private int _responseLength;
+		private long _durationMicros;
+
+		private FrameCursor() {
+		}
+
+		/**
+		 * Moves to the next frame
+		 *
+		 * @return <code>false</code> if there are no more frames
+		 * @throws IOException
+		 *             if the frame is truncated
+		 */
+		public boolean next() throws IOException {
+			int limit = _data.limit();
+			if (_next >= limit) {
+				return false;
+			}
+			if (_next + FRAME_HEADER_LENGTH > limit) {
+				throw new IOException("truncated frame at offset " + _next);
+			}
+			_commandLength = _data.getShort(_next) & 0xFFFF;
+			_responseLength = _data.getShort(_next + 2) & 0xFFFF;
+			_durationMicros = _data.getInt(_next + 4) & 0xFFFFFFFFL;
+			_commandOffset = _next + FRAME_HEADER_LENGTH;
+			int end = _commandOffset + _commandLength + _responseLength;
+			if (end > limit) {
+				throw new IOException("truncated frame at offset " + _next);
+			}
+			_next = end;
+			return true;
+		}
+
+		/**
+		 * @return length of the command APDU
+		 */
+		public int getCommandLength() {
+			return _commandLength;
+		}
+
+		/**
+		 * @return length of the response APDU (incl. status word), 0 if the
+		 *         exchange failed (e.g. the card was lost)
+		 */
+		public int getResponseLength() {
+			return _responseLength;
+		}
+
+		/**
+		 * @return how long the exchange took
+		 */
+		public long getDurationNanos() {
+			return _durationMicros * 1000L;
+		}
+
+		/**
+		 * @return read only view of the command APDU (not copied)
+		 */
+		public ByteBuffer getCommand() {
+			return view(_commandOffset, _commandLength);
+		}
+
+		/**
+		 * @return read only view of the response APDU (not copied)
+		 */
+		public ByteBuffer getResponse() {
+			return view(_commandOffset + _commandLength, _responseLength);
+		}
+
+		/**
+		 * @return status word of the response (e.g. 0x9000), or -1 if there
+		 *         is none
+		 */
+		public int getStatusWord() {
+			if (_responseLength < 2) {
+				return -1;
+			}
+			return _data.getShort(_commandOffset + _commandLength
+					+ _responseLength - 2) & 0xFFFF;
+		}
+
+		/**
+		 * @return copy of the command APDU
+		 */
+		public byte[] copyCommand() {
+			return copy(_commandOffset, _commandLength);
+		}
+
+		/**
+		 * @return copy of the response APDU
+		 */
+		public byte[] copyResponse() {
+			return copy(_commandOffset + _commandLength, _responseLength);
+		}
+
+		private ByteBuffer view(int offset, int length) {
+			checkFrame();
+			ByteBuffer view = _data.asReadOnlyBuffer();
+			view.position(offset);
+			view.limit(offset + length);
+			return view.slice();
+		}
+
+		private byte[] copy(int offset, int length) {
+			checkFrame();
+			byte[] result = new byte[length];
+			ByteBuffer in = _data.duplicate();
+			in.position(offset);
+			in.get(result);
+			return result;
+		}
+
+		private void checkFrame() {
+			if (_commandOffset < 0) {
+				throw new IllegalStateException("next() was not called");
+			}
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import android.content.Context;
+
+/**
+ * The APDU session recordings (see {@link SessionRecorder}) in the app's
+ * private storage, one file per read named by the time of the read. A
+ * recording contains the complete communication with the card, incl. card
+ * number, track 2 data and transaction log, so only the newest
+ * {@link #MAX_RECORDINGS} recordings of the last {@link #MAX_AGE_MILLIS} are
+ * kept: older ones are deleted whenever a recording is saved.<br>
+ * <br>
+ * All methods are synchronized, so a store can be shared between the reader
+ * thread and the UI.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class SessionRecordingStore {
+
+	/**
+	 * Maximum number of recordings kept
+	 */
+	public static final int MAX_RECORDINGS = 20;
+
+	/**
+	 * Maximum age of a recording (7 days)
+	 */
+	public static final long MAX_AGE_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+	/**
+	 * Sub directory of the files directory containing the recordings
+	 */
+	public static final String DIR_NAME = "recordings";
+
+	private final File _dir;
+
+	/**
+	 * Constructor
+	 *
+	 * @param ctx
+	 */
+	public SessionRecordingStore(Context ctx) {
+		this(new File(ctx.getFilesDir(), DIR_NAME));
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param dir
+	 *            directory where the recordings are stored
+	 */
+	public SessionRecordingStore(File dir) {
+		this._dir = dir;
+	}
+
+	/**
+	 * Saves a recording and deletes the recordings which are too old or too
+	 * many
+	 *
+	 * @param recorder
+	 * @param now
+	 *            time of the read
+	 * @return the new file
+	 * @throws IOException
+	 */
+	public synchronized File save(SessionRecorder recorder, long now)
+			throws IOException {
+		File file = new File(_dir, now + SessionRecording.FILE_SUFFIX);
+		recorder.save(file);
+		prune(now);
+		return file;
+	}
+
+	/**
+	 * Deletes the recordings older than {@link #MAX_AGE_MILLIS} and all but
+	 * the newest {@link #MAX_RECORDINGS}
+	 *
+	 * @param now
+	 * @return number of deleted recordings
+	 */
+	public synchronized int prune(long now) {
+		File[] files = list();
+		int deleted = 0;
+		for (int i = 0; i < files.length; i++) {
+			if (i >= MAX_RECORDINGS
+					|| getRecordingTime(files[i]) < now - MAX_AGE_MILLIS) {
+				if (files[i].delete()) {
+					deleted++;
+				}
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * @return the recordings, newest first
+	 */
+	public synchronized File[] list() {
+		File[] files = _dir.listFiles();
+		if (files == null) {
+			return new File[0];
+		}
+		int count = 0;
+		for (File file : files) {
+			if (file.getName().endsWith(SessionRecording.FILE_SUFFIX)) {
+				files[count++] = file;
+			}
+		}
+		File[] result = Arrays.copyOf(files, count);
+		Arrays.sort(result, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				long t1 = getRecordingTime(f1);
+				long t2 = getRecordingTime(f2);
+				return t1 > t2 ? -1 : (t1 == t2 ? 0 : 1);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Deletes all recordings
+	 */
+	public synchronized void clear() {
+		File[] files = _dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		_dir.delete();
+	}
+
+	/**
+	 * @param file
+	 * @return time of the read (from the file name, or the modification time
+	 *         of a file not saved by this store)
+	 */
+	private static long getRecordingTime(File file) {
+		String name = file.getName();
+		try {
+			return Long.parseLong(name.substring(0, name.length()
+					- SessionRecording.FILE_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return file.lastModified();
+		}
+	}
+}
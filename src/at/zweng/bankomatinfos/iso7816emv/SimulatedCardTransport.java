@@ -0,0 +1,204 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import static at.zweng.bankomatinfos.util.Utils.fromHexString;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import at.zweng.bankomatinfos.exceptions.CardLostException;
+
+/**
+ * In-memory {@link ApduTransport} which replays previously recorded card
+ * responses. Useful for running the whole reading process without a phone and
+ * a physical card (for example for measuring and optimizing the reading time).<br>
+ * <br>
+ * Each command APDU is looked up in a script of recorded responses. Commands
+ * which are not contained in the script are answered with the default
+ * response (by default "6A 82 - file not found"). Every exchange can be
+ * delayed by a configurable latency to mimic the round-trip time of the NFC
+ * interface.
+ * 
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class SimulatedCardTransport implements ApduTransport {
+
+	private final Map<ByteArrayWrapper, byte[]> _responses;
+	private final Map<ByteArrayWrapper, Long> _latencies;
+	private byte[] _tagId;
+	private byte[] _historicalBytes;
+	private byte[] _defaultResponse;
+	private long _defaultLatencyNanos;
+	private boolean _connected;
+	private int _transceiveCount;
+	// simulated card removal after this many exchanges (-1: never)
+	private int _loseTagAfter = -1;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param tagId
+	 *            NFC tag ID reported by this simulated card
+	 * @param historicalBytes
+	 *            historical bytes reported by this simulated card
+	 */
+	public SimulatedCardTransport(byte[] tagId, byte[] historicalBytes) {
+		super();
+		this._responses = new HashMap<ByteArrayWrapper, byte[]>();
+		this._latencies = new HashMap<ByteArrayWrapper, Long>();
+		this._tagId = tagId;
+		this._historicalBytes = historicalBytes;
+		this._defaultResponse = EmvUtils.SW_FILE_NOT_FOUND;
+		this._defaultLatencyNanos = 0;
+	}
+
+	/**
+	 * Add a recorded response to the script which will be returned after the
+	 * default latency (replaces an earlier response and latency for the same
+	 * command)
+	 * 
+	 * @param command
+	 *            command APDU
+	 * @param response
+	 *            response APDU (including status word)
+	 */
+	public void addResponse(byte[] command, byte[] response) {
+		ByteArrayWrapper key = ByteArrayWrapper.copyOf(command);
+		_responses.put(key, response);
+		_latencies.remove(key);
+	}
+
+	/**
+	 * Add a recorded response to the script which will be returned after the
+	 * given latency (overrides the default latency for this command)
+	 * 
+	 * @param command
+	 *            command APDU
+	 * @param response
+	 *            response APDU (including status word)
+	 * @param latencyNanos
+	 */
+	public void addResponse(byte[] command, byte[] response, long latencyNanos) {
+		ByteArrayWrapper key = ByteArrayWrapper.copyOf(command);
+		_responses.put(key, response);
+		_latencies.put(key, Long.valueOf(latencyNanos));
+	}
+
+	/**
+	 * Add a recorded response to the script
+	 * 
+	 * @param commandHex
+	 *            command APDU as hex string (spaces allowed)
+	 * @param responseHex
+	 *            response APDU as hex string (spaces allowed)
+	 */
+	public void addResponse(String commandHex, String responseHex) {
+		addResponse(fromHexString(commandHex), fromHexString(responseHex));
+	}
+
+	/**
+	 * @param defaultResponse
+	 *            response returned for all commands not contained in the
+	 *            script
+	 */
+	public void setDefaultResponse(byte[] defaultResponse) {
+		this._defaultResponse = defaultResponse;
+	}
+
+	/**
+	 * @param latencyNanos
+	 *            latency added to each exchange (if not overridden per command)
+	 */
+	public void setDefaultLatencyNanos(long latencyNanos) {
+		this._defaultLatencyNanos = latencyNanos;
+	}
+
+	/**
+	 * Simulates that the card leaves the field: after the given number of
+	 * exchanges (counted like {@link #getTransceiveCount()}) every command
+	 * fails with a {@link CardLostException}
+	 * 
+	 * @param commands
+	 *            number of commands still answered, or -1 for never
+	 */
+	public void setLoseTagAfter(int commands) {
+		this._loseTagAfter = commands;
+	}
+
+	/**
+	 * @return number of APDUs exchanged since construction (or since last
+	 *         {@link #resetTransceiveCount()})
+	 */
+	public int getTransceiveCount() {
+		return _transceiveCount;
+	}
+
+	/**
+	 * Reset the APDU counter to 0
+	 */
+	public void resetTransceiveCount() {
+		_transceiveCount = 0;
+	}
+
+	@Override
+	public void connect() throws IOException {
+		_connected = true;
+	}
+
+	@Override
+	public byte[] transceive(byte[] command) throws IOException {
+		if (!_connected) {
+			throw new IOException("simulated card is not connected");
+		}
+		if (_loseTagAfter >= 0 && _transceiveCount >= _loseTagAfter) {
+			throw new CardLostException("simulated card was removed");
+		}
+		_transceiveCount++;
+		ByteArrayWrapper key = ByteArrayWrapper.wrapperAround(command);
+		byte[] response = _responses.get(key);
+		Long latency = _latencies.get(key);
+		simulateLatency(latency != null ? latency.longValue()
+				: _defaultLatencyNanos);
+		if (response == null) {
+			response = _defaultResponse;
+		}
+		// always hand out a copy, callers may modify the returned array
+		byte[] copy = new byte[response.length];
+		System.arraycopy(response, 0, copy, 0, response.length);
+		return copy;
+	}
+
+	@Override
+	public void close() throws IOException {
+		_connected = false;
+	}
+
+	@Override
+	public byte[] getHistoricalBytes() {
+		return _historicalBytes;
+	}
+
+	@Override
+	public byte[] getTagId() {
+		return _tagId;
+	}
+
+	/**
+	 * Block the calling thread for the given time
+	 * 
+	 * @param nanos
+	 * @throws IOException
+	 *             if interrupted while waiting
+	 */
+	private void simulateLatency(long nanos) throws IOException {
+		if (nanos <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(nanos / 1000000L, (int) (nanos % 1000000L));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while simulating latency");
+		}
+	}
+}
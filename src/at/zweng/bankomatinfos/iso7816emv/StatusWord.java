@@ -0,0 +1,170 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+/**
+ * Decoding of the status word (SW1 SW2, last 2 bytes of every response).<br>
+ * <br>
+ * The status word is handled as int (SW1 << 8 | SW2) and decoded by a lookup
+ * in a table which is indexed by SW1 and holds one entry per SW2 value (only
+ * for SW1 values which are defined at all), so decoding never allocates and
+ * never compares arrays.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public final class StatusWord {
+
+	/**
+	 * Rough classification of a status word
+	 */
+	public enum Severity {
+		/** normal processing (90 00, 61 xx) */
+		SUCCESS,
+		/** processing completed with warning (62 xx, 63 xx) */
+		WARNING,
+		/** execution or checking error */
+		ERROR,
+		/** status word not known */
+		UNKNOWN
+	}
+
+	public static final int SW_SUCCESS = 0x9000;
+	public static final int SW_FILE_NOT_FOUND = 0x6A82;
+	public static final int SW_RECORD_NOT_FOUND = 0x6A83;
+
+	private static final String UNKNOWN_MESSAGE = "----- UNKNOWN RETURN CODE!!! ------";
+
+	// messages and severities, indexed by SW1, then SW2 (null if SW1 unknown)
+	private static final String[][] MESSAGES = new String[256][];
+	private static final Severity[][] SEVERITIES = new Severity[256][];
+
+	static {
+		sw1(0x61, Severity.SUCCESS,
+				"success :-) response can be fetched by GET RESPONSE!");
+		sw1(0x62, Severity.WARNING, "warning: state of memory not changed");
+		sw1(0x63, Severity.WARNING, "warning: state of memory not changed 2");
+		sw1(0x64, Severity.ERROR, "warning: execution error");
+		sw1(0x65, Severity.ERROR, "warning: execution error");
+		sw1(0x6C, Severity.ERROR,
+				"incorrect length, second byte specifies correct length");
+
+		sw(0x9000, Severity.SUCCESS, "success :-)");
+		sw(0x6281, Severity.WARNING, "returned data may be not correct");
+		sw(0x6282, Severity.WARNING, "file end reached, could not read LE bytes");
+		sw(0x6283, Severity.WARNING, "file is locked");
+		sw(0x6284, Severity.WARNING, "file info FCI is not ISO conform");
+		sw(0x6581, Severity.ERROR, "memory error");
+		sw(0x6700, Severity.ERROR, "length error, lc or le incorrect");
+		sw(0x6800, Severity.ERROR, "function in class byte not supported");
+		sw(0x6881, Severity.ERROR, "logical channels not supported");
+		sw(0x6882, Severity.ERROR, "secure messaging not supported");
+		sw(0x6900, Severity.ERROR, "command not allowed");
+		sw(0x6981, Severity.ERROR,
+				"command incompatible with file system structure");
+		sw(0x6982, Severity.ERROR, "security state not fulfilled");
+		sw(0x6983, Severity.ERROR, "authentication method is locked");
+		sw(0x6984, Severity.ERROR, "referenced data is locked");
+		sw(0x6985, Severity.ERROR, "usage conditions are not fulfilled");
+		sw(0x6986, Severity.ERROR, "command not allowed (no EF selected)");
+		sw(0x6A00, Severity.ERROR, "incorrect parameters P1/P2");
+		sw(0x6A80, Severity.ERROR, "incorrect data for command");
+		sw(0x6A81, Severity.ERROR, "function is not supported");
+		sw(0x6A82, Severity.ERROR, "file not found");
+		sw(0x6A83, Severity.ERROR, "record not found");
+		sw(0x6A86, Severity.ERROR, "incorrect parameters p1/p2");
+		sw(0x6A88, Severity.ERROR, "referenced data (data objects) not found");
+		sw(0x6D00, Severity.ERROR, "instruction not supported");
+		sw(0x6E00, Severity.ERROR, "this command class (CLA) is not supported");
+		sw(0x6F00, Severity.ERROR, "command aborted with unknown errors");
+	}
+
+	private StatusWord() {
+	}
+
+	/**
+	 * Defines message and severity for all status words with this SW1
+	 */
+	private static void sw1(int sw1, Severity severity, String message) {
+		String[] messages = new String[256];
+		Severity[] severities = new Severity[256];
+		for (int i = 0; i < 256; i++) {
+			messages[i] = message;
+			severities[i] = severity;
+		}
+		MESSAGES[sw1] = messages;
+		SEVERITIES[sw1] = severities;
+	}
+
+	/**
+	 * Defines message and severity of a single status word
+	 */
+	private static void sw(int sw, Severity severity, String message) {
+		int sw1 = sw >> 8;
+		if (MESSAGES[sw1] == null) {
+			MESSAGES[sw1] = new String[256];
+			SEVERITIES[sw1] = new Severity[256];
+		}
+		MESSAGES[sw1][sw & 0xFF] = message;
+		SEVERITIES[sw1][sw & 0xFF] = severity;
+	}
+
+	/**
+	 * @param data
+	 * @param offset
+	 *            position of SW1
+	 * @return status word as int (SW1 << 8 | SW2)
+	 */
+	public static int pack(byte[] data, int offset) {
+		return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+	}
+
+	/**
+	 * @param response
+	 *            complete response APDU
+	 * @return status word (last 2 bytes) as int
+	 * @throws IllegalArgumentException
+	 *             if response is shorter than 2 bytes
+	 */
+	public static int fromResponse(byte[] response) {
+		if (response == null || response.length < 2) {
+			throw new IllegalArgumentException(
+					"response was either null or shorter than 2 bytes");
+		}
+		return pack(response, response.length - 2);
+	}
+
+	/**
+	 * @param sw
+	 *            status word as int
+	 * @return description of the status word
+	 */
+	public static String getMessage(int sw) {
+		String[] messages = MESSAGES[(sw >> 8) & 0xFF];
+		if (messages == null) {
+			return UNKNOWN_MESSAGE;
+		}
+		String message = messages[sw & 0xFF];
+		return message == null ? UNKNOWN_MESSAGE : message;
+	}
+
+	/**
+	 * @param sw
+	 *            status word as int
+	 * @return severity of the status word
+	 */
+	public static Severity getSeverity(int sw) {
+		Severity[] severities = SEVERITIES[(sw >> 8) & 0xFF];
+		if (severities == null) {
+			return Severity.UNKNOWN;
+		}
+		Severity severity = severities[sw & 0xFF];
+		return severity == null ? Severity.UNKNOWN : severity;
+	}
+
+	/**
+	 * @param response
+	 *            complete response APDU
+	 * @return <code>true</code> if the response ends with 90 00
+	 */
+	public static boolean isSuccess(byte[] response) {
+		return fromResponse(response) == SW_SUCCESS;
+	}
+}
@@ -0,0 +1,488 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import at.zweng.bankomatinfos.exceptions.TlvParsingException;
+
+/**
+ * Cursor based BER-TLV parser working directly on a (byte[], offset, length)
+ * range. It does not copy any data: after each call to {@link #next()} the
+ * current tag, length and value are available as offsets into the underlying
+ * array. {@link BERTLV} and {@link TagAndValue} objects are only created when
+ * explicitly requested.<br>
+ * <br>
+ * Like the original parser (from https://code.google.com/p/javaemvreader/)
+ * '00' and 'FF' padding bytes before, between and after TLV objects are
+ * skipped and the indefinite length form (terminated by '00 00') is supported.<br>
+ * <br>
+ * A cursor is not thread safe, but can be reused with
+ * {@link #reset(byte[], int, int)}.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class TlvCursor {
+
+	private byte[] _data;
+	private int _end;
+	private int _pos;
+
+	private int _tagOffset;
+	private int _tagLength;
+	private int _tag;
+	private int _lengthOffset;
+	private int _lengthFieldLength;
+	private int _valueOffset;
+	private int _valueLength;
+
+	/**
+	 * Constructor
+	 *
+	 * @param data
+	 *            whole array will be parsed
+	 */
+	public TlvCursor(byte[] data) {
+		this(data, 0, data.length);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param data
+	 * @param offset
+	 *            where to start parsing
+	 * @param length
+	 *            number of bytes to parse
+	 */
+	public TlvCursor(byte[] data, int offset, int length) {
+		reset(data, offset, length);
+	}
+
+	/**
+	 * Reinitializes this cursor for parsing another range of bytes
+	 *
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return this cursor
+	 */
+	public TlvCursor reset(byte[] data, int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > data.length) {
+			throw new IndexOutOfBoundsException("offset: " + offset
+					+ ", length: " + length + ", array size: " + data.length);
+		}
+		_data = data;
+		_pos = offset;
+		_end = offset + length;
+		_tagOffset = -1;
+		_tagLength = 0;
+		_tag = 0;
+		_lengthOffset = -1;
+		_lengthFieldLength = 0;
+		_valueOffset = -1;
+		_valueLength = 0;
+		return this;
+	}
+
+	/**
+	 * @return <code>true</code> if there are more (non padding) bytes left
+	 */
+	public boolean hasNext() {
+		skipPadding();
+		return _pos < _end;
+	}
+
+	/**
+	 * Moves the cursor to the next TLV object.
+	 *
+	 * @return <code>false</code> if the end of the data was reached
+	 * @throws TlvParsingException
+	 *             if the data is not valid BER-TLV
+	 */
+	public boolean next() throws TlvParsingException {
+		if (!hasNext()) {
+			return false;
+		}
+		if (_end - _pos < 2) {
+			throw new TlvParsingException(
+					"Error parsing data. Available bytes < 2 . Length="
+							+ (_end - _pos));
+		}
+		readTag();
+		int rawLength = readLength();
+		if (rawLength < 0) {
+			// indefinite form: value ends with '00 00'
+			int i = _pos;
+			while (i + 1 < _end && (_data[i] != 0 || _data[i + 1] != 0)) {
+				i++;
+			}
+			if (i + 1 >= _end) {
+				throw new TlvParsingException("Error parsing data. TLV "
+						+ "length byte indicated indefinite length, but EOS "
+						+ "was reached before 0x0000 was found");
+			}
+			_valueOffset = _pos;
+			_valueLength = i - _pos;
+			_pos = i + 2;
+		} else {
+			if (rawLength > _end - _pos) {
+				throw new TlvParsingException("Error parsing data. Length "
+						+ rawLength + " exceeds available bytes ("
+						+ (_end - _pos) + ")");
+			}
+			_valueOffset = _pos;
+			_valueLength = rawLength;
+			_pos += rawLength;
+		}
+		return true;
+	}
+
+	/**
+	 * Moves the cursor to the next entry of a 'Data Object List' (DOL). DOLs
+	 * only contain tags and lengths, but no values, so after this call
+	 * {@link #getValueLength()} returns the length the card requests for this
+	 * tag and {@link #getValueOffset()} returns -1.
+	 *
+	 * @return <code>false</code> if the end of the data was reached
+	 * @throws TlvParsingException
+	 */
+	public boolean nextDolEntry() throws TlvParsingException {
+		if (_pos >= _end) {
+			return false;
+		}
+		readTag();
+		if (_pos >= _end && _tagLength > 1) {
+			// malformed last entry: a DOL entry always ends with a length, so
+			// if the tag runs up to the end of the DOL its last byte is the
+			// length (e.g. '9F 80 04' at the end of the VISA log format is
+			// tag 9F80 with length 4, although bit 8 of '80' says that the
+			// tag continues)
+			_pos--;
+			_tagLength--;
+			_tag >>>= 8;
+		}
+		int length = readLength();
+		if (length < 0) {
+			throw new TlvParsingException(
+					"Indefinite length form not allowed in DOL");
+		}
+		_valueOffset = -1;
+		_valueLength = length;
+		return true;
+	}
+
+	/**
+	 * Skips '00' and 'FF' bytes. ISO/IEC 7816 uses neither '00' nor 'FF' as
+	 * tag value. Before, between, or after TLV-coded data objects, '00' or
+	 * 'FF' bytes without any meaning may occur (for example, due to erased or
+	 * modified TLV-coded data objects).
+	 */
+	private void skipPadding() {
+		while (_pos < _end && (_data[_pos] == (byte) 0x00 || _data[_pos] == (byte) 0xFF)) {
+			_pos++;
+		}
+	}
+
+	/**
+	 * Reads tag bytes at current position (EMV book 3, Annex B1)
+	 *
+	 * @throws TlvParsingException
+	 */
+	private void readTag() throws TlvParsingException {
+		_tagOffset = _pos;
+		int tag = _data[_pos++] & 0xFF;
+		if ((tag & 0x1F) == 0x1F) {
+			// tag field is longer than 1 byte
+			int nextOctet;
+			do {
+				if (_pos >= _end) {
+					throw new TlvParsingException(
+							"Error parsing data. End of data reached within tag");
+				}
+				if (_pos - _tagOffset >= 4) {
+					throw new TlvParsingException(
+							"Error parsing data. Tags longer than 4 bytes are not supported");
+				}
+				nextOctet = _data[_pos++] & 0xFF;
+				tag = (tag << 8) | nextOctet;
+			} while ((nextOctet & 0x80) != 0);
+		}
+		_tag = tag;
+		_tagLength = _pos - _tagOffset;
+	}
+
+	/**
+	 * Reads length bytes at current position
+	 *
+	 * @return length or -1 for indefinite length form
+	 * @throws TlvParsingException
+	 */
+	private int readLength() throws TlvParsingException {
+		if (_pos >= _end) {
+			throw new TlvParsingException(
+					"Error parsing data. End of data reached before length");
+		}
+		_lengthOffset = _pos;
+		int first = _data[_pos++] & 0xFF;
+		int length;
+		if (first <= 127) {
+			// short length form
+			length = first;
+		} else if (first == 128) {
+			// indefinite form
+			length = -1;
+		} else {
+			// long length form
+			int numberOfLengthOctets = first & 127;
+			if (numberOfLengthOctets > 3 || numberOfLengthOctets > _end - _pos) {
+				throw new TlvParsingException(
+						"Error parsing data. Invalid length field: "
+								+ numberOfLengthOctets + " length octets");
+			}
+			length = 0;
+			for (int i = 0; i < numberOfLengthOctets; i++) {
+				length = (length << 8) | (_data[_pos++] & 0xFF);
+			}
+		}
+		_lengthFieldLength = _pos - _lengthOffset;
+		return length;
+	}
+
+	/**
+	 * @param length
+	 *            length of a value
+	 * @return number of bytes needed for encoding the length (definite form,
+	 *         as read by this cursor)
+	 */
+	public static int getEncodedLengthSize(int length) {
+		if (length < 0) {
+			throw new IllegalArgumentException("negative length: " + length);
+		}
+		if (length <= 127) {
+			return 1;
+		}
+		if (length <= 0xFF) {
+			return 2;
+		}
+		if (length <= 0xFFFF) {
+			return 3;
+		}
+		if (length <= 0xFFFFFF) {
+			return 4;
+		}
+		throw new IllegalArgumentException("length too big: " + length);
+	}
+
+	/**
+	 * Writes a BER length in definite form: short form (1 byte) below 128,
+	 * long form ('81'..'83' followed by the length bytes) above
+	 *
+	 * @param length
+	 * @param out
+	 *            target, needs space for {@link #getEncodedLengthSize(int)}
+	 *            bytes
+	 * @param offset
+	 * @return position in out after the length
+	 */
+	public static int encodeLength(int length, byte[] out, int offset) {
+		int size = getEncodedLengthSize(length);
+		if (size == 1) {
+			out[offset] = (byte) length;
+			return offset + 1;
+		}
+		out[offset] = (byte) (0x80 | (size - 1));
+		for (int i = size - 1; i > 0; i--) {
+			out[offset + i] = (byte) length;
+			length >>>= 8;
+		}
+		return offset + size;
+	}
+
+	/**
+	 * @return the underlying data array
+	 */
+	public byte[] getData() {
+		return _data;
+	}
+
+	/**
+	 * @return tag bytes of current TLV packed into an int (e.g. 0x9F38)
+	 */
+	public int getTag() {
+		return _tag;
+	}
+
+	/**
+	 * @return offset of the first tag byte in {@link #getData()}
+	 */
+	public int getTagOffset() {
+		return _tagOffset;
+	}
+
+	/**
+	 * @return number of tag bytes
+	 */
+	public int getTagLength() {
+		return _tagLength;
+	}
+
+	/**
+	 * @return offset of the first length byte in {@link #getData()}
+	 */
+	public int getLengthOffset() {
+		return _lengthOffset;
+	}
+
+	/**
+	 * @return number of raw encoded length bytes
+	 */
+	public int getLengthFieldLength() {
+		return _lengthFieldLength;
+	}
+
+	/**
+	 * @return offset of the first value byte in {@link #getData()}
+	 */
+	public int getValueOffset() {
+		return _valueOffset;
+	}
+
+	/**
+	 * @return number of value bytes
+	 */
+	public int getValueLength() {
+		return _valueLength;
+	}
+
+	/**
+	 * @return <code>true</code> if current tag is a constructed tag (bit 6 of
+	 *         the first tag byte set)
+	 */
+	public boolean isConstructed() {
+		return (_data[_tagOffset] & 0x20) != 0;
+	}
+
+	/**
+	 * @return value byte at given index (relative to the value offset)
+	 */
+	public byte getValueByte(int index) {
+		if (index < 0 || index >= _valueLength) {
+			throw new IndexOutOfBoundsException("index: " + index
+					+ ", value length: " + _valueLength);
+		}
+		return _data[_valueOffset + index];
+	}
+
+	/**
+	 * @return a new cursor over the value of the current (constructed) TLV
+	 */
+	public TlvCursor children() {
+		return new TlvCursor(_data, _valueOffset, _valueLength);
+	}
+
+	/**
+	 * Reinitializes the given cursor to iterate over the value of the current
+	 * (constructed) TLV. Allows reusing cursor instances.
+	 *
+	 * @param target
+	 * @return target
+	 */
+	public TlvCursor children(TlvCursor target) {
+		return target.reset(_data, _valueOffset, _valueLength);
+	}
+
+	/**
+	 * Walks all remaining TLV objects of this cursor depth first and passes
+	 * them to the visitor. Nesting is tracked with an explicit stack of
+	 * (reused) child cursors instead of recursion. Whether a TLV is
+	 * constructed is decided by its {@link EmvTag}, like in the rest of the
+	 * app.
+	 *
+	 * @param visitor
+	 * @throws IOException
+	 *             if the visitor throws it
+	 * @throws TlvParsingException
+	 *             if the data is not valid BER-TLV
+	 */
+	public void accept(TlvVisitor visitor) throws IOException,
+			TlvParsingException {
+		TlvCursor[] stack = new TlvCursor[8];
+		stack[0] = this;
+		int depth = 0;
+		while (depth >= 0) {
+			TlvCursor cursor = stack[depth];
+			if (!cursor.next()) {
+				depth--;
+				if (depth >= 0) {
+					visitor.exitConstructed(depth);
+				}
+				continue;
+			}
+			EmvTag tag = cursor.getEmvTag();
+			if (tag.isConstructed()) {
+				visitor.enterConstructed(cursor, tag, depth);
+				if (depth + 1 == stack.length) {
+					stack = Arrays.copyOf(stack, stack.length * 2);
+				}
+				if (stack[depth + 1] == null) {
+					stack[depth + 1] = cursor.children();
+				} else {
+					cursor.children(stack[depth + 1]);
+				}
+				depth++;
+			} else {
+				visitor.visitPrimitive(cursor, tag, depth);
+			}
+		}
+	}
+
+	/**
+	 * @return copy of the tag bytes
+	 */
+	public byte[] copyTagBytes() {
+		return Arrays.copyOfRange(_data, _tagOffset, _tagOffset + _tagLength);
+	}
+
+	/**
+	 * @return copy of the raw encoded length bytes
+	 */
+	public byte[] copyLengthBytes() {
+		return Arrays.copyOfRange(_data, _lengthOffset, _lengthOffset
+				+ _lengthFieldLength);
+	}
+
+	/**
+	 * @return copy of the value bytes
+	 */
+	public byte[] copyValueBytes() {
+		if (_valueOffset < 0) {
+			return new byte[0];
+		}
+		return Arrays.copyOfRange(_data, _valueOffset, _valueOffset
+				+ _valueLength);
+	}
+
+	/**
+	 * @return the {@link EmvTag} of the current TLV (or a placeholder if
+	 *         unknown)
+	 */
+	public EmvTag getEmvTag() {
+		return EMVTags.getNotNull(_tag);
+	}
+
+	/**
+	 * @return the current TLV materialized as {@link BERTLV} object
+	 */
+	public BERTLV toBERTLV() {
+		return new BERTLV(getEmvTag(), _valueLength, copyLengthBytes(),
+				copyValueBytes());
+	}
+
+	/**
+	 * @return the current TLV materialized as {@link TagAndValue} object
+	 */
+	public TagAndValue toTagAndValue() {
+		return new TagAndValue(getEmvTag(), copyValueBytes());
+	}
+
+}
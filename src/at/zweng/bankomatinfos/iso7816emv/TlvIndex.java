@@ -0,0 +1,247 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import java.util.Arrays;
+
+import at.zweng.bankomatinfos.exceptions.TlvParsingException;
+
+/**
+ * Index of all primitive tags found in the BER-TLV responses of a card read.
+ * <br>
+ * <br>
+ * Values are copied into one shared byte array (arena), every entry is just
+ * (tag, value offset, value length) in parallel int arrays. A small open
+ * addressing hash table maps the tag (packed into an int, e.g. 0x9F36) to its
+ * first entry, further entries with the same tag are chained. Identical
+ * (tag, value) pairs are only stored once, so reading the same data from
+ * several responses does not create duplicates.<br>
+ * <br>
+ * Entries are referenced by their index (see {@link #find(int)} and
+ * {@link #findNext(int)}). This class is not thread safe.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class TlvIndex {
+
+	private static final int INITIAL_ENTRIES = 64;
+	private static final int INITIAL_ARENA = 1024;
+
+	private byte[] _arena = new byte[INITIAL_ARENA];
+	private int _arenaSize;
+
+	// entries, in order of first occurrence
+	private int[] _tags = new int[INITIAL_ENTRIES];
+	private int[] _offsets = new int[INITIAL_ENTRIES];
+	private int[] _lengths = new int[INITIAL_ENTRIES];
+	// next entry with same tag, or -1
+	private int[] _nextSameTag = new int[INITIAL_ENTRIES];
+	private int _count;
+
+	// hash table: tag -> first entry (keys are never 0, as '00' is padding)
+	private int[] _slotTags = new int[INITIAL_ENTRIES * 2];
+	private int[] _slotEntries = new int[INITIAL_ENTRIES * 2];
+
+	private final TlvCursor _cursor = new TlvCursor(new byte[0]);
+
+	/**
+	 * Adds all primitive tags (also the ones nested in constructed tags) of
+	 * BER-TLV encoded data. Nothing is added if the data is not valid.
+	 *
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @throws TlvParsingException
+	 *             if data is not valid BER-TLV
+	 */
+	public void add(byte[] data, int offset, int length)
+			throws TlvParsingException {
+		// validate first, so that invalid data leaves the index unchanged
+		walk(_cursor.reset(data, offset, length), false);
+		walk(_cursor.reset(data, offset, length), true);
+	}
+
+	private void walk(TlvCursor cursor, boolean insert)
+			throws TlvParsingException {
+		while (cursor.next()) {
+			if (cursor.isConstructed()) {
+				walk(cursor.children(), insert);
+			} else if (insert) {
+				insert(cursor.getTag(), cursor.getData(),
+						cursor.getValueOffset(), cursor.getValueLength());
+			}
+		}
+	}
+
+	private void insert(int tag, byte[] data, int offset, int length) {
+		int slot = slotOf(tag);
+		int last = -1;
+		if (_slotTags[slot] == tag) {
+			for (int e = _slotEntries[slot]; e >= 0; e = _nextSameTag[e]) {
+				if (valueEquals(e, data, offset, length)) {
+					return;
+				}
+				last = e;
+			}
+		}
+		if (_count == _tags.length) {
+			int n = _count * 2;
+			_tags = Arrays.copyOf(_tags, n);
+			_offsets = Arrays.copyOf(_offsets, n);
+			_lengths = Arrays.copyOf(_lengths, n);
+			_nextSameTag = Arrays.copyOf(_nextSameTag, n);
+		}
+		if (_arenaSize + length > _arena.length) {
+			_arena = Arrays.copyOf(_arena,
+					Math.max(_arena.length * 2, _arenaSize + length));
+		}
+		System.arraycopy(data, offset, _arena, _arenaSize, length);
+		int entry = _count++;
+		_tags[entry] = tag;
+		_offsets[entry] = _arenaSize;
+		_lengths[entry] = length;
+		_nextSameTag[entry] = -1;
+		_arenaSize += length;
+		if (last >= 0) {
+			_nextSameTag[last] = entry;
+		} else {
+			_slotTags[slot] = tag;
+			_slotEntries[slot] = entry;
+			if (_count * 2 > _slotTags.length) {
+				rehash();
+			}
+		}
+	}
+
+	private boolean valueEquals(int entry, byte[] data, int offset, int length) {
+		if (_lengths[entry] != length) {
+			return false;
+		}
+		int o = _offsets[entry];
+		for (int i = 0; i < length; i++) {
+			if (_arena[o + i] != data[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return slot of the tag, or the free slot where it would be inserted
+	 */
+	private int slotOf(int tag) {
+		int mask = _slotTags.length - 1;
+		int i = (tag * 0x9E3779B9 >>> 16) & mask;
+		while (_slotTags[i] != 0 && _slotTags[i] != tag) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void rehash() {
+		int[] oldTags = _slotTags;
+		int[] oldEntries = _slotEntries;
+		_slotTags = new int[oldTags.length * 2];
+		_slotEntries = new int[oldTags.length * 2];
+		for (int i = 0; i < oldTags.length; i++) {
+			if (oldTags[i] != 0) {
+				int slot = slotOf(oldTags[i]);
+				_slotTags[slot] = oldTags[i];
+				_slotEntries[slot] = oldEntries[i];
+			}
+		}
+	}
+
+	/**
+	 * Removes all entries
+	 */
+	public void clear() {
+		_count = 0;
+		_arenaSize = 0;
+		Arrays.fill(_slotTags, 0);
+	}
+
+	/**
+	 * @return number of (distinct) entries
+	 */
+	public int size() {
+		return _count;
+	}
+
+	/**
+	 * @param tag
+	 *            tag bytes packed into an int (e.g. 0x9F36)
+	 * @return index of first entry with this tag, or -1
+	 */
+	public int find(int tag) {
+		int slot = slotOf(tag);
+		return _slotTags[slot] == tag ? _slotEntries[slot] : -1;
+	}
+
+	/**
+	 * @param entry
+	 * @return index of the next entry with the same tag (but another value),
+	 *         or -1
+	 */
+	public int findNext(int entry) {
+		return _nextSameTag[entry];
+	}
+
+	/**
+	 * @param tag
+	 *            tag bytes packed into an int (e.g. 0x9F36)
+	 * @return <code>true</code> if tag was found
+	 */
+	public boolean contains(int tag) {
+		return find(tag) >= 0;
+	}
+
+	/**
+	 * @param tag
+	 *            tag bytes packed into an int (e.g. 0x9F36)
+	 * @return copy of the first value of this tag, or <code>null</code>
+	 */
+	public byte[] getValue(int tag) {
+		int entry = find(tag);
+		return entry < 0 ? null : copyValue(entry);
+	}
+
+	/**
+	 * @param entry
+	 * @return tag of the entry
+	 */
+	public int getTag(int entry) {
+		return _tags[entry];
+	}
+
+	/**
+	 * @param entry
+	 * @return offset of the entry's value in {@link #getArena()}
+	 */
+	public int getValueOffset(int entry) {
+		return _offsets[entry];
+	}
+
+	/**
+	 * @param entry
+	 * @return length of the entry's value
+	 */
+	public int getValueLength(int entry) {
+		return _lengths[entry];
+	}
+
+	/**
+	 * @return the array holding all values (only valid until the next
+	 *         {@link #add(byte[], int, int)})
+	 */
+	public byte[] getArena() {
+		return _arena;
+	}
+
+	/**
+	 * @param entry
+	 * @return copy of the entry's value
+	 */
+	public byte[] copyValue(int entry) {
+		return Arrays.copyOfRange(_arena, _offsets[entry], _offsets[entry]
+				+ _lengths[entry]);
+	}
+}
@@ -0,0 +1,52 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import java.io.IOException;
+
+import at.zweng.bankomatinfos.exceptions.TlvParsingException;
+
+/**
+ * Callback interface for walking a BER-TLV structure with
+ * {@link TlvCursor#accept(TlvVisitor)}. The cursor passed to the callbacks is
+ * positioned on the current TLV and must not be moved by the visitor.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public interface TlvVisitor {
+
+	/**
+	 * Called for a constructed TLV, before its children are visited
+	 *
+	 * @param cursor
+	 *            positioned on the constructed TLV
+	 * @param tag
+	 * @param depth
+	 *            nesting depth (0 for top level TLVs)
+	 * @throws IOException
+	 * @throws TlvParsingException
+	 */
+	void enterConstructed(TlvCursor cursor, EmvTag tag, int depth)
+			throws IOException, TlvParsingException;
+
+	/**
+	 * Called after all children of a constructed TLV were visited
+	 *
+	 * @param depth
+	 *            nesting depth of the constructed TLV
+	 * @throws IOException
+	 */
+	void exitConstructed(int depth) throws IOException;
+
+	/**
+	 * Called for a primitive TLV
+	 *
+	 * @param cursor
+	 *            positioned on the primitive TLV
+	 * @param tag
+	 * @param depth
+	 *            nesting depth (0 for top level TLVs)
+	 * @throws IOException
+	 * @throws TlvParsingException
+	 */
+	void visitPrimitive(TlvCursor cursor, EmvTag tag, int depth)
+			throws IOException, TlvParsingException;
+}
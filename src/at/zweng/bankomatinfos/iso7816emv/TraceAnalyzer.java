@@ -0,0 +1,386 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import at.zweng.bankomatinfos.exceptions.NoSmartCardException;
+import at.zweng.bankomatinfos.model.CardInfo;
+import at.zweng.bankomatinfos.util.DebugLog;
+import at.zweng.bankomatinfos.util.StreamDebugLog;
+import at.zweng.bankomatinfos.util.StringsXmlTextProvider;
+import at.zweng.bankomatinfos.util.TextProvider;
+
+/**
+ * Batch analysis of recorded card sessions: every session is replayed through
+ * the same code as a real read ({@link NfcBankomatCardReader} on a
+ * {@link SimulatedCardTransport}), which gives one {@link CardInfo} per
+ * session.<br>
+ * <br>
+ * Sessions are independent, so they are spread over a fixed pool of worker
+ * threads (one per CPU core by default). Each worker takes the next session
+ * not yet analyzed, so slow sessions do not hold up the others. Each read
+ * gets its own {@link ApduTrace} and decodes its responses on the worker
+ * thread itself, nothing is written to the app wide log in
+ * {@link at.zweng.bankomatinfos.AppController}. The workers share no locks:
+ * every read has its own reader and trace, compiled log formats (see
+ * {@link LogFormat}) and unknown tag placeholders (see {@link EMVTags}) are
+ * immutable and cached in lock-free structures. (A fork/join pool would not
+ * split the work any better here and needs API level 21.)<br>
+ * <br>
+ * The texts of the results come from a {@link TextProvider} and the debug
+ * output of the readers goes to a {@link DebugLog} (on a plain JVM by default
+ * warnings to stderr), so the analyzer runs on a plain JVM without any Android
+ * classes on the class path, see {@link #main(String[])}.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class TraceAnalyzer {
+
+	/**
+	 * Receives the results, called on the worker threads (so it has to be
+	 * thread safe)
+	 */
+	public interface ResultHandler {
+
+		/**
+		 * @param index
+		 *            index of the session in the analyzed list
+		 * @param result
+		 */
+		void onResult(int index, Result result);
+	}
+
+	/**
+	 * Outcome of one session
+	 */
+	public static class Result {
+		private final RecordedSession _session;
+		private final CardInfo _cardInfo;
+		private final ApduTrace _log;
+		private final Exception _error;
+
+		Result(RecordedSession session, CardInfo cardInfo, ApduTrace log,
+				Exception error) {
+			this._session = session;
+			this._cardInfo = cardInfo;
+			this._log = log;
+			this._error = error;
+		}
+
+		/**
+		 * @return the analyzed session
+		 */
+		public RecordedSession getSession() {
+			return _session;
+		}
+
+		/**
+		 * @return data read from the session, or <code>null</code> if the
+		 *         replay failed
+		 */
+		public CardInfo getCardInfo() {
+			return _cardInfo;
+		}
+
+		/**
+		 * @return trace of the replayed read, or <code>null</code> if traces
+		 *         are not kept (see {@link TraceAnalyzer#setKeepLogs(boolean)})
+		 */
+		public ApduTrace getLog() {
+			return _log;
+		}
+
+		/**
+		 * @return why the replay failed, or <code>null</code>
+		 */
+		public Exception getError() {
+			return _error;
+		}
+
+		@Override
+		public String toString() {
+			if (_error != null) {
+				return _session.getId() + ": failed, " + _error;
+			}
+			return _session.getId() + ": maestro=" + _cardInfo.isMaestroCard()
+					+ ", quick=" + _cardInfo.isQuickCard() + ", visa="
+					+ _cardInfo.isVisaCard() + ", mastercard="
+					+ _cardInfo.isMasterCard() + ", "
+					+ _cardInfo.getTransactionLog().size() + " transactions";
+		}
+	}
+
+	// trace capacity if traces are not kept (just a small ring buffer)
+	private static final int DISCARDED_LOG_CAPACITY = 16;
+
+	private final TextProvider _texts;
+	private final int _threads;
+	private boolean _fullFileScan = true;
+	private boolean _useAfl;
+	private boolean _keepLogs;
+	private int _logCapacity = ApduTrace.DEFAULT_CAPACITY;
+	private DebugLog _debugLog = DebugLog.getDefault();
+
+	/**
+	 * Constructor, uses one worker thread per CPU core
+	 *
+	 * @param texts
+	 *            for the texts of the results (must be thread safe)
+	 */
+	public TraceAnalyzer(TextProvider texts) {
+		this(texts, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param texts
+	 *            for the texts of the results (must be thread safe)
+	 * @param threads
+	 *            number of worker threads
+	 */
+	public TraceAnalyzer(TextProvider texts, int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads must be > 0");
+		}
+		this._texts = texts;
+		this._threads = threads;
+	}
+
+	/**
+	 * Replays recorded sessions (files written by {@link SessionRecorder}) on
+	 * a plain JVM and prints one line per session.<br>
+	 * <br>
+	 * Usage:
+	 * <code>TraceAnalyzer [-threads n] [-afl] [-debug] strings.xml recording|directory...</code>
+	 * <br>
+	 * <code>strings.xml</code> is the resource file with the texts (e.g.
+	 * <code>res/values/strings.xml</code>), directories are searched for
+	 * files ending with {@link SessionRecording#FILE_SUFFIX}. With
+	 * <code>-debug</code> the debug output of the readers is written to
+	 * stderr.
+	 *
+	 * @param args
+	 * @throws IOException
+	 *             if a file cannot be read
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean useAfl = false;
+		boolean debug = false;
+		int i = 0;
+		for (; i < args.length && args[i].startsWith("-"); i++) {
+			if ("-threads".equals(args[i]) && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if ("-afl".equals(args[i])) {
+				useAfl = true;
+			} else if ("-debug".equals(args[i])) {
+				debug = true;
+			} else {
+				break;
+			}
+		}
+		if (args.length - i < 2) {
+			System.err.println("usage: TraceAnalyzer [-threads n] [-afl] "
+					+ "[-debug] strings.xml recording|directory...");
+			System.exit(2);
+		}
+		TextProvider texts = new StringsXmlTextProvider(new File(args[i++]));
+		List<RecordedSession> sessions = new ArrayList<RecordedSession>();
+		for (; i < args.length; i++) {
+			addRecordings(new File(args[i]), sessions);
+		}
+		TraceAnalyzer analyzer = new TraceAnalyzer(texts, threads);
+		analyzer.setReadOptions(true, useAfl);
+		if (debug) {
+			analyzer.setDebugLog(new StreamDebugLog(System.err, true));
+		}
+		int failed = 0;
+		for (Result result : analyzer.analyze(sessions)) {
+			System.out.println(result);
+			if (result.getError() != null) {
+				failed++;
+			}
+		}
+		System.out.println(sessions.size() + " sessions, " + failed
+				+ " failed");
+	}
+
+	/**
+	 * Adds a recording file, or all recordings in a directory
+	 */
+	private static void addRecordings(File file, List<RecordedSession> sessions)
+			throws IOException {
+		if (file.isDirectory()) {
+			File[] files = file.listFiles();
+			if (files == null) {
+				return;
+			}
+			Arrays.sort(files);
+			for (File f : files) {
+				if (f.getName().endsWith(SessionRecording.FILE_SUFFIX)) {
+					addRecordings(f, sessions);
+				}
+			}
+			return;
+		}
+		sessions.add(SessionRecording.map(file).toSession(file.getName()));
+	}
+
+	/**
+	 * @param fullFileScan
+	 *            read options used for the replay (default: full file scan,
+	 *            as probing is cheap without a card)
+	 * @param useAfl
+	 */
+	public void setReadOptions(boolean fullFileScan, boolean useAfl) {
+		this._fullFileScan = fullFileScan;
+		this._useAfl = useAfl;
+	}
+
+	/**
+	 * @param keepLogs
+	 *            <code>true</code> to keep the trace of every replayed read in
+	 *            the result (default: <code>false</code>, saves memory on
+	 *            large batches)
+	 * @param capacity
+	 *            number of trace records kept per read
+	 */
+	public void setKeepLogs(boolean keepLogs, int capacity) {
+		this._keepLogs = keepLogs;
+		this._logCapacity = capacity;
+	}
+
+	/**
+	 * @param keepLogs
+	 *            see {@link #setKeepLogs(boolean, int)}
+	 */
+	public void setKeepLogs(boolean keepLogs) {
+		setKeepLogs(keepLogs, _logCapacity);
+	}
+
+	/**
+	 * @param debugLog
+	 *            receives the debug output of all readers (must be thread
+	 *            safe, default: {@link DebugLog#getDefault()})
+	 */
+	public void setDebugLog(DebugLog debugLog) {
+		this._debugLog = debugLog;
+	}
+
+	/**
+	 * Analyzes all sessions and waits until all are done
+	 *
+	 * @param sessions
+	 * @return one result per session (same order as the sessions)
+	 * @throws InterruptedException
+	 */
+	public List<Result> analyze(List<RecordedSession> sessions)
+			throws InterruptedException {
+		final Result[] results = new Result[sessions.size()];
+		analyze(sessions, new ResultHandler() {
+			@Override
+			public void onResult(int index, Result result) {
+				// every index is written by exactly one worker, waiting for
+				// the workers makes the writes visible to the caller
+				results[index] = result;
+			}
+		});
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Analyzes all sessions and waits until all are done. The results are
+	 * passed to the handler as soon as they are available (in no particular
+	 * order), so they don't have to be kept in memory.
+	 *
+	 * @param sessions
+	 * @param handler
+	 * @throws InterruptedException
+	 *             if interrupted while waiting (the workers are stopped)
+	 */
+	public void analyze(final List<RecordedSession> sessions,
+			final ResultHandler handler) throws InterruptedException {
+		final AtomicInteger next = new AtomicInteger();
+		int workers = Math.min(_threads, Math.max(1, sessions.size()));
+		ExecutorService pool = Executors.newFixedThreadPool(workers,
+				new ThreadFactory() {
+					private final AtomicInteger _count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "trace-analyzer-"
+								+ _count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int w = 0; w < workers; w++) {
+				futures.add(pool.submit(new Runnable() {
+					@Override
+					public void run() {
+						for (int i = next.getAndIncrement(); i < sessions
+								.size(); i = next.getAndIncrement()) {
+							if (Thread.currentThread().isInterrupted()) {
+								return;
+							}
+							handler.onResult(i, analyze(sessions.get(i)));
+						}
+					}
+				}));
+			}
+			for (Future<?> f : futures) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					// only the handler can throw here
+					throw new IllegalStateException(
+							"result handler failed", e.getCause());
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Replays a single session (on the calling thread)
+	 *
+	 * @param session
+	 * @return the result
+	 */
+	public Result analyze(RecordedSession session) {
+		ApduTrace log = new ApduTrace(_keepLogs ? _logCapacity
+				: DISCARDED_LOG_CAPACITY);
+		NfcBankomatCardReader reader = new NfcBankomatCardReader(
+				session.toTransport(), _texts, log);
+		reader.setDecodeInBackground(false);
+		reader.setDebugLog(_debugLog);
+		try {
+			reader.connect();
+			CardInfo cardInfo = reader.readAllCardData(_fullFileScan, _useAfl);
+			reader.disconnect();
+			return new Result(session, cardInfo, _keepLogs ? log : null, null);
+		} catch (IOException e) {
+			return new Result(session, null, _keepLogs ? log : null, e);
+		} catch (NoSmartCardException e) {
+			return new Result(session, null, _keepLogs ? log : null, e);
+		} catch (RuntimeException e) {
+			// a broken recording must not stop the whole batch
+			return new Result(session, null, _keepLogs ? log : null, e);
+		}
+	}
+}
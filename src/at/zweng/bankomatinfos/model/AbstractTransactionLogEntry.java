@@ -2,6 +2,8 @@ package at.zweng.bankomatinfos.model;
 
 import java.util.Date;
 
+import at.zweng.bankomatinfos.iso7816emv.Iso4217CurrencyCodes;
+
 /**
  * base class for transaction log entries
  * 
@@ -13,6 +15,7 @@ public abstract class AbstractTransactionLogEntry {
 	protected long _amount;
 	protected int _atc;
 	protected String _currency;
+	protected int _minorUnits = Iso4217CurrencyCodes.DEFAULT_MINOR_UNITS;
 	private byte[] _rawEntry;
 	protected boolean _hasTime;
 
@@ -64,6 +67,22 @@ public abstract class AbstractTransactionLogEntry {
 		this._currency = currency;
 	}
 
+	/**
+	 * @return number of decimal places of the amount
+	 */
+	public int getMinorUnits() {
+		return _minorUnits;
+	}
+
+	/**
+	 * @param minorUnits
+	 *            number of decimal places of the amount (see
+	 *            {@link Iso4217CurrencyCodes#getMinorUnits(int)})
+	 */
+	public void setMinorUnits(int minorUnits) {
+		this._minorUnits = minorUnits;
+	}
+
 	/**
 	 * @return the _atc (application transaction counter)
 	 */
@@ -3,11 +3,18 @@ package at.zweng.bankomatinfos.model;
 import static at.zweng.bankomatinfos.util.Utils.bytesToHex;
 import static at.zweng.bankomatinfos.util.Utils.formatBalance;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 
 import android.content.Context;
+import at.zweng.bankomatinfos.util.ContextTextProvider;
+import at.zweng.bankomatinfos.util.TextProvider;
+import at.zweng.bankomatinfos.iso7816emv.ReadMetrics;
 import at.zweng.bankomatinfos2.R;
 
 /**
@@ -26,23 +33,38 @@ public class CardInfo {
 	private long _quickBalance;
 	private int _pinRetryCounter;
 	private String _quickCurrency;
-	private Context _ctx;
+	private TextProvider _texts;
+	private ReadMetrics _readMetrics;
+	private String _cardUniqueIdentifier;
+	private String _cardKey;
+	// true if this is only a snapshot taken during the read
+	private boolean _partial;
 
 	private List<QuickTransactionLogEntry> _quickLog;
-	private List<EmvTransactionLogEntry> _transactionLog;
+	private TransactionLogTable _transactionLog;
 	private List<InfoKeyValuePair> _infoKeyValuePairs;
 
 	/**
 	 * Constructor
 	 */
 	public CardInfo(Context ctx) {
+		this(new ContextTextProvider(ctx));
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param texts
+	 *            for the labels of the info key value pairs
+	 */
+	public CardInfo(TextProvider texts) {
 		// create empty list
-		this._transactionLog = new ArrayList<EmvTransactionLogEntry>();
+		this._transactionLog = new TransactionLogTable();
 		this._quickLog = new ArrayList<QuickTransactionLogEntry>();
 		this._infoKeyValuePairs = new ArrayList<InfoKeyValuePair>();
 		this._pinRetryCounter = -1;
 		this._quickCurrency = "<unknown, or parsing error>";
-		this._ctx = ctx;
+		this._texts = texts;
 	}
 
 	/**
@@ -58,7 +80,7 @@ public class CardInfo {
 	 */
 	public void setNfcTagId(byte[] nfcTagId) {
 		this._nfcTagId = nfcTagId;
-		this.addKeyValuePair(new InfoKeyValuePair(_ctx.getResources()
+		this.addKeyValuePair(new InfoKeyValuePair(_texts
 				.getString(R.string.lbl_nfc_tag_id), "0x"
 				+ bytesToHex(nfcTagId)));
 	}
@@ -81,7 +103,7 @@ public class CardInfo {
 	/**
 	 * @return the _transactionLog
 	 */
-	public List<EmvTransactionLogEntry> getTransactionLog() {
+	public TransactionLogTable getTransactionLog() {
 		return _transactionLog;
 	}
 
@@ -89,7 +111,7 @@ public class CardInfo {
 	 * @param _transactionLog
 	 *            the _transactionLog to set
 	 */
-	public void setTransactionLog(List<EmvTransactionLogEntry> transactionLog) {
+	public void setTransactionLog(TransactionLogTable transactionLog) {
 		this._transactionLog = transactionLog;
 	}
 
@@ -139,10 +161,10 @@ public class CardInfo {
 	public void setQuickCard(boolean quickCard) {
 		this._quickCard = quickCard;
 		if (quickCard) {
-			this.addKeyValuePair(new InfoKeyValuePair(_ctx.getResources()
-					.getString(R.string.lbl_is_quick_card), quickCard ? _ctx
-					.getResources().getString(R.string.yes) : _ctx
-					.getResources().getString(R.string.no)));
+			this.addKeyValuePair(new InfoKeyValuePair(_texts
+					.getString(R.string.lbl_is_quick_card),
+					quickCard ? _texts.getString(R.string.yes) : _texts
+							.getString(R.string.no)));
 		}
 	}
 
@@ -194,10 +216,10 @@ public class CardInfo {
 	 */
 	public void setContainsTxLogs(boolean containsTxLogs) {
 		this._containsTxLogs = containsTxLogs;
-		this.addKeyValuePair(new InfoKeyValuePair(_ctx.getResources()
+		this.addKeyValuePair(new InfoKeyValuePair(_texts
 				.getString(R.string.lbl_contains_emv_log_entry_tag),
-				containsTxLogs ? _ctx.getResources().getString(R.string.yes)
-						: _ctx.getResources().getString(R.string.no)));
+				containsTxLogs ? _texts.getString(R.string.yes)
+						: _texts.getString(R.string.no)));
 	}
 
 	/**
@@ -207,10 +229,10 @@ public class CardInfo {
 	public void setMaestroCard(boolean maestroCard) {
 		this._maestroCard = maestroCard;
 		if (maestroCard) {
-			this.addKeyValuePair(new InfoKeyValuePair(_ctx.getResources()
+			this.addKeyValuePair(new InfoKeyValuePair(_texts
 					.getString(R.string.lbl_is_maestro_card),
-					maestroCard ? _ctx.getResources().getString(R.string.yes)
-							: _ctx.getResources().getString(R.string.no)));
+					maestroCard ? _texts.getString(R.string.yes)
+							: _texts.getString(R.string.no)));
 		}
 	}
 
@@ -222,10 +244,10 @@ public class CardInfo {
 		this._visaCard = visaCard;
 		// do not show this label, if it is no VISA card
 		if (visaCard) {
-			this.addKeyValuePair(new InfoKeyValuePair(_ctx.getResources()
-					.getString(R.string.lbl_is_visa_card), visaCard ? _ctx
-					.getResources().getString(R.string.yes) : _ctx
-					.getResources().getString(R.string.no)));
+			this.addKeyValuePair(new InfoKeyValuePair(_texts
+					.getString(R.string.lbl_is_visa_card),
+					visaCard ? _texts.getString(R.string.yes) : _texts
+							.getString(R.string.no)));
 		}
 	}
 
@@ -237,10 +259,10 @@ public class CardInfo {
 		this._masterCard = masterCarrd;
 		// do not show this label, if it is no Mastercard
 		if (masterCarrd) {
-			this.addKeyValuePair(new InfoKeyValuePair(_ctx.getResources()
-					.getString(R.string.lbl_is_mastercard), masterCarrd ? _ctx
-					.getResources().getString(R.string.yes) : _ctx
-					.getResources().getString(R.string.no)));
+			this.addKeyValuePair(new InfoKeyValuePair(_texts
+					.getString(R.string.lbl_is_mastercard),
+					masterCarrd ? _texts.getString(R.string.yes) : _texts
+							.getString(R.string.no)));
 		}
 	}
 
@@ -257,7 +279,7 @@ public class CardInfo {
 	 */
 	public void setQuickBalance(long quickBalance) {
 		this._quickBalance = quickBalance;
-		this.addKeyValuePair(new InfoKeyValuePair(_ctx.getResources()
+		this.addKeyValuePair(new InfoKeyValuePair(_texts
 				.getString(R.string.lbl_quick_balance),
 				formatBalance(quickBalance)));
 	}
@@ -275,7 +297,7 @@ public class CardInfo {
 	 */
 	public void setQuickCurrency(String quickCurrency) {
 		this._quickCurrency = quickCurrency;
-		this.addKeyValuePair(new InfoKeyValuePair(_ctx.getResources()
+		this.addKeyValuePair(new InfoKeyValuePair(_texts
 				.getString(R.string.lbl_quick_currency), quickCurrency));
 	}
 
@@ -292,11 +314,291 @@ public class CardInfo {
 	 */
 	public void setPinRetryCounter(int pinRetryCounter) {
 		this._pinRetryCounter = pinRetryCounter;
-		this.addKeyValuePair(new InfoKeyValuePair(_ctx.getResources()
+		this.addKeyValuePair(new InfoKeyValuePair(_texts
 				.getString(R.string.lbl_remaining_pin_retries), Integer
 				.toString(pinRetryCounter)));
 	}
 
+	/**
+	 * @return CPLC card unique identifier (CUID) or <code>null</code>
+	 */
+	public String getCardUniqueIdentifier() {
+		return _cardUniqueIdentifier;
+	}
+
+	/**
+	 * @param cardUniqueIdentifier
+	 *            CPLC card unique identifier (CUID)
+	 */
+	public void setCardUniqueIdentifier(String cardUniqueIdentifier) {
+		this._cardUniqueIdentifier = cardUniqueIdentifier;
+	}
+
+	/**
+	 * @return key identifying the card (see
+	 *         {@link CardProfile#keyForCardUniqueIdentifier(String)} and
+	 *         {@link CardProfile#keyForPan(String)}), or <code>null</code>
+	 */
+	public String getCardKey() {
+		return _cardKey;
+	}
+
+	/**
+	 * @param cardKey
+	 *            key identifying the card
+	 */
+	public void setCardKey(String cardKey) {
+		this._cardKey = cardKey;
+	}
+
+	/**
+	 * @return timing metrics of the read (or <code>null</code>)
+	 */
+	public ReadMetrics getReadMetrics() {
+		return _readMetrics;
+	}
+
+	/**
+	 * @param readMetrics
+	 *            timing metrics of the read
+	 */
+	public void setReadMetrics(ReadMetrics readMetrics) {
+		this._readMetrics = readMetrics;
+	}
+
+	/**
+	 * Copies the current state (used for publishing partial results while
+	 * the card is still being read). The lists and the transaction log table
+	 * are copied, list entries are shared as they are not changed after they
+	 * were added.
+	 * 
+	 * @return a snapshot marked as partial
+	 */
+	public CardInfo snapshot() {
+		CardInfo copy = new CardInfo(_texts);
+		copy._nfcTagId = _nfcTagId;
+		copy._quickCard = _quickCard;
+		copy._maestroCard = _maestroCard;
+		copy._containsTxLogs = _containsTxLogs;
+		copy._visaCard = _visaCard;
+		copy._masterCard = _masterCard;
+		copy._quickBalance = _quickBalance;
+		copy._pinRetryCounter = _pinRetryCounter;
+		copy._quickCurrency = _quickCurrency;
+		copy._cardUniqueIdentifier = _cardUniqueIdentifier;
+		copy._cardKey = _cardKey;
+		copy._quickLog.addAll(_quickLog);
+		copy._transactionLog.addAll(_transactionLog);
+		copy._infoKeyValuePairs.addAll(_infoKeyValuePairs);
+		copy._partial = true;
+		return copy;
+	}
+
+	/**
+	 * Copies the data which does not identify the card (used for storing
+	 * reads). Left out are the NFC tag ID, the CUID, the card key and the
+	 * key-value pairs (they contain the card number, the cardholder name and
+	 * the CPLC data).
+	 *
+	 * @return copy without identifiers (transaction logs are shared)
+	 */
+	public CardInfo withoutCardIdentifiers() {
+		CardInfo copy = new CardInfo(_texts);
+		copy._quickCard = _quickCard;
+		copy._maestroCard = _maestroCard;
+		copy._containsTxLogs = _containsTxLogs;
+		copy._visaCard = _visaCard;
+		copy._masterCard = _masterCard;
+		copy._quickBalance = _quickBalance;
+		copy._pinRetryCounter = _pinRetryCounter;
+		copy._quickCurrency = _quickCurrency;
+		copy._quickLog = _quickLog;
+		copy._transactionLog = _transactionLog;
+		copy._partial = _partial;
+		return copy;
+	}
+
+	/**
+	 * @return <code>true</code> if the read did not complete and this only
+	 *         contains the data read until then
+	 */
+	public boolean isPartial() {
+		return _partial;
+	}
+
+	/**
+	 * @param partial
+	 *            <code>true</code> if this only contains part of the card data
+	 */
+	public void setPartial(boolean partial) {
+		this._partial = partial;
+	}
+
+	/**
+	 * Writes the data read from the card (everything except the read
+	 * metrics, their texts are part of the key-value pairs), see
+	 * {@link #readFrom(Context, DataInput)}
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		writeBytes(out, _nfcTagId);
+		out.writeBoolean(_quickCard);
+		out.writeBoolean(_maestroCard);
+		out.writeBoolean(_containsTxLogs);
+		out.writeBoolean(_visaCard);
+		out.writeBoolean(_masterCard);
+		out.writeBoolean(_partial);
+		out.writeLong(_quickBalance);
+		out.writeInt(_pinRetryCounter);
+		writeString(out, _quickCurrency);
+		writeString(out, _cardUniqueIdentifier);
+		writeString(out, _cardKey);
+		out.writeInt(_infoKeyValuePairs.size());
+		for (InfoKeyValuePair pair : _infoKeyValuePairs) {
+			out.writeBoolean(pair.isSectionHeader());
+			writeString(out, pair.getName());
+			writeString(out, pair.getValue());
+		}
+		out.writeInt(_quickLog.size());
+		for (QuickTransactionLogEntry entry : _quickLog) {
+			Date timestamp = entry.getTransactionTimestamp();
+			out.writeBoolean(timestamp != null);
+			out.writeLong(timestamp != null ? timestamp.getTime() : 0);
+			out.writeBoolean(entry.hasTime());
+			out.writeLong(entry.getAmount());
+			out.writeLong(entry.getAmount2());
+			out.writeLong(entry.getRemainingBalance());
+			out.writeInt(entry.getAtc());
+			writeString(out, entry.getCurrency());
+			out.writeLong(entry.getTerminalInfos1());
+			out.writeLong(entry.getTerminalInfos2());
+			writeNullableByte(out, entry.getUnknownByte1());
+			writeNullableByte(out, entry.getUnknownByte2());
+			writeBytes(out, entry.getRawEntry());
+		}
+		_transactionLog.writeTo(out);
+	}
+
+	/**
+	 * Restores data written by {@link #writeTo(DataOutput)}
+	 * 
+	 * @param ctx
+	 * @param in
+	 * @return the card info
+	 * @throws IOException
+	 */
+	public static CardInfo readFrom(Context ctx, DataInput in)
+			throws IOException {
+		return readFrom(new ContextTextProvider(ctx), in);
+	}
+
+	/**
+	 * Restores data written by {@link #writeTo(DataOutput)}
+	 * 
+	 * @param texts
+	 * @param in
+	 * @return the card info
+	 * @throws IOException
+	 */
+	public static CardInfo readFrom(TextProvider texts, DataInput in)
+			throws IOException {
+		CardInfo info = new CardInfo(texts);
+		info._nfcTagId = readBytes(in);
+		info._quickCard = in.readBoolean();
+		info._maestroCard = in.readBoolean();
+		info._containsTxLogs = in.readBoolean();
+		info._visaCard = in.readBoolean();
+		info._masterCard = in.readBoolean();
+		info._partial = in.readBoolean();
+		info._quickBalance = in.readLong();
+		info._pinRetryCounter = in.readInt();
+		info._quickCurrency = readString(in);
+		info._cardUniqueIdentifier = readString(in);
+		info._cardKey = readString(in);
+		int pairs = readCount(in);
+		for (int i = 0; i < pairs; i++) {
+			boolean header = in.readBoolean();
+			String name = readString(in);
+			String value = readString(in);
+			info._infoKeyValuePairs.add(header ? new InfoKeyValuePair(name)
+					: new InfoKeyValuePair(name, value));
+		}
+		int entries = readCount(in);
+		for (int i = 0; i < entries; i++) {
+			QuickTransactionLogEntry entry = new QuickTransactionLogEntry();
+			boolean hasTimestamp = in.readBoolean();
+			long timestamp = in.readLong();
+			boolean hasTime = in.readBoolean();
+			entry.setTransactionTimestamp(hasTimestamp ? new Date(timestamp)
+					: null, hasTime);
+			entry.setAmount(in.readLong());
+			entry.setAmount2(in.readLong());
+			entry.setRemainingBalance(in.readLong());
+			entry.setAtc(in.readInt());
+			entry.setCurrency(readString(in));
+			entry.setTerminalInfos1(in.readLong());
+			entry.setTerminalInfos2(in.readLong());
+			entry.setUnknownByte1(readNullableByte(in));
+			entry.setUnknownByte2(readNullableByte(in));
+			entry.setRawEntry(readBytes(in));
+			info._quickLog.add(entry);
+		}
+		info._transactionLog.readFrom(in);
+		return info;
+	}
+
+	private static void writeBytes(DataOutput out, byte[] data)
+			throws IOException {
+		out.writeInt(data == null ? -1 : data.length);
+		if (data != null) {
+			out.write(data);
+		}
+	}
+
+	private static byte[] readBytes(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < -1) {
+			throw new IOException("invalid length " + length);
+		}
+		if (length == -1) {
+			return null;
+		}
+		byte[] data = new byte[length];
+		in.readFully(data);
+		return data;
+	}
+
+	private static void writeString(DataOutput out, String s)
+			throws IOException {
+		// not writeUTF(), values (e.g. hex dumps) may be longer than 64k
+		writeBytes(out, s == null ? null : s.getBytes("UTF-8"));
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		byte[] data = readBytes(in);
+		return data == null ? null : new String(data, "UTF-8");
+	}
+
+	private static void writeNullableByte(DataOutput out, Byte b)
+			throws IOException {
+		out.writeShort(b == null ? -1 : b.byteValue() & 0xFF);
+	}
+
+	private static Byte readNullableByte(DataInput in) throws IOException {
+		short value = in.readShort();
+		return value < 0 ? null : Byte.valueOf((byte) value);
+	}
+
+	private static int readCount(DataInput in) throws IOException {
+		int count = in.readInt();
+		if (count < 0) {
+			throw new IOException("invalid count " + count);
+		}
+		return count;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -309,7 +611,7 @@ public class CardInfo {
 				+ _maestroCard + ", _visaCard=" + _visaCard
 				+ ", _quickBalance=" + _quickBalance + ", _pinRetryCounter="
 				+ _pinRetryCounter + ", _quickCurrency=" + _quickCurrency
-				+ ", _ctx=" + _ctx + ", _transactionLog=" + _transactionLog
+				+ ", _transactionLog=" + _transactionLog
 				+ ", _infoKeyValuePairs=" + _infoKeyValuePairs + "]";
 	}
 
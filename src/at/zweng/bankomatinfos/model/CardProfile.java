@@ -0,0 +1,395 @@
+package at.zweng.bankomatinfos.model;
+
+import static at.zweng.bankomatinfos.util.Utils.bytesToHex;
+import static at.zweng.bankomatinfos.util.Utils.sha256Hex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers what was found on a card during a read: which applications (AIDs)
+ * exist, which GET DATA commands succeeded and which records (SFI/record
+ * number) are not empty. On the next tap of the same card this allows a
+ * targeted read which only sends commands which are known to succeed.<br>
+ * <br>
+ * A profile is identified by the CPLC "Card Unique Identifier" (CUID) or, if
+ * the card has no CPLC data, by a hash of the PAN.<br>
+ * <br>
+ * For incremental reading of the transaction log, the raw log records seen so
+ * far and the ATC of the newest one are remembered too. These are only kept in
+ * memory, {@link at.zweng.bankomatinfos.util.CardProfileStore} does not write
+ * them to disk.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class CardProfile {
+
+	private static final String KEY_PREFIX_CUID = "CUID:";
+	private static final String KEY_PREFIX_PAN = "PAN:";
+
+	private String _key;
+	private long _lastSeen;
+	private boolean _quickCard;
+	private int _quickLastAtc = -1;
+	private List<String> _quickTransactionLog = new ArrayList<String>();
+	private final Map<String, ApplicationProfile> _applications;
+
+	/**
+	 * A (non empty) record on the card
+	 */
+	public static class RecordLocation implements Comparable<RecordLocation> {
+		private final int _sfi;
+		private final int _record;
+		private final int _length;
+
+		/**
+		 * Constructor
+		 *
+		 * @param sfi
+		 *            short EF identifier
+		 * @param record
+		 *            record number
+		 * @param length
+		 *            length of the response (incl. status word)
+		 */
+		public RecordLocation(int sfi, int record, int length) {
+			this._sfi = sfi;
+			this._record = record;
+			this._length = length;
+		}
+
+		/**
+		 * @return short EF identifier
+		 */
+		public int getSfi() {
+			return _sfi;
+		}
+
+		/**
+		 * @return record number
+		 */
+		public int getRecord() {
+			return _record;
+		}
+
+		/**
+		 * @return length of the response (incl. status word)
+		 */
+		public int getLength() {
+			return _length;
+		}
+
+		@Override
+		public int compareTo(RecordLocation other) {
+			if (_sfi != other._sfi) {
+				return _sfi < other._sfi ? -1 : 1;
+			}
+			if (_record != other._record) {
+				return _record < other._record ? -1 : 1;
+			}
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			return _sfi + ":" + _record + ":" + _length;
+		}
+	}
+
+	/**
+	 * What was found within one application (AID)
+	 */
+	public static class ApplicationProfile {
+		private final String _aid;
+		private String _logFormat;
+		private int _logSfi = -1;
+		private int _lastAtc = -1;
+		private List<String> _transactionLog = new ArrayList<String>();
+		private final Set<String> _successfulCommands = new LinkedHashSet<String>();
+		private final Map<String, RecordLocation> _records = new LinkedHashMap<String, RecordLocation>();
+
+		/**
+		 * Constructor
+		 *
+		 * @param aid
+		 *            application ID as hex string
+		 */
+		public ApplicationProfile(String aid) {
+			this._aid = aid;
+		}
+
+		/**
+		 * @return application ID as hex string
+		 */
+		public String getAid() {
+			return _aid;
+		}
+
+		/**
+		 * @return response of GET DATA 'Log Format' as hex string (or
+		 *         <code>null</code>)
+		 */
+		public String getLogFormat() {
+			return _logFormat;
+		}
+
+		/**
+		 * @param logFormat
+		 *            response of GET DATA 'Log Format' as hex string
+		 */
+		public void setLogFormat(String logFormat) {
+			this._logFormat = logFormat;
+		}
+
+		/**
+		 * @return SFI containing transaction logs, or -1 if none found
+		 */
+		public int getLogSfi() {
+			return _logSfi;
+		}
+
+		/**
+		 * @param logSfi
+		 *            SFI containing transaction logs
+		 */
+		public void setLogSfi(int logSfi) {
+			this._logSfi = logSfi;
+		}
+
+		/**
+		 * @return ATC of the newest transaction log entry, or -1 if unknown
+		 */
+		public int getLastAtc() {
+			return _lastAtc;
+		}
+
+		/**
+		 * @param lastAtc
+		 *            ATC of the newest transaction log entry
+		 */
+		public void setLastAtc(int lastAtc) {
+			this._lastAtc = lastAtc;
+		}
+
+		/**
+		 * @return raw transaction log records (hex, newest first) read so far
+		 */
+		public List<String> getTransactionLog() {
+			return Collections.unmodifiableList(_transactionLog);
+		}
+
+		/**
+		 * @param transactionLog
+		 *            raw transaction log records (hex, newest first)
+		 */
+		public void setTransactionLog(List<String> transactionLog) {
+			this._transactionLog = new ArrayList<String>(transactionLog);
+		}
+
+		/**
+		 * Remember that a command succeeded
+		 *
+		 * @param command
+		 */
+		public void addSuccessfulCommand(byte[] command) {
+			_successfulCommands.add(bytesToHex(command));
+		}
+
+		/**
+		 * Remember that a command succeeded
+		 *
+		 * @param commandHex
+		 */
+		public void addSuccessfulCommand(String commandHex) {
+			_successfulCommands.add(commandHex);
+		}
+
+		/**
+		 * @param command
+		 * @return <code>true</code> if command succeeded during the last read
+		 */
+		public boolean isCommandSuccessful(byte[] command) {
+			return _successfulCommands.contains(bytesToHex(command));
+		}
+
+		/**
+		 * @return all successful commands as hex strings
+		 */
+		public Set<String> getSuccessfulCommands() {
+			return Collections.unmodifiableSet(_successfulCommands);
+		}
+
+		/**
+		 * Remember a non empty record
+		 *
+		 * @param sfi
+		 * @param record
+		 * @param length
+		 */
+		public void addRecord(int sfi, int record, int length) {
+			_records.put(sfi + ":" + record, new RecordLocation(sfi, record,
+					length));
+		}
+
+		/**
+		 * @return all known records sorted by SFI and record number
+		 */
+		public List<RecordLocation> getRecords() {
+			List<RecordLocation> result = new ArrayList<RecordLocation>(
+					_records.values());
+			Collections.sort(result);
+			return result;
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param key
+	 *            see {@link #keyForCardUniqueIdentifier(String)} and
+	 *            {@link #keyForPan(String)}
+	 */
+	public CardProfile(String key) {
+		this._key = key;
+		this._applications = new LinkedHashMap<String, ApplicationProfile>();
+		this._lastSeen = System.currentTimeMillis();
+	}
+
+	/**
+	 * @param cuid
+	 *            CPLC card unique identifier
+	 * @return profile key
+	 */
+	public static String keyForCardUniqueIdentifier(String cuid) {
+		return KEY_PREFIX_CUID + cuid;
+	}
+
+	/**
+	 * @param pan
+	 *            primary account number (digits)
+	 * @return profile key (contains only a hash of the PAN)
+	 */
+	public static String keyForPan(String pan) {
+		return KEY_PREFIX_PAN + sha256Hex(pan);
+	}
+
+	/**
+	 * @return the key
+	 */
+	public String getKey() {
+		return _key;
+	}
+
+	/**
+	 * @param key
+	 *            see {@link #keyForCardUniqueIdentifier(String)} and
+	 *            {@link #keyForPan(String)}
+	 */
+	public void setKey(String key) {
+		this._key = key;
+	}
+
+	/**
+	 * @return timestamp of last read (millis)
+	 */
+	public long getLastSeen() {
+		return _lastSeen;
+	}
+
+	/**
+	 * @param lastSeen
+	 *            timestamp of last read (millis)
+	 */
+	public void setLastSeen(long lastSeen) {
+		this._lastSeen = lastSeen;
+	}
+
+	/**
+	 * @return <code>true</code> if card has a QUICK application
+	 */
+	public boolean isQuickCard() {
+		return _quickCard;
+	}
+
+	/**
+	 * @param quickCard
+	 */
+	public void setQuickCard(boolean quickCard) {
+		this._quickCard = quickCard;
+	}
+
+	/**
+	 * @return ATC of the newest QUICK log entry, or -1 if unknown
+	 */
+	public int getQuickLastAtc() {
+		return _quickLastAtc;
+	}
+
+	/**
+	 * @param quickLastAtc
+	 *            ATC of the newest QUICK log entry
+	 */
+	public void setQuickLastAtc(int quickLastAtc) {
+		this._quickLastAtc = quickLastAtc;
+	}
+
+	/**
+	 * @return raw QUICK log records (hex, newest first) read so far
+	 */
+	public List<String> getQuickTransactionLog() {
+		return Collections.unmodifiableList(_quickTransactionLog);
+	}
+
+	/**
+	 * @param quickTransactionLog
+	 *            raw QUICK log records (hex, newest first)
+	 */
+	public void setQuickTransactionLog(List<String> quickTransactionLog) {
+		this._quickTransactionLog = new ArrayList<String>(quickTransactionLog);
+	}
+
+	/**
+	 * Returns the profile for an application, creates it if not existing yet
+	 *
+	 * @param aid
+	 *            application ID as hex string
+	 * @return
+	 */
+	public ApplicationProfile addApplication(String aid) {
+		ApplicationProfile app = _applications.get(aid);
+		if (app == null) {
+			app = new ApplicationProfile(aid);
+			_applications.put(aid, app);
+		}
+		return app;
+	}
+
+	/**
+	 * @param aid
+	 *            application ID as hex string
+	 * @return profile of this application or <code>null</code> if card does
+	 *         not have this application
+	 */
+	public ApplicationProfile getApplication(String aid) {
+		return _applications.get(aid);
+	}
+
+	/**
+	 * @return all applications found on the card
+	 */
+	public Collection<ApplicationProfile> getApplications() {
+		return Collections.unmodifiableCollection(_applications.values());
+	}
+
+	@Override
+	public String toString() {
+		return "CardProfile [key=" + _key + ", quickCard=" + _quickCard
+				+ ", applications=" + _applications.keySet() + "]";
+	}
+}
@@ -88,7 +88,7 @@ public class EmvTransactionLogEntry extends AbstractTransactionLogEntry {
 		sb.append(formatDateWithTime(_transactionTimestamp));
 		sb.append("\n  - includes time: " + _hasTime);
 		sb.append("\n  - amount: ");
-		sb.append(formatBalance(_amount) + "\n  - atc: " + _atc);
+		sb.append(formatAmount(_amount, _minorUnits) + "\n  - atc: " + _atc);
 		sb.append("\n  - currency: " + _currency);
 		sb.append("\n  - cryptogramInformationData: ");
 		if (_cryptogramInformation != null) {
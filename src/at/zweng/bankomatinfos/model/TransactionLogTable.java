@@ -0,0 +1,718 @@
+package at.zweng.bankomatinfos.model;
+
+import static at.zweng.bankomatinfos.util.Utils.byte2Hex;
+import static at.zweng.bankomatinfos.util.Utils.bytesToHex;
+import static at.zweng.bankomatinfos.util.Utils.bytesToHexNullAllowed;
+import static at.zweng.bankomatinfos.util.Utils.formatAmount;
+import static at.zweng.bankomatinfos.util.Utils.formatDateWithTime;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+
+import at.zweng.bankomatinfos.iso7816emv.Iso4217CurrencyCodes;
+
+/**
+ * EMV transaction log stored column by column: one primitive array per field
+ * (timestamp, amount, currency, ATC, CID, ..) and all raw records copied into
+ * one shared byte array (arena). Variable length fields (application default
+ * action, customer exclusive data) are not copied again but referenced as
+ * (offset, length) inside the raw record.<br>
+ * <br>
+ * So a log entry costs a few dozen bytes instead of an
+ * {@link EmvTransactionLogEntry} with a {@link Date}, boxed fields, a currency
+ * string and byte array copies. For code working with entries as objects
+ * (e.g. list adapters) {@link #row(int, Row)} returns a reusable
+ * {@link Row} view.<br>
+ * <br>
+ * Rows are in insertion order (for card reads: newest first). This class is
+ * not thread safe.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class TransactionLogTable {
+
+	private static final int INITIAL_ROWS = 16;
+	private static final int INITIAL_ARENA = 512;
+
+	private static final byte FLAG_TIMESTAMP = 0x01;
+	private static final byte FLAG_HAS_TIME = 0x02;
+	private static final byte FLAG_CID = 0x04;
+	private static final byte FLAG_UNKNOWN_BYTE = 0x08;
+
+	// (offset << 16 | length) inside the raw record, or -1
+	private static final int NO_REF = -1;
+
+	private int _size;
+	private byte[] _flags = new byte[INITIAL_ROWS];
+	private long[] _timestamps = new long[INITIAL_ROWS];
+	private long[] _amounts = new long[INITIAL_ROWS];
+	// 2 bytes as in the record (e.g. 0x0978 for EUR), or -1
+	private short[] _currencyCodes = new short[INITIAL_ROWS];
+	private int[] _atcs = new int[INITIAL_ROWS];
+	private byte[] _cids = new byte[INITIAL_ROWS];
+	private byte[] _unknownBytes = new byte[INITIAL_ROWS];
+	private int[] _adaRefs = new int[INITIAL_ROWS];
+	private int[] _customerExclusiveRefs = new int[INITIAL_ROWS];
+
+	private byte[] _arena = new byte[INITIAL_ARENA];
+	private int _arenaSize;
+	private int[] _rawOffsets = new int[INITIAL_ROWS];
+	private int[] _rawLengths = new int[INITIAL_ROWS];
+
+	/**
+	 * Appends a row with all fields empty
+	 *
+	 * @param raw
+	 * @param offset
+	 * @param length
+	 *            the raw log record (copied)
+	 * @return index of the new row
+	 */
+	public int addRow(byte[] raw, int offset, int length) {
+		if (_size == _flags.length) {
+			grow(_size * 2);
+		}
+		if (_arenaSize + length > _arena.length) {
+			_arena = Arrays.copyOf(_arena,
+					Math.max(_arena.length * 2, _arenaSize + length));
+		}
+		System.arraycopy(raw, offset, _arena, _arenaSize, length);
+		int row = _size++;
+		_flags[row] = 0;
+		_timestamps[row] = 0;
+		_amounts[row] = 0;
+		_currencyCodes[row] = -1;
+		_atcs[row] = 0;
+		_cids[row] = 0;
+		_unknownBytes[row] = 0;
+		_adaRefs[row] = NO_REF;
+		_customerExclusiveRefs[row] = NO_REF;
+		_rawOffsets[row] = _arenaSize;
+		_rawLengths[row] = length;
+		_arenaSize += length;
+		return row;
+	}
+
+	/**
+	 * Appends a copy of a row of another table
+	 *
+	 * @param source
+	 * @param sourceRow
+	 * @return index of the new row
+	 */
+	public int addRow(TransactionLogTable source, int sourceRow) {
+		int row = addRow(source._arena, source._rawOffsets[sourceRow],
+				source._rawLengths[sourceRow]);
+		_flags[row] = source._flags[sourceRow];
+		_timestamps[row] = source._timestamps[sourceRow];
+		_amounts[row] = source._amounts[sourceRow];
+		_currencyCodes[row] = source._currencyCodes[sourceRow];
+		_atcs[row] = source._atcs[sourceRow];
+		_cids[row] = source._cids[sourceRow];
+		_unknownBytes[row] = source._unknownBytes[sourceRow];
+		_adaRefs[row] = source._adaRefs[sourceRow];
+		_customerExclusiveRefs[row] = source._customerExclusiveRefs[sourceRow];
+		return row;
+	}
+
+	/**
+	 * Appends all rows of another table
+	 *
+	 * @param source
+	 */
+	public void addAll(TransactionLogTable source) {
+		for (int i = 0; i < source._size; i++) {
+			addRow(source, i);
+		}
+	}
+
+	/**
+	 * @return a copy of this table
+	 */
+	public TransactionLogTable copy() {
+		TransactionLogTable copy = new TransactionLogTable();
+		copy.addAll(this);
+		return copy;
+	}
+
+	private void grow(int rows) {
+		_flags = Arrays.copyOf(_flags, rows);
+		_timestamps = Arrays.copyOf(_timestamps, rows);
+		_amounts = Arrays.copyOf(_amounts, rows);
+		_currencyCodes = Arrays.copyOf(_currencyCodes, rows);
+		_atcs = Arrays.copyOf(_atcs, rows);
+		_cids = Arrays.copyOf(_cids, rows);
+		_unknownBytes = Arrays.copyOf(_unknownBytes, rows);
+		_adaRefs = Arrays.copyOf(_adaRefs, rows);
+		_customerExclusiveRefs = Arrays.copyOf(_customerExclusiveRefs, rows);
+		_rawOffsets = Arrays.copyOf(_rawOffsets, rows);
+		_rawLengths = Arrays.copyOf(_rawLengths, rows);
+	}
+
+	/**
+	 * Removes all rows
+	 */
+	public void clear() {
+		_size = 0;
+		_arenaSize = 0;
+	}
+
+	/**
+	 * @return number of rows
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * @return <code>true</code> if there are no rows
+	 */
+	public boolean isEmpty() {
+		return _size == 0;
+	}
+
+	private void check(int row) {
+		if (row < 0 || row >= _size) {
+			throw new IndexOutOfBoundsException("row: " + row + ", size: "
+					+ _size);
+		}
+	}
+
+	private void setFlag(int row, byte flag, boolean set) {
+		if (set) {
+			_flags[row] |= flag;
+		} else {
+			_flags[row] &= ~flag;
+		}
+	}
+
+	private boolean hasFlag(int row, byte flag) {
+		check(row);
+		return (_flags[row] & flag) != 0;
+	}
+
+	/**
+	 * @param row
+	 * @param millis
+	 *            transaction timestamp
+	 * @param includesTime
+	 *            <code>true</code> if timestamp also contains time (not just
+	 *            date)
+	 */
+	public void setTimestamp(int row, long millis, boolean includesTime) {
+		check(row);
+		_timestamps[row] = millis;
+		setFlag(row, FLAG_TIMESTAMP, true);
+		setFlag(row, FLAG_HAS_TIME, includesTime);
+	}
+
+	/**
+	 * @param row
+	 * @return <code>true</code> if the row has a timestamp
+	 */
+	public boolean hasTimestamp(int row) {
+		return hasFlag(row, FLAG_TIMESTAMP);
+	}
+
+	/**
+	 * @param row
+	 * @return <code>true</code> if timestamp contains date + time
+	 */
+	public boolean hasTime(int row) {
+		return hasFlag(row, FLAG_HAS_TIME);
+	}
+
+	/**
+	 * @param row
+	 * @return transaction timestamp in milliseconds (only valid if
+	 *         {@link #hasTimestamp(int)})
+	 */
+	public long getTimestamp(int row) {
+		check(row);
+		return _timestamps[row];
+	}
+
+	/**
+	 * @param row
+	 * @param amount
+	 */
+	public void setAmount(int row, long amount) {
+		check(row);
+		_amounts[row] = amount;
+	}
+
+	/**
+	 * @param row
+	 * @return amount (in cents)
+	 */
+	public long getAmount(int row) {
+		check(row);
+		return _amounts[row];
+	}
+
+	/**
+	 * @param row
+	 * @param currencyCode
+	 *            the 2 currency code bytes packed into an int (e.g. 0x0978)
+	 */
+	public void setCurrencyCode(int row, int currencyCode) {
+		check(row);
+		_currencyCodes[row] = (short) currencyCode;
+	}
+
+	/**
+	 * @param row
+	 * @return the 2 currency code bytes packed into an int (e.g. 0x0978), or
+	 *         -1 if not set
+	 */
+	public int getCurrencyCode(int row) {
+		check(row);
+		short code = _currencyCodes[row];
+		return code == -1 ? -1 : code & 0xFFFF;
+	}
+
+	/**
+	 * @param row
+	 * @return currency as string, or <code>null</code> if not set
+	 */
+	public String getCurrency(int row) {
+		int code = getCurrencyCode(row);
+		if (code < 0) {
+			return null;
+		}
+		return Iso4217CurrencyCodes.getCurrencyAsString(code);
+	}
+
+	/**
+	 * @param row
+	 * @return number of decimal places of the amount (2 if the currency is
+	 *         not set or unknown)
+	 */
+	public int getMinorUnits(int row) {
+		int code = getCurrencyCode(row);
+		if (code < 0) {
+			return Iso4217CurrencyCodes.DEFAULT_MINOR_UNITS;
+		}
+		return Iso4217CurrencyCodes.getMinorUnits(Iso4217CurrencyCodes
+				.toNumericCode(code));
+	}
+
+	/**
+	 * @param row
+	 * @param atc
+	 *            application transaction counter
+	 */
+	public void setAtc(int row, int atc) {
+		check(row);
+		_atcs[row] = atc;
+	}
+
+	/**
+	 * @param row
+	 * @return application transaction counter
+	 */
+	public int getAtc(int row) {
+		check(row);
+		return _atcs[row];
+	}
+
+	/**
+	 * @param row
+	 * @param cid
+	 *            cryptogram information data
+	 */
+	public void setCryptogramInformationData(int row, byte cid) {
+		check(row);
+		_cids[row] = cid;
+		setFlag(row, FLAG_CID, true);
+	}
+
+	/**
+	 * @param row
+	 * @return <code>true</code> if the row has cryptogram information data
+	 */
+	public boolean hasCryptogramInformationData(int row) {
+		return hasFlag(row, FLAG_CID);
+	}
+
+	/**
+	 * @param row
+	 * @return cryptogram information data (only valid if
+	 *         {@link #hasCryptogramInformationData(int)})
+	 */
+	public byte getCryptogramInformationData(int row) {
+		check(row);
+		return _cids[row];
+	}
+
+	/**
+	 * @param row
+	 * @param unknownByte
+	 *            value of tag DF3E
+	 */
+	public void setUnknownByte(int row, byte unknownByte) {
+		check(row);
+		_unknownBytes[row] = unknownByte;
+		setFlag(row, FLAG_UNKNOWN_BYTE, true);
+	}
+
+	/**
+	 * @param row
+	 * @return <code>true</code> if the row has a value for tag DF3E
+	 */
+	public boolean hasUnknownByte(int row) {
+		return hasFlag(row, FLAG_UNKNOWN_BYTE);
+	}
+
+	/**
+	 * @param row
+	 * @return value of tag DF3E (only valid if {@link #hasUnknownByte(int)})
+	 */
+	public byte getUnknownByte(int row) {
+		check(row);
+		return _unknownBytes[row];
+	}
+
+	/**
+	 * @param row
+	 * @param offset
+	 *            offset inside the raw record
+	 * @param length
+	 */
+	public void setApplicationDefaultAction(int row, int offset, int length) {
+		_adaRefs[row] = ref(row, offset, length);
+	}
+
+	/**
+	 * @param row
+	 * @return copy of the application default action, or <code>null</code>
+	 */
+	public byte[] copyApplicationDefaultAction(int row) {
+		check(row);
+		return copyRef(row, _adaRefs[row]);
+	}
+
+	/**
+	 * @param row
+	 * @param offset
+	 *            offset inside the raw record
+	 * @param length
+	 */
+	public void setCustomerExclusiveData(int row, int offset, int length) {
+		_customerExclusiveRefs[row] = ref(row, offset, length);
+	}
+
+	/**
+	 * @param row
+	 * @return copy of the customer exclusive data, or <code>null</code>
+	 */
+	public byte[] copyCustomerExclusiveData(int row) {
+		check(row);
+		return copyRef(row, _customerExclusiveRefs[row]);
+	}
+
+	private int ref(int row, int offset, int length) {
+		check(row);
+		if (offset < 0 || length < 0 || length > 0xFFFF || offset > 0x7FFF
+				|| offset + length > _rawLengths[row]) {
+			throw new IndexOutOfBoundsException("offset: " + offset
+					+ ", length: " + length + ", record length: "
+					+ _rawLengths[row]);
+		}
+		return (offset << 16) | length;
+	}
+
+	private byte[] copyRef(int row, int ref) {
+		if (ref == NO_REF) {
+			return null;
+		}
+		int from = _rawOffsets[row] + (ref >>> 16);
+		return Arrays.copyOfRange(_arena, from, from + (ref & 0xFFFF));
+	}
+
+	/**
+	 * @param row
+	 * @return copy of the raw log record
+	 */
+	public byte[] copyRawEntry(int row) {
+		check(row);
+		return Arrays.copyOfRange(_arena, _rawOffsets[row], _rawOffsets[row]
+				+ _rawLengths[row]);
+	}
+
+	/**
+	 * @param row
+	 * @return offset of the raw record in {@link #getArena()}
+	 */
+	public int getRawOffset(int row) {
+		check(row);
+		return _rawOffsets[row];
+	}
+
+	/**
+	 * @param row
+	 * @return length of the raw record
+	 */
+	public int getRawLength(int row) {
+		check(row);
+		return _rawLengths[row];
+	}
+
+	/**
+	 * @return the array holding all raw records (only valid until the next
+	 *         row is added)
+	 */
+	public byte[] getArena() {
+		return _arena;
+	}
+
+	/**
+	 * @param index
+	 * @return a new view of the row
+	 */
+	public Row row(int index) {
+		return row(index, null);
+	}
+
+	/**
+	 * @param index
+	 * @param reuse
+	 *            view to move to the row (if it belongs to this table), or
+	 *            <code>null</code>
+	 * @return view of the row
+	 */
+	public Row row(int index, Row reuse) {
+		check(index);
+		Row row = (reuse != null && reuse.table() == this) ? reuse
+				: new Row();
+		row._index = index;
+		return row;
+	}
+
+	/**
+	 * Writes all rows (raw records and decoded columns), see
+	 * {@link #readFrom(DataInput)}
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeInt(_size);
+		for (int row = 0; row < _size; row++) {
+			out.writeByte(_flags[row]);
+			out.writeLong(_timestamps[row]);
+			out.writeLong(_amounts[row]);
+			out.writeShort(_currencyCodes[row]);
+			out.writeInt(_atcs[row]);
+			out.writeByte(_cids[row]);
+			out.writeByte(_unknownBytes[row]);
+			out.writeInt(_adaRefs[row]);
+			out.writeInt(_customerExclusiveRefs[row]);
+			out.writeInt(_rawLengths[row]);
+			out.write(_arena, _rawOffsets[row], _rawLengths[row]);
+		}
+	}
+
+	/**
+	 * Appends the rows written by {@link #writeTo(DataOutput)}
+	 *
+	 * @param in
+	 * @throws IOException
+	 */
+	public void readFrom(DataInput in) throws IOException {
+		int count = in.readInt();
+		if (count < 0) {
+			throw new IOException("invalid row count " + count);
+		}
+		byte[] raw = new byte[0];
+		for (int i = 0; i < count; i++) {
+			byte flags = in.readByte();
+			long timestamp = in.readLong();
+			long amount = in.readLong();
+			short currencyCode = in.readShort();
+			int atc = in.readInt();
+			byte cid = in.readByte();
+			byte unknownByte = in.readByte();
+			int adaRef = in.readInt();
+			int customerExclusiveRef = in.readInt();
+			int length = in.readInt();
+			if (length < 0) {
+				throw new IOException("invalid record length " + length);
+			}
+			if (raw.length < length) {
+				raw = new byte[length];
+			}
+			in.readFully(raw, 0, length);
+			int row = addRow(raw, 0, length);
+			_flags[row] = flags;
+			_timestamps[row] = timestamp;
+			_amounts[row] = amount;
+			_currencyCodes[row] = currencyCode;
+			_atcs[row] = atc;
+			_cids[row] = cid;
+			_unknownBytes[row] = unknownByte;
+			_adaRefs[row] = checkRef(row, adaRef);
+			_customerExclusiveRefs[row] = checkRef(row, customerExclusiveRef);
+		}
+	}
+
+	private int checkRef(int row, int ref) throws IOException {
+		if (ref != NO_REF
+				&& (ref >>> 16) + (ref & 0xFFFF) > _rawLengths[row]) {
+			throw new IOException("invalid field reference in row " + row);
+		}
+		return ref;
+	}
+
+	@Override
+	public String toString() {
+		return "TransactionLogTable [" + _size + " rows, " + _arenaSize
+				+ " raw bytes]";
+	}
+
+	/**
+	 * Flyweight view of one row, offering the same getters as
+	 * {@link EmvTransactionLogEntry}. Values are read from the table on each
+	 * call.
+	 */
+	public class Row {
+		private int _index;
+
+		private Row() {
+		}
+
+		private TransactionLogTable table() {
+			return TransactionLogTable.this;
+		}
+
+		/**
+		 * @return index of the row in the table
+		 */
+		public int getIndex() {
+			return _index;
+		}
+
+		/**
+		 * @return the transaction timestamp, or <code>null</code>
+		 */
+		public Date getTransactionTimestamp() {
+			return hasTimestamp(_index) ? new Date(getTimestamp(_index)) : null;
+		}
+
+		/**
+		 * @return <code>true</code> if timestamp contains date + time,
+		 *         <code>false</code> otherwise
+		 */
+		public boolean hasTime() {
+			return TransactionLogTable.this.hasTime(_index);
+		}
+
+		/**
+		 * @return the amount
+		 */
+		public long getAmount() {
+			return TransactionLogTable.this.getAmount(_index);
+		}
+
+		/**
+		 * @return the currency
+		 */
+		public String getCurrency() {
+			return TransactionLogTable.this.getCurrency(_index);
+		}
+
+		/**
+		 * @return number of decimal places of the amount
+		 */
+		public int getMinorUnits() {
+			return TransactionLogTable.this.getMinorUnits(_index);
+		}
+
+		/**
+		 * @return the atc (application transaction counter)
+		 */
+		public int getAtc() {
+			return TransactionLogTable.this.getAtc(_index);
+		}
+
+		/**
+		 * @return the cryptogram information data, or <code>null</code>
+		 */
+		public Byte getCryptogramInformationData() {
+			return hasCryptogramInformationData(_index) ? Byte
+					.valueOf(TransactionLogTable.this
+							.getCryptogramInformationData(_index)) : null;
+		}
+
+		/**
+		 * @return copy of the application default action, or
+		 *         <code>null</code>
+		 */
+		public byte[] getApplicationDefaultAction() {
+			return copyApplicationDefaultAction(_index);
+		}
+
+		/**
+		 * @return the unknown byte (tag DF3E), or <code>null</code>
+		 */
+		public Byte getUnknownByte() {
+			return hasUnknownByte(_index) ? Byte
+					.valueOf(TransactionLogTable.this.getUnknownByte(_index))
+					: null;
+		}
+
+		/**
+		 * @return copy of the customer exclusive data, or <code>null</code>
+		 */
+		public byte[] getCustomerExclusiveData() {
+			return copyCustomerExclusiveData(_index);
+		}
+
+		/**
+		 * @return copy of the raw log record
+		 */
+		public byte[] getRawEntry() {
+			return copyRawEntry(_index);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(
+					"EmvTransactionLogEntry [\n  - transactionTimestamp: ");
+
+			sb.append(formatDateWithTime(getTransactionTimestamp()));
+			sb.append("\n  - includes time: " + hasTime());
+			sb.append("\n  - amount: ");
+			sb.append(formatAmount(getAmount(), getMinorUnits())
+					+ "\n  - atc: " + getAtc());
+			sb.append("\n  - currency: " + getCurrency());
+			sb.append("\n  - cryptogramInformationData: ");
+			if (hasCryptogramInformationData(_index)) {
+				sb.append(byte2Hex(TransactionLogTable.this
+						.getCryptogramInformationData(_index)));
+				sb.append("\n  - applicationDefaultAction: ");
+				sb.append(bytesToHexNullAllowed(getApplicationDefaultAction()));
+			}
+			byte[] customerExclusiveData = getCustomerExclusiveData();
+			if (customerExclusiveData != null) {
+				sb.append("\n  - customerExclusiveData: ");
+				sb.append(bytesToHex(customerExclusiveData));
+			}
+			if (hasUnknownByte(_index)) {
+				sb.append("\n  - unknownByte: "
+						+ byte2Hex(TransactionLogTable.this
+								.getUnknownByte(_index)));
+			}
+			sb.append("\n");
+			return sb.toString();
+		}
+	}
+}
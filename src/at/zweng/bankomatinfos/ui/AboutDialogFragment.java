@@ -1,6 +1,6 @@
 package at.zweng.bankomatinfos.ui;
 
-import static at.zweng.bankomatinfos.util.Utils.getAboutDialogText;
+import static at.zweng.bankomatinfos.ui.UiUtils.getAboutDialogText;
 import android.app.DialogFragment;
 import android.os.Bundle;
 import android.view.LayoutInflater;
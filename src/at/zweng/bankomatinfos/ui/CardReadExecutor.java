@@ -0,0 +1,422 @@
+package at.zweng.bankomatinfos.ui;
+
+import static at.zweng.bankomatinfos.ui.UiUtils.getAppVersion;
+import static at.zweng.bankomatinfos.util.Utils.TAG;
+import static at.zweng.bankomatinfos.util.Utils.formatDateWithTime;
+import static at.zweng.bankomatinfos.util.Utils.getStacktrace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.nfc.Tag;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import at.zweng.bankomatinfos.AppController;
+import at.zweng.bankomatinfos.exceptions.CardLostException;
+import at.zweng.bankomatinfos.exceptions.NoSmartCardException;
+import at.zweng.bankomatinfos.exceptions.ReadCancelledException;
+import at.zweng.bankomatinfos.iso7816emv.IsoDepTransport;
+import at.zweng.bankomatinfos.iso7816emv.NfcBankomatCardReader;
+import at.zweng.bankomatinfos.iso7816emv.ReadCheckpoint;
+import at.zweng.bankomatinfos.iso7816emv.ReadListener;
+import at.zweng.bankomatinfos.iso7816emv.ReadPhase;
+import at.zweng.bankomatinfos.iso7816emv.SessionRecorder;
+import at.zweng.bankomatinfos.model.CardInfo;
+import at.zweng.bankomatinfos.model.InfoKeyValuePair;
+import at.zweng.bankomatinfos.util.CardHistoryStore;
+import at.zweng.bankomatinfos.util.CardProfileStore;
+import at.zweng.bankomatinfos2.R;
+
+/**
+ * Runs card reads on a dedicated background thread (one read at a time) and
+ * reports the progress back to the UI thread: the start of each phase, a
+ * snapshot of the data after each completed phase and the final result. If
+ * the read fails (e.g. the card was removed) the last snapshot is handed over
+ * with the error, so the data read until then is not lost.<br>
+ * <br>
+ * A running read can be cancelled, it stops before the next command is sent
+ * to the card. If the card was lost, the next read of the same card continues
+ * where the lost one stopped (see {@link ReadCheckpoint}). If enabled in the
+ * settings, the APDUs of every read are recorded (see {@link SessionRecorder}).
+ * All methods have to be called on the UI thread.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class CardReadExecutor {
+
+	/**
+	 * Gets informed about a read. All methods are called on the UI thread.
+	 */
+	public interface Callback {
+
+		/**
+		 * @param phase
+		 *            phase which has just started
+		 */
+		void onPhaseStarted(ReadPhase phase);
+
+		/**
+		 * @param phase
+		 *            the completed phase
+		 * @param snapshot
+		 *            everything read so far
+		 */
+		void onPartialResult(ReadPhase phase, CardInfo snapshot);
+
+		/**
+		 * @param result
+		 *            all data read from the card
+		 */
+		void onFinished(CardInfo result);
+
+		/**
+		 * @param error
+		 *            reason why the read failed
+		 * @param partial
+		 *            last snapshot published before the error, or
+		 *            <code>null</code>
+		 */
+		void onFailed(Exception error, CardInfo partial);
+
+		/**
+		 * The read was stopped after a call to {@link CardReadExecutor#cancel()}
+		 */
+		void onCancelled();
+	}
+
+	private final Context _ctx;
+	private final ExecutorService _executor;
+	private final Handler _handler;
+	// shared by all reads, keeps the transaction logs for incremental reads
+	private final CardProfileStore _profiles;
+	// read currently running (only accessed on the UI thread)
+	private ReadJob _current;
+	// progress of the last read if the card was lost (UI thread only)
+	private ReadCheckpoint _checkpoint;
+
+	/**
+	 * Constructor, starts the reader thread
+	 *
+	 * @param ctx
+	 */
+	public CardReadExecutor(Context ctx) {
+		this._ctx = ctx.getApplicationContext();
+		this._handler = new Handler(Looper.getMainLooper());
+		this._profiles = new CardProfileStore(_ctx);
+		this._executor = Executors
+				.newSingleThreadExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "card-reader");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
+	/**
+	 * Starts reading a card
+	 *
+	 * @param tag
+	 * @param callback
+	 * @return <code>false</code> if another read is still running (nothing is
+	 *         started then)
+	 */
+	public boolean start(Tag tag, Callback callback) {
+		if (_current != null) {
+			return false;
+		}
+		_current = new ReadJob(tag, callback, _checkpoint);
+		_executor.execute(_current);
+		return true;
+	}
+
+	/**
+	 * @return <code>true</code> if a read is running (or being cancelled)
+	 */
+	public boolean isRunning() {
+		return _current != null;
+	}
+
+	/**
+	 * @return <code>true</code> if the last read was interrupted by a lost
+	 *         card and can be continued by presenting the card again
+	 */
+	public boolean canResume() {
+		if (_checkpoint == null) {
+			return false;
+		}
+		long age = System.currentTimeMillis() - _checkpoint.getTime();
+		return age <= ReadCheckpoint.RESUME_WINDOW_MILLIS;
+	}
+
+	/**
+	 * Cancels the running read (if any). The callback gets
+	 * {@link Callback#onCancelled()} as soon as the reader thread has stopped.
+	 */
+	public void cancel() {
+		if (_current != null) {
+			_current.cancel();
+		}
+	}
+
+	/**
+	 * Cancels the running read and stops the reader thread. No more callbacks
+	 * are delivered after this call.
+	 */
+	public void shutdown() {
+		cancel();
+		_current = null;
+		_executor.shutdownNow();
+	}
+
+	/**
+	 * One card read, runs on the reader thread
+	 */
+	private class ReadJob implements Runnable, ReadListener {
+		private final Tag _tag;
+		private final Callback _callback;
+		private final ReadCheckpoint _resume;
+		private volatile boolean _cancelled;
+		private volatile NfcBankomatCardReader _reader;
+		// last snapshot published (reader thread only)
+		private CardInfo _lastSnapshot;
+
+		/**
+		 * Constructor
+		 *
+		 * @param tag
+		 * @param callback
+		 * @param resume
+		 *            checkpoint of the last read (or <code>null</code>)
+		 */
+		public ReadJob(Tag tag, Callback callback, ReadCheckpoint resume) {
+			this._tag = tag;
+			this._callback = callback;
+			this._resume = resume;
+		}
+
+		/**
+		 * Called from the UI thread
+		 */
+		public void cancel() {
+			_cancelled = true;
+			NfcBankomatCardReader reader = _reader;
+			if (reader != null) {
+				reader.cancel();
+			}
+		}
+
+		@Override
+		public void run() {
+			AppController ctl = AppController.getInstance();
+			// when continuing, the reader clears the log itself if the card
+			// does not match the checkpoint
+			if (_resume == null) {
+				ctl.clearLog();
+			}
+			// read setting value
+			SharedPreferences prefs = PreferenceManager
+					.getDefaultSharedPreferences(_ctx);
+			SessionRecorder recorder = null;
+			if (prefs.getBoolean("record_sessions", false)) {
+				recorder = new SessionRecorder(new IsoDepTransport(_tag));
+			}
+			try {
+				ctl.log(_ctx.getResources().getString(R.string.app_name)
+						+ " version " + getAppVersion(_ctx));
+				NfcBankomatCardReader reader = new NfcBankomatCardReader(
+						recorder != null ? recorder : new IsoDepTransport(_tag),
+						_ctx);
+				reader.setReadListener(this);
+				reader.setResumeCheckpoint(_resume);
+				_reader = reader;
+				if (_cancelled) {
+					// cancel() was called before the reader existed
+					reader.cancel();
+				}
+				reader.connect();
+				if (prefs.getBoolean("use_card_profiles", false)) {
+					reader.setCardProfileStore(_profiles);
+					reader.setIncrementalTxLog(prefs.getBoolean(
+							"incremental_tx_log", false));
+				}
+				final CardInfo result = reader.readAllCardData(
+						prefs.getBoolean("perform_full_file_scan", false),
+						prefs.getBoolean("read_files_by_afl", false));
+				ctl.setCardInfo(result);
+				reader.disconnect();
+				if (prefs.getBoolean("keep_read_history", false)) {
+					addToHistory(result);
+				}
+				deliverEnd(new Runnable() {
+					@Override
+					public void run() {
+						_checkpoint = null;
+						_callback.onFinished(result);
+					}
+				});
+			} catch (ReadCancelledException rce) {
+				Log.d(TAG, "reading the card was cancelled");
+				ctl.log("Reading the card was cancelled.");
+				deliverEnd(new Runnable() {
+					@Override
+					public void run() {
+						_checkpoint = null;
+						_callback.onCancelled();
+					}
+				});
+			} catch (NoSmartCardException nsce) {
+				Log.w(TAG,
+						"Catched NoSmartCardException during reading the card",
+						nsce);
+				deliverFailure(nsce, null);
+			} catch (CardLostException cle) {
+				Log.w(TAG, "Catched CardLostException during reading the card",
+						cle);
+				// keep the progress, the same card may come back
+				NfcBankomatCardReader reader = _reader;
+				deliverFailure(cle,
+						reader == null ? null : reader.getCheckpoint());
+			} catch (IOException e) {
+				Log.e(TAG, "Catched IOException during reading the card", e);
+				ctl.log("-----------------------------------------------");
+				ctl.log("ERROR ERROR ERROR:");
+				ctl.log("Catched IOException during reading the card:");
+				ctl.log(getStacktrace(e));
+				ctl.log("-----------------------------------------------");
+				deliverFailure(e, null);
+			} finally {
+				if (recorder != null) {
+					saveRecording(recorder);
+				}
+			}
+		}
+
+		/**
+		 * Appends a completed read to the history and adds what the history
+		 * knows about the card to the result
+		 */
+		private void addToHistory(CardInfo result) {
+			CardHistoryStore history = AppController.getInstance()
+					.getCardHistory(_ctx);
+			try {
+				history.append(result, System.currentTimeMillis());
+				String cardKey = result.getCardKey();
+				if (cardKey == null) {
+					return;
+				}
+				int[] reads = history.findReads(cardKey);
+				int transactions = history.findTransactions(cardKey,
+						Long.MIN_VALUE, Long.MAX_VALUE).size();
+				Resources res = _ctx.getResources();
+				result.addSectionHeader(res
+						.getString(R.string.section_read_history));
+				result.addKeyValuePair(new InfoKeyValuePair(res
+						.getString(R.string.lbl_history_reads), Integer
+						.toString(reads.length)));
+				result.addKeyValuePair(new InfoKeyValuePair(res
+						.getString(R.string.lbl_history_first_read),
+						formatDateWithTime(new Date(history
+								.getReadTime(reads[0])))));
+				result.addKeyValuePair(new InfoKeyValuePair(res
+						.getString(R.string.lbl_history_transactions), Integer
+						.toString(transactions)));
+			} catch (IOException e) {
+				Log.w(TAG, "cannot add read to card history", e);
+			}
+		}
+
+		/**
+		 * Stores the recorded APDUs in the app's files directory (also from
+		 * failed reads, these are the interesting ones), old recordings are
+		 * deleted
+		 */
+		private void saveRecording(SessionRecorder recorder) {
+			if (recorder.isEmpty()) {
+				return;
+			}
+			try {
+				File file = AppController.getInstance()
+						.getSessionRecordings(_ctx)
+						.save(recorder, System.currentTimeMillis());
+				Log.d(TAG, "APDU session recorded to " + file);
+			} catch (IOException e) {
+				Log.w(TAG, "cannot save APDU session recording", e);
+			}
+		}
+
+		@Override
+		public void onPhaseStarted(final ReadPhase phase) {
+			deliver(new Runnable() {
+				@Override
+				public void run() {
+					_callback.onPhaseStarted(phase);
+				}
+			});
+		}
+
+		@Override
+		public void onPartialResult(final ReadPhase phase,
+				final CardInfo snapshot) {
+			_lastSnapshot = snapshot;
+			deliver(new Runnable() {
+				@Override
+				public void run() {
+					_callback.onPartialResult(phase, snapshot);
+				}
+			});
+		}
+
+		private void deliverFailure(final Exception error,
+				final ReadCheckpoint checkpoint) {
+			final CardInfo partial = _lastSnapshot;
+			deliverEnd(new Runnable() {
+				@Override
+				public void run() {
+					_checkpoint = checkpoint;
+					_callback.onFailed(error, partial);
+				}
+			});
+		}
+
+		/**
+		 * Runs the callback on the UI thread (dropped if this read is not the
+		 * current one any more)
+		 */
+		private void deliver(final Runnable callback) {
+			_handler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (_current == ReadJob.this) {
+						callback.run();
+					}
+				}
+			});
+		}
+
+		/**
+		 * Like {@link #deliver(Runnable)}, but also marks the read as done
+		 */
+		private void deliverEnd(final Runnable callback) {
+			_handler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (_current == ReadJob.this) {
+						_current = null;
+						callback.run();
+					}
+				}
+			});
+		}
+	}
+}
@@ -6,13 +6,11 @@ package at.zweng.bankomatinfos.ui;
 import static at.zweng.bankomatinfos.util.Utils.byte2Hex;
 import static at.zweng.bankomatinfos.util.Utils.bytesToHex;
 import static at.zweng.bankomatinfos.util.Utils.explainCryptogramInformationByte;
-import static at.zweng.bankomatinfos.util.Utils.formatBalance;
+import static at.zweng.bankomatinfos.util.Utils.formatAmount;
 import static at.zweng.bankomatinfos.util.Utils.formatDateOnly;
 import static at.zweng.bankomatinfos.util.Utils.formatDateWithTime;
 import static at.zweng.bankomatinfos.util.Utils.prettyPrintString;
 
-import java.util.List;
-
 import android.app.Activity;
 import android.content.Context;
 import android.util.SparseBooleanArray;
@@ -24,7 +22,7 @@ import android.view.animation.Animation;
 import android.widget.BaseAdapter;
 import android.widget.TextView;
 import at.zweng.bankomatinfos.AppController;
-import at.zweng.bankomatinfos.model.EmvTransactionLogEntry;
+import at.zweng.bankomatinfos.model.TransactionLogTable;
 import at.zweng.bankomatinfos2.R;
 
 /**
@@ -35,7 +33,9 @@ import at.zweng.bankomatinfos2.R;
 public class ListAdapterEmvTransactions extends BaseAdapter {
 
 	private Context _context;
-	private List<EmvTransactionLogEntry> _txList;
+	private TransactionLogTable _txList;
+	// row view reused by getView()
+	private TransactionLogTable.Row _row;
 	private SparseBooleanArray itemExpandedStateMap;
 	private int expandedElementId = -1;
 
@@ -56,7 +56,7 @@ public class ListAdapterEmvTransactions extends BaseAdapter {
 
 	@Override
 	public Object getItem(int position) {
-		return _txList.get(position);
+		return _txList.row(position);
 	}
 
 	@Override
@@ -67,8 +67,9 @@ public class ListAdapterEmvTransactions extends BaseAdapter {
 
 	@Override
 	public View getView(int position, View v, ViewGroup parent) {
-		EmvTransactionLogEntry tx;
-		tx = _txList.get(position);
+		TransactionLogTable.Row tx;
+		tx = _txList.row(position, _row);
+		_row = tx;
 		// read setting value
 		boolean showFullTxData = (itemExpandedStateMap.get(position, false));
 
@@ -93,8 +94,8 @@ public class ListAdapterEmvTransactions extends BaseAdapter {
 		} else {
 			timeStamp.setText(formatDateOnly(tx.getTransactionTimestamp()));
 		}
-		amount.setText("-" + formatBalance(tx.getAmount()) + " "
-				+ tx.getCurrency());
+		amount.setText("-" + formatAmount(tx.getAmount(), tx.getMinorUnits())
+				+ " " + tx.getCurrency());
 
 		// only if the stated is expanded full tx data
 		if (showFullTxData) {
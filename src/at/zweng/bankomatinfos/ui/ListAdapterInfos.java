@@ -3,6 +3,7 @@
  */
 package at.zweng.bankomatinfos.ui;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import android.app.Activity;
@@ -13,6 +14,10 @@ import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.TextView;
 import at.zweng.bankomatinfos.AppController;
+import at.zweng.bankomatinfos.iso7816emv.ReadMetrics;
+import at.zweng.bankomatinfos.iso7816emv.ReadMetrics.PhaseStats;
+import at.zweng.bankomatinfos.iso7816emv.ReadPhase;
+import at.zweng.bankomatinfos.model.CardInfo;
 import at.zweng.bankomatinfos.model.InfoKeyValuePair;
 import at.zweng.bankomatinfos2.R;
 
@@ -31,8 +36,61 @@ public class ListAdapterInfos extends BaseAdapter {
 	 */
 	public ListAdapterInfos(Context ctx) {
 		this._context = ctx;
-		this._infoList = AppController.getInstance().getCardInfoNullSafe(ctx)
-				.getInfoKeyValuePairs();
+		CardInfo cardInfo = AppController.getInstance().getCardInfoNullSafe(
+				ctx);
+		this._infoList = new ArrayList<InfoKeyValuePair>(
+				cardInfo.getInfoKeyValuePairs());
+		if (cardInfo.getReadMetrics() != null) {
+			addReadMetrics(cardInfo.getReadMetrics());
+		}
+	}
+
+	/**
+	 * Append the timing metrics section to the displayed list
+	 * 
+	 * @param metrics
+	 */
+	private void addReadMetrics(ReadMetrics metrics) {
+		_infoList.add(new InfoKeyValuePair(_context.getResources().getString(
+				R.string.section_read_metrics)));
+		_infoList.add(new InfoKeyValuePair(_context.getResources().getString(
+				R.string.lbl_read_metrics_total), ReadMetrics
+				.formatMillis(metrics.getTotalNanos())
+				+ " ms, "
+				+ metrics.getApduCount() + " APDUs"));
+		for (ReadPhase phase : ReadPhase.values()) {
+			PhaseStats stats = metrics.getPhaseStats(phase);
+			if (stats != null) {
+				_infoList.add(new InfoKeyValuePair(_context.getResources()
+						.getString(getPhaseLabel(phase)), ReadMetrics
+						.formatPhase(stats)));
+			}
+		}
+	}
+
+	/**
+	 * @param phase
+	 * @return string resource ID of the label for the given phase
+	 */
+	private static int getPhaseLabel(ReadPhase phase) {
+		switch (phase) {
+		case CPLC:
+			return R.string.lbl_read_phase_cplc;
+		case QUICK:
+			return R.string.lbl_read_phase_quick;
+		case MAESTRO:
+			return R.string.lbl_read_phase_maestro;
+		case VISA:
+			return R.string.lbl_read_phase_visa;
+		case MASTERCARD:
+			return R.string.lbl_read_phase_mastercard;
+		case GET_DATA:
+			return R.string.lbl_read_phase_get_data;
+		case FILE_SCAN:
+			return R.string.lbl_read_phase_file_scan;
+		default:
+			return R.string.lbl_read_phase_other;
+		}
 	}
 
 	@Override
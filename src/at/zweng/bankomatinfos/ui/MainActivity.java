@@ -1,5 +1,6 @@
 package at.zweng.bankomatinfos.ui;
 
+import static at.zweng.bankomatinfos.ui.UiUtils.*;
 import static at.zweng.bankomatinfos.util.Utils.*;
 
 import java.io.IOException;
@@ -9,20 +10,18 @@ import android.app.PendingIntent;
 import android.content.ComponentName;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.SharedPreferences;
 import android.nfc.NfcAdapter;
 import android.nfc.Tag;
-import android.nfc.TagLostException;
-import android.os.AsyncTask;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.TextView;
 import at.zweng.bankomatinfos.AppController;
+import at.zweng.bankomatinfos.exceptions.CardLostException;
 import at.zweng.bankomatinfos.exceptions.NoSmartCardException;
-import at.zweng.bankomatinfos.iso7816emv.NfcBankomatCardReader;
+import at.zweng.bankomatinfos.iso7816emv.ReadPhase;
 import at.zweng.bankomatinfos.model.CardInfo;
 import at.zweng.bankomatinfos.util.ChangeLog;
 import at.zweng.bankomatinfos.util.CustomAlertDialog;
@@ -46,9 +45,10 @@ public class MainActivity extends Activity {
 	private View _viewNfcLogo;
 	private View _viewTextViewShowCard;
 	private View _viewProgressStatus;
+	private TextView _viewStatusMessage;
 
-	private CardInfo _cardReadingResults;
-	private ReadNfcCardTask _readCardTask;
+	// reads the card in the background
+	private CardReadExecutor _cardReader;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -59,6 +59,9 @@ public class MainActivity extends Activity {
 		_viewProgressStatus = findViewById(R.id.read_card_status);
 		_viewNfcLogo = findViewById(R.id.imageViewNfcLogo);
 		_viewTextViewShowCard = findViewById(R.id.textViewYourCardPlease);
+		_viewStatusMessage = (TextView) findViewById(R.id.read_card_status_message);
+
+		_cardReader = new CardReadExecutor(this);
 
 		// NFC stuff
 		_pendingIntent = PendingIntent.getActivity(this, 0, new Intent(this,
@@ -108,6 +111,24 @@ public class MainActivity extends Activity {
 		}
 	}
 
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		_cardReader.shutdown();
+	}
+
+	@Override
+	public void onBackPressed() {
+		if (_cardReader.isRunning()) {
+			// stop reading, but stay on this screen
+			Log.d(TAG, "cancelling card read");
+			_viewStatusMessage.setText(R.string.read_card_progress_cancelling);
+			_cardReader.cancel();
+			return;
+		}
+		super.onBackPressed();
+	}
+
 	@Override
 	protected void onRestart() {
 		super.onRestart();
@@ -186,153 +207,148 @@ public class MainActivity extends Activity {
 	 */
 	private void handleTag(Tag tag) {
 		showProgressAnimation(true);
-		if (_readCardTask != null) {
+		if (_cardReader.isRunning()) {
 			return;
 		}
-		showProgressAnimation(true);
-		_readCardTask = new ReadNfcCardTask(tag);
-		_readCardTask.execute((Void) null);
+		_viewStatusMessage.setText(R.string.read_card_progress_status);
+		_cardReader.start(tag, new ReadCardCallback());
 	}
 
 	/**
-	 * Represents an asynchronous task (reading the card)
+	 * @param phase
+	 * @return progress message shown while reading this phase
 	 */
-	public class ReadNfcCardTask extends AsyncTask<Void, Void, Boolean> {
-		private final static int ERROR_TAG_LOST = -1;
-		private final static int ERROR_IO_EX = -2;
-		private final static int ERROR_NO_SMARTCARD = -3;
-		private Tag nfcTag;
-		private int error;
-
-		/**
-		 * Constructor
-		 * 
-		 * @param pNfcTag
-		 */
-		public ReadNfcCardTask(Tag pNfcTag) {
-			super();
-			this.nfcTag = pNfcTag;
+	private int getPhaseMessage(ReadPhase phase) {
+		switch (phase) {
+		case CPLC:
+			return R.string.read_card_progress_cplc;
+		case QUICK:
+			return R.string.read_card_progress_quick;
+		case MAESTRO:
+			return R.string.read_card_progress_maestro;
+		case VISA:
+			return R.string.read_card_progress_visa;
+		case MASTERCARD:
+			return R.string.read_card_progress_mastercard;
+		default:
+			return R.string.read_card_progress_status;
 		}
+	}
+
+	/**
+	 * Show results page
+	 */
+	private void showResults() {
+		Intent intent = new Intent(MainActivity.this, ResultActivity.class);
+		startActivity(intent);
+	}
+
+	/**
+	 * Receives the progress and result of reading the card (on the UI thread)
+	 */
+	private class ReadCardCallback implements CardReadExecutor.Callback {
 
 		@Override
-		protected Boolean doInBackground(Void... params) {
-			AppController ctl = AppController.getInstance();
-			ctl.clearLog();
-			try {
-				ctl.log(getResources().getString(R.string.app_name)
-						+ " version " + getAppVersion(MainActivity.this));
-				NfcBankomatCardReader reader = new NfcBankomatCardReader(
-						nfcTag, MainActivity.this);
-				reader.connectIsoDep();
-				// read setting value
-				SharedPreferences prefs = PreferenceManager
-						.getDefaultSharedPreferences(MainActivity.this);
-				_cardReadingResults = reader.readAllCardData(prefs.getBoolean(
-						"perform_full_file_scan", false));
-				ctl.setCardInfo(_cardReadingResults);
-				reader.disconnectIsoDep();
-			} catch (NoSmartCardException nsce) {
-				Log.w(TAG,
-						"Catched NoSmartCardException during reading the card",
-						nsce);
-				error = ERROR_NO_SMARTCARD;
-				return false;
-			} catch (TagLostException tle) {
-				Log.w(TAG, "Catched TagLostException during reading the card",
-						tle);
-				error = ERROR_TAG_LOST;
-				return false;
-			} catch (IOException e) {
-				Log.e(TAG, "Catched IOException during reading the card", e);
-				error = ERROR_IO_EX;
-				ctl.log("-----------------------------------------------");
-				ctl.log("ERROR ERROR ERROR:");
-				ctl.log("Catched IOException during reading the card:");
-				ctl.log(getStacktrace(e));
-				ctl.log("-----------------------------------------------");
-				return false;
-			}
-			return true;
+		public void onPhaseStarted(ReadPhase phase) {
+			_viewStatusMessage.setText(getPhaseMessage(phase));
 		}
 
 		@Override
-		protected void onPostExecute(final Boolean success) {
-			_readCardTask = null;
+		public void onPartialResult(ReadPhase phase, CardInfo snapshot) {
+			Log.d(TAG, "finished reading phase " + phase);
+		}
 
-			if (success) {
-				Log.d(TAG, "reading card finished successfully");
-				if (!_cardReadingResults.isSupportedCard()) {
-					showProgressAnimation(false);
-					displaySimpleAlertDialog(
-							MainActivity.this,
-							getResources()
-									.getString(
-											R.string.dialog_title_error_unsupported_card),
-							getResources()
-									.getString(
-											R.string.dialog_text_error_unsupported_card));
-				} else {
-					// show results page
-					Intent intent = new Intent(MainActivity.this,
-							ResultActivity.class);
-					startActivity(intent);
-				}
-			} else {
+		@Override
+		public void onFinished(CardInfo result) {
+			Log.d(TAG, "reading card finished successfully");
+			if (!result.isSupportedCard()) {
 				showProgressAnimation(false);
-				if (error == ERROR_TAG_LOST) {
+				displaySimpleAlertDialog(
+						MainActivity.this,
+						getResources().getString(
+								R.string.dialog_title_error_unsupported_card),
+						getResources().getString(
+								R.string.dialog_text_error_unsupported_card));
+			} else {
+				showResults();
+			}
+		}
+
+		@Override
+		public void onFailed(Exception error, CardInfo partial) {
+			showProgressAnimation(false);
+			if (error instanceof CardLostException) {
+				if (_cardReader.canResume()) {
+					// reading continues when the card is presented again
 					displaySimpleAlertDialog(
 							MainActivity.this,
 							getResources().getString(
 									R.string.dialog_title_error_card_lost),
 							getResources().getString(
-									R.string.dialog_text_error_card_lost));
-				} else if (error == ERROR_NO_SMARTCARD) {
-					displaySimpleAlertDialog(
-							MainActivity.this,
-							getResources().getString(
-									R.string.dialog_title_error_no_smartcard),
+									R.string.dialog_text_error_card_lost_resume));
+				} else if (partial != null && partial.isSupportedCard()) {
+					// keep what we got until the card was removed
+					AppController.getInstance().setCardInfo(partial);
+					new CustomAlertDialog(MainActivity.this, getResources()
+							.getString(R.string.dialog_title_error_card_lost),
 							getResources().getString(
-									R.string.dialog_text_error_no_smartcard));
-				}
-				// In this case we still open the result Activity for allowing
-				// the user to inspect the stacktrace in the Log tab
-				else if (error == ERROR_IO_EX) {
-					new CustomAlertDialog(MainActivity.this,
-							getResources().getString(
-									R.string.dialog_title_error_ioexception),
-							getResources().getString(
-									R.string.dialog_text_error_ioexception)) {
+									R.string.dialog_text_error_card_lost_partial)) {
 
-						/**
-						 * First show the alert dialog, and when user clicks ok,
-						 * show the result
-						 */
 						@Override
 						public void onOkClick() {
-							// show results page
-							Intent intent = new Intent(MainActivity.this,
-									ResultActivity.class);
-							startActivity(intent);
+							showResults();
 						}
 					}.show();
-				}
-
-				else {
+				} else {
 					displaySimpleAlertDialog(
 							MainActivity.this,
 							getResources().getString(
-									R.string.dialog_title_error_unknown),
+									R.string.dialog_title_error_card_lost),
 							getResources().getString(
-									R.string.dialog_text_error_unknown));
+									R.string.dialog_text_error_card_lost));
+				}
+			} else if (error instanceof NoSmartCardException) {
+				displaySimpleAlertDialog(
+						MainActivity.this,
+						getResources().getString(
+								R.string.dialog_title_error_no_smartcard),
+						getResources().getString(
+								R.string.dialog_text_error_no_smartcard));
+			}
+			// In this case we still open the result Activity for allowing
+			// the user to inspect the stacktrace in the Log tab
+			else if (error instanceof IOException) {
+				if (partial != null) {
+					AppController.getInstance().setCardInfo(partial);
 				}
+				new CustomAlertDialog(MainActivity.this, getResources()
+						.getString(R.string.dialog_title_error_ioexception),
+						getResources().getString(
+								R.string.dialog_text_error_ioexception)) {
+
+					/**
+					 * First show the alert dialog, and when user clicks ok,
+					 * show the result
+					 */
+					@Override
+					public void onOkClick() {
+						showResults();
+					}
+				}.show();
+			}
+
+			else {
+				displaySimpleAlertDialog(
+						MainActivity.this,
+						getResources().getString(
+								R.string.dialog_title_error_unknown),
+						getResources().getString(
+								R.string.dialog_text_error_unknown));
 			}
-			// and hide the progress animation
-			// showProgressAnimation(false);
 		}
 
 		@Override
-		protected void onCancelled() {
-			_readCardTask = null;
+		public void onCancelled() {
 			showProgressAnimation(false);
 		}
 	}
@@ -1,7 +1,7 @@
 package at.zweng.bankomatinfos.ui;
 
-import static at.zweng.bankomatinfos.util.Utils.showAboutDialog;
-import static at.zweng.bankomatinfos.util.Utils.showChangelogDialog;
+import static at.zweng.bankomatinfos.ui.UiUtils.showAboutDialog;
+import static at.zweng.bankomatinfos.ui.UiUtils.showChangelogDialog;
 import android.app.Activity;
 import android.content.ComponentName;
 import android.content.Intent;
@@ -1,7 +1,7 @@
 package at.zweng.bankomatinfos.ui;
 
-import static at.zweng.bankomatinfos.util.Utils.showAboutDialog;
-import static at.zweng.bankomatinfos.util.Utils.showChangelogDialog;
+import static at.zweng.bankomatinfos.ui.UiUtils.showAboutDialog;
+import static at.zweng.bankomatinfos.ui.UiUtils.showChangelogDialog;
 
 import java.util.Locale;
 
@@ -19,6 +19,7 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.ShareActionProvider;
 import at.zweng.bankomatinfos.AppController;
+import at.zweng.bankomatinfos.iso7816emv.ReadMetrics;
 import at.zweng.bankomatinfos2.R;
 
 // TODO: maybe also add share action for general and transations fragment
@@ -148,6 +149,9 @@ public class ResultActivity extends FragmentActivity implements
 		} else {
 			menu.findItem(R.id.action_share).setVisible(false);
 		}
+		// timing export is available if we have metrics
+		menu.findItem(R.id.action_export_metrics).setVisible(
+				_controller.getCardInfoNullSafe(this).getReadMetrics() != null);
 		return true;
 	}
 
@@ -160,6 +164,9 @@ public class ResultActivity extends FragmentActivity implements
 		case R.id.action_changelog:
 			showChangelogDialog(getFragmentManager(), true);
 			return true;
+		case R.id.action_export_metrics:
+			exportReadMetrics();
+			return true;
 		case R.id.action_settings:
 			Intent i = new Intent();
 			i.setComponent(new ComponentName(getApplicationContext(),
@@ -170,6 +177,25 @@ public class ResultActivity extends FragmentActivity implements
 		return false;
 	}
 
+	/**
+	 * Share timing metrics of the last read as JSON
+	 */
+	private void exportReadMetrics() {
+		ReadMetrics metrics = _controller.getCardInfoNullSafe(this)
+				.getReadMetrics();
+		if (metrics == null) {
+			return;
+		}
+		Intent shareIntent = new Intent();
+		shareIntent.setAction(Intent.ACTION_SEND);
+		shareIntent.putExtra(android.content.Intent.EXTRA_SUBJECT,
+				getResources().getString(R.string.action_export_metrics_subject));
+		shareIntent.putExtra(Intent.EXTRA_TEXT, metrics.toJson());
+		shareIntent.setType("text/plain");
+		startActivity(Intent.createChooser(shareIntent, getResources()
+				.getString(R.string.action_export_metrics)));
+	}
+
 	@Override
 	public void onTabSelected(ActionBar.Tab tab,
 			FragmentTransaction fragmentTransaction) {
@@ -1,16 +1,26 @@
 package at.zweng.bankomatinfos.ui;
 
+import static at.zweng.bankomatinfos.ui.UiUtils.displaySimpleAlertDialog;
+
+import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.Intent;
 import android.content.res.Configuration;
 import android.os.Build;
+import android.net.Uri;
 import android.os.Bundle;
+import android.preference.Preference;
+import android.preference.Preference.OnPreferenceClickListener;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceFragment;
 import android.support.v4.app.NavUtils;
+import android.support.v4.content.FileProvider;
 import android.view.MenuItem;
+import at.zweng.bankomatinfos.AppController;
 import at.zweng.bankomatinfos2.R;
 
 /**
@@ -33,6 +43,9 @@ public class SettingsActivity extends PreferenceActivity {
 	 */
 	private static final boolean ALWAYS_SIMPLE_PREFS = false;
 
+	// file provider for the recorded APDU sessions (see AndroidManifest.xml)
+	private static final String RECORDINGS_AUTHORITY = "at.zweng.bankomatinfos2.recordings";
+
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
@@ -86,6 +99,84 @@ public class SettingsActivity extends PreferenceActivity {
 
 		// Add 'general' preferences.
 		addPreferencesFromResource(R.xml.pref_general);
+		bindClearReadHistory(findPreference("clear_read_history"));
+		bindShareRecordings(findPreference("share_recorded_sessions"));
+		bindClearRecordings(findPreference("clear_recorded_sessions"));
+	}
+
+	/**
+	 * Deletes the stored card reads when the preference is clicked
+	 * 
+	 * @param preference
+	 */
+	private static void bindClearReadHistory(Preference preference) {
+		preference
+				.setOnPreferenceClickListener(new OnPreferenceClickListener() {
+					@Override
+					public boolean onPreferenceClick(Preference preference) {
+						Context ctx = preference.getContext();
+						AppController.getInstance().getCardHistory(ctx).clear();
+						displaySimpleAlertDialog(ctx, null, ctx
+								.getString(R.string.msg_read_history_cleared));
+						return true;
+					}
+				});
+	}
+
+	/**
+	 * Sends the recorded APDU sessions to another app when the preference is
+	 * clicked (e.g. for analyzing them with the TraceAnalyzer on a PC)
+	 * 
+	 * @param preference
+	 */
+	private static void bindShareRecordings(Preference preference) {
+		preference
+				.setOnPreferenceClickListener(new OnPreferenceClickListener() {
+					@Override
+					public boolean onPreferenceClick(Preference preference) {
+						Context ctx = preference.getContext();
+						File[] files = AppController.getInstance()
+								.getSessionRecordings(ctx).list();
+						if (files.length == 0) {
+							displaySimpleAlertDialog(ctx, null, ctx
+									.getString(R.string.msg_no_recorded_sessions));
+							return true;
+						}
+						ArrayList<Uri> uris = new ArrayList<Uri>();
+						for (File file : files) {
+							uris.add(FileProvider.getUriForFile(ctx,
+									RECORDINGS_AUTHORITY, file));
+						}
+						Intent intent = new Intent(Intent.ACTION_SEND_MULTIPLE);
+						intent.setType("application/octet-stream");
+						intent.putParcelableArrayListExtra(Intent.EXTRA_STREAM,
+								uris);
+						intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+						ctx.startActivity(Intent.createChooser(intent, ctx
+								.getString(R.string.pref_title_share_recorded_sessions)));
+						return true;
+					}
+				});
+	}
+
+	/**
+	 * Deletes the recorded APDU sessions when the preference is clicked
+	 * 
+	 * @param preference
+	 */
+	private static void bindClearRecordings(Preference preference) {
+		preference
+				.setOnPreferenceClickListener(new OnPreferenceClickListener() {
+					@Override
+					public boolean onPreferenceClick(Preference preference) {
+						Context ctx = preference.getContext();
+						AppController.getInstance().getSessionRecordings(ctx)
+								.clear();
+						displaySimpleAlertDialog(ctx, null, ctx
+								.getString(R.string.msg_recorded_sessions_cleared));
+						return true;
+					}
+				});
 	}
 
 	/** {@inheritDoc} */
@@ -134,6 +225,9 @@ public class SettingsActivity extends PreferenceActivity {
 		public void onCreate(Bundle savedInstanceState) {
 			super.onCreate(savedInstanceState);
 			addPreferencesFromResource(R.xml.pref_general);
+			bindClearReadHistory(findPreference("clear_read_history"));
+			bindShareRecordings(findPreference("share_recorded_sessions"));
+			bindClearRecordings(findPreference("clear_recorded_sessions"));
 		}
 	}
 
@@ -0,0 +1,152 @@
+package at.zweng.bankomatinfos.ui;
+
+import static at.zweng.bankomatinfos.util.Utils.TAG;
+import android.app.AlertDialog;
+import android.app.AlertDialog.Builder;
+import android.app.DialogFragment;
+import android.app.FragmentManager;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.text.Html;
+import android.text.Spanned;
+import android.util.Log;
+import at.zweng.bankomatinfos2.R;
+
+/**
+ * Dialog and app helpers which need the Android UI classes (kept out of
+ * {@link at.zweng.bankomatinfos.util.Utils}, so that the card reading code
+ * also loads without them)
+ * 
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class UiUtils {
+
+	/**
+	 * Display a alert dialog
+	 * 
+	 * @param ctx
+	 * @param title
+	 * @param message
+	 */
+	public static void displaySimpleAlertDialog(Context ctx, String title,
+			String message) {
+		Builder builder = new AlertDialog.Builder(ctx);
+		if (title != null) {
+			builder.setTitle(title);
+		}
+		if (message != null) {
+			builder.setMessage(message);
+		}
+		builder.setPositiveButton("OK", new DialogInterface.OnClickListener() {
+			public void onClick(DialogInterface dialog, int id) {
+			}
+		}).create().show();
+	}
+
+	/**
+	 * Returns app version string.
+	 * 
+	 * @param ctx
+	 * @return
+	 */
+	public static String getAppVersion(Context ctx) {
+		PackageManager pm = ctx.getPackageManager();
+		try {
+			PackageInfo info = pm.getPackageInfo(ctx.getPackageName(),
+					PackageManager.GET_ACTIVITIES);
+			if (info == null) {
+				Log.w(TAG, "PackageInfo is null");
+				return "?";
+			}
+			return info.versionName;
+		} catch (NameNotFoundException e) {
+			Log.w(TAG, "PackageInfo NameNotFoundException", e);
+			return "?";
+		}
+	}
+
+	/**
+	 * show about dialog
+	 */
+	public static void showAboutDialog(FragmentManager fm) {
+		DialogFragment aboutFragment = new AboutDialogFragment();
+		aboutFragment.show(fm, "dialog_about");
+	}
+
+	/**
+	 * show changelog dialog
+	 * 
+	 * @param <code>true</code> if full changelog should be shown,
+	 *        <code>false</code> if only changes since last installed app
+	 *        version should be shown
+	 */
+	public static void showChangelogDialog(FragmentManager fm,
+			boolean fullChangelog) {
+		DialogFragment changelogFragment = ChangelogDialogFragment
+				.newInstance(fullChangelog);
+		changelogFragment.show(fm, "dialog_changelog");
+	}
+
+	/**
+	 * about dialog text
+	 * 
+	 * @param ctx
+	 * @return
+	 */
+	public static Spanned getAboutDialogText(Context ctx) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<b><font color=\"#ff3232\">");
+		sb.append(ctx.getResources().getString(R.string.app_name));
+		sb.append("</font></b>");
+		sb.append("<br/><br/>");
+
+		sb.append("<b><font color=\"#ff3232\">Version:</font></b> ");
+		sb.append(getAppVersion(ctx));
+		sb.append("<br/><br/>");
+
+		sb.append("<b><font color=\"#ff3232\">License:</font></b> ");
+		sb.append("GPL-3");
+		sb.append("<br/><br/>");
+
+		sb.append("<b><font color=\"#ff3232\">Author:</font></b>");
+		sb.append("<br/>Johannes Zweng<br/><a");
+		sb.append("href=\"mailto:android-dev@zweng.at?subject=Feedback%20Bankomat%20Info%20App\">");
+		sb.append("android-dev@zweng.at</a><br/>");
+		sb.append("<i>Be curious! Have fun! :-)</i>");
+		sb.append("<br/><br/>");
+
+		// SOURCECODE
+		sb.append("<b><font color=\"#ff3232\">Sourcecode:</font></b>");
+		sb.append("<br/>Sourcecode of this app: https://github.com/johnzweng/bankomatinfos");
+		sb.append("<br/><br/>");
+
+		// DOWNLOADS
+		sb.append("<b><font color=\"#ff3232\">Downloads:</font></b>");
+		sb.append("<br/>You can find this (and all previous versions) of this app here: http://johannes.zweng.at/android/Market/BankomatInfos");
+		sb.append("<br/><br/>");
+
+		// ICON
+		sb.append("<b><font color=\"#ff3232\">App icon:</font></b>");
+		sb.append("<br/>Copyright owner of the app's icon: https://www.iconfinder.com/zohanimasi");
+		sb.append("<br/>The icon <b>may not be used or re-distributed</b> in any form without the ");
+		sb.append("permission of the icon's copyright owner!");
+		sb.append("<br/><br/>");
+
+		// CREDITS
+		sb.append("<b><font color=\"#ff3232\">Credits:</font></b>");
+
+		// javaemvreader
+		sb.append("<br/>&#8226; Uses some classes from http://code.google.com/p/javaemvreader/ ");
+		sb.append("project (licensed under Apache 2.0 license). Many thanks! :-)");
+		sb.append("<br/>");
+
+		// changelog
+		sb.append("<br/>&#8226; Thanks to Karsten Priegnitz for his easy-to-use changelog builder: https://code.google.com/p/android-change-log/");
+
+		sb.append("<br/>");
+		return Html.fromHtml(sb.toString());
+	}
+}
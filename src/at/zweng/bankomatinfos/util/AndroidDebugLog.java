@@ -0,0 +1,27 @@
+package at.zweng.bankomatinfos.util;
+
+import static at.zweng.bankomatinfos.util.Utils.TAG;
+import android.util.Log;
+
+/**
+ * {@link DebugLog} writing to the Android log
+ * 
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class AndroidDebugLog extends DebugLog {
+
+	@Override
+	public boolean isDebugEnabled() {
+		return Log.isLoggable(TAG, Log.DEBUG);
+	}
+
+	@Override
+	public void d(String msg) {
+		Log.d(TAG, msg);
+	}
+
+	@Override
+	public void w(String msg, Throwable tr) {
+		Log.w(TAG, msg, tr);
+	}
+}
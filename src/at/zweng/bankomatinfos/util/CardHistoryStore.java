@@ -0,0 +1,916 @@
+package at.zweng.bankomatinfos.util;
+
+import static at.zweng.bankomatinfos.util.Utils.sha256Hex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.Context;
+import at.zweng.bankomatinfos.model.CardInfo;
+import at.zweng.bankomatinfos.model.TransactionLogTable;
+
+/**
+ * Persistent history of card reads in the app's private storage. Every read
+ * is appended to a segment file. A record holds the read time, a SHA-256
+ * hash of the card key (see {@link CardInfo#getCardKey()}) and the data read
+ * without identifiers (see {@link CardInfo#withoutCardIdentifiers()}), so no
+ * card number, CUID or NFC tag ID is written. Next to it small index files
+ * with fixed size entries are appended:
+ * <ul>
+ * <li>the reads (time, position in the segment, card)</li>
+ * <li>the hashed keys of the cards seen so far</li>
+ * <li>the transactions by timestamp. A transaction is only indexed if it was
+ * not in the log of the previous read of the card, so it is found once even
+ * if it is still in the log on later reads.</li>
+ * </ul>
+ * The indexes are loaded into memory on first use, so "all reads of this
+ * card", "all reads in this week" or "all transactions in October" only read
+ * the matching records from the segment. The transactions of one card are
+ * looked up by the card, not by searching the time range.<br>
+ * <br>
+ * Reads older than the retention time are deleted, and the oldest reads are
+ * deleted if the segment grows beyond the size limit (see
+ * {@link #setLimits(long, long)}). Deleting copies the remaining records to a
+ * new segment and indexes them again, so it is done with some slack: reads
+ * are deleted up to an eighth of the retention time late, and the segment is
+ * cut down to three quarters of the size limit.<br>
+ * <br>
+ * If the app is killed during an append, the incomplete entries are cut off
+ * and a read missing in the indexes is indexed again the next time the store
+ * is loaded. All methods are synchronized, so a store can be shared between
+ * the reader thread and the UI.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class CardHistoryStore {
+
+	/**
+	 * Default retention time of a read (90 days)
+	 */
+	public static final long DEFAULT_RETENTION_MILLIS = 90L * 24 * 60 * 60 * 1000;
+
+	/**
+	 * Default size limit of the segment file (16 MB)
+	 */
+	public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+	private static final String DIR_NAME = "history";
+	private static final String SEGMENT_FILE = "reads.dat";
+	private static final String NEW_SEGMENT_FILE = "reads.tmp";
+	private static final String READ_INDEX_FILE = "reads.idx";
+	private static final String CARD_INDEX_FILE = "cards.idx";
+	private static final String TX_INDEX_FILE = "transactions.idx";
+
+	// version 1 contained the card identifiers
+	private static final int RECORD_VERSION = 2;
+	// time, segment offset, record length, card number
+	private static final int READ_ENTRY_LENGTH = 8 + 8 + 4 + 4;
+	// timestamp, read number, row
+	private static final int TX_ENTRY_LENGTH = 8 + 4 + 4;
+	private static final int NO_CARD = -1;
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final TextProvider _texts;
+	private final File _dir;
+	private long _retentionMillis = DEFAULT_RETENTION_MILLIS;
+	private long _maxBytes = DEFAULT_MAX_BYTES;
+	private boolean _loaded;
+	private long _segmentLength;
+
+	// reads, by read number (= order of appending)
+	private int _readCount;
+	private long[] _readTimes;
+	private long[] _readOffsets;
+	private int[] _readLengths;
+	private int[] _readCards;
+	private SortedIndex _readsByTime;
+
+	// cards, by card number
+	private int _cardCount;
+	private Map<String, Integer> _cardNumbers;
+	private int[][] _cardReads;
+	private int[] _cardReadCounts;
+	private int[][] _cardTxs;
+	private int[] _cardTxCounts;
+	// sorted keys of the transactions in the last read of each card (loaded
+	// when the card is appended again), at most one transaction log per card
+	private long[][] _cardLastTxKeys;
+
+	// transactions, by transaction number
+	private int _txCount;
+	private long[] _txTimes;
+	private int[] _txReads;
+	private int[] _txRows;
+	private SortedIndex _txByTime;
+
+	/**
+	 * Constructor
+	 *
+	 * @param ctx
+	 */
+	public CardHistoryStore(Context ctx) {
+		this(new ContextTextProvider(ctx), new File(ctx.getFilesDir(),
+				DIR_NAME));
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param texts
+	 *            for restoring {@link CardInfo}s
+	 * @param dir
+	 *            directory where the history is stored
+	 */
+	public CardHistoryStore(TextProvider texts, File dir) {
+		this._texts = texts;
+		this._dir = dir;
+	}
+
+	/**
+	 * Sets how long reads are kept and how large the history may grow
+	 * (applied when the next read is appended)
+	 *
+	 * @param retentionMillis
+	 *            maximum age of a read, relative to the read time of the
+	 *            appended read (millis)
+	 * @param maxBytes
+	 *            maximum size of the segment file
+	 */
+	public synchronized void setLimits(long retentionMillis, long maxBytes) {
+		if (retentionMillis <= 0 || maxBytes <= 0) {
+			throw new IllegalArgumentException("invalid limits: "
+					+ retentionMillis + " ms, " + maxBytes + " bytes");
+		}
+		this._retentionMillis = retentionMillis;
+		this._maxBytes = maxBytes;
+	}
+
+	/**
+	 * Appends a read to the history, deletes old reads if a limit is exceeded
+	 *
+	 * @param info
+	 *            data read from the card
+	 * @param readTime
+	 *            when the card was read (millis)
+	 * @return number of the read in the history
+	 * @throws IOException
+	 */
+	public synchronized int append(CardInfo info, long readTime)
+			throws IOException {
+		ensureLoaded();
+		if (!_dir.isDirectory() && !_dir.mkdirs()) {
+			throw new IOException("cannot create directory " + _dir);
+		}
+		String cardHash = info.getCardKey() == null ? null : sha256Hex(info
+				.getCardKey());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+		DataOutputStream record = new DataOutputStream(bytes);
+		record.writeByte(RECORD_VERSION);
+		record.writeLong(readTime);
+		record.writeUTF(cardHash == null ? "" : cardHash);
+		info.withoutCardIdentifiers().writeTo(record);
+		record.flush();
+		DataOutputStream out = openForAppend(SEGMENT_FILE);
+		try {
+			out.writeInt(bytes.size());
+			bytes.writeTo(out);
+		} finally {
+			out.close();
+		}
+		long offset = _segmentLength;
+		_segmentLength += 4 + bytes.size();
+		int read = index(readTime, offset, bytes.size(), cardHash,
+				info.getTransactionLog());
+		if (_segmentLength > _maxBytes
+				|| _readsByTime.firstKey() < readTime - _retentionMillis
+						- _retentionMillis / 8) {
+			prune(readTime);
+			// the appended read is always kept
+			read = _readCount - 1;
+		}
+		return read;
+	}
+
+	/**
+	 * @return number of reads in the history
+	 * @throws IOException
+	 */
+	public synchronized int size() throws IOException {
+		ensureLoaded();
+		return _readCount;
+	}
+
+	/**
+	 * @param read
+	 *            number of the read
+	 * @return when the card was read (millis)
+	 * @throws IOException
+	 */
+	public synchronized long getReadTime(int read) throws IOException {
+		ensureLoaded();
+		checkRead(read);
+		return _readTimes[read];
+	}
+
+	/**
+	 * @param cardKey
+	 *            see {@link CardInfo#getCardKey()}
+	 * @return numbers of all reads of the card (oldest first)
+	 * @throws IOException
+	 */
+	public synchronized int[] findReads(String cardKey) throws IOException {
+		ensureLoaded();
+		Integer card = findCard(cardKey);
+		if (card == null) {
+			return new int[0];
+		}
+		return Arrays.copyOf(_cardReads[card], _cardReadCounts[card]);
+	}
+
+	/**
+	 * @param from
+	 *            (millis, inclusive)
+	 * @param to
+	 *            (millis, exclusive)
+	 * @return numbers of the reads in the time range (by read time)
+	 * @throws IOException
+	 */
+	public synchronized int[] findReads(long from, long to) throws IOException {
+		ensureLoaded();
+		return _readsByTime.range(from, to);
+	}
+
+	/**
+	 * Restores a read (without the card identifiers, see
+	 * {@link CardInfo#withoutCardIdentifiers()})
+	 *
+	 * @param read
+	 *            number of the read
+	 * @return the data read from the card
+	 * @throws IOException
+	 */
+	public synchronized CardInfo load(int read) throws IOException {
+		ensureLoaded();
+		checkRead(read);
+		RandomAccessFile segment = new RandomAccessFile(new File(_dir,
+				SEGMENT_FILE), "r");
+		try {
+			return readRecord(segment, read);
+		} finally {
+			segment.close();
+		}
+	}
+
+	/**
+	 * @param from
+	 *            (millis, inclusive)
+	 * @param to
+	 *            (millis, exclusive)
+	 * @return the transactions of all cards in the time range (by timestamp,
+	 *         oldest first)
+	 * @throws IOException
+	 */
+	public synchronized TransactionLogTable findTransactions(long from, long to)
+			throws IOException {
+		return findTransactions(null, from, to);
+	}
+
+	/**
+	 * @param cardKey
+	 *            see {@link CardInfo#getCardKey()}, or <code>null</code> for
+	 *            all cards
+	 * @param from
+	 *            (millis, inclusive)
+	 * @param to
+	 *            (millis, exclusive)
+	 * @return the transactions of the card in the time range (by timestamp,
+	 *         oldest first)
+	 * @throws IOException
+	 */
+	public synchronized TransactionLogTable findTransactions(String cardKey,
+			long from, long to) throws IOException {
+		ensureLoaded();
+		TransactionLogTable result = new TransactionLogTable();
+		int[] txs;
+		if (cardKey == null) {
+			txs = _txByTime.range(from, to);
+		} else {
+			Integer card = findCard(cardKey);
+			if (card == null) {
+				return result;
+			}
+			txs = findCardTransactions(card, from, to);
+		}
+		if (txs.length == 0) {
+			return result;
+		}
+		// several transactions usually come from the same read
+		Map<Integer, TransactionLogTable> logs;
+		logs = new HashMap<Integer, TransactionLogTable>();
+		RandomAccessFile segment = new RandomAccessFile(new File(_dir,
+				SEGMENT_FILE), "r");
+		try {
+			for (int tx : txs) {
+				int read = _txReads[tx];
+				TransactionLogTable log = logs.get(read);
+				if (log == null) {
+					log = readRecord(segment, read).getTransactionLog();
+					logs.put(read, log);
+				}
+				result.addRow(log, _txRows[tx]);
+			}
+		} finally {
+			segment.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Deletes the whole history
+	 */
+	public synchronized void clear() {
+		deleteFiles(SEGMENT_FILE, NEW_SEGMENT_FILE, READ_INDEX_FILE,
+				CARD_INDEX_FILE, TX_INDEX_FILE);
+		_loaded = false;
+	}
+
+	private void deleteFiles(String... names) {
+		for (String name : names) {
+			new File(_dir, name).delete();
+		}
+	}
+
+	private Integer findCard(String cardKey) {
+		return cardKey == null ? null : _cardNumbers.get(sha256Hex(cardKey));
+	}
+
+	/**
+	 * @return the card's transactions with from <= timestamp < to (by
+	 *         timestamp, equal timestamps in the order of indexing)
+	 */
+	private int[] findCardTransactions(int card, long from, long to) {
+		int[] txs = new int[_cardTxCounts[card]];
+		int count = 0;
+		for (int i = 0; i < _cardTxCounts[card]; i++) {
+			int tx = _cardTxs[card][i];
+			long timestamp = _txTimes[tx];
+			if (timestamp < from || timestamp >= to) {
+				continue;
+			}
+			// insertion sort, transactions are mostly indexed in order
+			int pos = count++;
+			while (pos > 0 && _txTimes[txs[pos - 1]] > timestamp) {
+				txs[pos] = txs[pos - 1];
+				pos--;
+			}
+			txs[pos] = tx;
+		}
+		return Arrays.copyOf(txs, count);
+	}
+
+	private void checkRead(int read) {
+		if (read < 0 || read >= _readCount) {
+			throw new IndexOutOfBoundsException("read: " + read + ", size: "
+					+ _readCount);
+		}
+	}
+
+	private byte[] readRecordBytes(RandomAccessFile segment, int read)
+			throws IOException {
+		byte[] record = new byte[_readLengths[read]];
+		segment.seek(_readOffsets[read] + 4);
+		segment.readFully(record);
+		return record;
+	}
+
+	private CardInfo readRecord(RandomAccessFile segment, int read)
+			throws IOException {
+		DataInputStream in = openRecord(readRecordBytes(segment, read));
+		// read time and card (are in the index)
+		in.readLong();
+		in.readUTF();
+		return CardInfo.readFrom(_texts, in);
+	}
+
+	/**
+	 * @return stream positioned after the version of the record
+	 */
+	private static DataInputStream openRecord(byte[] record)
+			throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				record));
+		int version = in.readUnsignedByte();
+		if (version != RECORD_VERSION) {
+			throw new IOException("unsupported history record version "
+					+ version);
+		}
+		return in;
+	}
+
+	/**
+	 * Adds a read (already written to the segment) to the indexes: card hash
+	 * first, then the transactions, the read itself last (a read is complete
+	 * once its index entry is written)
+	 */
+	private int index(long readTime, long offset, int length, String cardHash,
+			TransactionLogTable log) throws IOException {
+		int read = _readCount;
+		int card = NO_CARD;
+		long[] previousKeys = null;
+		if (cardHash != null) {
+			Integer number = _cardNumbers.get(cardHash);
+			if (number == null) {
+				DataOutputStream out = openForAppend(CARD_INDEX_FILE);
+				try {
+					out.writeUTF(cardHash);
+				} finally {
+					out.close();
+				}
+				number = addCard(cardHash);
+			}
+			card = number;
+			previousKeys = getLastTransactionKeys(card);
+		}
+		DataOutputStream out = openForAppend(TX_INDEX_FILE);
+		try {
+			for (int row = 0; row < log.size(); row++) {
+				if (!log.hasTimestamp(row)) {
+					continue;
+				}
+				// already indexed from the previous read of the card?
+				if (previousKeys != null
+						&& Arrays.binarySearch(previousKeys, txKey(log, row)) >= 0) {
+					continue;
+				}
+				long timestamp = log.getTimestamp(row);
+				addTransaction(card, timestamp, read, row);
+				out.writeLong(timestamp);
+				out.writeInt(read);
+				out.writeInt(row);
+			}
+		} finally {
+			out.close();
+		}
+		out = openForAppend(READ_INDEX_FILE);
+		try {
+			out.writeLong(readTime);
+			out.writeLong(offset);
+			out.writeInt(length);
+			out.writeInt(card);
+		} finally {
+			out.close();
+		}
+		addRead(readTime, offset, length, card);
+		if (card != NO_CARD) {
+			_cardLastTxKeys[card] = txKeys(log);
+		}
+		return read;
+	}
+
+	/**
+	 * @return sorted keys of the transactions in the last read of the card
+	 */
+	private long[] getLastTransactionKeys(int card) throws IOException {
+		if (_cardLastTxKeys[card] == null) {
+			TransactionLogTable log = new TransactionLogTable();
+			if (_cardReadCounts[card] > 0) {
+				RandomAccessFile segment = new RandomAccessFile(new File(_dir,
+						SEGMENT_FILE), "r");
+				try {
+					log = readRecord(segment,
+							_cardReads[card][_cardReadCounts[card] - 1])
+							.getTransactionLog();
+				} finally {
+					segment.close();
+				}
+			}
+			_cardLastTxKeys[card] = txKeys(log);
+		}
+		return _cardLastTxKeys[card];
+	}
+
+	private static long[] txKeys(TransactionLogTable log) {
+		long[] keys = new long[log.size()];
+		int count = 0;
+		for (int row = 0; row < log.size(); row++) {
+			if (log.hasTimestamp(row)) {
+				keys[count++] = txKey(log, row);
+			}
+		}
+		keys = Arrays.copyOf(keys, count);
+		Arrays.sort(keys);
+		return keys;
+	}
+
+	/**
+	 * @return timestamp, ATC and amount of the transaction (64 bit hash,
+	 *         collisions are negligible for the transactions of one card)
+	 */
+	private static long txKey(TransactionLogTable log, int row) {
+		long h = log.getTimestamp(row);
+		h = h * 0x9E3779B97F4A7C15L + log.getAmount(row);
+		return h * 0x9E3779B97F4A7C15L + log.getAtc(row);
+	}
+
+	private int addCard(String cardHash) {
+		int card = _cardCount++;
+		_cardNumbers.put(cardHash, card);
+		if (card == _cardReads.length) {
+			int capacity = card * 2;
+			_cardReads = Arrays.copyOf(_cardReads, capacity);
+			_cardReadCounts = Arrays.copyOf(_cardReadCounts, capacity);
+			_cardTxs = Arrays.copyOf(_cardTxs, capacity);
+			_cardTxCounts = Arrays.copyOf(_cardTxCounts, capacity);
+			_cardLastTxKeys = Arrays.copyOf(_cardLastTxKeys, capacity);
+		}
+		_cardReads[card] = new int[4];
+		_cardTxs[card] = new int[16];
+		return card;
+	}
+
+	private void addRead(long readTime, long offset, int length, int card) {
+		int read = _readCount++;
+		if (read == _readTimes.length) {
+			int capacity = read * 2;
+			_readTimes = Arrays.copyOf(_readTimes, capacity);
+			_readOffsets = Arrays.copyOf(_readOffsets, capacity);
+			_readLengths = Arrays.copyOf(_readLengths, capacity);
+			_readCards = Arrays.copyOf(_readCards, capacity);
+		}
+		_readTimes[read] = readTime;
+		_readOffsets[read] = offset;
+		_readLengths[read] = length;
+		_readCards[read] = card;
+		_readsByTime.insert(readTime, read);
+		if (card != NO_CARD) {
+			int count = _cardReadCounts[card]++;
+			if (count == _cardReads[card].length) {
+				_cardReads[card] = Arrays.copyOf(_cardReads[card], count * 2);
+			}
+			_cardReads[card][count] = read;
+		}
+	}
+
+	private void addTransaction(int card, long timestamp, int read, int row) {
+		int tx = _txCount++;
+		if (tx == _txReads.length) {
+			int capacity = tx * 2;
+			_txTimes = Arrays.copyOf(_txTimes, capacity);
+			_txReads = Arrays.copyOf(_txReads, capacity);
+			_txRows = Arrays.copyOf(_txRows, capacity);
+		}
+		_txTimes[tx] = timestamp;
+		_txReads[tx] = read;
+		_txRows[tx] = row;
+		_txByTime.insert(timestamp, tx);
+		if (card != NO_CARD) {
+			int count = _cardTxCounts[card]++;
+			if (count == _cardTxs[card].length) {
+				_cardTxs[card] = Arrays.copyOf(_cardTxs[card], count * 2);
+			}
+			_cardTxs[card][count] = tx;
+		}
+	}
+
+	/**
+	 * Deletes the reads older than the retention time and the oldest reads
+	 * exceeding three quarters of the size limit (the newest read is always
+	 * kept): copies the other records to a new segment, which is indexed
+	 * again
+	 */
+	private void prune(long now) throws IOException {
+		long minReadTime = now - _retentionMillis;
+		long maxBytes = _maxBytes / 4 * 3;
+		boolean[] keep = new boolean[_readCount];
+		long bytes = 0;
+		for (int read = _readCount - 1; read >= 0; read--) {
+			if (read < _readCount - 1 && _readTimes[read] < minReadTime) {
+				continue;
+			}
+			bytes += 4 + _readLengths[read];
+			if (read < _readCount - 1 && bytes > maxBytes) {
+				break;
+			}
+			keep[read] = true;
+		}
+		File newSegment = new File(_dir, NEW_SEGMENT_FILE);
+		RandomAccessFile segment = new RandomAccessFile(new File(_dir,
+				SEGMENT_FILE), "r");
+		try {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(newSegment)));
+			try {
+				for (int read = 0; read < _readCount; read++) {
+					if (keep[read]) {
+						out.writeInt(_readLengths[read]);
+						out.write(readRecordBytes(segment, read));
+					}
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			segment.close();
+		}
+		// without indexes the segment is indexed again when loading, also if
+		// the app is killed before the new segment replaced the old one
+		deleteFiles(READ_INDEX_FILE, CARD_INDEX_FILE, TX_INDEX_FILE);
+		File file = new File(_dir, SEGMENT_FILE);
+		if (!newSegment.renameTo(file)
+				&& !(file.delete() && newSegment.renameTo(file))) {
+			throw new IOException("cannot replace " + file);
+		}
+		_loaded = false;
+		ensureLoaded();
+	}
+
+	private DataOutputStream openForAppend(String name) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(_dir, name), true)));
+	}
+
+	private void ensureLoaded() throws IOException {
+		if (_loaded) {
+			return;
+		}
+		_readCount = 0;
+		_readTimes = new long[INITIAL_CAPACITY];
+		_readOffsets = new long[INITIAL_CAPACITY];
+		_readLengths = new int[INITIAL_CAPACITY];
+		_readCards = new int[INITIAL_CAPACITY];
+		_readsByTime = new SortedIndex();
+		_cardCount = 0;
+		_cardNumbers = new HashMap<String, Integer>();
+		_cardReads = new int[INITIAL_CAPACITY][];
+		_cardReadCounts = new int[INITIAL_CAPACITY];
+		_cardTxs = new int[INITIAL_CAPACITY][];
+		_cardTxCounts = new int[INITIAL_CAPACITY];
+		_cardLastTxKeys = new long[INITIAL_CAPACITY][];
+		_txCount = 0;
+		_txTimes = new long[INITIAL_CAPACITY];
+		_txReads = new int[INITIAL_CAPACITY];
+		_txRows = new int[INITIAL_CAPACITY];
+		_txByTime = new SortedIndex();
+		if (getSegmentVersion() < RECORD_VERSION) {
+			// the first version stored the card identifiers
+			DebugLog.getDefault().w("deleting card history of an older version");
+			clear();
+		}
+		_segmentLength = new File(_dir, SEGMENT_FILE).length();
+		loadCards();
+		loadReads();
+		loadTransactions();
+		recoverUnindexedReads();
+		_loaded = true;
+	}
+
+	/**
+	 * @return version of the first record, {@link #RECORD_VERSION} if there
+	 *         is none
+	 */
+	private int getSegmentVersion() throws IOException {
+		File file = new File(_dir, SEGMENT_FILE);
+		if (file.length() < 5) {
+			return RECORD_VERSION;
+		}
+		RandomAccessFile segment = new RandomAccessFile(file, "r");
+		try {
+			segment.seek(4);
+			return segment.readUnsignedByte();
+		} finally {
+			segment.close();
+		}
+	}
+
+	private void loadCards() throws IOException {
+		File file = new File(_dir, CARD_INDEX_FILE);
+		if (!file.isFile()) {
+			return;
+		}
+		byte[] data = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			in.readFully(data);
+		} finally {
+			in.close();
+		}
+		DataInputStream hashes = new DataInputStream(new ByteArrayInputStream(
+				data));
+		int valid = 0;
+		try {
+			while (hashes.available() > 0) {
+				addCard(hashes.readUTF());
+				valid = data.length - hashes.available();
+			}
+		} catch (EOFException e) {
+			truncate(file, valid);
+		}
+	}
+
+	private void loadReads() throws IOException {
+		File file = new File(_dir, READ_INDEX_FILE);
+		if (!file.isFile()) {
+			return;
+		}
+		long entries = file.length() / READ_ENTRY_LENGTH;
+		long expectedOffset = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			for (long i = 0; i < entries; i++) {
+				long readTime = in.readLong();
+				long offset = in.readLong();
+				int length = in.readInt();
+				int card = in.readInt();
+				if (offset != expectedOffset || length < 0
+						|| offset + 4 + length > _segmentLength
+						|| card < NO_CARD || card >= _cardCount) {
+					break;
+				}
+				addRead(readTime, offset, length, card);
+				expectedOffset = offset + 4 + length;
+			}
+		} finally {
+			in.close();
+		}
+		if (file.length() != (long) _readCount * READ_ENTRY_LENGTH) {
+			truncate(file, (long) _readCount * READ_ENTRY_LENGTH);
+		}
+	}
+
+	private void loadTransactions() throws IOException {
+		File file = new File(_dir, TX_INDEX_FILE);
+		if (!file.isFile()) {
+			return;
+		}
+		long entries = file.length() / TX_ENTRY_LENGTH;
+		long valid = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			for (long i = 0; i < entries; i++) {
+				long timestamp = in.readLong();
+				int read = in.readInt();
+				int row = in.readInt();
+				if (read < 0 || read >= _readCount) {
+					// written for a read which was not completed
+					break;
+				}
+				addTransaction(_readCards[read], timestamp, read, row);
+				valid++;
+			}
+		} finally {
+			in.close();
+		}
+		if (file.length() != valid * TX_ENTRY_LENGTH) {
+			truncate(file, valid * TX_ENTRY_LENGTH);
+		}
+	}
+
+	/**
+	 * Indexes the reads at the end of the segment which are missing in the
+	 * index (app killed after writing the segment), cuts off an incomplete
+	 * record
+	 */
+	private void recoverUnindexedReads() throws IOException {
+		long offset = 0;
+		if (_readCount > 0) {
+			offset = _readOffsets[_readCount - 1] + 4
+					+ _readLengths[_readCount - 1];
+		}
+		if (offset >= _segmentLength) {
+			return;
+		}
+		File file = new File(_dir, SEGMENT_FILE);
+		RandomAccessFile segment = new RandomAccessFile(file, "r");
+		try {
+			while (offset + 4 <= _segmentLength) {
+				segment.seek(offset);
+				int length = segment.readInt();
+				if (length < 0 || offset + 4 + length > _segmentLength) {
+					break;
+				}
+				byte[] record = new byte[length];
+				segment.readFully(record);
+				long readTime;
+				String cardHash;
+				TransactionLogTable log;
+				try {
+					DataInputStream in = openRecord(record);
+					readTime = in.readLong();
+					cardHash = in.readUTF();
+					log = CardInfo.readFrom(_texts, in).getTransactionLog();
+				} catch (IOException e) {
+					DebugLog.getDefault().w("dropping invalid card history record", e);
+					break;
+				} catch (RuntimeException e) {
+					DebugLog.getDefault().w("dropping invalid card history record", e);
+					break;
+				}
+				index(readTime, offset, length,
+						cardHash.length() == 0 ? null : cardHash, log);
+				offset += 4 + length;
+			}
+		} finally {
+			segment.close();
+		}
+		if (offset < _segmentLength) {
+			truncate(file, offset);
+			_segmentLength = offset;
+		}
+	}
+
+	private static void truncate(File file, long length) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(length);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Values sorted by a long key (timestamp), equal keys in insertion order.
+	 * Keys are mostly appended in ascending order, so inserting is cheap.
+	 */
+	private static class SortedIndex {
+		private long[] _keys = new long[INITIAL_CAPACITY];
+		private int[] _values = new int[INITIAL_CAPACITY];
+		private int _size;
+
+		void insert(long key, int value) {
+			if (_size == _keys.length) {
+				_keys = Arrays.copyOf(_keys, _size * 2);
+				_values = Arrays.copyOf(_values, _size * 2);
+			}
+			int pos = _size;
+			if (_size > 0 && _keys[_size - 1] > key) {
+				pos = firstAbove(key);
+				System.arraycopy(_keys, pos, _keys, pos + 1, _size - pos);
+				System.arraycopy(_values, pos, _values, pos + 1, _size - pos);
+			}
+			_keys[pos] = key;
+			_values[pos] = value;
+			_size++;
+		}
+
+		/**
+		 * @return smallest key (index must not be empty)
+		 */
+		long firstKey() {
+			return _keys[0];
+		}
+
+		/**
+		 * @return values with from <= key < to
+		 */
+		int[] range(long from, long to) {
+			if (from >= to) {
+				return new int[0];
+			}
+			return Arrays.copyOfRange(_values, firstAtLeast(from),
+					firstAtLeast(to));
+		}
+
+		private int firstAtLeast(long key) {
+			int low = 0;
+			int high = _size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (_keys[mid] < key) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		private int firstAbove(long key) {
+			int low = 0;
+			int high = _size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (_keys[mid] <= key) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package at.zweng.bankomatinfos.util;
+
+import static at.zweng.bankomatinfos.util.Utils.sha256Hex;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import android.content.Context;
+import at.zweng.bankomatinfos.model.CardProfile;
+import at.zweng.bankomatinfos.model.CardProfile.ApplicationProfile;
+
+/**
+ * Persists {@link CardProfile}s as small properties files in the app's private
+ * storage (one file per card). A file contains only a SHA-256 hash of the
+ * profile key, the time of the last read, the AIDs, the log SFI and log format,
+ * the successful GET DATA commands and the locations of the non-empty records.
+ * Neither CUID nor PAN nor any transaction data is written to disk.<br>
+ * <br>
+ * The transaction logs and ATCs needed for the incremental read are only kept
+ * in memory (for the lifetime of this store object).
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class CardProfileStore {
+
+	private static final String DIR_NAME = "card_profiles";
+	private static final String FILE_SUFFIX = ".properties";
+
+	private static final String PROP_KEY = "key";
+	private static final String PROP_LAST_SEEN = "lastSeen";
+	private static final String PROP_QUICK = "quick";
+	private static final String PROP_APPS = "apps";
+	private static final String PROP_APP_PREFIX = "app.";
+	private static final String PROP_LOG_FORMAT = ".logFormat";
+	private static final String PROP_LOG_SFI = ".logSfi";
+	private static final String PROP_COMMANDS = ".commands";
+	private static final String PROP_RECORDS = ".records";
+
+	private final File _dir;
+	// complete profiles (incl. transaction logs) saved during this session,
+	// by hashed key
+	private final Map<String, CardProfile> _saved = new HashMap<String, CardProfile>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param ctx
+	 */
+	public CardProfileStore(Context ctx) {
+		this(new File(ctx.getFilesDir(), DIR_NAME));
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param dir
+	 *            directory where profiles are stored
+	 */
+	public CardProfileStore(File dir) {
+		this._dir = dir;
+	}
+
+	/**
+	 * Loads a profile
+	 *
+	 * @param key
+	 * @return profile or <code>null</code> if card is not known (or the
+	 *         profile could not be read)
+	 */
+	public CardProfile load(String key) {
+		synchronized (_saved) {
+			CardProfile profile = _saved.get(sha256Hex(key));
+			if (profile != null) {
+				return profile;
+			}
+		}
+		File file = fileForKey(key);
+		if (!file.isFile()) {
+			return null;
+		}
+		Properties props = new Properties();
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			props.load(in);
+			if (key.equals(props.getProperty(PROP_KEY))) {
+				// written by an older version which stored the plain key
+				file.delete();
+				return null;
+			}
+			return fromProperties(key, props);
+		} catch (IOException e) {
+			DebugLog.getDefault().w("could not read card profile " + file, e);
+		} catch (RuntimeException e) {
+			DebugLog.getDefault().w("invalid card profile " + file, e);
+		} finally {
+			closeQuietly(in);
+		}
+		return null;
+	}
+
+	/**
+	 * Stores a profile (replaces older profile of this card)
+	 *
+	 * @param profile
+	 * @throws IOException
+	 */
+	public void save(CardProfile profile) throws IOException {
+		if (!_dir.isDirectory() && !_dir.mkdirs()) {
+			throw new IOException("cannot create directory " + _dir);
+		}
+		File file = fileForKey(profile.getKey());
+		File tmp = new File(file.getPath() + ".tmp");
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(tmp);
+			toProperties(profile).store(out, null);
+		} finally {
+			closeQuietly(out);
+		}
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("cannot write " + file);
+		}
+		synchronized (_saved) {
+			_saved.put(sha256Hex(profile.getKey()), profile);
+		}
+	}
+
+	/**
+	 * Deletes all stored profiles
+	 */
+	public void clear() {
+		synchronized (_saved) {
+			_saved.clear();
+		}
+		File[] files = _dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File f : files) {
+			if (f.getName().endsWith(FILE_SUFFIX)) {
+				f.delete();
+			}
+		}
+	}
+
+	private File fileForKey(String key) {
+		return new File(_dir, sha256Hex(key).substring(0, 32) + FILE_SUFFIX);
+	}
+
+	private static Properties toProperties(CardProfile profile) {
+		Properties props = new Properties();
+		props.setProperty(PROP_KEY, sha256Hex(profile.getKey()));
+		props.setProperty(PROP_LAST_SEEN, Long.toString(profile.getLastSeen()));
+		props.setProperty(PROP_QUICK, Boolean.toString(profile.isQuickCard()));
+		StringBuilder apps = new StringBuilder();
+		for (ApplicationProfile app : profile.getApplications()) {
+			if (apps.length() > 0) {
+				apps.append(',');
+			}
+			apps.append(app.getAid());
+			String prefix = PROP_APP_PREFIX + app.getAid();
+			if (app.getLogFormat() != null) {
+				props.setProperty(prefix + PROP_LOG_FORMAT, app.getLogFormat());
+			}
+			props.setProperty(prefix + PROP_LOG_SFI,
+					Integer.toString(app.getLogSfi()));
+			props.setProperty(prefix + PROP_COMMANDS,
+					join(app.getSuccessfulCommands()));
+			props.setProperty(prefix + PROP_RECORDS, join(app.getRecords()));
+		}
+		props.setProperty(PROP_APPS, apps.toString());
+		return props;
+	}
+
+	private static CardProfile fromProperties(String key, Properties props) {
+		if (!sha256Hex(key).equals(props.getProperty(PROP_KEY))) {
+			// hash collision or foreign file
+			return null;
+		}
+		CardProfile profile = new CardProfile(key);
+		profile.setLastSeen(Long.parseLong(props.getProperty(PROP_LAST_SEEN,
+				"0")));
+		profile.setQuickCard(Boolean.parseBoolean(props
+				.getProperty(PROP_QUICK)));
+		for (String aid : split(props.getProperty(PROP_APPS, ""))) {
+			ApplicationProfile app = profile.addApplication(aid);
+			String prefix = PROP_APP_PREFIX + aid;
+			app.setLogFormat(props.getProperty(prefix + PROP_LOG_FORMAT));
+			app.setLogSfi(Integer.parseInt(props.getProperty(prefix
+					+ PROP_LOG_SFI, "-1")));
+			for (String cmd : split(props.getProperty(prefix + PROP_COMMANDS,
+					""))) {
+				app.addSuccessfulCommand(cmd);
+			}
+			for (String rec : split(props.getProperty(prefix + PROP_RECORDS,
+					""))) {
+				String[] parts = rec.split(":");
+				app.addRecord(Integer.parseInt(parts[0]),
+						Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+			}
+		}
+		return profile;
+	}
+
+	private static String join(Iterable<?> values) {
+		StringBuilder sb = new StringBuilder();
+		for (Object v : values) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(v);
+		}
+		return sb.toString();
+	}
+
+	private static String[] split(String value) {
+		if (value.length() == 0) {
+			return new String[0];
+		}
+		return value.split(",");
+	}
+
+	private static void closeQuietly(java.io.Closeable c) {
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+}
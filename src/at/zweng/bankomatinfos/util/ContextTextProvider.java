@@ -0,0 +1,27 @@
+package at.zweng.bankomatinfos.util;
+
+import android.content.Context;
+
+/**
+ * {@link TextProvider} reading the app's string resources
+ * 
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ContextTextProvider implements TextProvider {
+
+	private final Context _ctx;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param ctx
+	 */
+	public ContextTextProvider(Context ctx) {
+		this._ctx = ctx;
+	}
+
+	@Override
+	public String getString(int resId) {
+		return _ctx.getResources().getString(resId);
+	}
+}
@@ -0,0 +1,71 @@
+package at.zweng.bankomatinfos.util;
+
+/**
+ * Debug log of the card reading and parsing code. On the device the messages
+ * go to the Android log (see {@link AndroidDebugLog}). On a plain JVM (e.g.
+ * the {@link at.zweng.bankomatinfos.iso7816emv.TraceAnalyzer}) warnings go to
+ * stderr and debug messages are dropped (see {@link StreamDebugLog}), so no
+ * Android class is needed there.
+ * 
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public abstract class DebugLog {
+
+	private static volatile DebugLog _default;
+
+	/**
+	 * @return log used by code which is not given a log of its own
+	 */
+	public static DebugLog getDefault() {
+		DebugLog log = _default;
+		if (log == null) {
+			// ART still reports itself as "Dalvik"
+			if ("Dalvik".equals(System.getProperty("java.vm.name"))) {
+				log = new AndroidDebugLog();
+			} else {
+				log = new StreamDebugLog(System.err, false);
+			}
+			_default = log;
+		}
+		return log;
+	}
+
+	/**
+	 * @param log
+	 *            replaces the default log
+	 */
+	public static void setDefault(DebugLog log) {
+		_default = log;
+	}
+
+	/**
+	 * @return <code>false</code> if debug messages are dropped (so they do not
+	 *         need to be built)
+	 */
+	public abstract boolean isDebugEnabled();
+
+	/**
+	 * Logs a debug message
+	 * 
+	 * @param msg
+	 */
+	public abstract void d(String msg);
+
+	/**
+	 * Logs a warning
+	 * 
+	 * @param msg
+	 * @param tr
+	 *            cause (or <code>null</code>)
+	 */
+	public abstract void w(String msg, Throwable tr);
+
+	/**
+	 * Logs a warning
+	 * 
+	 * @param msg
+	 */
+	public void w(String msg) {
+		w(msg, null);
+	}
+}
@@ -0,0 +1,258 @@
+package at.zweng.bankomatinfos.util;
+
+import java.io.IOException;
+
+/**
+ * Hex encoding and decoding without intermediate objects. All methods write
+ * into a buffer given by the caller ({@link Appendable}, {@link StringBuilder}
+ * or char[]/byte[] at an offset), so in a loop the only allocation is the
+ * growing of the caller's buffer.<br>
+ * <br>
+ * The grouped variants insert a space between groups of bytes and can wrap
+ * lines (newline plus indentation) in the same pass, replacing the
+ * bytesToHex() + prettyPrintString()/prettyPrintHex() combination.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public final class Hex {
+
+	private static final char[] DIGITS = { '0', '1', '2', '3', '4', '5', '6',
+			'7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+
+	// value of each ASCII hex digit, -1 for all other characters
+	private static final byte[] VALUES = new byte[128];
+
+	static {
+		for (int i = 0; i < VALUES.length; i++) {
+			VALUES[i] = -1;
+		}
+		for (int i = 0; i < 10; i++) {
+			VALUES['0' + i] = (byte) i;
+		}
+		for (int i = 0; i < 6; i++) {
+			VALUES['A' + i] = (byte) (10 + i);
+			VALUES['a' + i] = (byte) (10 + i);
+		}
+	}
+
+	private Hex() {
+	}
+
+	/**
+	 * Encodes bytes into a char array
+	 *
+	 * @param data
+	 * @param offset
+	 * @param length
+	 *            number of bytes to encode
+	 * @param out
+	 *            target, needs space for length*2 chars
+	 * @param outOffset
+	 * @return position in out after the last written char
+	 */
+	public static int encode(byte[] data, int offset, int length, char[] out,
+			int outOffset) {
+		int pos = outOffset;
+		for (int i = offset; i < offset + length; i++) {
+			int v = data[i] & 0xFF;
+			out[pos++] = DIGITS[v >>> 4];
+			out[pos++] = DIGITS[v & 0x0F];
+		}
+		return pos;
+	}
+
+	/**
+	 * Appends the 2 hex digits of a byte
+	 *
+	 * @param sb
+	 * @param b
+	 * @return sb
+	 */
+	public static StringBuilder appendByte(StringBuilder sb, byte b) {
+		return sb.append(DIGITS[(b >>> 4) & 0x0F]).append(DIGITS[b & 0x0F]);
+	}
+
+	/**
+	 * Appends bytes as hex string (without spaces)
+	 *
+	 * @param sb
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return sb
+	 */
+	public static StringBuilder append(StringBuilder sb, byte[] data,
+			int offset, int length) {
+		sb.ensureCapacity(sb.length() + length * 2);
+		for (int i = offset; i < offset + length; i++) {
+			appendByte(sb, data[i]);
+		}
+		return sb;
+	}
+
+	/**
+	 * Appends bytes as hex string (without spaces)
+	 *
+	 * @param out
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return out
+	 * @throws IOException
+	 */
+	public static Appendable append(Appendable out, byte[] data, int offset,
+			int length) throws IOException {
+		for (int i = offset; i < offset + length; i++) {
+			int v = data[i] & 0xFF;
+			out.append(DIGITS[v >>> 4]);
+			out.append(DIGITS[v & 0x0F]);
+		}
+		return out;
+	}
+
+	/**
+	 * Appends bytes as hex string, with a space after every group of bytes and
+	 * optional line wrapping (ex: "00 11 AA EE FF" for groupSize 1)
+	 *
+	 * @param sb
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @param groupSize
+	 *            number of bytes between two spaces
+	 * @param bytesPerLine
+	 *            wrap lines after this many bytes, 0 for no wrapping
+	 * @param indent
+	 *            number of spaces at the start of each continuation line
+	 * @return sb
+	 */
+	public static StringBuilder append(StringBuilder sb, byte[] data,
+			int offset, int length, int groupSize, int bytesPerLine, int indent) {
+		try {
+			append((Appendable) sb, data, offset, length, groupSize,
+					bytesPerLine, indent);
+		} catch (IOException e) {
+			// StringBuilder never throws
+			throw new IllegalStateException(e);
+		}
+		return sb;
+	}
+
+	/**
+	 * Appends bytes as hex string, with a space after every group of bytes and
+	 * optional line wrapping (ex: "00 11 AA EE FF" for groupSize 1)
+	 *
+	 * @param out
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @param groupSize
+	 *            number of bytes between two spaces
+	 * @param bytesPerLine
+	 *            wrap lines after this many bytes, 0 for no wrapping
+	 * @param indent
+	 *            number of spaces at the start of each continuation line
+	 * @return out
+	 * @throws IOException
+	 */
+	public static Appendable append(Appendable out, byte[] data, int offset,
+			int length, int groupSize, int bytesPerLine, int indent)
+			throws IOException {
+		if (groupSize < 1) {
+			throw new IllegalArgumentException("groupSize must be >= 1: "
+					+ groupSize);
+		}
+		for (int i = 0; i < length; i++) {
+			if (i > 0) {
+				if (bytesPerLine > 0 && i % bytesPerLine == 0) {
+					out.append('\n');
+					appendSpaces(out, indent);
+				} else if (i % groupSize == 0) {
+					out.append(' ');
+				}
+			}
+			int v = data[offset + i] & 0xFF;
+			out.append(DIGITS[v >>> 4]);
+			out.append(DIGITS[v & 0x0F]);
+		}
+		return out;
+	}
+
+	/**
+	 * Appends the given number of spaces
+	 *
+	 * @param out
+	 * @param count
+	 * @throws IOException
+	 */
+	public static void appendSpaces(Appendable out, int count)
+			throws IOException {
+		for (int i = 0; i < count; i++) {
+			out.append(' ');
+		}
+	}
+
+	/**
+	 * @param hex
+	 * @return number of bytes the hex string decodes to (whitespace is
+	 *         ignored)
+	 * @throws IllegalArgumentException
+	 *             if the number of hex digits is odd
+	 */
+	public static int decodedLength(CharSequence hex) {
+		int digits = 0;
+		for (int i = 0; i < hex.length(); i++) {
+			if (!Character.isWhitespace(hex.charAt(i))) {
+				digits++;
+			}
+		}
+		if ((digits % 2) != 0) {
+			throw new IllegalArgumentException(
+					"hex string must contain an even number of characters: "
+							+ hex);
+		}
+		return digits / 2;
+	}
+
+	/**
+	 * Decodes a hex string (upper or lower case, whitespace is ignored) into
+	 * a byte array
+	 *
+	 * @param hex
+	 * @param out
+	 *            target, needs space for {@link #decodedLength(CharSequence)}
+	 *            bytes
+	 * @param outOffset
+	 * @return number of bytes written
+	 * @throws IllegalArgumentException
+	 *             if the string contains non hex characters or an odd number
+	 *             of digits
+	 */
+	public static int decode(CharSequence hex, byte[] out, int outOffset) {
+		int pos = outOffset;
+		int high = -1;
+		for (int i = 0; i < hex.length(); i++) {
+			char c = hex.charAt(i);
+			if (Character.isWhitespace(c)) {
+				continue;
+			}
+			int v = c < VALUES.length ? VALUES[c] : -1;
+			if (v < 0) {
+				throw new IllegalArgumentException("invalid hex character '"
+						+ c + "' at position " + i + ": " + hex);
+			}
+			if (high < 0) {
+				high = v;
+			} else {
+				out[pos++] = (byte) ((high << 4) | v);
+				high = -1;
+			}
+		}
+		if (high >= 0) {
+			throw new IllegalArgumentException(
+					"hex string must contain an even number of characters: "
+							+ hex);
+		}
+		return pos - outOffset;
+	}
+}
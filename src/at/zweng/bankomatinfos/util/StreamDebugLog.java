@@ -0,0 +1,49 @@
+package at.zweng.bankomatinfos.util;
+
+import java.io.PrintStream;
+
+/**
+ * {@link DebugLog} writing to a stream (for running outside of Android)
+ * 
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class StreamDebugLog extends DebugLog {
+
+	private final PrintStream _out;
+	private final boolean _debug;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param out
+	 * @param debug
+	 *            <code>true</code> to write debug messages too, otherwise only
+	 *            warnings are written
+	 */
+	public StreamDebugLog(PrintStream out, boolean debug) {
+		this._out = out;
+		this._debug = debug;
+	}
+
+	@Override
+	public boolean isDebugEnabled() {
+		return _debug;
+	}
+
+	@Override
+	public void d(String msg) {
+		if (_debug) {
+			_out.println(msg);
+		}
+	}
+
+	@Override
+	public void w(String msg, Throwable tr) {
+		synchronized (_out) {
+			_out.println("WARNING: " + msg);
+			if (tr != null) {
+				tr.printStackTrace(_out);
+			}
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package at.zweng.bankomatinfos.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import at.zweng.bankomatinfos2.R;
+
+/**
+ * {@link TextProvider} reading the texts from a <code>strings.xml</code> file
+ * (e.g. <code>res/values/strings.xml</code>), for using the card reading code
+ * on a plain JVM. The resource IDs are mapped to the names by the fields of
+ * {@link R.string}. Texts missing in the file are returned as their resource
+ * name.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class StringsXmlTextProvider implements TextProvider {
+
+	// resource name -> text
+	private final Map<String, String> _texts;
+	// resource ID -> resource name
+	private final Map<Integer, String> _names;
+
+	/**
+	 * Constructor
+	 *
+	 * @param stringsXml
+	 * @throws IOException
+	 *             if the file cannot be read or parsed
+	 */
+	public StringsXmlTextProvider(File stringsXml) throws IOException {
+		this(readFile(stringsXml));
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param texts
+	 *            texts by resource name
+	 */
+	public StringsXmlTextProvider(Map<String, String> texts) {
+		this._texts = texts;
+		this._names = new HashMap<Integer, String>();
+		for (Field field : R.string.class.getFields()) {
+			if (Modifier.isStatic(field.getModifiers())
+					&& field.getType() == int.class) {
+				try {
+					_names.put(field.getInt(null), field.getName());
+				} catch (IllegalAccessException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+	}
+
+	@Override
+	public String getString(int resId) {
+		String name = _names.get(resId);
+		if (name == null) {
+			return "0x" + Integer.toHexString(resId);
+		}
+		String text = _texts.get(name);
+		return text != null ? text : name;
+	}
+
+	/**
+	 * Reads all <code>&lt;string&gt;</code> elements of a resource file
+	 *
+	 * @param in
+	 * @return texts by resource name
+	 * @throws IOException
+	 *             if the file cannot be read or parsed
+	 */
+	public static Map<String, String> read(InputStream in) throws IOException {
+		NodeList strings;
+		try {
+			strings = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+					.parse(in).getElementsByTagName("string");
+		} catch (ParserConfigurationException e) {
+			throw new IOException(e.toString());
+		} catch (SAXException e) {
+			throw new IOException("invalid strings.xml: " + e.getMessage());
+		}
+		Map<String, String> texts = new HashMap<String, String>();
+		for (int i = 0; i < strings.getLength(); i++) {
+			Element element = (Element) strings.item(i);
+			texts.put(element.getAttribute("name"),
+					unescape(element.getTextContent()));
+		}
+		return texts;
+	}
+
+	private static Map<String, String> readFile(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return read(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Resolves the escapes of Android string resources (\' \" \n \t \\)
+	 */
+	private static String unescape(String s) {
+		if (s.indexOf('\\') < 0) {
+			return s;
+		}
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '\\' && i + 1 < s.length()) {
+				c = s.charAt(++i);
+				if (c == 'n') {
+					c = '\n';
+				} else if (c == 't') {
+					c = '\t';
+				}
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,20 @@
+package at.zweng.bankomatinfos.util;
+
+/**
+ * Looks up the (localized) texts used in the read results. On the device this
+ * is backed by the app's resources (see {@link ContextTextProvider}), outside
+ * of Android by the <code>strings.xml</code> file (see
+ * {@link StringsXmlTextProvider}), so the card reading code does not depend
+ * on a {@link android.content.Context}.
+ * 
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public interface TextProvider {
+
+	/**
+	 * @param resId
+	 *            string resource ID (<code>R.string.*</code>)
+	 * @return the text
+	 */
+	String getString(int resId);
+}
@@ -3,27 +3,17 @@ package at.zweng.bankomatinfos.util;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Locale;
 
-import android.app.AlertDialog;
-import android.app.AlertDialog.Builder;
-import android.app.DialogFragment;
-import android.app.FragmentManager;
 import android.content.Context;
-import android.content.DialogInterface;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
-import android.content.pm.PackageManager.NameNotFoundException;
-import android.text.Html;
-import android.text.Spanned;
-import android.util.Log;
-import at.zweng.bankomatinfos.ui.AboutDialogFragment;
-import at.zweng.bankomatinfos.ui.ChangelogDialogFragment;
 import at.zweng.bankomatinfos2.R;
 
 /**
@@ -38,14 +28,23 @@ public class Utils {
 	 */
 	public final static String TAG = "BankomatInfos";
 
-	private static SimpleDateFormat fullTimeWithDateFormat = new SimpleDateFormat(
-			"dd.MM.yyyy HH:mm:ss", Locale.US);
+	// SimpleDateFormat is not thread safe, so every thread gets its own
+	// instances (results are formatted on the UI thread, the reader thread
+	// and the workers of the TraceAnalyzer)
+	private final static ThreadLocal<SimpleDateFormat> fullTimeWithDateFormat = dateFormat("dd.MM.yyyy HH:mm:ss");
 
-	private static SimpleDateFormat dateOnlyDateFormat = new SimpleDateFormat(
-			"dd.MM.yyyy", Locale.US);
+	private final static ThreadLocal<SimpleDateFormat> dateOnlyDateFormat = dateFormat("dd.MM.yyyy");
 
-	private final static SimpleDateFormat fullTimeMilliseconds = new SimpleDateFormat(
-			"HH:mm:ss.SSS", Locale.US);
+	private final static ThreadLocal<SimpleDateFormat> fullTimeMilliseconds = dateFormat("HH:mm:ss.SSS");
+
+	private static ThreadLocal<SimpleDateFormat> dateFormat(final String pattern) {
+		return new ThreadLocal<SimpleDateFormat>() {
+			@Override
+			protected SimpleDateFormat initialValue() {
+				return new SimpleDateFormat(pattern, Locale.US);
+			}
+		};
+	}
 
 	/**
 	 * Helper method, returns current time as string
@@ -53,7 +52,7 @@ public class Utils {
 	 * @return
 	 */
 	public static String getFullTimestampString() {
-		return fullTimeMilliseconds.format(new Date());
+		return fullTimeMilliseconds.get().format(new Date());
 	}
 
 	/**
@@ -64,15 +63,20 @@ public class Utils {
 	 * @return
 	 */
 	public static String bytesToHex(byte[] bytes) {
-		final char[] hexArray = { '0', '1', '2', '3', '4', '5', '6', '7', '8',
-				'9', 'A', 'B', 'C', 'D', 'E', 'F' };
-		char[] hexChars = new char[bytes.length * 2];
-		int v;
-		for (int j = 0; j < bytes.length; j++) {
-			v = bytes[j] & 0xFF;
-			hexChars[j * 2] = hexArray[v >>> 4];
-			hexChars[j * 2 + 1] = hexArray[v & 0x0F];
-		}
+		return bytesToHex(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Converts a part of a byte array into a hex string
+	 * 
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return hex string of length*2 characters
+	 */
+	public static String bytesToHex(byte[] bytes, int offset, int length) {
+		char[] hexChars = new char[length * 2];
+		Hex.encode(bytes, offset, length, hexChars, 0);
 		return new String(hexChars);
 	}
 
@@ -95,12 +99,7 @@ public class Utils {
 	 * @return hex representation as string
 	 */
 	public static String byte2Hex(byte b) {
-		String[] HEX_DIGITS = { "0", "1", "2", "3", "4", "5", "6", "7", "8",
-				"9", "A", "B", "C", "D", "E", "F" };
-		int nb = b & 0xFF;
-		int i_1 = (nb >> 4) & 0xF;
-		int i_2 = nb & 0xF;
-		return HEX_DIGITS[i_1] + HEX_DIGITS[i_2];
+		return Hex.appendByte(new StringBuilder(2), b).toString();
 	}
 
 	/**
@@ -216,6 +215,33 @@ public class Utils {
 		return result;
 	}
 
+	/**
+	 * Formats an amount given in the smallest unit of its currency
+	 * 
+	 * @param amount
+	 * @param minorUnits
+	 *            number of decimal places of the currency (see
+	 *            {@link at.zweng.bankomatinfos.iso7816emv.Iso4217CurrencyCodes#getMinorUnits(int)})
+	 * @return e.g. "1.234,56" (2 minor units) or "123.456" (0 minor units)
+	 */
+	public static String formatAmount(long amount, int minorUnits) {
+		if (minorUnits == 2) {
+			return formatBalance(amount);
+		}
+		if (minorUnits <= 0) {
+			return String.format(Locale.GERMANY, "%,d", Long.valueOf(amount));
+		}
+		long divisor = 1;
+		for (int i = 0; i < minorUnits; i++) {
+			divisor *= 10;
+		}
+		return String.format(Locale.GERMANY, "%,d",
+				Long.valueOf(amount / divisor))
+				+ ","
+				+ String.format(Locale.GERMANY, "%0" + minorUnits + "d",
+						Long.valueOf(Math.abs(amount % divisor)));
+	}
+
 	/**
 	 * Parses a BCD encoded integer from the given byte array
 	 * 
@@ -230,28 +256,6 @@ public class Utils {
 		return Integer.parseInt(bytesToHex(data));
 	}
 
-	/**
-	 * Display a alert dialog
-	 * 
-	 * @param ctx
-	 * @param title
-	 * @param message
-	 */
-	public static void displaySimpleAlertDialog(Context ctx, String title,
-			String message) {
-		Builder builder = new AlertDialog.Builder(ctx);
-		if (title != null) {
-			builder.setTitle(title);
-		}
-		if (message != null) {
-			builder.setMessage(message);
-		}
-		builder.setPositiveButton("OK", new DialogInterface.OnClickListener() {
-			public void onClick(DialogInterface dialog, int id) {
-			}
-		}).create().show();
-	}
-
 	/**
 	 * format date
 	 * 
@@ -262,7 +266,7 @@ public class Utils {
 		if (d == null) {
 			return "00.00.0000 00:00:00";
 		}
-		return fullTimeWithDateFormat.format(d);
+		return fullTimeWithDateFormat.get().format(d);
 	}
 
 	/**
@@ -275,7 +279,7 @@ public class Utils {
 		if (d == null) {
 			return "00.00.0000";
 		}
-		return dateOnlyDateFormat.format(d);
+		return dateOnlyDateFormat.get().format(d);
 	}
 
 	/**
@@ -323,22 +327,8 @@ public class Utils {
 	 * @return
 	 */
 	public static byte[] fromHexString(String hexString) {
-		hexString = removeSpaces(hexString);
-		if (hexString.length() == 0) {
-			return new byte[0];
-		}
-		if ((hexString.length() % 2) != 0) {
-			throw new IllegalArgumentException(
-					"hex string must contain an even number of characters: "
-							+ hexString);
-		}
-		final byte result[] = new byte[hexString.length() / 2];
-		final char hexChars[] = hexString.toCharArray();
-		for (int i = 0; i < hexChars.length; i += 2) {
-			StringBuilder curr = new StringBuilder(2);
-			curr.append(hexChars[i]).append(hexChars[i + 1]);
-			result[i / 2] = (byte) Integer.parseInt(curr.toString(), 16);
-		}
+		final byte result[] = new byte[Hex.decodedLength(hexString)];
+		Hex.decode(hexString, result, 0);
 		return result;
 	}
 
@@ -617,28 +607,6 @@ public class Utils {
 		return prettyPrintHex(in, indent, true);
 	}
 
-	/**
-	 * Returns app version string.
-	 * 
-	 * @param ctx
-	 * @return
-	 */
-	public static String getAppVersion(Context ctx) {
-		PackageManager pm = ctx.getPackageManager();
-		try {
-			PackageInfo info = pm.getPackageInfo(ctx.getPackageName(),
-					PackageManager.GET_ACTIVITIES);
-			if (info == null) {
-				Log.w(TAG, "PackageInfo is null");
-				return "?";
-			}
-			return info.versionName;
-		} catch (NameNotFoundException e) {
-			Log.w(TAG, "PackageInfo NameNotFoundException", e);
-			return "?";
-		}
-	}
-
 	/**
 	 * Parse the byte "cryptogram infrmation data". See EMV specifications 4.3,
 	 * EMV Book 3, page 56 (page 72 in the pdf), Table 14:
@@ -694,88 +662,6 @@ public class Utils {
 		return s.toString();
 	}
 
-	/**
-	 * show about dialog
-	 */
-	public static void showAboutDialog(FragmentManager fm) {
-		DialogFragment aboutFragment = new AboutDialogFragment();
-		aboutFragment.show(fm, "dialog_about");
-	}
-
-	/**
-	 * show changelog dialog
-	 * 
-	 * @param <code>true</code> if full changelog should be shown,
-	 *        <code>false</code> if only changes since last installed app
-	 *        version should be shown
-	 */
-	public static void showChangelogDialog(FragmentManager fm,
-			boolean fullChangelog) {
-		DialogFragment changelogFragment = ChangelogDialogFragment
-				.newInstance(fullChangelog);
-		changelogFragment.show(fm, "dialog_changelog");
-	}
-
-	/**
-	 * about dialog text
-	 * 
-	 * @param ctx
-	 * @return
-	 */
-	public static Spanned getAboutDialogText(Context ctx) {
-		StringBuilder sb = new StringBuilder();
-		sb.append("<b><font color=\"#ff3232\">");
-		sb.append(ctx.getResources().getString(R.string.app_name));
-		sb.append("</font></b>");
-		sb.append("<br/><br/>");
-
-		sb.append("<b><font color=\"#ff3232\">Version:</font></b> ");
-		sb.append(getAppVersion(ctx));
-		sb.append("<br/><br/>");
-
-		sb.append("<b><font color=\"#ff3232\">License:</font></b> ");
-		sb.append("GPL-3");
-		sb.append("<br/><br/>");
-
-		sb.append("<b><font color=\"#ff3232\">Author:</font></b>");
-		sb.append("<br/>Johannes Zweng<br/><a");
-		sb.append("href=\"mailto:android-dev@zweng.at?subject=Feedback%20Bankomat%20Info%20App\">");
-		sb.append("android-dev@zweng.at</a><br/>");
-		sb.append("<i>Be curious! Have fun! :-)</i>");
-		sb.append("<br/><br/>");
-
-		// SOURCECODE
-		sb.append("<b><font color=\"#ff3232\">Sourcecode:</font></b>");
-		sb.append("<br/>Sourcecode of this app: https://github.com/johnzweng/bankomatinfos");
-		sb.append("<br/><br/>");
-
-		// DOWNLOADS
-		sb.append("<b><font color=\"#ff3232\">Downloads:</font></b>");
-		sb.append("<br/>You can find this (and all previous versions) of this app here: http://johannes.zweng.at/android/Market/BankomatInfos");
-		sb.append("<br/><br/>");
-
-		// ICON
-		sb.append("<b><font color=\"#ff3232\">App icon:</font></b>");
-		sb.append("<br/>Copyright owner of the app's icon: https://www.iconfinder.com/zohanimasi");
-		sb.append("<br/>The icon <b>may not be used or re-distributed</b> in any form without the ");
-		sb.append("permission of the icon's copyright owner!");
-		sb.append("<br/><br/>");
-
-		// CREDITS
-		sb.append("<b><font color=\"#ff3232\">Credits:</font></b>");
-
-		// javaemvreader
-		sb.append("<br/>&#8226; Uses some classes from http://code.google.com/p/javaemvreader/ ");
-		sb.append("project (licensed under Apache 2.0 license). Many thanks! :-)");
-		sb.append("<br/>");
-
-		// changelog
-		sb.append("<br/>&#8226; Thanks to Karsten Priegnitz for his easy-to-use changelog builder: https://code.google.com/p/android-change-log/");
-
-		sb.append("<br/>");
-		return Html.fromHtml(sb.toString());
-	}
-
 	/**
 	 * Returns the stackstrace as String
 	 * 
@@ -789,4 +675,22 @@ public class Utils {
 		return sw.toString();
 	}
 
+	/**
+	 * Returns the SHA-256 hash of a string (UTF-8 encoded) as hex string
+	 * 
+	 * @param value
+	 * @return
+	 */
+	public static String sha256Hex(String value) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			return bytesToHex(md.digest(value.getBytes("UTF-8")));
+		} catch (NoSuchAlgorithmException e) {
+			// every Java/Android platform has to support SHA-256
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 }
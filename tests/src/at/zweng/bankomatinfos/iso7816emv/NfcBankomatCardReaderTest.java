@@ -0,0 +1,101 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.APPLICATION_ID_EMV_MAESTRO_BANKOMAT;
+import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.EMV_COMMAND_GET_DATA_LOG_FORMAT;
+import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.createReadRecordApdu;
+import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.createSelectAid;
+import static at.zweng.bankomatinfos.util.Utils.fromHexString;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+import at.zweng.bankomatinfos.model.CardInfo;
+import at.zweng.bankomatinfos.model.CardProfile;
+import at.zweng.bankomatinfos.util.CardProfileStore;
+import at.zweng.bankomatinfos.util.TextProvider;
+
+/**
+ * Tests of {@link NfcBankomatCardReader} with remembered card profiles
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class NfcBankomatCardReaderTest extends TestCase {
+
+	private static final String PAN = "6703231234567890";
+
+	private static final TextProvider TEXTS = new TextProvider() {
+		@Override
+		public String getString(int resId) {
+			return "label";
+		}
+	};
+
+	private File _dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		_dir = File.createTempFile("profiles", "");
+		_dir.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		new CardProfileStore(_dir).clear();
+		_dir.delete();
+	}
+
+	/**
+	 * @return Maestro card without CPLC data with 3 transactions in its log
+	 *         (SFI 11)
+	 */
+	private static SimulatedCardTransport createCard() {
+		SimulatedCardTransport card = new SimulatedCardTransport(new byte[] {
+				1, 2, 3, 4 }, new byte[0]);
+		card.addResponse(
+				createSelectAid(APPLICATION_ID_EMV_MAESTRO_BANKOMAT),
+				fromHexString("6F208407D0000000043060A515500A4D61657374726F2041548701019F38039F5C089000"));
+		card.addResponse(
+				EMV_COMMAND_GET_DATA_LOG_FORMAT,
+				fromHexString("9F4F1A9F27019F02065F2A029A039F36029F5206DF3E019F21039F7C149000"));
+		card.addResponse(createReadRecordApdu(1, 1),
+				fromHexString("700A5A08" + PAN + "9000"));
+		for (int record = 1; record <= 3; record++) {
+			card.addResponse(createReadRecordApdu(11, record),
+					fromHexString("40000000001200097814010" + record + "000"
+							+ (4 - record) + "0000000000000112300" + record
+							+ "00112233445566778899AABBCCDDEEFF001122339000"));
+		}
+		card.setDefaultLatencyNanos(0);
+		return card;
+	}
+
+	private static CardInfo read(SimulatedCardTransport card,
+			CardProfileStore store) throws Exception {
+		NfcBankomatCardReader reader = new NfcBankomatCardReader(card, TEXTS,
+				new ApduTrace(64));
+		reader.setCardProfileStore(store);
+		reader.setIncrementalTxLog(true);
+		reader.connect();
+		CardInfo result = reader.readAllCardData(false, false);
+		reader.disconnect();
+		return result;
+	}
+
+	public void testCardWithoutCplcRecognizedByPan() throws Exception {
+		CardProfileStore store = new CardProfileStore(_dir);
+		SimulatedCardTransport card = createCard();
+		CardInfo first = read(card, store);
+		assertNull(first.getCardUniqueIdentifier());
+		assertEquals(CardProfile.keyForPan(PAN), first.getCardKey());
+		assertEquals(3, first.getTransactionLog().size());
+		int firstApdus = card.getTransceiveCount();
+
+		card.resetTransceiveCount();
+		CardInfo second = read(card, store);
+		assertEquals(3, second.getTransactionLog().size());
+		// log is read up to the newest known entry only, the other
+		// applications are not selected again
+		assertTrue(card.getTransceiveCount() < firstApdus);
+		assertTrue(store.load(CardProfile.keyForPan(PAN)) != null);
+	}
+}
@@ -0,0 +1,54 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link ReadCheckpoint#matches(byte[], String, boolean, boolean, long)}
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ReadCheckpointTest extends TestCase {
+
+	private static final byte[] TAG_ID = { 1, 2, 3, 4 };
+	private static final byte[] OTHER_TAG_ID = { 5, 6, 7, 8 };
+	private static final String CUID = "47905050001100000000";
+	private static final long TIME = 1000000L;
+
+	private static ReadCheckpoint createCheckpoint(String cuid) {
+		ReadCheckpoint checkpoint = new ReadCheckpoint(TAG_ID, cuid, false,
+				true, null, null, null, null);
+		checkpoint.setTime(TIME);
+		return checkpoint;
+	}
+
+	public void testSameCardByCuid() {
+		ReadCheckpoint checkpoint = createCheckpoint(CUID);
+		// random NFC tag ID, but same CUID
+		assertTrue(checkpoint.matches(OTHER_TAG_ID, CUID, false, true, TIME));
+		assertFalse(checkpoint.matches(TAG_ID, "47905050001100000001", false,
+				true, TIME));
+	}
+
+	public void testCuidOnlyOnOneSide() {
+		assertFalse(createCheckpoint(CUID).matches(TAG_ID, null, false, true,
+				TIME));
+		assertFalse(createCheckpoint(null).matches(TAG_ID, CUID, false, true,
+				TIME));
+	}
+
+	public void testSameCardByTagId() {
+		ReadCheckpoint checkpoint = createCheckpoint(null);
+		assertTrue(checkpoint.matches(TAG_ID, null, false, true, TIME));
+		assertFalse(checkpoint.matches(OTHER_TAG_ID, null, false, true, TIME));
+	}
+
+	public void testOptionsAndWindow() {
+		ReadCheckpoint checkpoint = createCheckpoint(CUID);
+		assertFalse(checkpoint.matches(TAG_ID, CUID, true, true, TIME));
+		assertFalse(checkpoint.matches(TAG_ID, CUID, false, false, TIME));
+		assertTrue(checkpoint.matches(TAG_ID, CUID, false, true, TIME
+				+ ReadCheckpoint.RESUME_WINDOW_MILLIS));
+		assertFalse(checkpoint.matches(TAG_ID, CUID, false, true, TIME
+				+ ReadCheckpoint.RESUME_WINDOW_MILLIS + 1));
+	}
+}
@@ -0,0 +1,95 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import static at.zweng.bankomatinfos.util.Utils.fromHexString;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link RecordProbeStrategy}, EFs are simulated like the file scan
+ * of {@link NfcBankomatCardReader} reads them
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class RecordProbeStrategyTest extends TestCase {
+
+	private static final byte[] RECORD = fromHexString("70035A01119000");
+	private static final byte[] RECORD_NOT_FOUND = fromHexString("6A83");
+	private static final byte[] FILE_NOT_FOUND = fromHexString("6A82");
+
+	/**
+	 * Scans one EF
+	 *
+	 * @param probe
+	 * @param records
+	 *            numbers of the existing records (empty: EF does not exist)
+	 * @return numbers of the records found
+	 */
+	private static List<Integer> scanEf(RecordProbeStrategy probe,
+			Integer... records) {
+		List<Integer> existing = Arrays.asList(records);
+		List<Integer> found = new ArrayList<Integer>();
+		probe.startEf();
+		for (int record = RecordProbeStrategy.FIRST_RECORD; record < 256; record++) {
+			byte[] response;
+			if (existing.isEmpty()) {
+				response = FILE_NOT_FOUND;
+			} else if (existing.contains(record)) {
+				response = RECORD;
+				found.add(record);
+			} else {
+				response = RECORD_NOT_FOUND;
+			}
+			if (!probe.onResponse(record, response)) {
+				break;
+			}
+		}
+		probe.endEf();
+		return found;
+	}
+
+	public void testBudgetNeverBelowTwo() {
+		RecordProbeStrategy probe = new RecordProbeStrategy(false);
+		assertEquals(3, probe.getErrorBudget());
+		assertEquals(Arrays.asList(1, 2, 3), scanEf(probe, 1, 2, 3));
+		// no gap seen, but still 2 errors in a row are tolerated
+		assertEquals(2, probe.getErrorBudget());
+		// record 1 and two '6A 83'
+		int apdus = probe.getApduCount();
+		assertEquals(Arrays.asList(1), scanEf(probe, 1));
+		assertEquals(apdus + 3, probe.getApduCount());
+		// EF does not exist: left after '6A 82'
+		assertTrue(scanEf(probe).isEmpty());
+		assertEquals(apdus + 4, probe.getApduCount());
+		assertEquals(2, probe.getErrorBudget());
+	}
+
+	public void testGappedEf() {
+		RecordProbeStrategy probe = new RecordProbeStrategy(false);
+		scanEf(probe, 1);
+		// SFI 2 with record 3 missing
+		assertEquals(Arrays.asList(1, 2, 4), scanEf(probe, 1, 2, 4));
+		assertEquals(2, probe.getErrorBudget());
+	}
+
+	public void testEfStartingAtRecord2() {
+		RecordProbeStrategy probe = new RecordProbeStrategy(false);
+		scanEf(probe, 1, 2);
+		// log EF without record 1
+		assertEquals(Arrays.asList(2, 3, 4), scanEf(probe, 2, 3, 4));
+	}
+
+	public void testFullScanKeepsFixedBudget() {
+		RecordProbeStrategy probe = new RecordProbeStrategy(true);
+		assertEquals(7, probe.getErrorBudget());
+		scanEf(probe, 1, 2, 3);
+		assertEquals(7, probe.getErrorBudget());
+		// gap of 6 records is still found
+		assertEquals(Arrays.asList(1, 8), scanEf(probe, 1, 8));
+		assertEquals(Arrays.asList(3), scanEf(probe, 3));
+		assertEquals(7, probe.getErrorBudget());
+	}
+}
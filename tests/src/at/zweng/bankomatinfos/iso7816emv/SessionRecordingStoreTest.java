@@ -0,0 +1,72 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link SessionRecordingStore}
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class SessionRecordingStoreTest extends TestCase {
+
+	private static final long HOUR = 60L * 60 * 1000;
+	private static final long START = 1000 * HOUR;
+
+	private File _dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		_dir = File.createTempFile("recordings", "");
+		_dir.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		new SessionRecordingStore(_dir).clear();
+	}
+
+	private static SessionRecorder createRecorder() {
+		SessionRecorder recorder = new SessionRecorder(
+				new SimulatedCardTransport(new byte[] { 1, 2, 3, 4 },
+						new byte[0]));
+		recorder.record(new byte[] { 0, (byte) 0xA4, 4, 0 }, new byte[] {
+				(byte) 0x90, 0 }, 0);
+		return recorder;
+	}
+
+	public void testCountLimit() throws IOException {
+		SessionRecordingStore store = new SessionRecordingStore(_dir);
+		for (int i = 0; i < SessionRecordingStore.MAX_RECORDINGS + 5; i++) {
+			store.save(createRecorder(), START + i * HOUR);
+		}
+		File[] files = store.list();
+		assertEquals(SessionRecordingStore.MAX_RECORDINGS, files.length);
+		// newest first
+		assertEquals(new File(_dir, (START + 24 * HOUR)
+				+ SessionRecording.FILE_SUFFIX), files[0]);
+		assertEquals(new File(_dir, (START + 5 * HOUR)
+				+ SessionRecording.FILE_SUFFIX), files[files.length - 1]);
+	}
+
+	public void testAgeLimit() throws IOException {
+		SessionRecordingStore store = new SessionRecordingStore(_dir);
+		store.save(createRecorder(), START);
+		store.save(createRecorder(), START + HOUR);
+		File newest = store.save(createRecorder(), START + HOUR
+				+ SessionRecordingStore.MAX_AGE_MILLIS);
+		File[] files = store.list();
+		assertEquals(2, files.length);
+		assertEquals(newest, files[0]);
+	}
+
+	public void testClear() throws IOException {
+		SessionRecordingStore store = new SessionRecordingStore(_dir);
+		store.save(createRecorder(), START);
+		store.clear();
+		assertEquals(0, store.list().length);
+		assertFalse(_dir.exists());
+	}
+}
@@ -0,0 +1,102 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import static at.zweng.bankomatinfos.util.Utils.bytesToHex;
+import static at.zweng.bankomatinfos.util.Utils.fromHexString;
+import junit.framework.TestCase;
+import at.zweng.bankomatinfos.exceptions.TlvParsingException;
+
+/**
+ * Tests of {@link TlvCursor} with responses of real cards
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class TlvCursorTest extends TestCase {
+
+	// GET DATA 9F4F (log format) of a VISA card, ends with '9F 80 04'
+	private static final String VISA_LOG_FORMAT = "9F4F189F36029F02069F03069F1A0295055F2A029A039C019F8004";
+
+	// SELECT response of a VISA card (with PDOL)
+	private static final String VISA_SELECT = "6F438407A0000000031010A538500B5649534120435245444954"
+			+ "8701029F38189F66049F02069F03069F1A0295055F2A029A039C019F3704"
+			+ "BF0C0A5F550241544203411111" + "9000";
+
+	// GET PROCESSING OPTIONS response (format 2) of a VISA card
+	private static final String VISA_GPO = "777B82021980940C1002020018010100200101009F36020033"
+			+ "9F2608A54DCA182530BB1D9F100706011203A000009F6C0230009F6E0420700000"
+			+ "9F4B406D132CDED6237B2ED91E3F721FCB1971174494D6493C9D5C3460BE31201E"
+			+ "69FEDAA0EEE8B9997F5C7C2999FDAFE593253CD654AF4DFAD71427A0AEB3FEE9232F"
+			+ "9000";
+
+	public void testVisaLogFormatDol() throws TlvParsingException {
+		TlvCursor outer = new TlvCursor(fromHexString(VISA_LOG_FORMAT));
+		assertTrue(outer.next());
+		assertEquals(0x9F4F, outer.getTag());
+		TlvCursor dol = new TlvCursor(outer.getData(), outer.getValueOffset(),
+				outer.getValueLength());
+		int[] tags = { 0x9F36, 0x9F02, 0x9F03, 0x9F1A, 0x95, 0x5F2A, 0x9A,
+				0x9C, 0x9F80 };
+		int[] lengths = { 2, 6, 6, 2, 5, 2, 3, 1, 4 };
+		for (int i = 0; i < tags.length; i++) {
+			assertTrue(dol.nextDolEntry());
+			assertEquals(tags[i], dol.getTag());
+			assertEquals(lengths[i], dol.getValueLength());
+		}
+		assertFalse(dol.nextDolEntry());
+	}
+
+	public void testUnknownTagInterned() throws TlvParsingException {
+		TlvCursor cursor = new TlvCursor(fromHexString("DF7F0100DF7F0101"));
+		assertTrue(cursor.next());
+		EmvTag unknown = cursor.getEmvTag();
+		assertEquals("[UNHANDLED TAG]", unknown.getName());
+		assertEquals("DF7F", bytesToHex(unknown.getTagBytes()));
+		assertTrue(cursor.next());
+		assertSame(unknown, cursor.getEmvTag());
+		assertSame(EMVTags.PAN, EMVTags.getNotNull(0x5A));
+	}
+
+	public void testMalformedLastDolEntry() throws TlvParsingException {
+		// 3 byte tag which runs up to the end: last byte is the length
+		TlvCursor dol = new TlvCursor(fromHexString("9F0206DF8101"));
+		assertTrue(dol.nextDolEntry());
+		assertTrue(dol.nextDolEntry());
+		assertEquals(0xDF81, dol.getTag());
+		assertEquals(2, dol.getTagLength());
+		assertEquals(1, dol.getValueLength());
+		assertFalse(dol.nextDolEntry());
+
+		// a well formed 3 byte tag is not changed
+		dol = new TlvCursor(fromHexString("DF810102"));
+		assertTrue(dol.nextDolEntry());
+		assertEquals(0xDF8101, dol.getTag());
+		assertEquals(2, dol.getValueLength());
+		assertFalse(dol.nextDolEntry());
+	}
+
+	public void testVisaGpoResponse() throws TlvParsingException {
+		byte[] response = fromHexString(VISA_GPO);
+		TlvCursor cursor = new TlvCursor(response, 0, response.length - 2);
+		assertTrue(cursor.next());
+		assertEquals(0x77, cursor.getTag());
+		TlvCursor inner = new TlvCursor(response, cursor.getValueOffset(),
+				cursor.getValueLength());
+		int count = 0;
+		while (inner.next()) {
+			if (inner.getTag() == 0x94) {
+				assertEquals(12, inner.getValueLength());
+			}
+			count++;
+		}
+		assertEquals(8, count);
+		assertFalse(cursor.next());
+	}
+
+	public void testVisaGpoCommand() {
+		byte[] command = EmvUtils
+				.createGetProcessingOptionsApdu(fromHexString(VISA_SELECT));
+		// PDOL requests 33 bytes: Lc = 83 21 + 33 bytes
+		assertEquals("80A8000023832100000000", bytesToHex(command)
+				.substring(0, 22));
+		assertEquals(5 + 0x23 + 1, command.length);
+	}
+}
@@ -0,0 +1,113 @@
+package at.zweng.bankomatinfos.iso7816emv;
+
+import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.APPLICATION_ID_EMV_MAESTRO_BANKOMAT;
+import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.EMV_COMMAND_GET_DATA_LOG_FORMAT;
+import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.EMV_COMMAND_GET_DATA_PIN_RETRY_COUNTER;
+import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.createReadRecordApdu;
+import static at.zweng.bankomatinfos.iso7816emv.EmvUtils.createSelectAid;
+import static at.zweng.bankomatinfos.util.Utils.fromHexString;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import at.zweng.bankomatinfos.model.CardInfo;
+import at.zweng.bankomatinfos.util.StringsXmlTextProvider;
+import at.zweng.bankomatinfos.util.TextProvider;
+
+/**
+ * Tests of {@link TraceAnalyzer}: a read of a simulated Maestro card is
+ * recorded and the recording is replayed on several worker threads
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class TraceAnalyzerTest extends TestCase {
+
+	private static final String STRINGS_XML = "<resources>"
+			+ "<string name=\"app_name\">Bankomat Infos</string></resources>";
+
+	private TextProvider _texts;
+
+	@Override
+	protected void setUp() throws Exception {
+		_texts = new StringsXmlTextProvider(
+				StringsXmlTextProvider.read(new ByteArrayInputStream(
+						STRINGS_XML.getBytes("UTF-8"))));
+	}
+
+	/**
+	 * @return Maestro card with 3 transactions in its log (SFI 11)
+	 */
+	private static SimulatedCardTransport createCard() {
+		SimulatedCardTransport card = new SimulatedCardTransport(new byte[] {
+				1, 2, 3, 4 }, new byte[0]);
+		card.addResponse(
+				createSelectAid(APPLICATION_ID_EMV_MAESTRO_BANKOMAT),
+				fromHexString("6F208407D0000000043060A515500A4D61657374726F2041548701019F38039F5C089000"));
+		card.addResponse(
+				EMV_COMMAND_GET_DATA_LOG_FORMAT,
+				fromHexString("9F4F1A9F27019F02065F2A029A039F36029F5206DF3E019F21039F7C149000"));
+		card.addResponse(EMV_COMMAND_GET_DATA_PIN_RETRY_COUNTER,
+				fromHexString("9F1701039000"));
+		card.addResponse(createReadRecordApdu(1, 1),
+				fromHexString("700A5A0867032312345678909000"));
+		for (int record = 1; record <= 3; record++) {
+			card.addResponse(createReadRecordApdu(11, record),
+					fromHexString("40000000001200097814010" + record + "000"
+							+ record + "0000000000000112300" + record
+							+ "00112233445566778899AABBCCDDEEFF001122339000"));
+		}
+		card.setDefaultLatencyNanos(0);
+		return card;
+	}
+
+	/**
+	 * Reads the simulated card and returns the recording of the read, as
+	 * written to a file
+	 */
+	private SessionRecording recordRead() throws Exception {
+		SessionRecorder recorder = new SessionRecorder(createCard());
+		NfcBankomatCardReader reader = new NfcBankomatCardReader(recorder,
+				_texts, new ApduTrace(64));
+		reader.connect();
+		reader.readAllCardData(true, false);
+		reader.disconnect();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		recorder.writeTo(out);
+		return new SessionRecording(ByteBuffer.wrap(out.toByteArray()));
+	}
+
+	public void testReplayRecording() throws Exception {
+		SessionRecording recording = recordRead();
+		List<RecordedSession> sessions = new ArrayList<RecordedSession>();
+		for (int i = 0; i < 8; i++) {
+			sessions.add(recording.toSession("session" + i));
+		}
+		List<TraceAnalyzer.Result> results = new TraceAnalyzer(_texts, 2)
+				.analyze(sessions);
+		assertEquals(sessions.size(), results.size());
+		for (int i = 0; i < results.size(); i++) {
+			TraceAnalyzer.Result result = results.get(i);
+			assertEquals("session" + i, result.getSession().getId());
+			assertNull(result.getError());
+			CardInfo cardInfo = result.getCardInfo();
+			assertTrue(cardInfo.isMaestroCard());
+			assertFalse(cardInfo.isVisaCard());
+			assertEquals(3, cardInfo.getTransactionLog().size());
+		}
+	}
+
+	public void testSessionWithoutApplications() throws Exception {
+		// no command was answered: read finishes, but nothing is found
+		RecordedSession session = new RecordedSession("empty",
+				new byte[] { 1, 2, 3, 4 }, new byte[0]);
+		TraceAnalyzer.Result result = new TraceAnalyzer(_texts)
+				.analyze(session);
+		assertNull(result.getError());
+		assertFalse(result.getCardInfo().isMaestroCard());
+		assertTrue(result.getCardInfo().getTransactionLog().isEmpty());
+	}
+}
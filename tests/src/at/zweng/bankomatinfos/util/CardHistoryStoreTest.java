@@ -0,0 +1,180 @@
+package at.zweng.bankomatinfos.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+import at.zweng.bankomatinfos.model.CardInfo;
+import at.zweng.bankomatinfos.model.CardProfile;
+import at.zweng.bankomatinfos.model.InfoKeyValuePair;
+import at.zweng.bankomatinfos.model.TransactionLogTable;
+
+/**
+ * Tests of {@link CardHistoryStore}
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class CardHistoryStoreTest extends TestCase {
+
+	private static final String CUID = "47905050001100000000";
+	private static final String PAN = "6703231234567890";
+	private static final String CARD_A = CardProfile
+			.keyForCardUniqueIdentifier(CUID);
+	private static final String CARD_B = CardProfile.keyForPan(PAN);
+	private static final long DAY = 24L * 60 * 60 * 1000;
+
+	private static final TextProvider TEXTS = new TextProvider() {
+		@Override
+		public String getString(int resId) {
+			return "label";
+		}
+	};
+
+	private File _dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		_dir = File.createTempFile("history", "");
+		_dir.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		new CardHistoryStore(TEXTS, _dir).clear();
+		_dir.delete();
+	}
+
+	/**
+	 * @param cardKey
+	 * @param atcs
+	 *            transactions in the log (ATC n was on day n)
+	 * @return a read of the card
+	 */
+	private static CardInfo createRead(String cardKey, int... atcs) {
+		CardInfo info = new CardInfo(TEXTS);
+		info.setNfcTagId(new byte[] { 1, 2, 3, 4 });
+		info.setCardUniqueIdentifier(CUID);
+		info.setCardKey(cardKey);
+		info.addKeyValuePair(new InfoKeyValuePair("Card number:", PAN));
+		TransactionLogTable log = new TransactionLogTable();
+		for (int atc : atcs) {
+			int row = log.addRow(new byte[] { (byte) atc }, 0, 1);
+			log.setTimestamp(row, atc * DAY, false);
+			log.setAmount(row, 100 * atc);
+			log.setAtc(row, atc);
+		}
+		info.setTransactionLog(log);
+		return info;
+	}
+
+	private static String readText(File file) throws IOException {
+		byte[] content = new byte[(int) file.length()];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			assertEquals(content.length, in.read(content));
+		} finally {
+			in.close();
+		}
+		return new String(content, "ISO-8859-1");
+	}
+
+	public void testNoIdentifiersOnDisk() throws IOException {
+		CardHistoryStore store = new CardHistoryStore(TEXTS, _dir);
+		store.append(createRead(CARD_A, 1, 2), 10 * DAY);
+		store.append(createRead(CARD_B, 1), 11 * DAY);
+		for (File file : _dir.listFiles()) {
+			String text = readText(file);
+			assertFalse(file.getName(), text.contains(CUID));
+			assertFalse(file.getName(), text.contains(PAN));
+			assertFalse(file.getName(), text.contains(CARD_B));
+		}
+		CardInfo loaded = store.load(0);
+		assertNull(loaded.getCardKey());
+		assertNull(loaded.getCardUniqueIdentifier());
+		assertNull(loaded.getNfcTagId());
+		assertTrue(loaded.getInfoKeyValuePairs().isEmpty());
+		assertEquals(2, loaded.getTransactionLog().size());
+	}
+
+	public void testFindByCardAndTime() throws IOException {
+		CardHistoryStore store = new CardHistoryStore(TEXTS, _dir);
+		store.append(createRead(CARD_A, 1, 2), 10 * DAY);
+		store.append(createRead(CARD_B, 3), 11 * DAY);
+		store.append(createRead(CARD_A, 1, 2, 4), 12 * DAY);
+		store.append(createRead(null, 5), 13 * DAY);
+		for (CardHistoryStore s : new CardHistoryStore[] { store,
+				new CardHistoryStore(TEXTS, _dir) }) {
+			assertEquals(4, s.size());
+			assertEquals(2, s.findReads(CARD_A).length);
+			assertEquals(0, s.findReads(CardProfile.keyForPan("0")).length);
+			assertEquals(2, s.findReads(11 * DAY, 13 * DAY).length);
+			// transactions still in the log are only stored once
+			TransactionLogTable txs = s.findTransactions(CARD_A, 0,
+					Long.MAX_VALUE);
+			assertEquals(3, txs.size());
+			assertEquals(1, txs.getAtc(0));
+			assertEquals(4, txs.getAtc(2));
+			assertEquals(1, s.findTransactions(CARD_A, 2 * DAY, 3 * DAY)
+					.size());
+			assertEquals(5, s.findTransactions(0, Long.MAX_VALUE).size());
+		}
+	}
+
+	public void testRetention() throws IOException {
+		CardHistoryStore store = new CardHistoryStore(TEXTS, _dir);
+		store.setLimits(8 * DAY, CardHistoryStore.DEFAULT_MAX_BYTES);
+		store.append(createRead(CARD_A, 1), 10 * DAY);
+		store.append(createRead(CARD_B, 2), 12 * DAY);
+		// read on day 10 is not yet older than the retention time + 1/8
+		assertEquals(2, store.append(createRead(CARD_A, 1, 3), 19 * DAY));
+		// deletes the reads before day 12
+		assertEquals(2, store.append(createRead(CARD_B, 2, 4), 20 * DAY));
+		assertEquals(3, store.size());
+		assertEquals(12 * DAY, store.getReadTime(0));
+		assertEquals(1, store.findReads(CARD_A).length);
+		// transaction of the deleted read is still in the kept read
+		assertEquals(2, store.findTransactions(CARD_A, 0, Long.MAX_VALUE)
+				.size());
+		assertEquals(3, new CardHistoryStore(TEXTS, _dir).size());
+	}
+
+	public void testSizeLimit() throws IOException {
+		CardHistoryStore store = new CardHistoryStore(TEXTS, _dir);
+		store.append(createRead(CARD_A, 1), DAY);
+		long readBytes = new File(_dir, "reads.dat").length();
+		store.setLimits(CardHistoryStore.DEFAULT_RETENTION_MILLIS,
+				readBytes * 4);
+		for (int i = 2; i <= 10; i++) {
+			store.append(createRead(CARD_A, 1), i * DAY);
+			assertTrue(new File(_dir, "reads.dat").length() <= readBytes * 4);
+		}
+		assertTrue(store.size() <= 4);
+		assertEquals(10 * DAY, store.getReadTime(store.size() - 1));
+		assertEquals(1, store.findTransactions(CARD_A, 0, Long.MAX_VALUE)
+				.size());
+	}
+
+	public void testClear() throws IOException {
+		CardHistoryStore store = new CardHistoryStore(TEXTS, _dir);
+		store.append(createRead(CARD_A, 1), DAY);
+		store.clear();
+		assertEquals(0, store.size());
+		assertEquals(0, store.findReads(CARD_A).length);
+		assertEquals(0, _dir.listFiles().length);
+	}
+
+	public void testFirstVersionDeleted() throws IOException {
+		// record of version 1 (contained the card identifiers)
+		_dir.mkdirs();
+		FileOutputStream out = new FileOutputStream(new File(_dir, "reads.dat"));
+		try {
+			out.write(new byte[] { 0, 0, 0, 1, 1 });
+		} finally {
+			out.close();
+		}
+		assertEquals(0, new CardHistoryStore(TEXTS, _dir).size());
+		assertFalse(new File(_dir, "reads.dat").exists());
+	}
+}
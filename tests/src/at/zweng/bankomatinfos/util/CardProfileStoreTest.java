@@ -0,0 +1,90 @@
+package at.zweng.bankomatinfos.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import at.zweng.bankomatinfos.model.CardProfile;
+import at.zweng.bankomatinfos.model.CardProfile.ApplicationProfile;
+
+/**
+ * Tests of {@link CardProfileStore}
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class CardProfileStoreTest extends TestCase {
+
+	private static final String CUID = "47905050001100000000";
+	private static final String AID = "A0000000043060";
+	private static final String TX_RECORD = "400000000012000978140101000100000000000001";
+
+	private File _dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		_dir = File.createTempFile("profiles", "");
+		_dir.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		new CardProfileStore(_dir).clear();
+		_dir.delete();
+	}
+
+	private static CardProfile createProfile() {
+		CardProfile profile = new CardProfile(
+				CardProfile.keyForCardUniqueIdentifier(CUID));
+		ApplicationProfile app = profile.addApplication(AID);
+		app.setLogSfi(11);
+		app.addSuccessfulCommand("80CA9F4F00");
+		app.addRecord(11, 1, 46);
+		app.setLastAtc(1);
+		app.setTransactionLog(Arrays.asList(TX_RECORD));
+		return profile;
+	}
+
+	public void testNoIdentifiersOnDisk() throws IOException {
+		new CardProfileStore(_dir).save(createProfile());
+		File[] files = _dir.listFiles();
+		assertEquals(1, files.length);
+		byte[] content = new byte[(int) files[0].length()];
+		FileInputStream in = new FileInputStream(files[0]);
+		try {
+			assertEquals(content.length, in.read(content));
+		} finally {
+			in.close();
+		}
+		String text = new String(content, "ISO-8859-1");
+		assertFalse(text.contains(CUID));
+		assertFalse(text.contains(TX_RECORD));
+	}
+
+	public void testReloadFromDisk() throws IOException {
+		new CardProfileStore(_dir).save(createProfile());
+		CardProfile loaded = new CardProfileStore(_dir).load(CardProfile
+				.keyForCardUniqueIdentifier(CUID));
+		assertNotNull(loaded);
+		ApplicationProfile app = loaded.getApplication(AID);
+		assertEquals(11, app.getLogSfi());
+		assertEquals(1, app.getRecords().size());
+		assertTrue(app.getSuccessfulCommands().contains("80CA9F4F00"));
+		// transaction data is not persisted
+		assertEquals(-1, app.getLastAtc());
+		assertTrue(app.getTransactionLog().isEmpty());
+		assertNull(new CardProfileStore(_dir).load(CardProfile
+				.keyForCardUniqueIdentifier("00000000000000000000")));
+	}
+
+	public void testTransactionLogKeptInMemory() throws IOException {
+		CardProfileStore store = new CardProfileStore(_dir);
+		store.save(createProfile());
+		ApplicationProfile app = store.load(
+				CardProfile.keyForCardUniqueIdentifier(CUID)).getApplication(
+				AID);
+		assertEquals(1, app.getLastAtc());
+		assertEquals(Arrays.asList(TX_RECORD), app.getTransactionLog());
+	}
+}